@@ -11,27 +11,45 @@ JAR="${JAR:-target/challenge-entry-0.1.0-SNAPSHOT.jar}"
 CLASS_PATH="${CLASS_PATH:-$JAR}"
 PASS_INPUT_ARG="${PASS_INPUT_ARG:-1}"
 PASS_WORKERS_ARG="${PASS_WORKERS_ARG:-1}"
+# COMMAND replaces "java $JAVA_OPTS -cp $CLASS_PATH $MAIN_CLASS", e.g. COMMAND=target/onebrc for the
+# native image (-Pnative); input and worker arguments are still appended.
+COMMAND="${COMMAND:-}"
+# PHASE_TIMINGS=1 records PRINT_PHASE_TIMINGS output per run (CalculateAverage_jeroen only)
+# and adds the worker finish gap to the summary.
+PHASE_TIMINGS="${PHASE_TIMINGS:-0}"
 
 # Default JVM opts for Unsafe access + EpsilonGC
 if [[ -z "${JAVA_OPTS:-}" ]]; then
   JAVA_OPTS="--add-opens java.base/sun.misc=ALL-UNNAMED --add-opens java.base/java.nio=ALL-UNNAMED -XX:+UnlockExperimentalVMOptions -XX:+UseEpsilonGC -Xms4g -Xmx4g -XX:-TieredCompilation -XX:-UseCountedLoopSafepoints"
 fi
+# Appended to the defaults, e.g. EXTRA_JAVA_OPTS=-Donebrc.schedule=steal
+JAVA_OPTS="$JAVA_OPTS ${EXTRA_JAVA_OPTS:-}"
 
 if [[ ! -f "$INPUT_FILE" ]]; then
   echo "Input file not found: $INPUT_FILE" >&2
   exit 1
 fi
 
-if [[ "$CLASS_PATH" == "$JAR" && ! -f "$JAR" ]]; then
+if [[ -z "$COMMAND" && "$CLASS_PATH" == "$JAR" && ! -f "$JAR" ]]; then
   ./mvnw -q -DskipTests package
 fi
 
 ts="$(date -u +%Y%m%dT%H%M%SZ)"
 out_dir="proofs/bench-$ts"
+# Sweeps over small inputs can start two runs within the same second.
+n=1
+while [[ -e "$out_dir" ]]; do
+  n=$((n + 1))
+  out_dir="proofs/bench-$ts-$n"
+done
 mkdir -p "$out_dir"
 
 read -r -a JAVA_OPTS_ARR <<< "${JAVA_OPTS:-}"
-cmd=(java "${JAVA_OPTS_ARR[@]}" -cp "$CLASS_PATH" "$MAIN_CLASS")
+if [[ -n "$COMMAND" ]]; then
+  read -r -a cmd <<< "$COMMAND"
+else
+  cmd=(java "${JAVA_OPTS_ARR[@]}" -cp "$CLASS_PATH" "$MAIN_CLASS")
+fi
 if [[ "$PASS_INPUT_ARG" == "1" ]]; then
   cmd+=("$INPUT_FILE")
 fi
@@ -46,7 +64,11 @@ done
 declare -a timings_ms
 for ((i=1; i<=RUNS; i++)); do
   start_ns="$(date +%s%N)"
-  "${cmd[@]}" > "$out_dir/run-$i.out"
+  if [[ "$PHASE_TIMINGS" == "1" ]]; then
+    PRINT_PHASE_TIMINGS=1 "${cmd[@]}" > "$out_dir/run-$i.out" 2> "$out_dir/run-$i.timings"
+  else
+    "${cmd[@]}" > "$out_dir/run-$i.out"
+  fi
   end_ns="$(date +%s%N)"
   elapsed_ms=$(( (end_ns - start_ns) / 1000000 ))
   timings_ms+=("$elapsed_ms")
@@ -90,6 +112,11 @@ median = statistics.median(values)
 best = min(values)
 p90_idx = max(0, int(len(values_sorted) * 0.9) - 1)
 p90 = values_sorted[p90_idx]
+finish_gaps = []
+for t in sorted(out_dir.glob("run-*.timings")):
+    for line in t.read_text().splitlines():
+        if line.startswith("run.finish_gap_ms="):
+            finish_gaps.append(float(line.split("=", 1)[1]))
 summary = {
     "schema_version": "1.0",
     "runs": runs,
@@ -110,6 +137,8 @@ summary = {
     "file_size_bytes": file_size_bytes,
     "station_count": station_count,
     "deterministic_output_sha256": output_sha,
+    "finish_gap_ms": finish_gaps,
+    "median_finish_gap_ms": statistics.median(finish_gaps) if finish_gaps else None,
     "host": {
         "platform": platform.platform(),
         "processor": platform.processor(),
@@ -0,0 +1,153 @@
+#!/usr/bin/env bash
+set -euo pipefail
+
+# Compares plain mmap against read-ahead ingestion (-Donebrc.io=readahead) with the input
+# evicted from the page cache before every run, and again with it cached: wall time, the
+# process phase and the bytes the read-ahead threads read, per mode.
+# Usage: scripts/benchmark_cold_cache.sh [measurements.txt]
+# IO_MODES="mmap readahead" selects the modes; READAHEAD_OPTS is added to readahead runs
+# (e.g. "-Donebrc.io.threads=8 -Donebrc.io.distance=256m").
+#
+# Eviction uses the first that works: /proc/sys/vm/drop_caches (root), vmtouch -e, or
+# GNU dd's iflag=nocache (POSIX_FADV_DONTNEED on the whole file). Without any of them the
+# "cold" runs are warm; summary.json says which method was used, and fincore's resident
+# size before each run is kept next to the timings where fincore exists.
+
+INPUT_FILE="${1:-measurements.txt}"
+RUNS="${RUNS:-5}"
+WARMUPS="${WARMUPS:-1}"
+WORKERS="${WORKERS:-$(nproc)}"
+IO_MODES="${IO_MODES:-mmap readahead}"
+READAHEAD_OPTS="${READAHEAD_OPTS:-}"
+MAIN_CLASS="dev.morling.onebrc.CalculateAverage_jeroen"
+JAR="target/challenge-entry-0.1.0-SNAPSHOT.jar"
+
+if [[ -z "${JAVA_OPTS:-}" ]]; then
+  JAVA_OPTS="--add-opens java.base/sun.misc=ALL-UNNAMED --add-opens java.base/java.nio=ALL-UNNAMED -XX:+UnlockExperimentalVMOptions -XX:+UseEpsilonGC -Xms4g -Xmx4g -XX:-TieredCompilation -XX:-UseCountedLoopSafepoints"
+fi
+read -r -a JAVA_OPTS_ARR <<< "$JAVA_OPTS"
+read -r -a READAHEAD_OPTS_ARR <<< "$READAHEAD_OPTS"
+
+if [[ ! -f "$INPUT_FILE" ]]; then
+  echo "Input file not found: $INPUT_FILE" >&2
+  exit 1
+fi
+
+evict_method="none"
+if [[ -w /proc/sys/vm/drop_caches ]] && (sync && echo 1 > /proc/sys/vm/drop_caches) 2>/dev/null; then
+  evict_method="drop_caches"
+elif command -v vmtouch > /dev/null && vmtouch -q -e "$INPUT_FILE" 2>/dev/null; then
+  evict_method="vmtouch"
+elif dd if="$INPUT_FILE" iflag=nocache count=0 status=none 2>/dev/null; then
+  evict_method="dd_nocache"
+else
+  echo "warning: cannot evict $INPUT_FILE from the page cache; cold runs will be warm" >&2
+fi
+
+evict() {
+  case "$evict_method" in
+    drop_caches) sync && echo 1 > /proc/sys/vm/drop_caches ;;
+    vmtouch) vmtouch -q -e "$INPUT_FILE" ;;
+    dd_nocache) dd if="$INPUT_FILE" iflag=nocache count=0 status=none ;;
+  esac
+}
+
+resident_bytes() {
+  if command -v fincore > /dev/null; then
+    fincore --bytes --noheadings --output RES "$INPUT_FILE" 2>/dev/null | tr -d ' ' || echo -1
+  else
+    echo -1
+  fi
+}
+
+./mvnw -q -DskipTests package
+
+ts="$(date -u +%Y%m%dT%H%M%SZ)"
+out_dir="proofs/cold-cache-$ts"
+mkdir -p "$out_dir"
+
+run_case() {
+  local mode="$1"
+  local -a extra=()
+  if [[ "$mode" == "readahead" ]]; then
+    extra=("${READAHEAD_OPTS_ARR[@]}")
+  fi
+  local -a cmd=(java "${JAVA_OPTS_ARR[@]}" "-Donebrc.io=$mode" "${extra[@]}" -cp "$JAR" "$MAIN_CLASS" "$INPUT_FILE" "$WORKERS")
+  local cache i
+  for cache in cold warm; do
+    for ((i=1; i<=WARMUPS; i++)); do
+      "${cmd[@]}" > "$out_dir/$mode-$cache-warmup-$i.out"
+    done
+    for ((i=1; i<=RUNS; i++)); do
+      if [[ "$cache" == "cold" ]]; then
+        evict
+      fi
+      resident_bytes >> "$out_dir/$mode-$cache-resident_bytes.txt"
+      local start_ns end_ns
+      start_ns="$(date +%s%N)"
+      PRINT_PHASE_TIMINGS=1 "${cmd[@]}" > "$out_dir/$mode-$cache-run-$i.out" 2> "$out_dir/$mode-$cache-run-$i.timings"
+      end_ns="$(date +%s%N)"
+      echo $(( (end_ns - start_ns) / 1000000 )) >> "$out_dir/$mode-$cache-timings_ms.txt"
+      sed -n 's/^phase.process_ms=//p' "$out_dir/$mode-$cache-run-$i.timings" >> "$out_dir/$mode-$cache-process_ms.txt"
+      sed -n 's/^run.read_ahead_bytes=//p' "$out_dir/$mode-$cache-run-$i.timings" >> "$out_dir/$mode-$cache-read_ahead_bytes.txt"
+    done
+  done
+}
+
+first_mode=""
+for mode in $IO_MODES; do
+  run_case "$mode"
+  if [[ -z "$first_mode" ]]; then
+    first_mode="$mode"
+  elif ! cmp -s "$out_dir/$first_mode-cold-run-1.out" "$out_dir/$mode-cold-run-1.out"; then
+    echo "io mode $mode output differs from $first_mode" >&2
+    exit 2
+  fi
+done
+
+python3 - <<'PY' "$out_dir" "$INPUT_FILE" "$(wc -c < "$INPUT_FILE")" "$WORKERS" "$evict_method" $IO_MODES
+import json
+import statistics
+import sys
+from pathlib import Path
+
+out_dir = Path(sys.argv[1])
+file_bytes = int(sys.argv[3])
+
+def numbers(name, cast):
+    return [cast(x) for x in (out_dir / name).read_text().split()]
+
+def load(mode, cache):
+    t = numbers(f"{mode}-{cache}-timings_ms.txt", int)
+    median = statistics.median(t)
+    return {
+        "timings_ms": t,
+        "best_ms": min(t),
+        "median_ms": median,
+        "mb_per_s": file_bytes / 1e6 / (median / 1000.0),
+        "process_ms_median": statistics.median(numbers(f"{mode}-{cache}-process_ms.txt", float)),
+        "read_ahead_bytes_median": statistics.median(numbers(f"{mode}-{cache}-read_ahead_bytes.txt", int)),
+        "resident_bytes_before": numbers(f"{mode}-{cache}-resident_bytes.txt", int),
+    }
+
+modes = sys.argv[6:]
+cases = [{"io": mode, "cold": load(mode, "cold"), "warm": load(mode, "warm")} for mode in modes]
+base = cases[0]
+for case in cases:
+    case["cold_penalty"] = case["cold"]["median_ms"] / case["warm"]["median_ms"]
+    if case is not base:
+        case["cold_speedup_vs_" + base["io"]] = base["cold"]["median_ms"] / case["cold"]["median_ms"]
+        case["warm_speedup_vs_" + base["io"]] = base["warm"]["median_ms"] / case["warm"]["median_ms"]
+summary = {
+    "schema_version": "1.0",
+    "input_file": sys.argv[2],
+    "file_bytes": file_bytes,
+    "workers": int(sys.argv[4]),
+    "evict_method": sys.argv[5],
+    "cases": cases,
+}
+(out_dir / "summary.json").write_text(json.dumps(summary, indent=2) + "\n")
+print(json.dumps(summary, indent=2))
+PY
+
+echo "cold cache benchmark artifacts: $out_dir"
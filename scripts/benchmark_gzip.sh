@@ -0,0 +1,103 @@
+#!/usr/bin/env bash
+set -euo pipefail
+
+# Compares the gzip input path against the uncompressed mmap path on the same data.
+# Uses bgzip (parallel BGZF path) when available, otherwise gzip (pipelined single inflater).
+# Usage: scripts/benchmark_gzip.sh [measurements.txt]
+
+INPUT_FILE="${1:-measurements.txt}"
+RUNS="${RUNS:-5}"
+WARMUPS="${WARMUPS:-1}"
+WORKERS="${WORKERS:-$(nproc)}"
+MAIN_CLASS="dev.morling.onebrc.CalculateAverage_jeroen"
+JAR="target/challenge-entry-0.1.0-SNAPSHOT.jar"
+
+if [[ -z "${JAVA_OPTS:-}" ]]; then
+  JAVA_OPTS="--add-opens java.base/sun.misc=ALL-UNNAMED --add-opens java.base/java.nio=ALL-UNNAMED -XX:+UnlockExperimentalVMOptions -XX:+UseEpsilonGC -Xms4g -Xmx4g -XX:-TieredCompilation -XX:-UseCountedLoopSafepoints"
+fi
+read -r -a JAVA_OPTS_ARR <<< "$JAVA_OPTS"
+
+if [[ ! -f "$INPUT_FILE" ]]; then
+  echo "Input file not found: $INPUT_FILE" >&2
+  exit 1
+fi
+
+./mvnw -q -DskipTests package
+
+ts="$(date -u +%Y%m%dT%H%M%SZ)"
+out_dir="proofs/gzip-$ts"
+mkdir -p "$out_dir"
+
+GZ_FILE="${GZ_FILE:-$INPUT_FILE.gz}"
+if [[ ! -f "$GZ_FILE" ]]; then
+  if command -v bgzip > /dev/null; then
+    bgzip -@ "$WORKERS" -c "$INPUT_FILE" > "$GZ_FILE"
+  else
+    gzip -c "$INPUT_FILE" > "$GZ_FILE"
+  fi
+fi
+
+run_case() {
+  local label="$1"
+  local file="$2"
+  local -a cmd=(java "${JAVA_OPTS_ARR[@]}" -cp "$JAR" "$MAIN_CLASS" "$file" "$WORKERS")
+  local i
+  for ((i=1; i<=WARMUPS; i++)); do
+    "${cmd[@]}" > "$out_dir/$label-warmup-$i.out"
+  done
+  for ((i=1; i<=RUNS; i++)); do
+    local start_ns end_ns
+    start_ns="$(date +%s%N)"
+    "${cmd[@]}" > "$out_dir/$label-run-$i.out"
+    end_ns="$(date +%s%N)"
+    echo $(( (end_ns - start_ns) / 1000000 )) >> "$out_dir/$label-timings_ms.txt"
+  done
+}
+
+run_case "plain" "$INPUT_FILE"
+run_case "gzip" "$GZ_FILE"
+
+if ! cmp -s "$out_dir/plain-run-1.out" "$out_dir/gzip-run-1.out"; then
+  echo "gzip output differs from plain output" >&2
+  exit 2
+fi
+
+python3 - <<'PY' "$out_dir" "$INPUT_FILE" "$GZ_FILE" "$(wc -c < "$INPUT_FILE")" "$(wc -c < "$GZ_FILE")" "$WORKERS"
+import json
+import statistics
+import sys
+from pathlib import Path
+
+out_dir = Path(sys.argv[1])
+plain_bytes = int(sys.argv[4])
+gz_bytes = int(sys.argv[5])
+
+def load(label):
+    t = [int(x) for x in (out_dir / f"{label}-timings_ms.txt").read_text().split()]
+    median = statistics.median(t)
+    return {
+        "timings_ms": t,
+        "best_ms": min(t),
+        "median_ms": median,
+        "uncompressed_mb_per_s": plain_bytes / 1e6 / (median / 1000.0),
+    }
+
+plain = load("plain")
+gz = load("gzip")
+summary = {
+    "schema_version": "1.0",
+    "input_file": sys.argv[2],
+    "gzip_file": sys.argv[3],
+    "workers": int(sys.argv[6]),
+    "uncompressed_bytes": plain_bytes,
+    "compressed_bytes": gz_bytes,
+    "compression_ratio": plain_bytes / gz_bytes,
+    "plain": plain,
+    "gzip": gz,
+    "gzip_vs_plain_slowdown": gz["median_ms"] / plain["median_ms"],
+}
+(out_dir / "summary.json").write_text(json.dumps(summary, indent=2) + "\n")
+print(json.dumps(summary, indent=2))
+PY
+
+echo "Gzip benchmark artifacts: $out_dir"
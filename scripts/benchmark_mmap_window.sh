@@ -0,0 +1,97 @@
+#!/usr/bin/env bash
+set -euo pipefail
+
+# Compares windowed mmap (-Donebrc.mmap.window) against mapping the whole file:
+# wall time and peak RSS (VmHWM, reported by PRINT_PHASE_TIMINGS) per window size.
+# Usage: scripts/benchmark_mmap_window.sh [measurements.txt]
+# WINDOWS="64m 256m" selects the window sizes; "0" (whole file) is always measured first.
+
+INPUT_FILE="${1:-measurements.txt}"
+RUNS="${RUNS:-5}"
+WARMUPS="${WARMUPS:-1}"
+WORKERS="${WORKERS:-$(nproc)}"
+WINDOWS="${WINDOWS:-64m 128m 256m}"
+MAIN_CLASS="dev.morling.onebrc.CalculateAverage_jeroen"
+JAR="target/challenge-entry-0.1.0-SNAPSHOT.jar"
+
+if [[ -z "${JAVA_OPTS:-}" ]]; then
+  JAVA_OPTS="--add-opens java.base/sun.misc=ALL-UNNAMED --add-opens java.base/java.nio=ALL-UNNAMED -XX:+UnlockExperimentalVMOptions -XX:+UseEpsilonGC -Xms4g -Xmx4g -XX:-TieredCompilation -XX:-UseCountedLoopSafepoints"
+fi
+read -r -a JAVA_OPTS_ARR <<< "$JAVA_OPTS"
+
+if [[ ! -f "$INPUT_FILE" ]]; then
+  echo "Input file not found: $INPUT_FILE" >&2
+  exit 1
+fi
+
+./mvnw -q -DskipTests package
+
+ts="$(date -u +%Y%m%dT%H%M%SZ)"
+out_dir="proofs/mmap-window-$ts"
+mkdir -p "$out_dir"
+
+run_case() {
+  local window="$1"
+  local -a cmd=(java "${JAVA_OPTS_ARR[@]}" "-Donebrc.mmap.window=$window" -cp "$JAR" "$MAIN_CLASS" "$INPUT_FILE" "$WORKERS")
+  local i
+  for ((i=1; i<=WARMUPS; i++)); do
+    "${cmd[@]}" > "$out_dir/$window-warmup-$i.out"
+  done
+  for ((i=1; i<=RUNS; i++)); do
+    local start_ns end_ns
+    start_ns="$(date +%s%N)"
+    PRINT_PHASE_TIMINGS=1 "${cmd[@]}" > "$out_dir/$window-run-$i.out" 2> "$out_dir/$window-run-$i.timings"
+    end_ns="$(date +%s%N)"
+    echo $(( (end_ns - start_ns) / 1000000 )) >> "$out_dir/$window-timings_ms.txt"
+    sed -n 's/^run.peak_rss_kb=//p' "$out_dir/$window-run-$i.timings" >> "$out_dir/$window-peak_rss_kb.txt"
+  done
+  if ! cmp -s "$out_dir/0-run-1.out" "$out_dir/$window-run-1.out"; then
+    echo "window $window output differs from whole-file mapping" >&2
+    exit 2
+  fi
+}
+
+run_case 0
+for window in $WINDOWS; do
+  run_case "$window"
+done
+
+python3 - <<'PY' "$out_dir" "$INPUT_FILE" "$(wc -c < "$INPUT_FILE")" "$WORKERS" 0 $WINDOWS
+import json
+import statistics
+import sys
+from pathlib import Path
+
+out_dir = Path(sys.argv[1])
+file_bytes = int(sys.argv[3])
+
+def load(window):
+    t = [int(x) for x in (out_dir / f"{window}-timings_ms.txt").read_text().split()]
+    rss = [int(x) for x in (out_dir / f"{window}-peak_rss_kb.txt").read_text().split()]
+    median = statistics.median(t)
+    return {
+        "window": window,
+        "timings_ms": t,
+        "best_ms": min(t),
+        "median_ms": median,
+        "mb_per_s": file_bytes / 1e6 / (median / 1000.0),
+        "peak_rss_kb_max": max(rss),
+    }
+
+cases = [load(w) for w in sys.argv[5:]]
+whole = cases[0]
+for case in cases[1:]:
+    case["slowdown_vs_whole"] = case["median_ms"] / whole["median_ms"]
+    case["rss_vs_whole"] = case["peak_rss_kb_max"] / whole["peak_rss_kb_max"]
+summary = {
+    "schema_version": "1.0",
+    "input_file": sys.argv[2],
+    "file_bytes": file_bytes,
+    "workers": int(sys.argv[4]),
+    "cases": cases,
+}
+(out_dir / "summary.json").write_text(json.dumps(summary, indent=2) + "\n")
+print(json.dumps(summary, indent=2))
+PY
+
+echo "mmap window benchmark artifacts: $out_dir"
@@ -0,0 +1,112 @@
+#!/usr/bin/env bash
+set -euo pipefail
+
+# Startup and teardown variants through scripts/benchmark.sh, one summary per variant:
+#   jit            the default JVM run
+#   detach         -Donebrc.exit=detach: a child process does the work and the parent exits on
+#                  its result, before unmapping and JVM shutdown (FastExit)
+#   aot, aot+detach        with AOT_CACHE (./mvnw -Paot -DskipTests package); a .jsa file is
+#                          used as a CDS archive (-XX:SharedArchiveFile) instead of -XX:AOTCache
+#   native, native+detach  with the NATIVE_IMAGE executable (./mvnw -Pnative -DskipTests package)
+# Variants whose cache or image is missing are skipped. A small input shows startup, a large
+# one the unmap at exit.
+# Usage: scripts/benchmark_startup.sh [measurements.txt]
+
+INPUT_FILE="${1:-measurements.txt}"
+RUNS="${RUNS:-10}"
+WARMUPS="${WARMUPS:-2}"
+WORKERS="${WORKERS:-$(nproc)}"
+TIME_TO_BEAT_MS="${TIME_TO_BEAT_MS:-1535}"
+AOT_CACHE="${AOT_CACHE:-target/onebrc.aot}"
+NATIVE_IMAGE="${NATIVE_IMAGE:-target/onebrc}"
+
+if [[ ! -f "$INPUT_FILE" ]]; then
+  echo "Input file not found: $INPUT_FILE" >&2
+  exit 1
+fi
+
+variants=("jit" "detach")
+aot_opt=""
+if [[ -f "$AOT_CACHE" ]]; then
+  if [[ "$AOT_CACHE" == *.jsa ]]; then
+    aot_opt="-XX:SharedArchiveFile=$AOT_CACHE"
+  else
+    aot_opt="-XX:AOTCache=$AOT_CACHE"
+  fi
+  variants+=("aot" "aot+detach")
+else
+  echo "no AOT cache at $AOT_CACHE; skipping aot variants" >&2
+fi
+if [[ -x "$NATIVE_IMAGE" ]]; then
+  variants+=("native" "native+detach")
+else
+  echo "no native image at $NATIVE_IMAGE; skipping native variants" >&2
+fi
+
+summary_paths=()
+for variant in "${variants[@]}"; do
+  echo "== startup variant: $variant =="
+  extra="${EXTRA_JAVA_OPTS:-}"
+  command=""
+  case "$variant" in
+    detach) extra="$extra -Donebrc.exit=detach" ;;
+    aot) extra="$extra $aot_opt" ;;
+    aot+detach) extra="$extra $aot_opt -Donebrc.exit=detach" ;;
+    native) command="$NATIVE_IMAGE" ;;
+    native+detach) command="$NATIVE_IMAGE -Donebrc.exit=detach" ;;
+  esac
+  out="$(RUNS="$RUNS" WARMUPS="$WARMUPS" WORKERS="$WORKERS" TIME_TO_BEAT_MS="$TIME_TO_BEAT_MS" \
+    EXTRA_JAVA_OPTS="$extra" COMMAND="$command" ./scripts/benchmark.sh "$INPUT_FILE")"
+  echo "$out"
+  dir="$(printf '%s\n' "$out" | awk -F': ' '/Benchmark artifacts:/ {print $2}' | tail -n1)"
+  if [[ -z "$dir" || ! -f "$dir/summary.json" ]]; then
+    echo "Failed to locate benchmark summary for variant $variant" >&2
+    exit 2
+  fi
+  # JVM warnings may share stdout with the result; compare the result line only.
+  if [[ ${#summary_paths[@]} -gt 0 ]]; then
+    first_dir="$(dirname "${summary_paths[0]#*=}")"
+    if ! cmp -s <(grep '^{' "$first_dir/run-1.out") <(grep '^{' "$dir/run-1.out"); then
+      echo "variant $variant output differs from jit" >&2
+      exit 2
+    fi
+  fi
+  summary_paths+=("$variant=$dir/summary.json")
+done
+
+ts="$(date -u +%Y%m%dT%H%M%SZ)"
+out_file="proofs/startup-$ts.json"
+
+python3 - <<'PY' "$out_file" "$INPUT_FILE" "${summary_paths[@]}"
+import json
+import sys
+from pathlib import Path
+
+out = Path(sys.argv[1])
+entries = []
+for arg in sys.argv[3:]:
+    variant, p = arg.split("=", 1)
+    data = json.loads(Path(p).read_text())
+    entries.append({
+        "variant": variant,
+        "workers": data["workers"],
+        "best_ms": data["best_ms"],
+        "median_ms": data["median_ms"],
+        "p90_ms": data["p90_ms"],
+        "delta_median_ms": data["delta_median_ms"],
+        "summary": p,
+    })
+base = entries[0]["median_ms"]
+for e in entries:
+    e["speedup_vs_jit"] = base / e["median_ms"]
+report = {
+    "schema_version": "1.0",
+    "input_file": sys.argv[2],
+    "variants": entries,
+}
+out.parent.mkdir(parents=True, exist_ok=True)
+out.write_text(json.dumps(report, indent=2) + "\n")
+print(json.dumps(report, indent=2))
+PY
+
+echo "startup benchmark report: $out_file"
@@ -6,6 +6,8 @@ RUNS="${RUNS:-5}"
 WARMUPS="${WARMUPS:-1}"
 MAX_WORKERS="${MAX_WORKERS:-$(nproc)}"
 TIME_TO_BEAT_MS="${TIME_TO_BEAT_MS:-1535}"
+# Chunk schedules to sweep (-Donebrc.schedule); the report compares their worker finish gap.
+SCHEDULES="${SCHEDULES:-fixed guided steal}"
 
 if [[ ! -f "$INPUT_FILE" ]]; then
   echo "Input file not found: $INPUT_FILE" >&2
@@ -28,16 +30,19 @@ if [[ " ${workers[*]} " != *" $MAX_WORKERS "* ]]; then
 fi
 
 summary_paths=()
-for wk in "${workers[@]}"; do
-  echo "== worker sweep: workers=$wk =="
-  out="$(RUNS="$RUNS" WARMUPS="$WARMUPS" WORKERS="$wk" TIME_TO_BEAT_MS="$TIME_TO_BEAT_MS" ./scripts/benchmark.sh "$INPUT_FILE")"
-  echo "$out"
-  dir="$(printf '%s\n' "$out" | awk -F': ' '/Benchmark artifacts:/ {print $2}' | tail -n1)"
-  if [[ -z "$dir" || ! -f "$dir/summary.json" ]]; then
-    echo "Failed to locate benchmark summary for workers=$wk" >&2
-    exit 2
-  fi
-  summary_paths+=("$dir/summary.json")
+for schedule in $SCHEDULES; do
+  for wk in "${workers[@]}"; do
+    echo "== worker sweep: schedule=$schedule workers=$wk =="
+    out="$(RUNS="$RUNS" WARMUPS="$WARMUPS" WORKERS="$wk" TIME_TO_BEAT_MS="$TIME_TO_BEAT_MS" PHASE_TIMINGS=1 \
+      EXTRA_JAVA_OPTS="${EXTRA_JAVA_OPTS:-} -Donebrc.schedule=$schedule" ./scripts/benchmark.sh "$INPUT_FILE")"
+    echo "$out"
+    dir="$(printf '%s\n' "$out" | awk -F': ' '/Benchmark artifacts:/ {print $2}' | tail -n1)"
+    if [[ -z "$dir" || ! -f "$dir/summary.json" ]]; then
+      echo "Failed to locate benchmark summary for schedule=$schedule workers=$wk" >&2
+      exit 2
+    fi
+    summary_paths+=("$schedule=$dir/summary.json")
+  done
 done
 
 ts="$(date -u +%Y%m%dT%H%M%SZ)"
@@ -50,9 +55,11 @@ from pathlib import Path
 
 out = Path(sys.argv[1])
 entries = []
-for p in sys.argv[2:]:
+for arg in sys.argv[2:]:
+    schedule, p = arg.split("=", 1)
     data = json.loads(Path(p).read_text())
     entries.append({
+        "schedule": schedule,
         "workers": data["workers"],
         "best_ms": data["best_ms"],
         "median_ms": data["median_ms"],
@@ -60,16 +67,24 @@ for p in sys.argv[2:]:
         "time_to_beat_ms": data["time_to_beat_ms"],
         "delta_median_ms": data["delta_median_ms"],
         "delta_median_percent": data["delta_median_percent"],
+        "median_finish_gap_ms": data.get("median_finish_gap_ms"),
         "summary_path": p,
     })
 
+# Time between the first and the last worker finishing, per worker count and schedule.
+finish_gap = {}
+for e in entries:
+    finish_gap.setdefault(str(e["workers"]), {})[e["schedule"]] = e["median_finish_gap_ms"]
+
 entries.sort(key=lambda e: (e["median_ms"], e["p90_ms"], e["workers"]))
 best = entries[0]
 
 result = {
-    "schema_version": "1.0",
+    "schema_version": "1.1",
     "recommended_workers": best["workers"],
+    "recommended_schedule": best["schedule"],
     "selection_rule": "min(median_ms), tie-break on p90_ms then workers",
+    "median_finish_gap_ms": finish_gap,
     "results": entries,
 }
 out.write_text(json.dumps(result, indent=2) + "\n")
@@ -50,15 +50,30 @@ output_sha="$(sha256sum "$output_file" | awk '{print $1}')"
 stdout_sha="$(sha256sum "$stdout_file" | awk '{print $1}')"
 stderr_sha="$(sha256sum "$stderr_file" | awk '{print $1}')"
 
+map_ms="$(grep -m1 '^phase.map_ms=' "$stderr_file" | cut -d= -f2 || true)"
 split_ms="$(grep -m1 '^phase.split_ms=' "$stderr_file" | cut -d= -f2 || true)"
+process_ms="$(grep -m1 '^phase.process_ms=' "$stderr_file" | cut -d= -f2 || true)"
+merge_ms="$(grep -m1 '^phase.merge_ms=' "$stderr_file" | cut -d= -f2 || true)"
 process_merge_ms="$(grep -m1 '^phase.process_merge_ms=' "$stderr_file" | cut -d= -f2 || true)"
 format_ms="$(grep -m1 '^phase.format_ms=' "$stderr_file" | cut -d= -f2 || true)"
 total_phase_ms="$(grep -m1 '^phase.total_ms=' "$stderr_file" | cut -d= -f2 || true)"
+map_ms="${map_ms:-0}"
 split_ms="${split_ms:-0}"
+process_ms="${process_ms:-0}"
+merge_ms="${merge_ms:-0}"
 process_merge_ms="${process_merge_ms:-0}"
 format_ms="${format_ms:-0}"
 total_phase_ms="${total_phase_ms:-0}"
 
+# Spread between the busiest and the least busy worker: how evenly chunks were stolen.
+worker_busy_spread_ms="$(python3 - <<'PY' "$stderr_file"
+import re
+import sys
+busy = [float(m.group(1)) for m in re.finditer(r'^worker\.\d+\.busy_ms=([0-9.]+)$', open(sys.argv[1]).read(), re.M)]
+print(f"{max(busy) - min(busy):.1f}" if busy else "0")
+PY
+)"
+
 git_commit="$(git rev-parse --verify HEAD 2>/dev/null || echo 'UNCOMMITTED')"
 git_dirty=false
 if [[ -n "$(git status --porcelain 2>/dev/null || true)" ]]; then
@@ -90,10 +105,14 @@ cat > "$manifest_file" <<JSON
   "command": "$cmd_string",
   "exit_code": $exit_code,
   "elapsed_ms": $elapsed_ms,
+  "phase_map_ms": $map_ms,
   "phase_split_ms": $split_ms,
+  "phase_process_ms": $process_ms,
+  "phase_merge_ms": $merge_ms,
   "phase_process_merge_ms": $process_merge_ms,
   "phase_format_ms": $format_ms,
   "phase_total_ms": $total_phase_ms,
+  "worker_busy_spread_ms": $worker_busy_spread_ms,
   "time_to_beat_ms": $TIME_TO_BEAT_MS,
   "delta_vs_time_to_beat_ms": $delta_ms,
   "delta_vs_time_to_beat_percent": $delta_pct,
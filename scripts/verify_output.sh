@@ -1,8 +1,10 @@
 #!/usr/bin/env bash
 set -euo pipefail
 
+# EXTRA_ARGS are passed to the program, e.g. EXTRA_ARGS="--processes=4" checks a sharded run.
 INPUT_FILE="${1:-measurements.txt}"
 WORKERS="${WORKERS:-$(nproc)}"
+read -r -a EXTRA_ARGS_ARR <<< "${EXTRA_ARGS:-}"
 MAIN_CLASS="dev.morling.onebrc.CalculateAverage_jeroen"
 JAR="target/challenge-entry-0.1.0-SNAPSHOT.jar"
 
@@ -22,7 +24,7 @@ read -r -a JAVA_OPTS_ARR <<< "$JAVA_OPTS"
 tmp_dir="$(mktemp -d)"
 trap 'rm -rf "$tmp_dir"' EXIT
 
-java "${JAVA_OPTS_ARR[@]}" -cp "$JAR" "$MAIN_CLASS" "$INPUT_FILE" "$WORKERS" > "$tmp_dir/actual.txt"
+java "${JAVA_OPTS_ARR[@]}" -cp "$JAR" "$MAIN_CLASS" ${EXTRA_ARGS_ARR[@]+"${EXTRA_ARGS_ARR[@]}"} "$INPUT_FILE" "$WORKERS" > "$tmp_dir/actual.txt"
 ./scripts/reference_calculate.py "$INPUT_FILE" > "$tmp_dir/expected.txt"
 
 if ! diff -u "$tmp_dir/expected.txt" "$tmp_dir/actual.txt" >/dev/null; then
@@ -0,0 +1,150 @@
+package dev.morling.onebrc;
+
+import java.lang.foreign.Arena;
+import java.lang.foreign.MemorySegment;
+import java.lang.foreign.ValueLayout;
+import java.nio.charset.StandardCharsets;
+import java.util.SplittableRandom;
+
+// Synthetic in-memory inputs for the microbenchmarks. Everything is seeded so runs are comparable.
+public final class BenchmarkData {
+
+    // Name length classes matching the StationTable paths: first word only, inline slot, spill past the slot
+    // (keys[idx], or the off-heap arena of a LONG table).
+    public enum NameLength {
+        SHORT(3, 8),
+        MEDIUM(9, 32),
+        LONG(33, 100);
+
+        final int min;
+        final int max;
+
+        NameLength(int min, int max) {
+            this.min = min;
+            this.max = max;
+        }
+    }
+
+    static final long SEED = 0x1BCL;
+
+    private BenchmarkData() {
+    }
+
+    // Unique names: a base-36 index keeps them distinct, random letters pad to the target length.
+    static byte[][] stationNames(int count, NameLength length) {
+        SplittableRandom random = new SplittableRandom(SEED);
+        byte[][] names = new byte[count][];
+        for (int i = 0; i < count; i++) {
+            StringBuilder sb = new StringBuilder(Integer.toString(i, 36));
+            int target = length.min + random.nextInt(length.max - length.min + 1);
+            while (sb.length() < target) {
+                sb.append((char) ('a' + random.nextInt(26)));
+            }
+            names[i] = sb.toString().getBytes(StandardCharsets.UTF_8);
+        }
+        return names;
+    }
+
+    // Names of two 8-byte words x and x ^ 0x1010101010101010: the XOR-folded scan hash is the same
+    // for all of them, the worst case for a table indexed by it. Letters a-p, then q-z, {|}~ and '`'.
+    static byte[][] collidingNames(int count) {
+        byte[][] names = new byte[count][];
+        for (int i = 0; i < count; i++) {
+            byte[] name = new byte[16];
+            for (int b = 0; b < 8; b++) {
+                name[b] = (byte) ('a' + ((i >>> (b * 4)) & 15));
+                name[b + 8] = (byte) (name[b] ^ 0x10);
+            }
+            names[i] = name;
+        }
+        return names;
+    }
+
+    // Same word-XOR hash processChunk computes while scanning for the semicolon.
+    static int hash(byte[] name) {
+        return CalculateAverage_jeroen.hashName(name, name.length);
+    }
+
+    static int[] temperatures(int count) {
+        SplittableRandom random = new SplittableRandom(SEED + 1);
+        int[] temps = new int[count];
+        for (int i = 0; i < count; i++) {
+            temps[i] = random.nextInt(-999, 1000);
+        }
+        return temps;
+    }
+
+    // Lines in the challenge format until at least minBytes are written; ends on a line boundary.
+    static byte[] measurements(byte[][] names, int minBytes) {
+        SplittableRandom random = new SplittableRandom(SEED + 2);
+        StringBuilder sb = new StringBuilder(minBytes + 128);
+        while (sb.length() < minBytes) {
+            byte[] name = names[random.nextInt(names.length)];
+            int t = random.nextInt(-999, 1000);
+            int abs = Math.abs(t);
+            sb.append(new String(name, StandardCharsets.UTF_8)).append(';');
+            if (t < 0) {
+                sb.append('-');
+            }
+            sb.append(abs / 10).append('.').append(abs % 10).append('\n');
+        }
+        return sb.toString().getBytes(StandardCharsets.UTF_8);
+    }
+
+    // Lines as real feeds have them: CRLF line ends and, when mixed, values with two or no
+    // decimals and one malformed line in 100 (missing separator, empty name or a bad value).
+    static byte[] dirtyMeasurements(byte[][] names, int minBytes, boolean mixed) {
+        SplittableRandom random = new SplittableRandom(SEED + 3);
+        String[] malformed = { "no separator here", ";12.5", "Hamburg;", "Hamburg;1x.5", "Hamburg;12.5;extra" };
+        StringBuilder sb = new StringBuilder(minBytes + 128);
+        while (sb.length() < minBytes) {
+            int kind = mixed ? random.nextInt(100) : 50;
+            if (kind == 0) {
+                sb.append(malformed[random.nextInt(malformed.length)]).append("\r\n");
+                continue;
+            }
+            byte[] name = names[random.nextInt(names.length)];
+            int t = random.nextInt(-9999, 10000);
+            int abs = Math.abs(t);
+            sb.append(new String(name, StandardCharsets.UTF_8)).append(';');
+            if (t < 0) {
+                sb.append('-');
+            }
+            sb.append(abs / 100);
+            if (kind < 20) {
+                sb.append('.').append(abs / 10 % 10).append(abs % 10);
+            }
+            else if (kind >= 30) {
+                sb.append('.').append(abs / 10 % 10);
+            }
+            sb.append("\r\n");
+        }
+        return sb.toString().getBytes(StandardCharsets.UTF_8);
+    }
+
+    // A telemetry export for RecordFormat.of(',', 1, 3, 2): timestamp, name, region, a value with
+    // two decimals and a status code, until at least minBytes are written.
+    static byte[] telemetryCsv(byte[][] names, int minBytes) {
+        SplittableRandom random = new SplittableRandom(SEED + 4);
+        StringBuilder sb = new StringBuilder(minBytes + 128);
+        long timestamp = 1_700_000_000_000L;
+        while (sb.length() < minBytes) {
+            byte[] name = names[random.nextInt(names.length)];
+            int v = random.nextInt(-9999, 100_000);
+            int abs = Math.abs(v);
+            sb.append(timestamp++).append(',').append(new String(name, StandardCharsets.UTF_8)).append(",eu-").append(v & 3).append(',');
+            if (v < 0) {
+                sb.append('-');
+            }
+            sb.append(abs / 100).append('.').append(abs / 10 % 10).append(abs % 10).append(",200\n");
+        }
+        return sb.toString().getBytes(StandardCharsets.UTF_8);
+    }
+
+    // Copies bytes to a 64-byte aligned off-heap segment with zeroed slack for over-reads.
+    static MemorySegment offHeap(Arena arena, byte[] data) {
+        MemorySegment segment = arena.allocate(data.length + 128L, 64);
+        MemorySegment.copy(data, 0, segment, ValueLayout.JAVA_BYTE, 0, data.length);
+        return segment;
+    }
+}
@@ -0,0 +1,64 @@
+package dev.morling.onebrc;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+// Per-call latency on small files: static calculate (threads and tables per call) vs a reused AggregationEngine.
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = { "--add-opens", "java.base/sun.misc=ALL-UNNAMED", "-XX:-TieredCompilation" })
+public class EngineLatencyBenchmark {
+
+    @Param({ "4096", "65536", "1048576" })
+    public int fileBytes;
+
+    @Param({ "4" })
+    public int workers;
+
+    private Path file;
+    private AggregationEngine engine;
+
+    @Setup(Level.Trial)
+    public void setup() throws IOException {
+        file = Files.createTempFile("1brc-engine-bench", ".txt");
+        Files.write(file, BenchmarkData.measurements(
+                BenchmarkData.stationNames(413, BenchmarkData.NameLength.MEDIUM), fileBytes));
+        engine = new AggregationEngine(workers);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws IOException {
+        engine.close();
+        Files.deleteIfExists(file);
+    }
+
+    @Benchmark
+    public Map<String, CalculateAverage_jeroen.Stats> staticCalculate() throws Exception {
+        return CalculateAverage_jeroen.calculate(file, workers);
+    }
+
+    @Benchmark
+    public Map<String, CalculateAverage_jeroen.Stats> engineCalculate() throws Exception {
+        return engine.calculate(file);
+    }
+}
@@ -0,0 +1,90 @@
+package dev.morling.onebrc;
+
+import java.lang.foreign.Arena;
+import java.lang.foreign.MemorySegment;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.AuxCounters;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+// One CHUNK_SIZE chunk through the scan loop with a pushed-down filter; "bytes" reads as bytes/ns.
+// NONE is the unfiltered SWAR loop. STATIONS_n keeps n% of the stations (so about n% of the rows),
+// RANGE_n keeps the coldest n% of the (uniform) readings.
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = { "--add-opens", "java.base/sun.misc=ALL-UNNAMED", "-XX:-TieredCompilation",
+        "-XX:-UseCountedLoopSafepoints" })
+public class FilterBenchmark {
+
+    @Param({ "413", "10000" })
+    public int stations;
+
+    @Param({ "NONE", "STATIONS_1", "STATIONS_10", "STATIONS_100", "RANGE_1", "RANGE_10", "RANGE_100" })
+    public String filter;
+
+    private Arena arena;
+    private StationTable table;
+    private MemorySegment segment;
+    private long start;
+    private long end;
+
+    @State(Scope.Thread)
+    @AuxCounters(AuxCounters.Type.OPERATIONS)
+    public static class Bytes {
+        public long bytes;
+    }
+
+    @Setup(Level.Trial)
+    public void setup() {
+        arena = Arena.ofConfined();
+        byte[][] names = BenchmarkData.stationNames(stations, BenchmarkData.NameLength.MEDIUM);
+        byte[] data = BenchmarkData.measurements(names, CalculateAverage_jeroen.CHUNK_SIZE);
+        segment = BenchmarkData.offHeap(arena, data);
+        start = segment.address();
+        end = start + data.length;
+        table = new StationTable();
+        if (!filter.equals("NONE")) {
+            int percent = Integer.parseInt(filter.substring(filter.indexOf('_') + 1));
+            if (filter.startsWith("STATIONS")) {
+                List<String> selected = new ArrayList<>();
+                for (int i = 0; i < Math.max(1, names.length * percent / 100); i++) {
+                    selected.add(new String(names[i], StandardCharsets.UTF_8));
+                }
+                table.setFilter(StationFilter.stations(selected));
+            }
+            else {
+                table.setFilter(StationFilter.all().withTemperatureRange(-99.9, -99.9 + 199.8 * percent / 100));
+            }
+        }
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        table.free();
+        arena.close();
+    }
+
+    @Benchmark
+    public void processChunk(Bytes counter) {
+        CalculateAverage_jeroen.processChunk(segment, start, end, table);
+        counter.bytes += end - start;
+    }
+}
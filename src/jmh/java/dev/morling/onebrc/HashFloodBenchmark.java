@@ -0,0 +1,81 @@
+package dev.morling.onebrc;
+
+import java.lang.foreign.Arena;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.AuxCounters;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+// One CHUNK_SIZE chunk through the SWAR loop with each StationTable.HashMode; "bytes" reads as
+// bytes/ns. NORMAL is the 413-station set, FLOOD 2,000 names that share one scan hash
+// (BenchmarkData.collidingNames), so FAST probes the whole chain on every row while AUTO re-seeds
+// on the first long insert and SEEDED never builds the chain.
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = { "--add-opens", "java.base/sun.misc=ALL-UNNAMED", "-XX:-TieredCompilation",
+        "-XX:-UseCountedLoopSafepoints" })
+public class HashFloodBenchmark {
+
+    public enum Input {
+        NORMAL,
+        FLOOD
+    }
+
+    @Param({ "NORMAL", "FLOOD" })
+    public Input input;
+
+    @Param({ "FAST", "AUTO", "SEEDED" })
+    public String hash;
+
+    private Arena arena;
+    private StationTable stationTable;
+    private long start;
+    private long end;
+
+    @State(Scope.Thread)
+    @AuxCounters(AuxCounters.Type.OPERATIONS)
+    public static class Bytes {
+        public long bytes;
+    }
+
+    @Setup(Level.Trial)
+    public void setup() {
+        arena = Arena.ofConfined();
+        byte[][] names = input == Input.NORMAL
+                ? BenchmarkData.stationNames(413, BenchmarkData.NameLength.MEDIUM)
+                : BenchmarkData.collidingNames(2_000);
+        byte[] data = BenchmarkData.measurements(names, CalculateAverage_jeroen.CHUNK_SIZE);
+        start = BenchmarkData.offHeap(arena, data).address();
+        end = start + data.length;
+        stationTable = new StationTable();
+        stationTable.setMode(StationTable.chooseMode(start, end));
+        stationTable.setHashMode(StationTable.HashMode.valueOf(hash));
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        stationTable.free();
+        arena.close();
+    }
+
+    @Benchmark
+    public void processChunk(Bytes counter) {
+        CalculateAverage_jeroen.processChunkSwar(start, end, stationTable);
+        counter.bytes += end - start;
+    }
+}
@@ -0,0 +1,92 @@
+package dev.morling.onebrc;
+
+import java.lang.foreign.Arena;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.AuxCounters;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+// One CHUNK_SIZE chunk through the scan loop; "bytes" reads as bytes/ns. PLAIN is the SWAR loop
+// into a probing StationTable, INDEXED the same loop into an IndexedTable preloaded from a
+// StationIndex of the chunk (one slot per row, no insert path).
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = { "--add-opens", "java.base/sun.misc=ALL-UNNAMED", "-XX:-TieredCompilation",
+        "-XX:-UseCountedLoopSafepoints" })
+public class IndexBenchmark {
+
+    @Param({ "413", "10000" })
+    public int stations;
+
+    @Param({ "SHORT", "MEDIUM", "LONG" })
+    public BenchmarkData.NameLength nameLength;
+
+    @Param({ "PLAIN", "INDEXED" })
+    public String table;
+
+    private Arena arena;
+    private StationTable plain;
+    private IndexedTable indexed;
+    private long start;
+    private long end;
+
+    @State(Scope.Thread)
+    @AuxCounters(AuxCounters.Type.OPERATIONS)
+    public static class Bytes {
+        public long bytes;
+    }
+
+    @Setup(Level.Trial)
+    public void setup() throws Exception {
+        arena = Arena.ofConfined();
+        byte[] data = BenchmarkData.measurements(BenchmarkData.stationNames(stations, nameLength), CalculateAverage_jeroen.CHUNK_SIZE);
+        start = BenchmarkData.offHeap(arena, data).address();
+        end = start + data.length;
+        plain = new StationTable();
+        if (table.equals("INDEXED")) {
+            Path file = Files.createTempFile("1brc-index", ".txt");
+            Files.write(file, data);
+            try (AggregationEngine engine = new AggregationEngine(1)) {
+                indexed = new IndexedTable(StationIndex.build(engine, file), plain);
+            }
+            Files.delete(file);
+        }
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        if (indexed != null) {
+            indexed.free();
+        }
+        plain.free();
+        arena.close();
+    }
+
+    @Benchmark
+    public void processChunk(Bytes counter) {
+        if (indexed != null) {
+            CalculateAverage_jeroen.processChunkIndexed(start, end, indexed);
+        }
+        else {
+            CalculateAverage_jeroen.processChunkSwar(start, end, plain);
+        }
+        counter.bytes += end - start;
+    }
+}
@@ -0,0 +1,82 @@
+package dev.morling.onebrc;
+
+import java.lang.foreign.Arena;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.AuxCounters;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+// One CHUNK_SIZE chunk through the strict SWAR loop or LenientScanner; "bytes" reads as
+// bytes/ns. STRICT_CLEAN vs LENIENT_CLEAN is the cost of validation on clean input, CRLF has
+// Windows line ends, MIXED adds two- and no-decimal values and 1% malformed lines
+// (BenchmarkData.dirtyMeasurements), which only the lenient scanner can read.
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = { "--add-opens", "java.base/sun.misc=ALL-UNNAMED", "-XX:-TieredCompilation",
+        "-XX:-UseCountedLoopSafepoints" })
+public class LenientParseBenchmark {
+
+    @Param({ "413", "10000" })
+    public int stations;
+
+    @Param({ "STRICT_CLEAN", "LENIENT_CLEAN", "LENIENT_CRLF", "LENIENT_MIXED" })
+    public String run;
+
+    private Arena arena;
+    private StationTable table;
+    private boolean strict;
+    private long start;
+    private long end;
+
+    @State(Scope.Thread)
+    @AuxCounters(AuxCounters.Type.OPERATIONS)
+    public static class Bytes {
+        public long bytes;
+    }
+
+    @Setup(Level.Trial)
+    public void setup() {
+        arena = Arena.ofConfined();
+        byte[][] names = BenchmarkData.stationNames(stations, BenchmarkData.NameLength.MEDIUM);
+        byte[] data = run.endsWith("CLEAN")
+                ? BenchmarkData.measurements(names, CalculateAverage_jeroen.CHUNK_SIZE)
+                : BenchmarkData.dirtyMeasurements(names, CalculateAverage_jeroen.CHUNK_SIZE, run.endsWith("MIXED"));
+        start = BenchmarkData.offHeap(arena, data).address();
+        end = start + data.length;
+        strict = run.startsWith("STRICT");
+        table = new StationTable();
+        table.setMode(StationTable.chooseMode(start, end));
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        table.free();
+        arena.close();
+    }
+
+    @Benchmark
+    public void processChunk(Bytes counter) {
+        if (strict) {
+            CalculateAverage_jeroen.processChunkSwar(start, end, table);
+        }
+        else {
+            LenientScanner.processChunk(start, end, table);
+        }
+        counter.bytes += end - start;
+    }
+}
@@ -0,0 +1,99 @@
+package dev.morling.onebrc;
+
+import java.lang.foreign.Arena;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+// Merge phase only: `workers` tables that each saw every name, merged serially or by hash partition.
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 5)
+@Measurement(iterations = 10)
+@Fork(value = 1, jvmArgsAppend = { "--add-opens", "java.base/sun.misc=ALL-UNNAMED", "-XX:-TieredCompilation" })
+public class MergeBenchmark {
+
+    @Param({ "413", "10000", "100000", "1000000" })
+    public int stations;
+
+    @Param({ "8" })
+    public int workers;
+
+    // TableMerger.Mode name; the enum is package-private and JMH generates code in a subpackage.
+    @Param({ "SERIAL", "PARTITIONED" })
+    public String merge;
+
+    private TableMerger.Mode mode;
+    private Arena arena;
+    private AggregationEngine engine;
+    private long[] nameAddrs;
+    private int[] nameLens;
+    private int[] hashes;
+    private StationTable[] tables;
+    private StationTable merged;
+
+    @Setup(Level.Trial)
+    public void setup() {
+        arena = Arena.ofConfined();
+        byte[][] names = BenchmarkData.stationNames(stations, BenchmarkData.NameLength.MEDIUM);
+        StringBuilder sb = new StringBuilder();
+        for (byte[] name : names) {
+            sb.append(new String(name, StandardCharsets.UTF_8)).append(';');
+        }
+        long base = BenchmarkData.offHeap(arena, sb.toString().getBytes(StandardCharsets.UTF_8)).address();
+        nameAddrs = new long[names.length];
+        nameLens = new int[names.length];
+        hashes = new int[names.length];
+        long offset = 0;
+        for (int i = 0; i < names.length; i++) {
+            nameAddrs[i] = base + offset;
+            nameLens[i] = names[i].length;
+            hashes[i] = BenchmarkData.hash(names[i]);
+            offset += names[i].length + 1;
+        }
+        engine = new AggregationEngine(workers);
+        mode = TableMerger.Mode.valueOf(merge);
+    }
+
+    @Setup(Level.Invocation)
+    public void fillTables() {
+        tables = new StationTable[workers];
+        for (int t = 0; t < workers; t++) {
+            tables[t] = engine.acquireTable();
+            for (int i = 0; i < nameAddrs.length; i++) {
+                tables[t].accumulate(nameAddrs[i], nameLens[i], hashes[i], (i + t) % 1000);
+            }
+        }
+    }
+
+    @TearDown(Level.Invocation)
+    public void releaseMerged() {
+        engine.releaseTable(merged);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        engine.close();
+        arena.close();
+    }
+
+    @Benchmark
+    public StationTable mergeTables() throws Exception {
+        merged = TableMerger.merge(engine, tables, mode);
+        return merged;
+    }
+}
@@ -0,0 +1,75 @@
+package dev.morling.onebrc;
+
+import java.lang.foreign.Arena;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.AuxCounters;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+// One CHUNK_SIZE chunk through the SWAR loop with each StationTable.Mode compare path; "bytes"
+// reads as bytes/ns. AUTO is what a worker picks from the chunk (StationTable.chooseMode).
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = { "--add-opens", "java.base/sun.misc=ALL-UNNAMED", "-XX:-TieredCompilation",
+        "-XX:-UseCountedLoopSafepoints" })
+public class NameLengthBenchmark {
+
+    @Param({ "413", "10000" })
+    public int stations;
+
+    @Param({ "SHORT", "MEDIUM", "LONG" })
+    public BenchmarkData.NameLength nameLength;
+
+    @Param({ "GENERAL", "SHORT", "LONG", "AUTO" })
+    public String table;
+
+    private Arena arena;
+    private StationTable stationTable;
+    private long start;
+    private long end;
+
+    @State(Scope.Thread)
+    @AuxCounters(AuxCounters.Type.OPERATIONS)
+    public static class Bytes {
+        public long bytes;
+    }
+
+    @Setup(Level.Trial)
+    public void setup() {
+        arena = Arena.ofConfined();
+        byte[] data = BenchmarkData.measurements(
+                BenchmarkData.stationNames(stations, nameLength), CalculateAverage_jeroen.CHUNK_SIZE);
+        start = BenchmarkData.offHeap(arena, data).address();
+        end = start + data.length;
+        stationTable = new StationTable();
+        StationTable.Mode mode = StationTable.Mode.valueOf(table);
+        stationTable.setMode(mode == StationTable.Mode.AUTO ? StationTable.chooseMode(start, end) : mode);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        stationTable.free();
+        arena.close();
+    }
+
+    @Benchmark
+    public void processChunk(Bytes counter) {
+        CalculateAverage_jeroen.processChunkSwar(start, end, stationTable);
+        counter.bytes += end - start;
+    }
+}
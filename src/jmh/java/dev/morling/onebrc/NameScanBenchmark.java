@@ -0,0 +1,93 @@
+package dev.morling.onebrc;
+
+import static dev.morling.onebrc.CalculateAverage_jeroen.UNSAFE;
+
+import java.lang.foreign.Arena;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+// Semicolon search (hasByte) plus name hashing (mixHash/finalMix), as in the processChunk inner loop.
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 1, jvmArgsAppend = { "--add-opens", "java.base/sun.misc=ALL-UNNAMED", "-XX:-TieredCompilation" })
+public class NameScanBenchmark {
+
+    static final int ROWS = 8192;
+
+    @Param({ "413", "10000" })
+    public int stations;
+
+    @Param({ "SHORT", "MEDIUM", "LONG" })
+    public BenchmarkData.NameLength nameLength;
+
+    private Arena arena;
+    private long[] nameAddrs;
+
+    @Setup(Level.Trial)
+    public void setup() {
+        arena = Arena.ofConfined();
+        byte[][] names = BenchmarkData.stationNames(stations, nameLength);
+        // One buffer of at least ROWS lines; record where each name starts.
+        byte[] data = BenchmarkData.measurements(names, ROWS * (nameLength.max + 8));
+        long base = BenchmarkData.offHeap(arena, data).address();
+        nameAddrs = new long[ROWS];
+        int row = 0;
+        int lineStart = 0;
+        for (int i = 0; i < data.length && row < ROWS; i++) {
+            if (data[i] == '\n') {
+                nameAddrs[row++] = base + lineStart;
+                lineStart = i + 1;
+            }
+        }
+        if (row < ROWS) {
+            throw new IllegalStateException("not enough rows: " + row);
+        }
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        arena.close();
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(ROWS)
+    public long scanAndHash() {
+        long acc = 0;
+        for (int r = 0; r < ROWS; r++) {
+            long addr = nameAddrs[r];
+            long hash = 0;
+            long word;
+            long semi;
+            while (true) {
+                word = UNSAFE.getLong(addr);
+                semi = CalculateAverage_jeroen.hasByte(word, CalculateAverage_jeroen.SEMICOLON_PATTERN);
+                if (semi != 0) {
+                    break;
+                }
+                hash = CalculateAverage_jeroen.mixHash(hash, word);
+                addr += 8;
+            }
+            int semiPos = Long.numberOfTrailingZeros(semi) >>> 3;
+            hash = CalculateAverage_jeroen.mixHash(hash, word & ((1L << (semiPos << 3)) - 1));
+            acc += CalculateAverage_jeroen.finalMix(hash) + semiPos;
+        }
+        return acc;
+    }
+}
@@ -0,0 +1,79 @@
+package dev.morling.onebrc;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.lang.foreign.Arena;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.WritableByteChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+// Result output only: merged table -> bytes on a (discarding) channel, via the Map API or ResultWriter.
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = { "--add-opens", "java.base/sun.misc=ALL-UNNAMED" })
+public class OutputBenchmark {
+
+    @Param({ "413", "10000", "100000", "1000000" })
+    public int stations;
+
+    private Arena arena;
+    private StationTable table;
+    private ResultWriter writer;
+    private WritableByteChannel sink;
+
+    @Setup(Level.Trial)
+    public void setup() {
+        arena = Arena.ofConfined();
+        byte[][] names = BenchmarkData.stationNames(stations, BenchmarkData.NameLength.MEDIUM);
+        StringBuilder sb = new StringBuilder();
+        for (byte[] name : names) {
+            sb.append(new String(name, StandardCharsets.UTF_8)).append(';');
+        }
+        long base = BenchmarkData.offHeap(arena, sb.toString().getBytes(StandardCharsets.UTF_8)).address();
+        table = new StationTable();
+        long offset = 0;
+        for (int i = 0; i < names.length; i++) {
+            table.accumulate(base + offset, names[i].length, BenchmarkData.hash(names[i]), i % 1999 - 999);
+            table.accumulate(base + offset, names[i].length, BenchmarkData.hash(names[i]), i % 997);
+            offset += names[i].length + 1;
+        }
+        writer = new ResultWriter();
+        sink = Channels.newChannel(OutputStream.nullOutputStream());
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        table.free();
+        arena.close();
+    }
+
+    @Benchmark
+    public void stringFormat() throws IOException {
+        String output = CalculateAverage_jeroen.format(CalculateAverage_jeroen.toStatsMap(table)) + "\n";
+        sink.write(ByteBuffer.wrap(output.getBytes(StandardCharsets.UTF_8)));
+    }
+
+    @Benchmark
+    public void resultWriter() throws IOException {
+        writer.writeTo(sink, writer.format(table));
+    }
+}
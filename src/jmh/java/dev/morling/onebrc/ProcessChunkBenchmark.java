@@ -0,0 +1,85 @@
+package dev.morling.onebrc;
+
+import java.lang.foreign.Arena;
+import java.lang.foreign.MemorySegment;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.AuxCounters;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+// One CHUNK_SIZE chunk through the SWAR or Vector API scanner on a single thread; the "bytes"
+// counter reads as bytes/ns.
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = { "--add-opens", "java.base/sun.misc=ALL-UNNAMED", "--add-modules",
+        "jdk.incubator.vector", "-XX:-TieredCompilation", "-XX:-UseCountedLoopSafepoints" })
+public class ProcessChunkBenchmark {
+
+    @Param({ "413", "10000" })
+    public int stations;
+
+    @Param({ "SHORT", "MEDIUM", "LONG" })
+    public BenchmarkData.NameLength nameLength;
+
+    @Param({ "swar", "vector" })
+    public String scanner;
+
+    // StationHistograms.Mode name: plain min/max/sum/count, or per-station histograms as well.
+    @Param({ "PLAIN", "EXTENDED" })
+    public String stats;
+
+    private Arena arena;
+    private StationTable table;
+    private MemorySegment segment;
+    private long start;
+    private long end;
+
+    @State(Scope.Thread)
+    @AuxCounters(AuxCounters.Type.OPERATIONS)
+    public static class Bytes {
+        public long bytes;
+    }
+
+    @Setup(Level.Trial)
+    public void setup() {
+        arena = Arena.ofConfined();
+        byte[] data = BenchmarkData.measurements(
+                BenchmarkData.stationNames(stations, nameLength), CalculateAverage_jeroen.CHUNK_SIZE);
+        segment = BenchmarkData.offHeap(arena, data);
+        start = segment.address();
+        end = start + data.length;
+        table = new StationTable(StationTable.INITIAL_CAPACITY, StationHistograms.Mode.valueOf(stats) == StationHistograms.Mode.EXTENDED);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        table.free();
+        arena.close();
+    }
+
+    @Benchmark
+    public void processChunk(Bytes counter) {
+        if (scanner.equals("vector")) {
+            VectorScanner.processChunk(segment, start, end, table);
+        }
+        else {
+            CalculateAverage_jeroen.processChunkSwar(start, end, table);
+        }
+        counter.bytes += end - start;
+    }
+}
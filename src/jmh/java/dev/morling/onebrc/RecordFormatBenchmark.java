@@ -0,0 +1,86 @@
+package dev.morling.onebrc;
+
+import java.lang.foreign.Arena;
+import java.lang.foreign.MemorySegment;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.AuxCounters;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+// One CHUNK_SIZE chunk through processChunk; "bytes" reads as bytes/ns. ONEBRC is the
+// specialized loop on challenge rows, COMMA the same rows with ',' read by DelimitedScanner,
+// and CSV a five-column export grouped by column 1 with two-decimal values in column 3
+// (BenchmarkData.telemetryCsv).
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = { "--add-opens", "java.base/sun.misc=ALL-UNNAMED", "-XX:-TieredCompilation",
+        "-XX:-UseCountedLoopSafepoints" })
+public class RecordFormatBenchmark {
+
+    @Param({ "413", "10000" })
+    public int stations;
+
+    @Param({ "ONEBRC", "COMMA", "CSV" })
+    public String format;
+
+    private Arena arena;
+    private StationTable table;
+    private MemorySegment segment;
+    private long start;
+    private long end;
+
+    @State(Scope.Thread)
+    @AuxCounters(AuxCounters.Type.OPERATIONS)
+    public static class Bytes {
+        public long bytes;
+    }
+
+    @Setup(Level.Trial)
+    public void setup() {
+        arena = Arena.ofConfined();
+        byte[][] names = BenchmarkData.stationNames(stations, BenchmarkData.NameLength.MEDIUM);
+        byte[] data = switch (format) {
+            case "ONEBRC" -> BenchmarkData.measurements(names, CalculateAverage_jeroen.CHUNK_SIZE);
+            case "COMMA" -> new String(BenchmarkData.measurements(names, CalculateAverage_jeroen.CHUNK_SIZE), StandardCharsets.UTF_8)
+                    .replace(';', ',').getBytes(StandardCharsets.UTF_8);
+            default -> BenchmarkData.telemetryCsv(names, CalculateAverage_jeroen.CHUNK_SIZE);
+        };
+        segment = BenchmarkData.offHeap(arena, data);
+        start = segment.address();
+        end = start + data.length;
+        table = new StationTable();
+        table.setFormat(switch (format) {
+            case "ONEBRC" -> RecordFormat.ONEBRC;
+            case "COMMA" -> RecordFormat.of(',', 0, 1, 1);
+            default -> RecordFormat.of(',', 1, 3, 2);
+        });
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        table.free();
+        arena.close();
+    }
+
+    @Benchmark
+    public void processChunk(Bytes counter) {
+        CalculateAverage_jeroen.processChunk(segment, start, end, table);
+        counter.bytes += end - start;
+    }
+}
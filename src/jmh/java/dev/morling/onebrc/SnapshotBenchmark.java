@@ -0,0 +1,101 @@
+package dev.morling.onebrc;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+// A week of daily inputs: merging their TableSnapshots versus rescanning the raw files, plus the
+// cost of writing one snapshot.
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 1, jvmArgsAppend = { "--add-opens", "java.base/sun.misc=ALL-UNNAMED" })
+public class SnapshotBenchmark {
+
+    @Param({ "413", "10000" })
+    public int stations;
+
+    @Param({ "7" })
+    public int days;
+
+    // Raw bytes per day for the rescan baseline.
+    @Param({ "16777216" })
+    public int dayBytes;
+
+    private Path dir;
+    private List<Path> dailyFiles;
+    private List<Path> snapshots;
+    private StationTable table;
+    private Path output;
+    private AggregationEngine engine;
+
+    @Setup(Level.Trial)
+    public void setup() throws Exception {
+        dir = Files.createTempDirectory("1brc-snapshot-bench");
+        byte[][] names = BenchmarkData.stationNames(stations, BenchmarkData.NameLength.MEDIUM);
+        engine = new AggregationEngine(1);
+        dailyFiles = new ArrayList<>();
+        snapshots = new ArrayList<>();
+        for (int d = 0; d < days; d++) {
+            Path day = dir.resolve("day-" + d + ".txt");
+            Files.write(day, BenchmarkData.measurements(names, dayBytes));
+            dailyFiles.add(day);
+            Path snapshot = dir.resolve("day-" + d + ".snap");
+            engine.writeSnapshot(List.of(day), null, snapshot);
+            snapshots.add(snapshot);
+        }
+        table = TableSnapshot.load(snapshots.get(0));
+        output = dir.resolve("out.snap");
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws Exception {
+        table.free();
+        engine.close();
+        try (var files = Files.list(dir)) {
+            for (Path file : files.toList()) {
+                Files.delete(file);
+            }
+        }
+        Files.delete(dir);
+    }
+
+    @Benchmark
+    public int mergeSnapshots() throws Exception {
+        StationTable merged = TableSnapshot.merge(snapshots);
+        int size = merged.size();
+        merged.free();
+        return size;
+    }
+
+    @Benchmark
+    public int rescan() throws Exception {
+        StationTable merged = engine.aggregateMapped(dailyFiles, 0, null);
+        int size = merged.size();
+        engine.releaseTable(merged);
+        return size;
+    }
+
+    @Benchmark
+    public void writeSnapshot() throws Exception {
+        TableSnapshot.write(table, output);
+    }
+}
@@ -0,0 +1,96 @@
+package dev.morling.onebrc;
+
+import java.lang.foreign.Arena;
+import java.nio.charset.StandardCharsets;
+import java.util.SplittableRandom;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+// StationTable.accumulate on a warm table: every row is a hit, so this measures probing plus matchNameRest.
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 1, jvmArgsAppend = { "--add-opens", "java.base/sun.misc=ALL-UNNAMED", "-XX:-TieredCompilation" })
+public class StationTableBenchmark {
+
+    static final int ROWS = 8192;
+
+    @Param({ "413", "10000" })
+    public int stations;
+
+    @Param({ "SHORT", "MEDIUM", "LONG" })
+    public BenchmarkData.NameLength nameLength;
+
+    private Arena arena;
+    private StationTable table;
+    private long[] nameAddrs;
+    private int[] nameLens;
+    private int[] hashes;
+    private int[] temps;
+
+    @Setup(Level.Trial)
+    public void setup() {
+        arena = Arena.ofConfined();
+        byte[][] names = BenchmarkData.stationNames(stations, nameLength);
+        StringBuilder sb = new StringBuilder();
+        for (byte[] name : names) {
+            sb.append(new String(name, StandardCharsets.UTF_8)).append(';');
+        }
+        byte[] dictionary = sb.toString().getBytes(StandardCharsets.UTF_8);
+        long base = BenchmarkData.offHeap(arena, dictionary).address();
+
+        long[] dictAddrs = new long[names.length];
+        long offset = 0;
+        for (int i = 0; i < names.length; i++) {
+            dictAddrs[i] = base + offset;
+            offset += names[i].length + 1;
+        }
+
+        table = new StationTable();
+        int[] values = BenchmarkData.temperatures(ROWS);
+        SplittableRandom random = new SplittableRandom(BenchmarkData.SEED);
+        nameAddrs = new long[ROWS];
+        nameLens = new int[ROWS];
+        hashes = new int[ROWS];
+        temps = values;
+        for (int r = 0; r < ROWS; r++) {
+            int s = r < names.length ? r : random.nextInt(names.length);
+            nameAddrs[r] = dictAddrs[s];
+            nameLens[r] = names[s].length;
+            hashes[r] = BenchmarkData.hash(names[s]);
+        }
+        for (int i = 0; i < names.length; i++) {
+            table.accumulate(dictAddrs[i], names[i].length, BenchmarkData.hash(names[i]), 0);
+        }
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        arena.close();
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(ROWS)
+    public void accumulateHit() {
+        StationTable t = table;
+        for (int r = 0; r < ROWS; r++) {
+            t.accumulate(nameAddrs[r], nameLens[r], hashes[r], temps[r]);
+        }
+    }
+}
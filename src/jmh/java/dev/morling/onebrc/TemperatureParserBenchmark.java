@@ -0,0 +1,71 @@
+package dev.morling.onebrc;
+
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 1, jvmArgsAppend = { "--add-opens", "java.base/sun.misc=ALL-UNNAMED", "-XX:-TieredCompilation" })
+public class TemperatureParserBenchmark {
+
+    private static final int VALUES = 4096;
+
+    private long[] words;
+    private int[] dotBitPos;
+
+    @Setup
+    public void setup() {
+        int[] temps = BenchmarkData.temperatures(VALUES);
+        words = new long[VALUES];
+        dotBitPos = new int[VALUES];
+        for (int i = 0; i < VALUES; i++) {
+            int abs = Math.abs(temps[i]);
+            byte[] text = ((temps[i] < 0 ? "-" : "") + (abs / 10) + "." + (abs % 10) + "\nAbc;1")
+                    .getBytes(StandardCharsets.US_ASCII);
+            long word = 0;
+            for (int b = 0; b < 8; b++) {
+                word |= ((long) (text[b] & 0xFF)) << (b << 3);
+            }
+            words[i] = word;
+            dotBitPos[i] = Long.numberOfTrailingZeros(~word & 0x10101000);
+        }
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(VALUES)
+    public long branchless() {
+        long sum = 0;
+        for (int i = 0; i < VALUES; i++) {
+            sum += CalculateAverage_jeroen.parseTemperatureBranchless(words[i], dotBitPos[i]);
+        }
+        return sum;
+    }
+
+    // Includes the dot detection, as done per row in processChunk.
+    @Benchmark
+    @OperationsPerInvocation(VALUES)
+    public long branchlessWithDotScan() {
+        long sum = 0;
+        for (int i = 0; i < VALUES; i++) {
+            long word = words[i];
+            sum += CalculateAverage_jeroen.parseTemperatureBranchless(word,
+                    Long.numberOfTrailingZeros(~word & 0x10101000));
+        }
+        return sum;
+    }
+}
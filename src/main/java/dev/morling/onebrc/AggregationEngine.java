@@ -0,0 +1,615 @@
+package dev.morling.onebrc;
+
+import java.io.IOException;
+import java.lang.foreign.Arena;
+import java.lang.foreign.MemorySegment;
+import java.nio.channels.FileChannel;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import dev.morling.onebrc.CalculateAverage_jeroen.RunProfile;
+import dev.morling.onebrc.CalculateAverage_jeroen.Stats;
+import dev.morling.onebrc.CalculateAverage_jeroen.WorkerProfile;
+
+/**
+ * Long-lived aggregation service for callers that run many aggregations in one JVM.
+ * Worker threads are started once and reused, and off-heap {@link StationTable}s are
+ * reset with {@code setMemory} and handed to the next request instead of being
+ * allocated per call; {@link #close()} stops the workers and frees the pooled tables.
+ * <p>
+ * Thread-safe: concurrent {@code calculate} calls share the worker pool, each with its
+ * own chunk counter and tables. The static {@link CalculateAverage_jeroen#calculate}
+ * methods open a short-lived engine per call.
+ */
+public final class AggregationEngine implements AutoCloseable {
+
+    // Work handed to the pool: index is 0..n-1 within one start() call.
+    interface Task {
+        void run(int index) throws Exception;
+    }
+
+    // Handle for the tasks of one start() call.
+    static final class TaskGroup {
+        private final Future<?>[] futures;
+
+        private TaskGroup(Future<?>[] futures) {
+            this.futures = futures;
+        }
+
+        // Waits for every task, then rethrows the first failure.
+        void join() throws IOException, InterruptedException {
+            Throwable failure = null;
+            for (Future<?> future : futures) {
+                try {
+                    future.get();
+                }
+                catch (ExecutionException e) {
+                    if (failure == null) {
+                        failure = e.getCause();
+                    }
+                }
+            }
+            if (failure instanceof IOException e) {
+                throw e;
+            }
+            if (failure instanceof RuntimeException e) {
+                throw e;
+            }
+            if (failure instanceof Error e) {
+                throw e;
+            }
+            if (failure != null) {
+                throw new IOException("worker failed", failure);
+            }
+        }
+    }
+
+    private final int workers;
+    private final ExecutorService pool;
+    private final ConcurrentLinkedQueue<StationTable> freeTables = new ConcurrentLinkedQueue<>();
+    private final AtomicInteger pooledTables = new AtomicInteger();
+    // A request holds one table per worker; keep enough for two overlapping requests.
+    private final int maxPooledTables;
+    private final boolean extendedStats;
+    private final RecordFormat format;
+    private volatile boolean closed;
+    // Arenas of finished mapped runs, unmapped by close(); only filled after deferUnmap().
+    private final ConcurrentLinkedQueue<Arena> mappings = new ConcurrentLinkedQueue<>();
+    private volatile boolean deferUnmap;
+
+    public AggregationEngine(int workers) {
+        this(workers, StationHistograms.MODE == StationHistograms.Mode.EXTENDED);
+    }
+
+    /**
+     * {@code extendedStats} attaches a {@link StationHistograms histogram} to every station, so
+     * results also carry exact p50/p95/p99; see {@code -Donebrc.stats}.
+     */
+    public AggregationEngine(int workers, boolean extendedStats) {
+        this(workers, extendedStats, RecordFormat.ONEBRC);
+    }
+
+    /**
+     * Groups records laid out as {@code format} instead of {@code station;temperature} rows.
+     * Results are in units of 10^-{@link RecordFormat#scale()}; print them with
+     * {@link CalculateAverage_jeroen#format(Map, RecordFormat)}.
+     */
+    public AggregationEngine(int workers, RecordFormat format) {
+        this(workers, StationHistograms.MODE == StationHistograms.Mode.EXTENDED, format);
+    }
+
+    public AggregationEngine(int workers, boolean extendedStats, RecordFormat format) {
+        this.workers = Math.max(1, workers);
+        this.extendedStats = extendedStats;
+        this.format = format;
+        this.maxPooledTables = 2 * this.workers + 1;
+        AtomicInteger threadIds = new AtomicInteger();
+        this.pool = Executors.newFixedThreadPool(this.workers, r -> {
+            Thread thread = new Thread(r, "onebrc-worker-" + threadIds.getAndIncrement());
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    public int workers() {
+        return workers;
+    }
+
+    /**
+     * Keeps the files of mapped runs mapped until {@link #close()} instead of unmapping them
+     * before each run returns, so a caller can print its result before paying for the unmap.
+     * For one-shot engines such as {@code main}'s: a long-lived one would keep every input mapped.
+     */
+    void deferUnmap() {
+        deferUnmap = true;
+    }
+
+    private void unmap(Arena arena) {
+        if (deferUnmap && !closed) {
+            mappings.add(arena);
+        }
+        else {
+            arena.close();
+        }
+    }
+
+    public RecordFormat format() {
+        return format;
+    }
+
+    public Map<String, Stats> calculate(Path file) throws IOException, InterruptedException {
+        return calculate(List.of(file), null);
+    }
+
+    public Map<String, Stats> calculate(List<Path> files) throws IOException, InterruptedException {
+        return calculate(files, null);
+    }
+
+    /**
+     * Aggregates several inputs into one result. All mappable files are split into one
+     * global chunk list served by the worker pool, so many small files keep every core
+     * busy the same way one large file does, and tables are merged once at the end.
+     * Gzip files and non-mappable inputs (FIFOs) are aggregated on their own and merged in.
+     * {@code profile} may be {@code null}; see {@link CalculateAverage_jeroen#calculate(Path, int, RunProfile)}.
+     */
+    public Map<String, Stats> calculate(List<Path> files, RunProfile profile)
+            throws IOException, InterruptedException {
+        return calculate(files, null, profile);
+    }
+
+    /**
+     * Like {@link #calculate(List, RunProfile)}, aggregating only the rows that match
+     * {@code filter} ({@code null} = all rows); the filter is checked in the scan loop, before
+     * rows reach the tables.
+     */
+    public Map<String, Stats> calculate(List<Path> files, StationFilter filter, RunProfile profile)
+            throws IOException, InterruptedException {
+        StationTable merged = aggregate(files, filter, profile);
+        try {
+            long t0 = System.nanoTime();
+            Map<String, Stats> result = CalculateAverage_jeroen.toStatsMap(merged);
+            if (profile != null) {
+                profile.collectNanos += System.nanoTime() - t0;
+            }
+            return result;
+        }
+        finally {
+            releaseTable(merged);
+        }
+    }
+
+    /**
+     * Aggregates {@code files} like {@link #calculate(List, StationFilter, RunProfile)} and writes
+     * the merged aggregates to {@code snapshot} (see {@link TableSnapshot}) instead of returning
+     * them. Not available with extended statistics.
+     */
+    public void writeSnapshot(List<Path> files, StationFilter filter, Path snapshot)
+            throws IOException, InterruptedException {
+        StationTable merged = aggregate(files, filter, null);
+        try {
+            TableSnapshot.write(merged, snapshot);
+        }
+        finally {
+            releaseTable(merged);
+        }
+    }
+
+    /**
+     * Merges snapshots written by {@link #writeSnapshot} into one result without rescanning
+     * any input.
+     */
+    public Map<String, Stats> mergeSnapshots(List<Path> snapshots) throws IOException {
+        StationTable merged = TableSnapshot.merge(snapshots);
+        try {
+            return CalculateAverage_jeroen.toStatsMap(merged);
+        }
+        finally {
+            merged.free();
+        }
+    }
+
+    /**
+     * Writes the {@link StationIndex} sidecar of {@code file} (line starts and station
+     * dictionary), which later runs over the unchanged file pick up automatically.
+     */
+    public void buildIndex(Path file) throws IOException, InterruptedException {
+        StationIndex.build(this, file).write(StationIndex.sidecarOf(file));
+    }
+
+    /**
+     * Like {@link #calculate(List, StationFilter, RunProfile)}, but returns the merged table
+     * itself, which the caller hands back with {@link #releaseTable} once done with it.
+     */
+    StationTable aggregate(List<Path> files, StationFilter filter, RunProfile profile)
+            throws IOException, InterruptedException {
+        List<Path> mappable = new ArrayList<>(files.size());
+        List<StationTable> others = new ArrayList<>();
+        try {
+            for (Path file : files) {
+                if (GzipAggregator.isGzipPath(file)) {
+                    others.add(GzipAggregator.aggregate(this, file, filter));
+                }
+                else if (!Files.isRegularFile(file)) {
+                    // FIFOs, /dev/stdin and friends cannot be mapped.
+                    try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+                        others.add(StreamingAggregator.aggregate(this, channel, filter));
+                    }
+                }
+                else {
+                    mappable.add(file);
+                }
+            }
+
+            // A sidecar index only helps whole-file mapping of a single file; a damaged one is skipped.
+            StationIndex index = null;
+            if (mappable.size() == 1 && WindowedAggregator.WINDOW_BYTES <= 0) {
+                try {
+                    index = StationIndex.load(mappable.get(0));
+                }
+                catch (IOException e) {
+                    System.err.println("ignoring station index: " + e.getMessage());
+                }
+            }
+            StationTable merged = aggregateMapped(mappable, WindowedAggregator.WINDOW_BYTES, ReadAhead.schedule(ChunkScheduler.MODE),
+                    filter, profile, index);
+            long t4 = System.nanoTime();
+            for (StationTable other : others) {
+                merged.mergeFrom(other);
+            }
+            if (profile != null) {
+                profile.collectNanos = System.nanoTime() - t4;
+            }
+            return merged;
+        }
+        finally {
+            for (StationTable other : others) {
+                releaseTable(other);
+            }
+        }
+    }
+
+    /**
+     * Aggregates a stream that cannot be memory-mapped, such as stdin or a pipe. Input is
+     * read on the calling thread into a bounded pool of off-heap buffers
+     * ({@value StreamingAggregator#BUFFERS_PER_WORKER} per worker) that the workers
+     * process as they fill.
+     */
+    public Map<String, Stats> calculate(ReadableByteChannel in) throws IOException, InterruptedException {
+        StationTable merged = aggregate(in);
+        try {
+            return CalculateAverage_jeroen.toStatsMap(merged);
+        }
+        finally {
+            releaseTable(merged);
+        }
+    }
+
+    // Table-returning form of calculate(ReadableByteChannel); the caller releases the table.
+    StationTable aggregate(ReadableByteChannel in) throws IOException, InterruptedException {
+        return aggregate(in, null);
+    }
+
+    StationTable aggregate(ReadableByteChannel in, StationFilter filter) throws IOException, InterruptedException {
+        return StreamingAggregator.aggregate(this, in, filter);
+    }
+
+    // windowBytes > 0 selects WindowedAggregator; otherwise each file is mapped whole in a shared
+    // arena that is closed (unmapped) once the workers are done.
+    StationTable aggregateMapped(List<Path> files, long windowBytes, RunProfile profile)
+            throws IOException, InterruptedException {
+        return aggregateMapped(files, windowBytes, ChunkScheduler.MODE, null, profile);
+    }
+
+    StationTable aggregateMapped(List<Path> files, long windowBytes, ChunkScheduler.Mode schedule,
+            RunProfile profile)
+            throws IOException, InterruptedException {
+        return aggregateMapped(files, windowBytes, schedule, null, profile);
+    }
+
+    StationTable aggregateMapped(List<Path> files, long windowBytes, ChunkScheduler.Mode schedule,
+            StationFilter filter, RunProfile profile)
+            throws IOException, InterruptedException {
+        return aggregateMapped(files, windowBytes, schedule, filter, profile, null);
+    }
+
+    // index: the StationIndex of the only file, or null.
+    StationTable aggregateMapped(List<Path> files, long windowBytes, ChunkScheduler.Mode schedule,
+            StationFilter filter, RunProfile profile, StationIndex index)
+            throws IOException, InterruptedException {
+        long t0 = System.nanoTime();
+        FileChannel[] channels = new FileChannel[files.size()];
+        long[] sizes = new long[files.size()];
+        int numRanges = 0;
+        Arena arena = Arena.ofShared();
+        try {
+            try {
+                for (Path file : files) {
+                    FileChannel channel = FileChannel.open(file, StandardOpenOption.READ);
+                    long fileSize = channel.size();
+                    if (fileSize == 0) {
+                        channel.close();
+                        continue;
+                    }
+                    channels[numRanges] = channel;
+                    sizes[numRanges] = fileSize;
+                    numRanges++;
+                }
+                channels = Arrays.copyOf(channels, numRanges);
+                sizes = Arrays.copyOf(sizes, numRanges);
+
+                MemorySegment[] mappings = windowBytes <= 0 ? new MemorySegment[numRanges] : null;
+                if (windowBytes <= 0) {
+                    for (int r = 0; r < numRanges; r++) {
+                        mappings[r] = channels[r].map(FileChannel.MapMode.READ_ONLY, 0, sizes[r], arena);
+                    }
+                }
+                long t1 = System.nanoTime();
+
+                // Chunk boundaries are resolved by the workers; the scheduler only sizes the slices.
+                ChunkScheduler scheduler = new ChunkScheduler(schedule, sizes, workers);
+                long t2 = System.nanoTime();
+
+                StationTable[] tables = new StationTable[scheduler.workers()];
+                WorkerProfile[] workerProfiles = profile != null ? new WorkerProfile[tables.length] : null;
+                // Stopped before the channels it reads are closed.
+                ReadAhead readAhead = ReadAhead.MODE == ReadAhead.Mode.READAHEAD && schedule != ChunkScheduler.Mode.STEAL
+                        ? ReadAhead.start(scheduler, channels, new long[numRanges], mappings)
+                        : null;
+                try {
+                    if (windowBytes > 0) {
+                        WindowedAggregator.runWorkers(this, scheduler, channels, windowBytes, tables, filter, workerProfiles);
+                    }
+                    else {
+                        CalculateAverage_jeroen.runWorkers(this, scheduler, mappings, tables, filter, workerProfiles,
+                                numRanges == 1 ? index : null);
+                    }
+                }
+                catch (IOException | RuntimeException e) {
+                    for (StationTable table : tables) {
+                        releaseTable(table);
+                    }
+                    throw e;
+                }
+                finally {
+                    if (readAhead != null) {
+                        readAhead.close();
+                    }
+                }
+                long t3 = System.nanoTime();
+
+                if (profile != null) {
+                    profile.mapNanos = t1 - t0;
+                    profile.splitNanos = t2 - t1;
+                    profile.processNanos = t3 - t2;
+                    profile.mmapWindow = windowBytes > 0 ? WindowedAggregator.roundWindow(windowBytes) : 0;
+                    profile.schedule = schedule.name().toLowerCase(Locale.ROOT);
+                    profile.io = readAhead != null ? "readahead" : "mmap";
+                    profile.readAheadBytes = readAhead != null ? readAhead.bytesRead() : 0;
+                    profile.index = index == null || windowBytes > 0 || numRanges != 1 ? "none"
+                            : index.hasDictionary() && filter == null && !extendedStats && format == RecordFormat.ONEBRC
+                                    && LenientScanner.MODE == LenientScanner.Mode.STRICT ? "dictionary" : "offsets";
+                }
+                return mergeWorkerTables(tables, workerProfiles, scheduler.totalBytes(), t3 - t2, profile);
+            }
+            finally {
+                for (FileChannel channel : channels) {
+                    if (channel != null) {
+                        channel.close();
+                    }
+                }
+            }
+        }
+        finally {
+            unmap(arena);
+        }
+    }
+
+    /**
+     * Aggregates the lines of file that start in the byte range [start, end), the share of one
+     * process in a sharded run (see {@link ShardCoordinator}). Both ends are snapped to line
+     * starts the same way chunk boundaries are, so disjoint ranges that together cover the file
+     * see every line exactly once; end may lie past the end of the file.
+     */
+    StationTable aggregateRange(Path file, long start, long end, StationFilter filter, RunProfile profile)
+            throws IOException, InterruptedException {
+        if (start < 0 || end < start) {
+            throw new IllegalArgumentException("bad byte range " + start + ":" + end);
+        }
+        long t0 = System.nanoTime();
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ);
+                Arena arena = Arena.ofShared()) {
+            long size = channel.size();
+            MemorySegment mapping = null;
+            long base = 0;
+            long from = 0;
+            long to = 0;
+            if (start < Math.min(end, size)) {
+                mapping = channel.map(FileChannel.MapMode.READ_ONLY, 0, size, arena);
+                base = mapping.address();
+                from = CalculateAverage_jeroen.lineStartAtOrAfter(base + start, base, base + size);
+                to = CalculateAverage_jeroen.lineStartAtOrAfter(base + Math.min(end, size), base, base + size);
+            }
+            long t1 = System.nanoTime();
+
+            // One range that starts and ends on a line start; the workers split it as usual.
+            ChunkScheduler.Mode schedule = ReadAhead.schedule(ChunkScheduler.MODE);
+            ChunkScheduler scheduler = new ChunkScheduler(schedule, new long[]{ to - from }, workers);
+            long t2 = System.nanoTime();
+            StationTable[] tables = new StationTable[scheduler.workers()];
+            WorkerProfile[] workerProfiles = profile != null ? new WorkerProfile[tables.length] : null;
+            ReadAhead readAhead = ReadAhead.MODE == ReadAhead.Mode.READAHEAD
+                    ? ReadAhead.start(scheduler, new FileChannel[]{ channel }, new long[]{ from - base },
+                            new MemorySegment[]{ mapping })
+                    : null;
+            try {
+                MemorySegment range = mapping != null ? mapping.asSlice(from - base, to - from) : MemorySegment.NULL;
+                CalculateAverage_jeroen.runWorkers(this, scheduler, new MemorySegment[]{ range }, tables, filter, workerProfiles);
+            }
+            catch (IOException | RuntimeException e) {
+                for (StationTable table : tables) {
+                    releaseTable(table);
+                }
+                throw e;
+            }
+            finally {
+                if (readAhead != null) {
+                    readAhead.close();
+                }
+            }
+            long t3 = System.nanoTime();
+            if (profile != null) {
+                profile.mapNanos = t1 - t0;
+                profile.splitNanos = t2 - t1;
+                profile.processNanos = t3 - t2;
+                profile.schedule = schedule.name().toLowerCase(Locale.ROOT);
+                profile.io = readAhead != null ? "readahead" : "mmap";
+                profile.readAheadBytes = readAhead != null ? readAhead.bytesRead() : 0;
+            }
+            return mergeWorkerTables(tables, workerProfiles, scheduler.totalBytes(), t3 - t2, profile);
+        }
+    }
+
+    private StationTable mergeWorkerTables(StationTable[] tables, WorkerProfile[] workerProfiles,
+            long totalBytes, long processNanos, RunProfile profile)
+            throws IOException, InterruptedException {
+        int numChunks = 0;
+        long firstEnd = Long.MAX_VALUE;
+        long lastEnd = Long.MIN_VALUE;
+        if (workerProfiles != null) {
+            for (int t = 0; t < tables.length; t++) {
+                WorkerProfile wp = workerProfiles[t];
+                if (wp == null) {
+                    wp = workerProfiles[t] = new WorkerProfile();
+                }
+                WorkerProfile w = wp;
+                w.idleNanos = Math.max(0, processNanos - w.busyNanos);
+                if (tables[t] != null) {
+                    tables[t].forEach((name, nameLen, minVal, maxVal, sumVal, countVal) -> w.rows += countVal);
+                    w.maxProbe = tables[t].maxProbe();
+                    w.reseeds = tables[t].reseeds();
+                    w.rejectedLines = tables[t].rejects().count();
+                }
+                numChunks += w.chunks;
+                if (w.endNanos != 0) {
+                    firstEnd = Math.min(firstEnd, w.endNanos);
+                    lastEnd = Math.max(lastEnd, w.endNanos);
+                }
+            }
+        }
+
+        long t3 = System.nanoTime();
+        boolean partitioned = TableMerger.usesPartitions(TableMerger.MODE, tables, workers);
+        StationTable merged = TableMerger.merge(this, tables, TableMerger.MODE);
+
+        if (profile != null) {
+            profile.fileBytes = totalBytes;
+            profile.chunks = numChunks;
+            profile.finishGapNanos = lastEnd >= firstEnd ? lastEnd - firstEnd : 0;
+            profile.mergeNanos = System.nanoTime() - t3;
+            profile.merge = partitioned ? "partitioned" : "serial";
+            profile.rejectedLines = merged.rejects().count();
+            profile.workers = workerProfiles;
+        }
+        return merged;
+    }
+
+    // ---- Worker pool ----
+
+    // Runs task(0..n-1) on the pool without waiting; tasks beyond the pool size queue up.
+    TaskGroup start(int n, Task task) {
+        if (closed) {
+            throw new IllegalStateException("AggregationEngine is closed");
+        }
+        Future<?>[] futures = new Future<?>[n];
+        for (int i = 0; i < n; i++) {
+            final int index = i;
+            futures[i] = pool.submit(() -> {
+                task.run(index);
+                return null;
+            });
+        }
+        return new TaskGroup(futures);
+    }
+
+    void run(int n, Task task) throws IOException, InterruptedException {
+        start(n, task).join();
+    }
+
+    // ---- Table pool ----
+
+    StationTable acquireTable() {
+        StationTable table = freeTables.poll();
+        if (table == null) {
+            table = new StationTable(StationTable.INITIAL_CAPACITY, extendedStats);
+        }
+        else {
+            pooledTables.decrementAndGet();
+        }
+        table.setFormat(format);
+        return table;
+    }
+
+    // A table whose scan loops only accumulate rows matching filter (null = all rows).
+    StationTable acquireTable(StationFilter filter) {
+        StationTable table = acquireTable();
+        table.setFilter(filter);
+        return table;
+    }
+
+    // Resets the table and keeps it for the next request, or frees it if the pool is full or closed.
+    void releaseTable(StationTable table) {
+        if (table == null) {
+            return;
+        }
+        if (closed || pooledTables.get() >= maxPooledTables) {
+            table.free();
+            return;
+        }
+        table.reset();
+        pooledTables.incrementAndGet();
+        freeTables.offer(table);
+    }
+
+    int pooledTableCount() {
+        return pooledTables.get();
+    }
+
+    /**
+     * Stops the workers and frees the pooled tables. Must not be called while a
+     * {@code calculate} call is still running.
+     */
+    @Override
+    public void close() {
+        closed = true;
+        pool.shutdown();
+        try {
+            pool.awaitTermination(Long.MAX_VALUE, TimeUnit.DAYS);
+        }
+        catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        StationTable table;
+        while ((table = freeTables.poll()) != null) {
+            table.free();
+        }
+        pooledTables.set(0);
+        Arena arena;
+        while ((arena = mappings.poll()) != null) {
+            arena.close();
+        }
+    }
+}
@@ -1,21 +1,30 @@
 package dev.morling.onebrc;
 
+import java.io.FileDescriptor;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
 import java.io.IOException;
-import java.lang.foreign.Arena;
+import java.lang.foreign.MemorySegment;
 import java.lang.reflect.Field;
 import java.nio.channels.FileChannel;
+import java.nio.channels.ReadableByteChannel;
 import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
 import java.nio.file.Path;
-import java.nio.file.StandardOpenOption;
+import java.nio.file.PathMatcher;
+import java.time.Duration;
+import java.util.ArrayList;
 import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
 import java.util.Map;
 import java.util.TreeMap;
-import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.Stream;
 
 public final class CalculateAverage_jeroen {
 
-    private static final sun.misc.Unsafe UNSAFE;
-    private static final long BYTE_ARRAY_BASE;
+    static final sun.misc.Unsafe UNSAFE;
+    static final long BYTE_ARRAY_BASE;
 
     static {
         try {
@@ -29,101 +38,540 @@ public final class CalculateAverage_jeroen {
         }
     }
 
-    private static final int CHUNK_SIZE = 1 << 22; // 4 MB
-    private static final int TABLE_SIZE = 1 << 14; // 16384
-    private static final int TABLE_MASK = TABLE_SIZE - 1;
+    static final int CHUNK_SIZE = 1 << 22; // 4 MB
     private static final int SAFE_MARGIN = 128;
-    private static final long SEMICOLON_PATTERN = 0x3B3B3B3B3B3B3B3BL;
+    static final long SEMICOLON_PATTERN = 0x3B3B3B3B3B3B3B3BL;
+
+    // -Donebrc.scanner=auto|swar|vector. auto picks VectorScanner when jdk.incubator.vector
+    // is resolved (--add-modules) and the CPU has 256-bit or wider lanes.
+    static final boolean VECTOR_SCAN = useVectorScanner(System.getProperty("onebrc.scanner", "auto"));
 
     private CalculateAverage_jeroen() {
     }
 
     // ---- Public API ----
 
+    // Usage: [--follow[=intervalMs]] [--delimiter=c --key-column=n --value-column=n --scale=n] [file|dir|glob|- ...] [workers]
     public static void main(String[] args) throws Exception {
-        String file = args.length > 0 ? args[0] : "measurements.txt";
-        int workers = args.length > 1
-                ? Integer.parseInt(args[1])
-                : Math.max(1, Runtime.getRuntime().availableProcessors());
-        System.out.println(format(calculate(Path.of(file), workers)));
-        System.out.close();
+        long mainStart = System.nanoTime();
+        List<String> positional = new ArrayList<>();
+        long followMillis = -1;
+        String stations = null;
+        String prefix = null;
+        String range = null;
+        Path snapshotFile = null;
+        boolean mergeSnapshots = false;
+        boolean buildIndex = false;
+        String shard = null;
+        int processes = 1;
+        String delimiter = null;
+        int keyColumn = 0;
+        int valueColumn = 1;
+        int scale = 1;
+        // Flags every shard child gets as well.
+        List<String> filterArgs = new ArrayList<>();
+        for (String arg : args) {
+            if (arg.equals("--follow")) {
+                followMillis = 1000;
+            }
+            else if (arg.startsWith("--follow=")) {
+                followMillis = Long.parseLong(arg.substring("--follow=".length()));
+            }
+            else if (arg.startsWith("--stations=")) {
+                stations = arg.substring("--stations=".length());
+                filterArgs.add(arg);
+            }
+            else if (arg.startsWith("--prefix=")) {
+                prefix = arg.substring("--prefix=".length());
+                filterArgs.add(arg);
+            }
+            else if (arg.startsWith("--range=")) {
+                range = arg.substring("--range=".length());
+                filterArgs.add(arg);
+            }
+            else if (arg.startsWith("--delimiter=")) {
+                delimiter = arg.substring("--delimiter=".length());
+                filterArgs.add(arg);
+            }
+            else if (arg.startsWith("--key-column=")) {
+                keyColumn = Integer.parseInt(arg.substring("--key-column=".length()));
+                filterArgs.add(arg);
+            }
+            else if (arg.startsWith("--value-column=")) {
+                valueColumn = Integer.parseInt(arg.substring("--value-column=".length()));
+                filterArgs.add(arg);
+            }
+            else if (arg.startsWith("--scale=")) {
+                scale = Integer.parseInt(arg.substring("--scale=".length()));
+                filterArgs.add(arg);
+            }
+            else if (arg.startsWith("--snapshot=")) {
+                snapshotFile = Path.of(arg.substring("--snapshot=".length()));
+            }
+            else if (arg.equals("--merge-snapshots")) {
+                mergeSnapshots = true;
+            }
+            else if (arg.equals("--build-index")) {
+                buildIndex = true;
+            }
+            else if (arg.startsWith("--shard=")) {
+                shard = arg.substring("--shard=".length());
+            }
+            else if (arg.startsWith("--processes=")) {
+                processes = Integer.parseInt(arg.substring("--processes=".length()));
+            }
+            else if (arg.equals(FastExit.CHILD_FLAG)) {
+                FastExit.enterChild();
+            }
+            else {
+                positional.add(arg);
+            }
+        }
+        if (FastExit.MODE == FastExit.Mode.DETACH && !FastExit.isChild() && shard == null && followMillis < 0) {
+            // A child does the work; this process exits once the child has printed.
+            int status = FastExit.run(List.of(args), new FileOutputStream(FileDescriptor.out));
+            if (status != 0) {
+                System.exit(status);
+            }
+            return;
+        }
+        int workers = Math.max(1, Runtime.getRuntime().availableProcessors());
+        if (positional.size() > 1 && isWorkerCount(positional.getLast())) {
+            workers = Integer.parseInt(positional.removeLast());
+        }
+        if (positional.isEmpty()) {
+            positional.add("measurements.txt");
+        }
+        String file = positional.getFirst();
+        RecordFormat format = RecordFormat.of(parseDelimiter(delimiter), keyColumn, valueColumn, scale);
+        StationFilter filter = parseFilter(stations, prefix, range, format);
+
+        if (mergeSnapshots) {
+            // Inputs are snapshots written with --snapshot; nothing is rescanned.
+            if (filter != null) {
+                throw new IllegalArgumentException("filters apply while scanning; use them when writing the snapshots");
+            }
+            List<Path> snapshots = new ArrayList<>();
+            for (String spec : positional) {
+                snapshots.addAll(expandInput(spec));
+            }
+            StationTable table = TableSnapshot.merge(snapshots);
+            if (snapshotFile != null) {
+                TableSnapshot.write(table, snapshotFile);
+            }
+            printResult(table, format);
+            table.free();
+            return;
+        }
+
+        if (buildIndex) {
+            // Writes a StationIndex sidecar next to each input; later runs pick it up.
+            if (filter != null) {
+                throw new IllegalArgumentException("an index covers every station; filters apply when it is used");
+            }
+            try (AggregationEngine engine = new AggregationEngine(workers, format)) {
+                for (String spec : positional) {
+                    for (Path input : expandInput(spec)) {
+                        if (!Files.isRegularFile(input) || GzipAggregator.isGzipPath(input)) {
+                            throw new IllegalArgumentException("only uncompressed regular files can be indexed: " + input);
+                        }
+                        StationIndex index = StationIndex.build(engine, input);
+                        Path sidecar = StationIndex.sidecarOf(input);
+                        index.write(sidecar);
+                        System.out.println(sidecar + ": " + index);
+                    }
+                }
+            }
+            return;
+        }
+
+        if (shard != null) {
+            // One child of a sharded run: aggregate the lines starting in the byte range, write
+            // them as a partial result and print nothing.
+            if (snapshotFile == null || positional.size() != 1) {
+                throw new IllegalArgumentException("--shard=start:end takes one file and --snapshot=partial");
+            }
+            String[] bounds = shard.split(":", 2);
+            if (bounds.length != 2) {
+                throw new IllegalArgumentException("--shard must be start:end: " + shard);
+            }
+            try (AggregationEngine engine = new AggregationEngine(workers, format)) {
+                StationTable table = engine.aggregateRange(Path.of(file), Long.parseLong(bounds[0]), Long.parseLong(bounds[1]), filter, null);
+                TableSnapshot.write(table, snapshotFile);
+                engine.releaseTable(table);
+            }
+            return;
+        }
+
+        if (processes > 1) {
+            if (positional.size() != 1) {
+                throw new IllegalArgumentException("--processes=N shards one file");
+            }
+            StationTable table = ShardCoordinator.run(Path.of(file), processes, Math.max(1, workers / processes), filterArgs);
+            if (snapshotFile != null) {
+                TableSnapshot.write(table, snapshotFile);
+            }
+            printResult(table, format);
+            table.free();
+            return;
+        }
+
+        if (file.equals("-")) {
+            // FileChannel over fd 0 reads straight into the off-heap buffers, unlike Channels.newChannel.
+            try (FileChannel stdin = new FileInputStream(FileDescriptor.in).getChannel();
+                    AggregationEngine engine = new AggregationEngine(workers, format)) {
+                StationTable table = engine.aggregate(stdin, filter);
+                if (snapshotFile != null) {
+                    TableSnapshot.write(table, snapshotFile);
+                }
+                printResult(table, format);
+                printRejects(table);
+                engine.releaseTable(table);
+            }
+            return;
+        }
+
+        if (followMillis >= 0) {
+            try (FollowAggregator follower = new FollowAggregator(Path.of(file), workers, filter, format)) {
+                follower.follow(Duration.ofMillis(followMillis), snapshot -> {
+                    System.out.println(format(snapshot, format));
+                    System.out.flush();
+                });
+            }
+            return;
+        }
+
+        String timings = System.getenv("PRINT_PHASE_TIMINGS");
+        RunProfile profile = (timings == null || timings.isEmpty() || timings.equals("0"))
+                ? null
+                : new RunProfile();
+        List<Path> inputs = new ArrayList<>();
+        for (String spec : positional) {
+            inputs.addAll(expandInput(spec));
+        }
+        long formatStart;
+        try (AggregationEngine engine = new AggregationEngine(workers, format)) {
+            // The input stays mapped until the engine closes, after the result is out.
+            engine.deferUnmap();
+            StationTable table = engine.aggregate(inputs, filter, profile);
+            if (snapshotFile != null) {
+                TableSnapshot.write(table, snapshotFile);
+            }
+            formatStart = System.nanoTime();
+            printResult(table, format);
+            printRejects(table);
+            engine.releaseTable(table);
+        }
+        if (profile != null) {
+            profile.formatNanos = System.nanoTime() - formatStart;
+            profile.totalNanos = System.nanoTime() - mainStart;
+            profile.peakRssKb = peakRssKb();
+            System.err.println(timings.equals("json") ? profile.toJson() : profile.toKeyValues());
+        }
+    }
+
+    // --stations=a,b,c | --prefix=p, optionally with --range=min:max (degrees, e.g. -5.0:30); null if none.
+    static StationFilter parseFilter(String stations, String prefix, String range) {
+        return parseFilter(stations, prefix, range, RecordFormat.ONEBRC);
+    }
+
+    // parseFilter with the range in the format's values instead of degrees.
+    static StationFilter parseFilter(String stations, String prefix, String range, RecordFormat format) {
+        if (stations != null && prefix != null) {
+            throw new IllegalArgumentException("use either --stations or --prefix");
+        }
+        StationFilter filter = stations != null ? StationFilter.stations(List.of(stations.split(",")))
+                : prefix != null ? StationFilter.prefix(prefix)
+                        : range != null ? StationFilter.all()
+                                : null;
+        if (range != null) {
+            String[] bounds = range.split(":", 2);
+            if (bounds.length != 2) {
+                throw new IllegalArgumentException("--range must be min:max: " + range);
+            }
+            filter = filter.withValueRange(Double.parseDouble(bounds[0]), Double.parseDouble(bounds[1]), format.scale());
+        }
+        return filter;
+    }
+
+    // --delimiter=c: one character, or "tab" / "\t"; ';' if absent.
+    static char parseDelimiter(String delimiter) {
+        if (delimiter == null) {
+            return RecordFormat.ONEBRC.delimiter();
+        }
+        if (delimiter.equals("tab") || delimiter.equals("\\t")) {
+            return '\t';
+        }
+        if (delimiter.length() != 1) {
+            throw new IllegalArgumentException("--delimiter must be one character, \"tab\" or \"\\t\": " + delimiter);
+        }
+        return delimiter.charAt(0);
+    }
+
+    // Writes the table to stdout in the format(Map) layout with one write, and closes stdout.
+    // In the child of a detached run, FastExit.DONE follows the result.
+    private static void printResult(StationTable table, RecordFormat format) throws IOException {
+        ResultWriter writer = new ResultWriter(format.scale());
+        int length = writer.format(table);
+        if (length < 0) {
+            // Malformed UTF-8 names or extended statistics: format through the Map.
+            System.out.println(format(toStatsMap(table), format));
+            if (FastExit.isChild()) {
+                System.out.write(FastExit.DONE);
+            }
+            System.out.close();
+            return;
+        }
+        try (FileChannel out = new FileOutputStream(FileDescriptor.out).getChannel()) {
+            writer.writeTo(out, length);
+            FastExit.markDone(out);
+        }
+    }
+
+    // Lenient parsing and RecordFormats only: how many lines were skipped, and the sampled ones, on stderr.
+    private static void printRejects(StationTable table) {
+        LineRejects rejects = table.rejects();
+        if (rejects.count() > 0) {
+            System.err.println("rejected " + rejects.count() + " malformed line(s)");
+            for (String sample : rejects.samples()) {
+                System.err.println("  " + sample);
+            }
+        }
     }
 
     public static Map<String, Stats> calculate(Path file, int workers)
             throws IOException, InterruptedException {
-        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
-            long fileSize = channel.size();
-            if (fileSize == 0) {
-                return Map.of();
-            }
-
-            long fileStart = channel.map(FileChannel.MapMode.READ_ONLY, 0, fileSize,
-                    Arena.global()).address();
-            long fileEnd = fileStart + fileSize;
-
-            int maxChunks = (int) (fileSize / CHUNK_SIZE) + 2;
-            long[] chunkStart = new long[maxChunks];
-            long[] chunkEnd = new long[maxChunks];
-            int numChunks = 0;
-
-            long pos = fileStart;
-            while (pos < fileEnd) {
-                long end = Math.min(pos + CHUNK_SIZE, fileEnd);
-                if (end < fileEnd) {
-                    while (end < fileEnd && UNSAFE.getByte(end) != '\n') {
-                        end++;
-                    }
-                    if (end < fileEnd) {
-                        end++;
-                    }
+        return calculate(file, workers, null);
+    }
+
+    /**
+     * Same as {@link #calculate(Path, int)}, additionally filling {@code profile} with
+     * per-phase wall times and per-worker counters. Pass {@code null} to disable
+     * instrumentation; the hot loop is identical either way, only per-chunk and
+     * per-phase bookkeeping is added when enabled.
+     */
+    public static Map<String, Stats> calculate(Path file, int workers, RunProfile profile)
+            throws IOException, InterruptedException {
+        return calculate(List.of(file), workers, profile);
+    }
+
+    public static Map<String, Stats> calculate(List<Path> files, int workers)
+            throws IOException, InterruptedException {
+        return calculate(files, workers, null);
+    }
+
+    /**
+     * Aggregates several inputs into one result; see {@link AggregationEngine#calculate(List, RunProfile)}.
+     * Starts and closes an engine per call; hold an {@link AggregationEngine} instead when
+     * aggregating repeatedly.
+     */
+    public static Map<String, Stats> calculate(List<Path> files, int workers, RunProfile profile)
+            throws IOException, InterruptedException {
+        try (AggregationEngine engine = new AggregationEngine(workers)) {
+            return engine.calculate(files, profile);
+        }
+    }
+
+    // High-water mark of the resident set from /proc (Linux); -1 elsewhere.
+    private static long peakRssKb() {
+        try {
+            for (String line : Files.readAllLines(Path.of("/proc/self/status"))) {
+                if (line.startsWith("VmHWM:")) {
+                    return Long.parseLong(line.replaceAll("[^0-9]", ""));
                 }
-                chunkStart[numChunks] = pos;
-                chunkEnd[numChunks] = end;
-                numChunks++;
-                pos = end;
-            }
-
-            int safeWorkers = Math.max(1, Math.min(workers, numChunks));
-            AtomicInteger counter = new AtomicInteger(0);
-            StationTable[] tables = new StationTable[safeWorkers];
-            Thread[] threads = new Thread[safeWorkers];
-
-            final int finalNumChunks = numChunks;
-            for (int t = 0; t < safeWorkers; t++) {
-                final int ti = t;
-                threads[t] = new Thread(() -> {
-                    StationTable table = new StationTable();
-                    tables[ti] = table;
-                    int ci;
-                    while ((ci = counter.getAndIncrement()) < finalNumChunks) {
-                        processChunk(chunkStart[ci], chunkEnd[ci], table);
-                    }
-                });
-                threads[t].start();
             }
+        }
+        catch (IOException | RuntimeException e) {
+            // not Linux
+        }
+        return -1;
+    }
+
+    /**
+     * Expands one input argument: a directory yields its regular files, a pattern with
+     * glob characters ({@code *?[{}) yields the matching regular files (use {@code **}
+     * to descend), anything else is taken as a single path. Results are sorted; directories and
+     * globs leave out {@link StationIndex} sidecars.
+     */
+    public static List<Path> expandInput(String spec) throws IOException {
+        Path path = Path.of(spec);
+        if (Files.isDirectory(path)) {
+            try (Stream<Path> entries = Files.list(path)) {
+                return entries.filter(Files::isRegularFile).filter(p -> !isSidecar(p)).sorted().toList();
+            }
+        }
+        int firstGlob = indexOfGlob(spec);
+        if (firstGlob < 0) {
+            return List.of(path);
+        }
+        int slash = spec.lastIndexOf('/', firstGlob);
+        Path base = slash < 0 ? Path.of(".") : Path.of(spec.substring(0, slash + 1));
+        String pattern = slash < 0 ? spec : spec.substring(slash + 1);
+        PathMatcher matcher = base.getFileSystem().getPathMatcher("glob:" + pattern);
+        int depth = pattern.contains("**") ? Integer.MAX_VALUE : pattern.split("/").length;
+        try (Stream<Path> entries = Files.walk(base, depth)) {
+            return entries.filter(Files::isRegularFile)
+                    .filter(p -> !isSidecar(p))
+                    .filter(p -> matcher.matches(base.relativize(p)))
+                    .sorted()
+                    .toList();
+        }
+    }
+
+    // StationIndex sidecars sit next to their inputs; directories and globs skip them.
+    private static boolean isSidecar(Path path) {
+        return path.getFileName().toString().endsWith(StationIndex.SUFFIX);
+    }
 
-            for (Thread thread : threads) {
-                thread.join();
+    // A trailing integer is the worker count unless a file of that name exists.
+    private static boolean isWorkerCount(String arg) {
+        return !arg.isEmpty() && arg.chars().allMatch(c -> c >= '0' && c <= '9') && !Files.exists(Path.of(arg));
+    }
+
+    private static int indexOfGlob(String spec) {
+        for (int i = 0; i < spec.length(); i++) {
+            char c = spec.charAt(i);
+            if (c == '*' || c == '?' || c == '[' || c == '{') {
+                return i;
             }
+        }
+        return -1;
+    }
+
+    /**
+     * Aggregates a stream that cannot be memory-mapped, such as stdin or a pipe; see
+     * {@link AggregationEngine#calculate(ReadableByteChannel)}.
+     */
+    public static Map<String, Stats> calculate(ReadableByteChannel in, int workers)
+            throws IOException, InterruptedException {
+        try (AggregationEngine engine = new AggregationEngine(workers)) {
+            return engine.calculate(in);
+        }
+    }
+
+    // Start of the first line at or after pos: pos itself at the range start or right after a
+    // '\n', otherwise one past the next '\n' (or end). A raw slice [a, b) owns exactly the lines
+    // starting in it, i.e. [lineStartAtOrAfter(a), lineStartAtOrAfter(b)).
+    static long lineStartAtOrAfter(long pos, long start, long end) {
+        if (pos == start) {
+            return pos;
+        }
+        long p = pos - 1;
+        while (p < end && UNSAFE.getByte(p) != '\n') {
+            p++;
+        }
+        return Math.min(p + 1, end);
+    }
+
+    // One pool task per scheduler worker, claiming raw slices of the line-aligned ranges
+    // (segments of the mapped input, as long as the scheduler's range lengths) from the scheduler. Each worker finds the line
+    // boundaries of its own slice, so nothing scans the input before the workers start. Null
+    // slots get a table from the engine that only accumulates rows matching filter (null = all);
+    // existing tables keep accumulating, which is what follow mode relies on. tables may be longer than scheduler.workers().
+    static void runWorkers(AggregationEngine engine, ChunkScheduler scheduler, MemorySegment[] ranges,
+            StationTable[] tables, StationFilter filter, WorkerProfile[] workerProfiles)
+            throws IOException, InterruptedException {
+        runWorkers(engine, scheduler, ranges, tables, filter, workerProfiles, null);
+    }
 
-            StationTable merged = tables[0];
-            for (int t = 1; t < safeWorkers; t++) {
-                if (tables[t] != null) {
-                    merged.mergeFrom(tables[t]);
+    // index (single range only, may be null) replaces the newline search at slice ends with its
+    // line starts and, for unfiltered plain tables, puts an IndexedTable in front of each table.
+    static void runWorkers(AggregationEngine engine, ChunkScheduler scheduler, MemorySegment[] ranges,
+            StationTable[] tables, StationFilter filter, WorkerProfile[] workerProfiles, StationIndex index)
+            throws IOException, InterruptedException {
+        if (index != null && ranges.length != 1) {
+            throw new IllegalArgumentException("a station index covers one file, got " + ranges.length + " ranges");
+        }
+        engine.run(scheduler.workers(), ti -> {
+            StationTable table = tables[ti];
+            if (table == null) {
+                table = engine.acquireTable(filter);
+                tables[ti] = table;
+            }
+            IndexedTable dict = index != null && index.hasDictionary() && table.filter() == null && !table.hasHistograms()
+                    && table.format() == RecordFormat.ONEBRC && LenientScanner.MODE == LenientScanner.Mode.STRICT
+                    ? new IndexedTable(index, table)
+                    : null;
+            WorkerProfile wp = workerProfiles != null ? new WorkerProfile() : null;
+            long busyStart = System.nanoTime();
+            long[] slice = new long[2];
+            try {
+                while (scheduler.claim(ti, slice)) {
+                    long pos = slice[0];
+                    int r = scheduler.rangeOf(pos);
+                    while (pos < slice[1]) {
+                        // Slices are global; cut them at range ends.
+                        long rangeEnd = scheduler.offset(r + 1);
+                        long pieceEnd = Math.min(slice[1], rangeEnd);
+                        long rangeStart = ranges[r].address();
+                        long base = rangeStart - scheduler.offset(r);
+                        long end = rangeEnd + base;
+                        long from;
+                        long to;
+                        if (index != null) {
+                            from = base + index.lineStartAtOrAfter(pos);
+                            to = base + index.lineStartAtOrAfter(pieceEnd);
+                        }
+                        else {
+                            from = lineStartAtOrAfter(base + pos, rangeStart, end);
+                            to = lineStartAtOrAfter(base + pieceEnd, rangeStart, end);
+                        }
+                        if (from < to) {
+                            if (dict != null) {
+                                processChunkIndexed(from, to, dict);
+                            }
+                            else {
+                                processChunk(ranges[r], from, to, table);
+                            }
+                        }
+                        if (wp != null) {
+                            wp.bytes += Math.max(0, to - from);
+                        }
+                        pos = pieceEnd;
+                        r++;
+                    }
+                    if (wp != null) {
+                        wp.chunks++;
+                    }
                 }
             }
+            finally {
+                if (dict != null) {
+                    dict.drain();
+                }
+            }
+            if (wp != null) {
+                wp.endNanos = System.nanoTime();
+                wp.busyNanos = wp.endNanos - busyStart;
+                workerProfiles[ti] = wp;
+            }
+        });
+    }
 
-            Map<String, Stats> result = new HashMap<>(1024);
-            merged.forEach((name, nameLen, minVal, maxVal, sumVal, countVal) -> {
-                result.put(new String(name, 0, nameLen, StandardCharsets.UTF_8),
-                        Stats.fromAggregate(minVal, maxVal, sumVal, countVal));
+    static Map<String, Stats> toStatsMap(StationTable table) {
+        Map<String, Stats> result = new HashMap<>(Math.max(16, table.size() * 2));
+        if (table.hasHistograms()) {
+            table.forEachQuantiles(StationHistograms.QUANTILES, (name, nameLen, minVal, maxVal, sumVal, countVal, quantiles) -> {
+                Stats stats = Stats.fromAggregate(minVal, maxVal, sumVal, countVal);
+                stats.quantileTenths = quantiles;
+                result.put(new String(name, 0, nameLen, StandardCharsets.UTF_8), stats);
             });
-
             return result;
         }
+        table.forEach((name, nameLen, minVal, maxVal, sumVal, countVal) -> {
+            result.put(new String(name, 0, nameLen, StandardCharsets.UTF_8),
+                    Stats.fromAggregate(minVal, maxVal, sumVal, countVal));
+        });
+        return result;
     }
 
     public static String format(Map<String, Stats> statsByStation) {
+        return format(statsByStation, RecordFormat.ONEBRC);
+    }
+
+    /** Like {@link #format(Map)} for values in units of 10^-scale of {@code format}. */
+    public static String format(Map<String, Stats> statsByStation, RecordFormat format) {
+        int scale = format.scale();
         TreeMap<String, Stats> sorted = new TreeMap<>(statsByStation);
         StringBuilder out = new StringBuilder(sorted.size() * 32);
         out.append('{');
@@ -135,9 +583,14 @@ public final class CalculateAverage_jeroen {
             first = false;
             Stats s = e.getValue();
             out.append(e.getKey()).append('=')
-                    .append(formatTenths(s.minTenths)).append('/')
-                    .append(formatTenths(roundedMeanTenths(s.sumTenths, s.count))).append('/')
-                    .append(formatTenths(s.maxTenths));
+                    .append(formatFixed(s.minTenths, scale)).append('/')
+                    .append(formatFixed(roundedMeanTenths(s.sumTenths, s.count), scale)).append('/')
+                    .append(formatFixed(s.maxTenths, scale));
+            if (s.quantileTenths != null) {
+                for (int q : s.quantileTenths) {
+                    out.append('/').append(formatFixed(q, scale));
+                }
+            }
         }
         out.append('}');
         return out.toString();
@@ -164,9 +617,56 @@ public final class CalculateAverage_jeroen {
         return sign * (whole * 10 + frac);
     }
 
+    static String scannerName() {
+        return VECTOR_SCAN ? "vector" + VectorScanner.SPECIES.vectorBitSize() : "swar";
+    }
+
+    private static boolean useVectorScanner(String mode) {
+        boolean present = ModuleLayer.boot().findModule("jdk.incubator.vector").isPresent();
+        switch (mode) {
+            case "swar":
+                return false;
+            case "vector":
+                if (!present) {
+                    throw new IllegalStateException("onebrc.scanner=vector needs --add-modules jdk.incubator.vector");
+                }
+                return true;
+            case "auto":
+                return present && VectorScanner.isUsable();
+            default:
+                throw new IllegalArgumentException("onebrc.scanner must be auto, swar or vector: " + mode);
+        }
+    }
+
     // ---- Inner loop (SWAR + branchless) ----
 
-    private static void processChunk(long addr, long endAddr, StationTable table) {
+    // memory is the segment [addr, endAddr) lies in; the vector scan loads through it.
+    static void processChunk(MemorySegment memory, long addr, long endAddr, StationTable table) {
+        RecordFormat format = table.format();
+        if (format != RecordFormat.ONEBRC) {
+            DelimitedScanner.processChunk(addr, endAddr, table, format);
+            return;
+        }
+        if (table.size() == 0) {
+            // A worker's first chunk (or nothing accepted yet): pick the compare path from its names.
+            table.setMode(StationTable.chooseMode(addr, endAddr));
+        }
+        StationFilter filter = table.filter();
+        if (LenientScanner.MODE == LenientScanner.Mode.LENIENT) {
+            LenientScanner.processChunk(addr, endAddr, table);
+        }
+        else if (filter != null) {
+            processChunkFiltered(addr, endAddr, table, filter);
+        }
+        else if (VECTOR_SCAN) {
+            VectorScanner.processChunk(memory, addr, endAddr, table);
+        }
+        else {
+            processChunkSwar(addr, endAddr, table);
+        }
+    }
+
+    static void processChunkSwar(long addr, long endAddr, StationTable table) {
         long safeEnd = endAddr - SAFE_MARGIN;
 
         while (addr < safeEnd) {
@@ -205,7 +705,94 @@ public final class CalculateAverage_jeroen {
         }
     }
 
-    private static void processChunkSafe(long addr, long endAddr, StationTable table) {
+    // processChunkSwar feeding a worker's IndexedTable: same scan and parse, one slot per row.
+    // The tail goes to the worker's own table like the stations the dictionary misses.
+    static void processChunkIndexed(long addr, long endAddr, IndexedTable dict) {
+        long safeEnd = endAddr - SAFE_MARGIN;
+
+        while (addr < safeEnd) {
+            long nameAddr = addr;
+            long hash = 0;
+            long word;
+            long semi;
+
+            while (true) {
+                word = UNSAFE.getLong(addr);
+                semi = hasByte(word, SEMICOLON_PATTERN);
+                if (semi != 0) {
+                    break;
+                }
+                hash = mixHash(hash, word);
+                addr += 8;
+            }
+
+            int semiPos = Long.numberOfTrailingZeros(semi) >>> 3;
+            hash = mixHash(hash, word & ((1L << (semiPos << 3)) - 1));
+
+            long semiAddr = addr + semiPos;
+            int nameLen = (int) (semiAddr - nameAddr);
+            int finalHash = finalMix(hash);
+
+            long tempWord = UNSAFE.getLong(semiAddr + 1);
+            int dotBitPos = Long.numberOfTrailingZeros(~tempWord & 0x10101000); // merykitty
+            int temp = parseTemperatureBranchless(tempWord, dotBitPos);
+            addr = semiAddr + 1 + (dotBitPos >>> 3) + 3;
+
+            dict.accumulate(nameAddr, nameLen, finalHash, temp);
+        }
+
+        if (addr < endAddr) {
+            processChunkSafe(addr, endAddr, dict.overflow());
+        }
+    }
+
+    // processChunkSwar with the filter checked right after the name hash and the temperature
+    // parse: rows failing the cheap name check or the range never reach the table, which checks
+    // names exactly before inserting them. Kept apart so the unfiltered loop stays as is.
+    static void processChunkFiltered(long addr, long endAddr, StationTable table, StationFilter filter) {
+        long safeEnd = endAddr - SAFE_MARGIN;
+
+        while (addr < safeEnd) {
+            long nameAddr = addr;
+            long hash = 0;
+            long word;
+            long semi;
+
+            while (true) {
+                word = UNSAFE.getLong(addr);
+                semi = hasByte(word, SEMICOLON_PATTERN);
+                if (semi != 0) {
+                    break;
+                }
+                hash = mixHash(hash, word);
+                addr += 8;
+            }
+
+            int semiPos = Long.numberOfTrailingZeros(semi) >>> 3;
+            hash = mixHash(hash, word & ((1L << (semiPos << 3)) - 1));
+
+            long semiAddr = addr + semiPos;
+            int nameLen = (int) (semiAddr - nameAddr);
+            int finalHash = finalMix(hash);
+
+            long tempWord = UNSAFE.getLong(semiAddr + 1);
+            int dotBitPos = Long.numberOfTrailingZeros(~tempWord & 0x10101000); // merykitty
+            addr = semiAddr + 1 + (dotBitPos >>> 3) + 3;
+            if (!filter.mayAcceptName(nameAddr, finalHash)) {
+                continue;
+            }
+            int temp = parseTemperatureBranchless(tempWord, dotBitPos);
+            if (filter.acceptsTemperature(temp)) {
+                table.accumulate(nameAddr, nameLen, finalHash, temp);
+            }
+        }
+
+        if (addr < endAddr) {
+            processChunkSafe(addr, endAddr, table);
+        }
+    }
+
+    static void processChunkSafe(long addr, long endAddr, StationTable table) {
         long lineStart = addr;
         while (addr < endAddr) {
             if (UNSAFE.getByte(addr) == '\n') {
@@ -269,26 +856,95 @@ public final class CalculateAverage_jeroen {
         int frac = (addr < end) ? (UNSAFE.getByte(addr) - '0') : 0;
         int temp = sign * (whole * 10 + frac);
 
+        // Names are checked by the table before it inserts them.
+        StationFilter filter = table.filter();
+        if (filter != null && !filter.acceptsTemperature(temp)) {
+            return;
+        }
         table.accumulate(start, nameLen, finalHash, temp);
     }
 
     // ---- SWAR helpers ----
 
     // Alan Mycroft's hasByte trick: detects a target byte in a 64-bit word in O(1).
-    private static long hasByte(long word, long pattern) {
+    static long hasByte(long word, long pattern) {
         long xor = word ^ pattern;
         return (xor - 0x0101010101010101L) & ~xor & 0x8080808080808080L;
     }
 
-    private static long mixHash(long hash, long word) {
+    static long mixHash(long hash, long word) {
         return hash ^ word;
     }
 
-    private static int finalMix(long h) {
+    static int finalMix(long h) {
         h *= 0x9E3779B97F4A7C15L;
         return (int) (h >>> 17);
     }
 
+    // The scan loops' hash of a name: mixHash over its little-endian 8-byte words, the last one
+    // zero-padded, then finalMix.
+    static int hashName(byte[] name, int len) {
+        long hash = 0;
+        for (int i = 0; i < len; i += 8) {
+            long word = 0;
+            for (int b = 0; b < 8 && i + b < len; b++) {
+                word |= ((long) (name[i + b] & 0xFF)) << (b << 3);
+            }
+            hash = mixHash(hash, word);
+        }
+        return finalMix(hash);
+    }
+
+    // hashName of the len bytes at addr; reads whole words like the scan loops do.
+    static int hashName(long addr, int len) {
+        long hash = 0;
+        int i = 0;
+        for (; i + 8 <= len; i += 8) {
+            hash = mixHash(hash, UNSAFE.getLong(addr + i));
+        }
+        if (i < len) {
+            hash = mixHash(hash, UNSAFE.getLong(addr + i) & ((1L << ((len - i) << 3)) - 1));
+        }
+        return finalMix(hash);
+    }
+
+    // StationTable's seeded hash (see StationTable.HashMode). Unlike the XOR fold of mixHash it
+    // depends on word order and on the seed, and the murmur3 finalizer carries every input bit
+    // into the low bits the table indexes with. Same zero-padded little-endian words as hashName.
+    static int seededHash(long addr, int len, long seed) {
+        long h = seed ^ len;
+        int i = 0;
+        for (; i + 8 <= len; i += 8) {
+            h = seededMix(h, UNSAFE.getLong(addr + i));
+        }
+        if (i < len) {
+            h = seededMix(h, UNSAFE.getLong(addr + i) & ((1L << ((len - i) << 3)) - 1));
+        }
+        return seededFinish(h);
+    }
+
+    static int seededHash(byte[] name, int len, long seed) {
+        long h = seed ^ len;
+        for (int i = 0; i < len; i += 8) {
+            long word = 0;
+            for (int b = 0; b < 8 && i + b < len; b++) {
+                word |= ((long) (name[i + b] & 0xFF)) << (b << 3);
+            }
+            h = seededMix(h, word);
+        }
+        return seededFinish(h);
+    }
+
+    private static long seededMix(long h, long word) {
+        return Long.rotateLeft((h ^ word) * 0x9E3779B97F4A7C15L, 27);
+    }
+
+    private static int seededFinish(long h) {
+        h = (h ^ (h >>> 33)) * 0xFF51AFD7ED558CCDL;
+        h = (h ^ (h >>> 33)) * 0xC4CEB9FE1A85EC53L;
+        return (int) (h ^ (h >>> 33));
+    }
+
     // Branchless temperature parser by Quan Anh Mai (merykitty).
     // Dot-position detection, sign-extension, and 0x640a0001 magic multiply
     // for single-instruction decimal conversion.
@@ -303,9 +959,16 @@ public final class CalculateAverage_jeroen {
 
     // ---- Formatting ----
 
-    private static String formatTenths(long tenths) {
-        long abs = Math.abs(tenths);
-        return (tenths < 0 ? "-" : "") + (abs / 10) + "." + (abs % 10);
+    // "-12.3" for -123 at scale 1, "-0.05" for -5 at scale 2, "7" for 7 at scale 0.
+    private static String formatFixed(long value, int scale) {
+        long abs = Math.abs(value);
+        String sign = value < 0 ? "-" : "";
+        if (scale == 0) {
+            return sign + abs;
+        }
+        long unit = RecordFormat.powerOfTen(scale);
+        String fraction = Long.toString(abs % unit);
+        return sign + (abs / unit) + "." + "0".repeat(scale - fraction.length()) + fraction;
     }
 
     // ---- Stats ----
@@ -315,6 +978,8 @@ public final class CalculateAverage_jeroen {
         int maxTenths;
         long sumTenths;
         long count;
+        // p50/p95/p99 (StationHistograms.QUANTILES) in extended-statistics mode, else null.
+        int[] quantileTenths;
 
         Stats(int valueTenths) {
             this.minTenths = valueTenths;
@@ -343,214 +1008,271 @@ public final class CalculateAverage_jeroen {
         }
     }
 
-    // ---- Hash Table ----
+    // ---- Profiling ----
+
+    /**
+     * Per-phase wall times and per-worker counters of one {@code calculate} run.
+     * Filled in by {@link #calculate(Path, int, RunProfile)}; {@code formatNanos} and
+     * {@code totalNanos} are only set by {@link #main}.
+     */
+    public static final class RunProfile {
+        long fileBytes;
+        int chunks;
+        long mapNanos;
+        long splitNanos;
+        long processNanos;
+        long mergeNanos;
+        long collectNanos;
+        long formatNanos;
+        long totalNanos;
+        long mmapWindow;
+        String schedule = ChunkScheduler.MODE.name().toLowerCase(Locale.ROOT);
+        long finishGapNanos;
+        String merge = "serial";
+        String index = "none";
+        String hash = StationTable.HASH_MODE.name().toLowerCase(Locale.ROOT);
+        String parse = LenientScanner.MODE.name().toLowerCase(Locale.ROOT);
+        String io = "mmap";
+        long readAheadBytes;
+        long rejectedLines;
+        long peakRssKb = -1;
+        WorkerProfile[] workers = new WorkerProfile[0];
+
+        public long fileBytes() {
+            return fileBytes;
+        }
 
-    private interface EntryConsumer {
-        void accept(byte[] name, int nameLen, int min, int max, long sum, long count);
-    }
+        public int chunks() {
+            return chunks;
+        }
 
-    // AoS hash table design inspired by thomaswue and gonix: one cache line per slot.
-    // Off-heap allocation with 64-byte alignment to avoid cross-cache-line splits.
-    private static final class StationTable {
-        // AoS layout: 1 cache line (64 bytes) per slot, off-heap, 64-byte aligned.
-        // [0:8]   packed: (hash<<32)|nameLen, 0=empty
-        // [8:16]  sum (long)
-        // [16:24] count (long)
-        // [24:28] min (int)
-        // [28:32] max (int)
-        // [32:64] inline name (first 32 bytes)
-        private static final int ENTRY_BYTES = 64;
-        private static final int E_PACKED = 0;
-        private static final int E_SUM = 8;
-        private static final int E_COUNT = 16;
-        private static final int E_MIN = 24;
-        private static final int E_MAX = 28;
-        private static final int E_NAME = 32;
-        private static final int INLINE_MAX = 32;
+        public long mapNanos() {
+            return mapNanos;
+        }
 
-        private final long dataAddr;
-        private final byte[][] keys = new byte[TABLE_SIZE][];
-        private final int[] occupied = new int[1024];
-        private int occupiedCount = 0;
+        public long splitNanos() {
+            return splitNanos;
+        }
 
-        StationTable() {
-            long raw = UNSAFE.allocateMemory((long) TABLE_SIZE * ENTRY_BYTES + 64);
-            dataAddr = (raw + 63) & ~63L;
-            UNSAFE.setMemory(dataAddr, (long) TABLE_SIZE * ENTRY_BYTES, (byte) 0);
+        public long processNanos() {
+            return processNanos;
         }
 
-        void accumulate(long nameAddr, int nameLen, int hash, int temp) {
-            long firstWord = (nameLen >= 8)
-                    ? UNSAFE.getLong(nameAddr)
-                    : readPartialWord(nameAddr, nameLen);
-            long packedHashLen = ((long) hash << 32) | (nameLen & 0xFFFFFFFFL);
-            int idx = hash & TABLE_MASK;
+        public long mergeNanos() {
+            return mergeNanos;
+        }
 
-            while (true) {
-                long base = dataAddr + (long) idx * ENTRY_BYTES;
-                long stored = UNSAFE.getLong(base + E_PACKED);
-
-                if (stored == packedHashLen
-                        && UNSAFE.getLong(base + E_NAME) == firstWord
-                        && matchNameRest(base, nameAddr, nameLen, idx)) {
-                    long curSum = UNSAFE.getLong(base + E_SUM);
-                    long curCount = UNSAFE.getLong(base + E_COUNT);
-                    int curMin = UNSAFE.getInt(base + E_MIN);
-                    int curMax = UNSAFE.getInt(base + E_MAX);
-                    UNSAFE.putLong(base + E_SUM, curSum + temp);
-                    UNSAFE.putLong(base + E_COUNT, curCount + 1);
-                    if (temp < curMin) {
-                        UNSAFE.putInt(base + E_MIN, temp);
-                    }
-                    if (temp > curMax) {
-                        UNSAFE.putInt(base + E_MAX, temp);
-                    }
-                    return;
-                }
+        public long collectNanos() {
+            return collectNanos;
+        }
 
-                if (stored == 0) {
-                    byte[] name = new byte[nameLen];
-                    UNSAFE.copyMemory(null, nameAddr, name, BYTE_ARRAY_BASE, nameLen);
-                    keys[idx] = name;
-                    occupied[occupiedCount++] = idx;
-                    UNSAFE.putLong(base + E_PACKED, packedHashLen);
-                    UNSAFE.putLong(base + E_SUM, temp);
-                    UNSAFE.putLong(base + E_COUNT, 1);
-                    UNSAFE.putInt(base + E_MIN, temp);
-                    UNSAFE.putInt(base + E_MAX, temp);
-                    int copyLen = Math.min(nameLen, INLINE_MAX);
-                    UNSAFE.copyMemory(nameAddr, base + E_NAME, copyLen);
-                    return;
-                }
+        public long formatNanos() {
+            return formatNanos;
+        }
 
-                idx = (idx + 1) & TABLE_MASK;
-            }
+        public long totalNanos() {
+            return totalNanos;
         }
 
-        private boolean matchNameRest(long base, long nameAddr, int nameLen, int idx) {
-            if (nameLen <= 8) {
-                return true;
-            }
-            int end = Math.min(nameLen, INLINE_MAX);
-            int i = 8;
-            for (; i + 8 <= end; i += 8) {
-                if (UNSAFE.getLong(base + E_NAME + i)
-                        != UNSAFE.getLong(nameAddr + i)) {
-                    return false;
-                }
-            }
-            for (; i < end; i++) {
-                if (UNSAFE.getByte(base + E_NAME + i)
-                        != UNSAFE.getByte(nameAddr + i)) {
-                    return false;
-                }
-            }
-            if (nameLen > INLINE_MAX) {
-                byte[] key = keys[idx];
-                for (i = INLINE_MAX; i + 8 <= nameLen; i += 8) {
-                    if (UNSAFE.getLong(key, BYTE_ARRAY_BASE + i)
-                            != UNSAFE.getLong(nameAddr + i)) {
-                        return false;
-                    }
-                }
-                for (; i < nameLen; i++) {
-                    if (key[i] != UNSAFE.getByte(nameAddr + i)) {
-                        return false;
-                    }
-                }
-            }
-            return true;
+        /** Window size of the windowed mapping mode, 0 when files were mapped whole. */
+        public long mmapWindow() {
+            return mmapWindow;
         }
 
-        void mergeFrom(StationTable other) {
-            for (int j = 0; j < other.occupiedCount; j++) {
-                int i = other.occupied[j];
-                long oBase = other.dataAddr + (long) i * ENTRY_BYTES;
-                long packed = UNSAFE.getLong(oBase + E_PACKED);
-                int nameLen = (int) packed;
-                int hash = (int) (packed >>> 32);
-                mergeEntry(other.keys[i], nameLen, hash, packed,
-                        UNSAFE.getInt(oBase + E_MIN),
-                        UNSAFE.getInt(oBase + E_MAX),
-                        UNSAFE.getLong(oBase + E_SUM),
-                        UNSAFE.getLong(oBase + E_COUNT));
-            }
+        /** Chunk scheduling mode ({@code guided}, {@code steal} or {@code fixed}). */
+        public String schedule() {
+            return schedule;
         }
 
-        private void mergeEntry(byte[] name, int nameLen, int hash,
-                long packedHashLen, int minVal, int maxVal, long sumVal, long countVal) {
-            long firstWord = (nameLen >= 8)
-                    ? UNSAFE.getLong(name, BYTE_ARRAY_BASE)
-                    : readPartialWordArr(name, nameLen);
-            int idx = hash & TABLE_MASK;
-            while (true) {
-                long base = dataAddr + (long) idx * ENTRY_BYTES;
-                long stored = UNSAFE.getLong(base + E_PACKED);
-
-                if (stored == 0) {
-                    byte[] copy = new byte[nameLen];
-                    System.arraycopy(name, 0, copy, 0, nameLen);
-                    keys[idx] = copy;
-                    UNSAFE.putLong(base + E_PACKED, packedHashLen);
-                    UNSAFE.putLong(base + E_SUM, sumVal);
-                    UNSAFE.putLong(base + E_COUNT, countVal);
-                    UNSAFE.putInt(base + E_MIN, minVal);
-                    UNSAFE.putInt(base + E_MAX, maxVal);
-                    int copyLen = Math.min(nameLen, INLINE_MAX);
-                    UNSAFE.copyMemory(name, BYTE_ARRAY_BASE, null, base + E_NAME, copyLen);
-                    return;
-                }
+        /** Time between the first and the last worker running out of slices. */
+        public long finishGapNanos() {
+            return finishGapNanos;
+        }
 
-                if (stored == packedHashLen
-                        && UNSAFE.getLong(base + E_NAME) == firstWord
-                        && equalsNameBytes(keys[idx], name, nameLen)) {
-                    UNSAFE.putInt(base + E_MIN,
-                            Math.min(UNSAFE.getInt(base + E_MIN), minVal));
-                    UNSAFE.putInt(base + E_MAX,
-                            Math.max(UNSAFE.getInt(base + E_MAX), maxVal));
-                    UNSAFE.putLong(base + E_SUM,
-                            UNSAFE.getLong(base + E_SUM) + sumVal);
-                    UNSAFE.putLong(base + E_COUNT,
-                            UNSAFE.getLong(base + E_COUNT) + countVal);
-                    return;
-                }
+        /** How the worker tables were merged: {@code serial} or {@code partitioned}. */
+        public String merge() {
+            return merge;
+        }
 
-                idx = (idx + 1) & TABLE_MASK;
-            }
+        /**
+         * Sidecar index use: {@code none}, {@code offsets} (line starts only) or
+         * {@code dictionary} (line starts and the preloaded station dictionary).
+         */
+        public String index() {
+            return index;
+        }
+
+        /** Hash mode of the tables ({@code auto}, {@code fast} or {@code seeded}). */
+        public String hash() {
+            return hash;
+        }
+
+        /** Line parsing mode ({@code strict} or {@code lenient}). */
+        public String parse() {
+            return parse;
+        }
+
+        /** Input mode: {@code mmap}, or {@code readahead} with I/O threads warming the page cache. */
+        public String io() {
+            return io;
+        }
+
+        /** Bytes the read-ahead threads read in front of the workers; 0 without read-ahead. */
+        public long readAheadBytes() {
+            return readAheadBytes;
+        }
+
+        /** Lines the lenient parser skipped, over all workers. */
+        public long rejectedLines() {
+            return rejectedLines;
+        }
+
+        /** VmHWM of the process in KB, or -1 when not recorded (only {@link #main} does). */
+        public long peakRssKb() {
+            return peakRssKb;
+        }
+
+        public WorkerProfile[] workers() {
+            return workers.clone();
         }
 
-        void forEach(EntryConsumer consumer) {
-            for (int j = 0; j < occupiedCount; j++) {
-                int i = occupied[j];
-                long base = dataAddr + (long) i * ENTRY_BYTES;
-                consumer.accept(keys[i], (int) UNSAFE.getLong(base + E_PACKED),
-                        UNSAFE.getInt(base + E_MIN),
-                        UNSAFE.getInt(base + E_MAX),
-                        UNSAFE.getLong(base + E_SUM),
-                        UNSAFE.getLong(base + E_COUNT));
+        // key=value lines, parsed by scripts/prove_run.sh
+        String toKeyValues() {
+            StringBuilder out = new StringBuilder(256 + workers.length * 160);
+            out.append("phase.map_ms=").append(millis(mapNanos)).append('\n');
+            out.append("phase.split_ms=").append(millis(splitNanos)).append('\n');
+            out.append("phase.process_ms=").append(millis(processNanos)).append('\n');
+            out.append("phase.merge_ms=").append(millis(mergeNanos)).append('\n');
+            out.append("phase.process_merge_ms=").append(millis(processNanos + mergeNanos)).append('\n');
+            out.append("phase.collect_ms=").append(millis(collectNanos)).append('\n');
+            out.append("phase.format_ms=").append(millis(formatNanos)).append('\n');
+            out.append("phase.total_ms=").append(millis(totalNanos)).append('\n');
+            out.append("run.file_bytes=").append(fileBytes).append('\n');
+            out.append("run.chunks=").append(chunks).append('\n');
+            out.append("run.scanner=").append(scannerName()).append('\n');
+            out.append("run.mmap_window_bytes=").append(mmapWindow).append('\n');
+            out.append("run.schedule=").append(schedule).append('\n');
+            out.append("run.finish_gap_ms=").append(millis(finishGapNanos)).append('\n');
+            out.append("run.merge=").append(merge).append('\n');
+            out.append("run.index=").append(index).append('\n');
+            out.append("run.hash=").append(hash).append('\n');
+            out.append("run.parse=").append(parse).append('\n');
+            out.append("run.io=").append(io).append('\n');
+            out.append("run.read_ahead_bytes=").append(readAheadBytes).append('\n');
+            out.append("run.rejected_lines=").append(rejectedLines).append('\n');
+            out.append("run.peak_rss_kb=").append(peakRssKb).append('\n');
+            out.append("run.workers=").append(workers.length);
+            for (int t = 0; t < workers.length; t++) {
+                WorkerProfile w = workers[t];
+                String prefix = "\nworker." + t + '.';
+                out.append(prefix).append("chunks=").append(w.chunks);
+                out.append(prefix).append("bytes=").append(w.bytes);
+                out.append(prefix).append("rows=").append(w.rows);
+                out.append(prefix).append("busy_ms=").append(millis(w.busyNanos));
+                out.append(prefix).append("idle_ms=").append(millis(w.idleNanos));
+                out.append(prefix).append("max_probe=").append(w.maxProbe);
+                out.append(prefix).append("reseeds=").append(w.reseeds);
+                out.append(prefix).append("rejected_lines=").append(w.rejectedLines);
             }
+            return out.toString();
         }
 
-        private static boolean equalsNameBytes(byte[] a, byte[] b, int len) {
-            for (int i = 0; i < len; i++) {
-                if (a[i] != b[i]) {
-                    return false;
+        String toJson() {
+            StringBuilder out = new StringBuilder(256 + workers.length * 128);
+            out.append("{\"phase\":{")
+                    .append("\"map_ms\":").append(millis(mapNanos))
+                    .append(",\"split_ms\":").append(millis(splitNanos))
+                    .append(",\"process_ms\":").append(millis(processNanos))
+                    .append(",\"merge_ms\":").append(millis(mergeNanos))
+                    .append(",\"collect_ms\":").append(millis(collectNanos))
+                    .append(",\"format_ms\":").append(millis(formatNanos))
+                    .append(",\"total_ms\":").append(millis(totalNanos))
+                    .append("},\"file_bytes\":").append(fileBytes)
+                    .append(",\"chunks\":").append(chunks)
+                    .append(",\"scanner\":\"").append(scannerName()).append('"')
+                    .append(",\"mmap_window_bytes\":").append(mmapWindow)
+                    .append(",\"schedule\":\"").append(schedule).append('"')
+                    .append(",\"finish_gap_ms\":").append(millis(finishGapNanos))
+                    .append(",\"merge\":\"").append(merge).append('"')
+                    .append(",\"index\":\"").append(index).append('"')
+                    .append(",\"hash\":\"").append(hash).append('"')
+                    .append(",\"parse\":\"").append(parse).append('"')
+                    .append(",\"io\":\"").append(io).append('"')
+                    .append(",\"read_ahead_bytes\":").append(readAheadBytes)
+                    .append(",\"rejected_lines\":").append(rejectedLines)
+                    .append(",\"peak_rss_kb\":").append(peakRssKb)
+                    .append(",\"workers\":[");
+            for (int t = 0; t < workers.length; t++) {
+                WorkerProfile w = workers[t];
+                if (t > 0) {
+                    out.append(',');
                 }
+                out.append("{\"chunks\":").append(w.chunks)
+                        .append(",\"bytes\":").append(w.bytes)
+                        .append(",\"rows\":").append(w.rows)
+                        .append(",\"busy_ms\":").append(millis(w.busyNanos))
+                        .append(",\"idle_ms\":").append(millis(w.idleNanos))
+                        .append(",\"max_probe\":").append(w.maxProbe)
+                        .append(",\"reseeds\":").append(w.reseeds)
+                        .append(",\"rejected_lines\":").append(w.rejectedLines)
+                        .append('}');
             }
-            return true;
+            return out.append("]}").toString();
         }
 
-        private static long readPartialWord(long addr, int len) {
-            return UNSAFE.getLong(addr) & ((1L << (len << 3)) - 1);
+        private static String millis(long nanos) {
+            return Long.toString(nanos / 1_000_000) + '.' + (char) ('0' + (nanos / 100_000) % 10);
         }
+    }
 
-        private static long readPartialWordArr(byte[] arr, int len) {
-            long word = 0;
-            int n = Math.min(len, 8);
-            for (int i = 0; i < n; i++) {
-                word |= ((long) (arr[i] & 0xFF)) << (i << 3);
-            }
-            return word;
+    /**
+     * Counters for one worker thread. {@code idleNanos} is the part of the process
+     * phase the worker spent not owning a chunk (startup and waiting for stragglers).
+     */
+    public static final class WorkerProfile {
+        int chunks;
+        long bytes;
+        long rows;
+        long busyNanos;
+        long idleNanos;
+        long endNanos; // System.nanoTime() when the worker ran out of slices
+        int maxProbe; // longest insert probe run in the worker's table
+        int reseeds;
+        long rejectedLines;
+
+        public int chunks() {
+            return chunks;
+        }
+
+        public long bytes() {
+            return bytes;
+        }
+
+        public long rows() {
+            return rows;
+        }
+
+        public long busyNanos() {
+            return busyNanos;
+        }
+
+        public long idleNanos() {
+            return idleNanos;
+        }
+
+        /** Longest probe run of an insert into the worker's table. */
+        public int maxProbe() {
+            return maxProbe;
+        }
+
+        /** Times the worker's table rehashed under a new seed after a long probe run. */
+        public int reseeds() {
+            return reseeds;
+        }
+
+        /** Lines the lenient parser skipped in this worker's slices. */
+        public long rejectedLines() {
+            return rejectedLines;
         }
     }
 }
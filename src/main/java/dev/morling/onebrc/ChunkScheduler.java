@@ -0,0 +1,212 @@
+package dev.morling.onebrc;
+
+import static dev.morling.onebrc.CalculateAverage_jeroen.CHUNK_SIZE;
+
+import java.util.Locale;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Hands out raw byte slices of the concatenated input ranges to the workers. A slice
+ * {@code [from, to)} is in global coordinates (range {@code r} starts at {@link #offset(int)})
+ * and may span several ranges; workers own the lines that start inside it, exactly as
+ * with the old fixed {@code CHUNK_SIZE} slices.
+ *
+ * <p>Modes, selected with {@code -Donebrc.schedule=guided|steal|fixed}:
+ * <ul>
+ * <li>{@code guided} (default): one shared cursor; each claim takes a share of the bytes
+ * still unclaimed, between {@link #MIN_CHUNK} and a maximum derived from input size and
+ * worker count. Slices shrink towards the end of the run, so a slow core is never left
+ * alone with a full-size slice after the others have gone idle.</li>
+ * <li>{@code steal}: each worker starts with a contiguous span and takes guided slices from
+ * its front; a worker whose span is empty takes the back half of the largest remaining span.</li>
+ * <li>{@code fixed}: {@code CHUNK_SIZE} slices from a shared cursor, the previous behaviour.</li>
+ * </ul>
+ */
+final class ChunkScheduler {
+
+    enum Mode {
+        FIXED,
+        GUIDED,
+        STEAL
+    }
+
+    static final Mode MODE = Mode.valueOf(System.getProperty("onebrc.schedule", "guided").toUpperCase(Locale.ROOT));
+
+    // Below this, claiming costs more than the imbalance it removes (~50 us of parsing per slice).
+    static final int MIN_CHUNK = 1 << 16;
+
+    // Guided claims take remaining / (GUIDED_FACTOR x workers).
+    private static final int GUIDED_FACTOR = 2;
+
+    private final Mode mode;
+    private final long[] offsets;
+    private final long total;
+    private final int workers;
+    private final long maxChunk;
+    private final long minChunk;
+    private final AtomicLong cursor = new AtomicLong();
+    private final Span[] spans;
+
+    // Remaining part [next, end) of one worker's span in steal mode.
+    private static final class Span {
+        long next;
+        long end;
+
+        Span(long next, long end) {
+            this.next = next;
+            this.end = end;
+        }
+    }
+
+    ChunkScheduler(Mode mode, long[] lengths, int workers) {
+        this.mode = mode;
+        this.offsets = new long[lengths.length + 1];
+        for (int r = 0; r < lengths.length; r++) {
+            offsets[r + 1] = offsets[r] + lengths[r];
+        }
+        this.total = offsets[lengths.length];
+        int requested = Math.max(1, workers);
+        if (mode == Mode.FIXED) {
+            maxChunk = CHUNK_SIZE;
+            minChunk = CHUNK_SIZE;
+        }
+        else {
+            // About eight slices per worker before guided shrinking starts, capped at CHUNK_SIZE.
+            maxChunk = Math.clamp(total / (8L * requested), MIN_CHUNK, CHUNK_SIZE);
+            minChunk = MIN_CHUNK;
+        }
+        this.workers = Math.clamp((total + maxChunk - 1) / maxChunk, 1, requested);
+        if (mode == Mode.STEAL) {
+            spans = new Span[this.workers];
+            for (int w = 0; w < this.workers; w++) {
+                spans[w] = new Span(total * w / this.workers, total * (w + 1) / this.workers);
+            }
+        }
+        else {
+            spans = null;
+        }
+    }
+
+    Mode mode() {
+        return mode;
+    }
+
+    // Number of workers worth starting; at most the requested count.
+    int workers() {
+        return workers;
+    }
+
+    long totalBytes() {
+        return total;
+    }
+
+    // Global offset of range r.
+    long offset(int r) {
+        return offsets[r];
+    }
+
+    // Range containing global position pos (< totalBytes()); empty ranges are never returned.
+    int rangeOf(long pos) {
+        int lo = 0;
+        int hi = offsets.length - 2;
+        while (lo < hi) {
+            int mid = (lo + hi + 1) >>> 1;
+            if (offsets[mid] <= pos) {
+                lo = mid;
+            }
+            else {
+                hi = mid - 1;
+            }
+        }
+        return lo;
+    }
+
+    // End of the slices claimed so far in the shared-cursor modes; everything before it is
+    // claimed. Followed by ReadAhead.
+    long cursor() {
+        return cursor.get();
+    }
+
+    /**
+     * Claims the next slice for worker {@code worker} (0 .. {@link #workers()} - 1) into
+     * {@code slice[0..1]}; returns {@code false} once the input is exhausted.
+     */
+    boolean claim(int worker, long[] slice) {
+        return mode == Mode.STEAL ? claimSpan(worker, slice) : claimShared(slice);
+    }
+
+    private boolean claimShared(long[] slice) {
+        while (true) {
+            long from = cursor.get();
+            if (from >= total) {
+                return false;
+            }
+            long to = Math.min(total, from + sliceSize(total - from));
+            if (cursor.compareAndSet(from, to)) {
+                slice[0] = from;
+                slice[1] = to;
+                return true;
+            }
+        }
+    }
+
+    private boolean claimSpan(int worker, long[] slice) {
+        Span own = spans[worker];
+        while (true) {
+            synchronized (own) {
+                long remaining = own.end - own.next;
+                if (remaining > 0) {
+                    slice[0] = own.next;
+                    own.next = Math.min(own.end, own.next + sliceSize(remaining));
+                    slice[1] = own.next;
+                    return true;
+                }
+            }
+            if (!steal(own)) {
+                return false;
+            }
+        }
+    }
+
+    // Moves the back half of the largest other span into own; false when nothing is worth splitting.
+    private boolean steal(Span own) {
+        while (true) {
+            Span victim = null;
+            long largest = 2 * minChunk - 1;
+            for (Span span : spans) {
+                if (span != own) {
+                    // Racy read, only used to pick a victim; the split below re-checks under the lock.
+                    long remaining = span.end - span.next;
+                    if (remaining > largest) {
+                        largest = remaining;
+                        victim = span;
+                    }
+                }
+            }
+            if (victim == null) {
+                return false;
+            }
+            synchronized (victim) {
+                long remaining = victim.end - victim.next;
+                if (remaining < 2 * minChunk) {
+                    continue;
+                }
+                long mid = victim.next + remaining / 2;
+                synchronized (own) {
+                    own.next = mid;
+                    own.end = victim.end;
+                }
+                victim.end = mid;
+                return true;
+            }
+        }
+    }
+
+    private long sliceSize(long remaining) {
+        if (mode == Mode.FIXED) {
+            return CHUNK_SIZE;
+        }
+        int sharers = mode == Mode.STEAL ? 1 : workers;
+        return Math.clamp(remaining / ((long) GUIDED_FACTOR * sharers), minChunk, maxChunk);
+    }
+}
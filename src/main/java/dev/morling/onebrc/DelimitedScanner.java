@@ -0,0 +1,236 @@
+package dev.morling.onebrc;
+
+import static dev.morling.onebrc.CalculateAverage_jeroen.UNSAFE;
+import static dev.morling.onebrc.CalculateAverage_jeroen.finalMix;
+import static dev.morling.onebrc.CalculateAverage_jeroen.hasByte;
+import static dev.morling.onebrc.CalculateAverage_jeroen.mixHash;
+import static dev.morling.onebrc.LenientScanner.INVALID;
+
+/**
+ * {@code processChunk} for any {@link RecordFormat} other than {@link RecordFormat#ONEBRC}.
+ * Fields are found a word at a time, testing 8 bytes at once for the delimiter and '\n'
+ * ({@code hasByte}), so the fields before the key and the value cost one test per 8 bytes and
+ * the rest of a line is skipped to its '\n' the same way. The key's words go into the scan hash
+ * on the way, as for a station name ({@code hashName}), so filters, merges and snapshots treat
+ * keys like names. Values are an optional '-', integer digits
+ * and optionally '.' with one to scale decimals, parsed into units of 10^-scale. At most
+ * {@code 9 - scale} integer digits are allowed, so a value always fits an int.
+ * <p>
+ * Other lines go to the table's {@link LineRejects}, as in lenient parsing. Examples are
+ * lines with too few columns, an empty key or a value that does not parse; a header line is
+ * one of them. Blank lines are skipped. Columns past the key and value are ignored. As in
+ * {@link LenientScanner}, a chunk's last lines are scanned from a padded copy.
+ */
+final class DelimitedScanner {
+
+    private static final long NEWLINE_PATTERN = 0x0A0A0A0A0A0A0A0AL;
+    private static final long DOT_PATTERN = 0x2E2E2E2E2E2E2E2EL;
+    // Zeroed bytes after the copied tail, for the word reads past its last '\n'.
+    private static final int TAIL_PADDING = 16;
+
+    private DelimitedScanner() {
+    }
+
+    static void processChunk(long addr, long endAddr, StationTable table, RecordFormat format) {
+        // Lines up to the last '\n' a word before the end are scanned in place; the word reads
+        // past it stay inside the chunk.
+        long lastNewline = endAddr - 8;
+        while (lastNewline >= addr && UNSAFE.getByte(lastNewline) != '\n') {
+            lastNewline--;
+        }
+        if (lastNewline >= addr) {
+            scan(addr, lastNewline + 1, table, format);
+        }
+        if (lastNewline + 1 < endAddr) {
+            processTail(Math.max(addr, lastNewline + 1), endAddr, table, format);
+        }
+    }
+
+    // Copies [addr, endAddr) to a zeroed buffer, ending it with a '\n' if it lacks one, and
+    // scans it there.
+    private static void processTail(long addr, long endAddr, StationTable table, RecordFormat format) {
+        long len = endAddr - addr;
+        long buffer = UNSAFE.allocateMemory(len + 1 + TAIL_PADDING);
+        try {
+            UNSAFE.setMemory(buffer, len + 1 + TAIL_PADDING, (byte) 0);
+            UNSAFE.copyMemory(addr, buffer, len);
+            if (UNSAFE.getByte(endAddr - 1) != '\n') {
+                UNSAFE.putByte(buffer + len++, (byte) '\n');
+            }
+            scan(buffer, buffer + len, table, format);
+        }
+        finally {
+            UNSAFE.freeMemory(buffer);
+        }
+    }
+
+    // Scans the lines in [addr, endAddr), which ends with a '\n' and has 8 readable bytes after it.
+    private static void scan(long addr, long endAddr, StationTable table, RecordFormat format) {
+        long delimiterPattern = 0x0101010101010101L * (format.delimiter & 0xFF);
+        int keyColumn = format.keyColumn;
+        int valueColumn = format.valueColumn;
+        int lastColumn = Math.max(keyColumn, valueColumn);
+        int scale = format.scale;
+        // Keys are checked by the table before it inserts them.
+        StationFilter filter = table.filter();
+        LineRejects rejects = table.rejects();
+
+        while (addr < endAddr) {
+            long lineStart = addr;
+            long keyStart = 0;
+            int keyLen = 0;
+            long hash = 0;
+            boolean rehash = false;
+            long valueStart = 0;
+            long valueEnd = 0;
+            boolean complete = false;
+            for (int column = 0;; column++) {
+                long fieldStart = addr;
+                long word;
+                long found;
+                if (column == keyColumn) {
+                    // The key's words go into the scan hash on the way, like a station name.
+                    while (true) {
+                        word = UNSAFE.getLong(addr);
+                        found = hasByte(word, delimiterPattern) | hasByte(word, NEWLINE_PATTERN);
+                        if (found != 0) {
+                            break;
+                        }
+                        hash = mixHash(hash, word);
+                        addr += 8;
+                    }
+                    int pos = Long.numberOfTrailingZeros(found) >>> 3;
+                    hash = mixHash(hash, word & ((1L << (pos << 3)) - 1));
+                    addr += pos;
+                    keyStart = fieldStart;
+                    keyLen = (int) (addr - fieldStart);
+                }
+                else {
+                    while ((found = hasByte(word = UNSAFE.getLong(addr), delimiterPattern) | hasByte(word, NEWLINE_PATTERN)) == 0) {
+                        addr += 8;
+                    }
+                    addr += Long.numberOfTrailingZeros(found) >>> 3;
+                    if (column == valueColumn) {
+                        valueStart = fieldStart;
+                        valueEnd = addr;
+                    }
+                }
+                // The lowest flagged byte of the two masks is exact: a delimiter or the '\n'.
+                boolean lineEnd = UNSAFE.getByte(addr) == '\n';
+                addr++;
+                if (lineEnd && addr - 1 > fieldStart && UNSAFE.getByte(addr - 2) == '\r') {
+                    // Last field of a CRLF line: without the '\r'.
+                    if (column == keyColumn) {
+                        keyLen--;
+                        rehash = true;
+                    }
+                    else if (column == valueColumn) {
+                        valueEnd--;
+                    }
+                }
+                if (column == lastColumn) {
+                    complete = true;
+                    if (!lineEnd) {
+                        long newline;
+                        while ((newline = hasByte(UNSAFE.getLong(addr), NEWLINE_PATTERN)) == 0) {
+                            addr += 8;
+                        }
+                        addr += (Long.numberOfTrailingZeros(newline) >>> 3) + 1;
+                    }
+                    break;
+                }
+                if (lineEnd) {
+                    break;
+                }
+            }
+
+            int value = complete && keyLen > 0 ? parseValue(valueStart, valueEnd, scale) : INVALID;
+            if (value != INVALID) {
+                if (filter == null || filter.acceptsTemperature(value)) {
+                    int keyHash = rehash ? CalculateAverage_jeroen.hashName(keyStart, keyLen) : finalMix(hash);
+                    table.accumulate(keyStart, keyLen, keyHash, value);
+                }
+                continue;
+            }
+            long contentEnd = addr - 1 > lineStart && UNSAFE.getByte(addr - 2) == '\r' ? addr - 2 : addr - 1;
+            if (contentEnd > lineStart) {
+                rejects.add(lineStart, contentEnd);
+            }
+        }
+    }
+
+    /** The value in [start, end) in units of 10^-scale, or INVALID. */
+    static int parseValue(long start, long end, int scale) {
+        int len = (int) (end - start);
+        if (len > 8) {
+            return parseLongValue(start, end, scale);
+        }
+        if (len <= 0) {
+            return INVALID;
+        }
+        // One word: validate with masks, drop the '.', then the usual SWAR 8-digit conversion.
+        long word = UNSAFE.getLong(start) & lowBytes(len);
+        int negative = (word & 0xFF) == '-' ? 1 : 0;
+        long v = word >>> (negative << 3);
+        int n = len - negative;
+        long dots = hasByte(v, DOT_PATTERN) & lowBytes(n);
+        int whole = dots == 0 ? n : Long.numberOfTrailingZeros(dots) >>> 3;
+        int decimals = dots == 0 ? 0 : n - whole - 1;
+        long digits = dots == 0 ? v : (v & lowBytes(whole)) | ((v >>> 8) & ~lowBytes(whole));
+        int count = whole + decimals;
+        if ((LenientScanner.nonDigits(digits) & lowBytes(count)) != 0 || whole == 0 || (dots != 0 && decimals == 0)
+                || decimals > scale || whole + scale > RecordFormat.MAX_DIGITS) {
+            return INVALID;
+        }
+        long x = ((digits & 0x0F0F0F0F0F0F0F0FL) & lowBytes(count)) << ((8 - count) << 3);
+        x = (x * 2561) >>> 8;
+        x = ((x & 0x00FF00FF00FF00FFL) * 6553601) >>> 16;
+        x = ((x & 0x0000FFFF0000FFFFL) * 42949672960001L) >>> 32;
+        int value = (int) x * RecordFormat.powerOfTen(scale - decimals);
+        return negative == 0 ? value : -value;
+    }
+
+    // Mask of the low n bytes of a word, 0 <= n <= 8.
+    private static long lowBytes(int n) {
+        return n == 8 ? -1L : (1L << (n << 3)) - 1;
+    }
+
+    // parseValue for fields longer than a word; all but the longest values are rejected.
+    private static int parseLongValue(long start, long end, int scale) {
+        long p = start;
+        boolean negative = p < end && UNSAFE.getByte(p) == '-';
+        if (negative) {
+            p++;
+        }
+        int value = 0;
+        int whole = 0;
+        for (; p < end; p++) {
+            int digit = UNSAFE.getByte(p) - '0';
+            if (digit < 0 || digit > 9) {
+                break;
+            }
+            if (++whole + scale > RecordFormat.MAX_DIGITS) {
+                return INVALID;
+            }
+            value = value * 10 + digit;
+        }
+        int decimals = 0;
+        if (p < end && UNSAFE.getByte(p) == '.') {
+            for (p++; p < end; p++) {
+                int digit = UNSAFE.getByte(p) - '0';
+                if (digit < 0 || digit > 9 || ++decimals > scale) {
+                    return INVALID;
+                }
+                value = value * 10 + digit;
+            }
+            if (decimals == 0) {
+                return INVALID;
+            }
+        }
+        if (p != end || whole == 0) {
+            return INVALID;
+        }
+        value *= RecordFormat.powerOfTen(scale - decimals);
+        return negative ? -value : value;
+    }
+}
@@ -0,0 +1,105 @@
+package dev.morling.onebrc;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.WritableByteChannel;
+import java.util.List;
+import java.util.Locale;
+
+/**
+ * Takes JVM teardown out of the time the caller waits for. With {@code -Donebrc.exit=detach},
+ * {@link CalculateAverage_jeroen#main} starts itself again as a child process with the same
+ * JVM options and arguments plus {@value #CHILD_FLAG}, and copies the child's stdout to its
+ * own. The child prints its result in one write, followed by a {@link #DONE} byte, and closes
+ * stdout before it unmaps the input, frees its tables and shuts down. On that byte the parent
+ * exits with status 0 while the child is still tearing down; unmapping a multi-GB mapping
+ * alone takes a sizeable part of a short run.
+ * <p>
+ * Output that does not end with the byte (a failure before the result, or modes such as
+ * {@code --build-index} that print otherwise) is passed through whole, and the parent then
+ * waits for the child and exits with its status. The child's stdin and stderr are the
+ * parent's, so {@code -} input, reject reports and {@code PRINT_PHASE_TIMINGS} work as
+ * before; a caller that reads the process's stderr through a pipe still waits for the child.
+ * Follow mode and shard children ({@code --shard}) never detach.
+ */
+final class FastExit {
+
+    enum Mode {
+        WAIT,
+        DETACH
+    }
+
+    static final Mode MODE = Mode.valueOf(System.getProperty("onebrc.exit", "wait").toUpperCase(Locale.ROOT));
+
+    /** Marks the child of a detached run, which does the work itself. */
+    static final String CHILD_FLAG = "--detached-child";
+
+    /** Last byte of a detached child's output once its result is complete; never part of a result. */
+    static final int DONE = 0;
+
+    private static volatile boolean child;
+
+    private FastExit() {
+    }
+
+    // Called by main on seeing CHILD_FLAG.
+    static void enterChild() {
+        child = true;
+    }
+
+    // Whether printed results must end with DONE.
+    static boolean isChild() {
+        return child;
+    }
+
+    // Ends a complete result on out, in the child only.
+    static void markDone(WritableByteChannel out) throws IOException {
+        if (child) {
+            ByteBuffer done = ByteBuffer.wrap(new byte[]{ DONE });
+            while (done.hasRemaining()) {
+                out.write(done);
+            }
+        }
+    }
+
+    /**
+     * Runs args in a child process and copies its stdout to out until the child marks it
+     * {@link #DONE} or closes it; returns the exit status for this process.
+     */
+    static int run(List<String> args, OutputStream out) throws IOException, InterruptedException {
+        List<String> command = ShardCoordinator.javaCommand();
+        command.add(CHILD_FLAG);
+        command.addAll(args);
+        Process process = new ProcessBuilder(command)
+                .redirectInput(ProcessBuilder.Redirect.INHERIT)
+                .redirectError(ProcessBuilder.Redirect.INHERIT)
+                .start();
+        int last = copyHoldingLast(process.getInputStream(), out);
+        if (last == DONE) {
+            return 0;
+        }
+        if (last >= 0) {
+            out.write(last);
+        }
+        return process.waitFor();
+    }
+
+    // Copies in to out except for its last byte, which is returned (-1 if in was empty).
+    static int copyHoldingLast(InputStream in, OutputStream out) throws IOException {
+        byte[] buffer = new byte[1 << 16];
+        int held = -1;
+        try (in) {
+            int n;
+            while ((n = in.read(buffer)) > 0) {
+                if (held >= 0) {
+                    out.write(held);
+                }
+                out.write(buffer, 0, n - 1);
+                held = buffer[n - 1] & 0xFF;
+            }
+        }
+        return held;
+    }
+}
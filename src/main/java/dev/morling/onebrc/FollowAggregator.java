@@ -0,0 +1,157 @@
+package dev.morling.onebrc;
+
+import static dev.morling.onebrc.CalculateAverage_jeroen.UNSAFE;
+
+import java.io.IOException;
+import java.lang.foreign.Arena;
+import java.lang.foreign.MemorySegment;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.time.Duration;
+import java.util.Map;
+import java.util.function.Consumer;
+
+import dev.morling.onebrc.CalculateAverage_jeroen.Stats;
+
+/**
+ * Incremental aggregation over a file that keeps being appended to. The worker pool and
+ * per-worker {@link StationTable}s stay alive between polls and only the bytes after
+ * the last complete line are mapped and processed, so the cost of a poll follows the
+ * amount of new data, not the file size. A trailing partial line is left for the next poll.
+ * <p>
+ * Not thread-safe: {@link #poll()}, {@link #snapshot()} and {@link #follow} must be
+ * called from one thread.
+ */
+public final class FollowAggregator implements AutoCloseable {
+
+    private final Path file;
+    private final FileChannel channel;
+    private final AggregationEngine engine;
+    private final StationTable[] tables;
+    private final StationFilter filter;
+    private long offset;
+
+    public FollowAggregator(Path file, int workers) throws IOException {
+        this(file, workers, null);
+    }
+
+    /** Only aggregates rows matching {@code filter} ({@code null} = all rows). */
+    public FollowAggregator(Path file, int workers, StationFilter filter) throws IOException {
+        this(file, workers, filter, RecordFormat.ONEBRC);
+    }
+
+    /** Reads records laid out as {@code format}; see {@link AggregationEngine#AggregationEngine(int, RecordFormat)}. */
+    public FollowAggregator(Path file, int workers, StationFilter filter, RecordFormat format) throws IOException {
+        this.file = file;
+        this.filter = filter;
+        this.channel = FileChannel.open(file, StandardOpenOption.READ);
+        this.engine = new AggregationEngine(workers, format);
+        this.tables = new StationTable[engine.workers()];
+    }
+
+    /** End of the last complete line aggregated so far. */
+    public long offset() {
+        return offset;
+    }
+
+    /**
+     * Aggregates the complete lines appended since the previous poll.
+     *
+     * @return number of bytes consumed; 0 if no new complete line is available
+     */
+    public long poll() throws IOException, InterruptedException {
+        long size = channel.size();
+        if (size < offset) {
+            // Truncated or replaced in place (log rotation): start over.
+            reset();
+        }
+        if (size == offset) {
+            return 0;
+        }
+
+        try (Arena arena = Arena.ofShared()) {
+            MemorySegment mapping = channel.map(FileChannel.MapMode.READ_ONLY, offset, size - offset, arena);
+            long start = mapping.address();
+            long end = start + (size - offset);
+            while (end > start && UNSAFE.getByte(end - 1) != '\n') {
+                end--;
+            }
+            if (end == start) {
+                return 0;
+            }
+
+            // Small appends only need a few threads (the scheduler starts fewer workers);
+            // tables of idle workers stay as they are.
+            ChunkScheduler scheduler = new ChunkScheduler(ChunkScheduler.MODE, new long[]{ end - start }, tables.length);
+            CalculateAverage_jeroen.runWorkers(engine, scheduler, new MemorySegment[]{ mapping.asSlice(0, end - start) }, tables,
+                    filter, null);
+
+            offset += end - start;
+            return end - start;
+        }
+    }
+
+    /** Current aggregate over everything consumed so far; O(workers x distinct names). */
+    public Map<String, Stats> snapshot() {
+        StationTable merged = engine.acquireTable();
+        try {
+            for (StationTable table : tables) {
+                if (table != null) {
+                    merged.mergeFrom(table);
+                }
+            }
+            return CalculateAverage_jeroen.toStatsMap(merged);
+        }
+        finally {
+            engine.releaseTable(merged);
+        }
+    }
+
+    /**
+     * Polls every {@code interval} and hands a fresh snapshot to {@code sink} whenever new
+     * lines were consumed (and once up front). Runs until the calling thread is interrupted.
+     */
+    public void follow(Duration interval, Consumer<Map<String, Stats>> sink)
+            throws IOException {
+        try {
+            poll();
+            sink.accept(snapshot());
+            while (!Thread.currentThread().isInterrupted()) {
+                Thread.sleep(interval);
+                if (poll() > 0) {
+                    sink.accept(snapshot());
+                }
+            }
+        }
+        catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        releaseTables();
+        engine.close();
+        channel.close();
+    }
+
+    private void reset() {
+        releaseTables();
+        offset = 0;
+    }
+
+    private void releaseTables() {
+        for (int t = 0; t < tables.length; t++) {
+            if (tables[t] != null) {
+                engine.releaseTable(tables[t]);
+                tables[t] = null;
+            }
+        }
+    }
+
+    @Override
+    public String toString() {
+        return "FollowAggregator[" + file + " @ " + offset + "]";
+    }
+}
@@ -0,0 +1,467 @@
+package dev.morling.onebrc;
+
+import static dev.morling.onebrc.CalculateAverage_jeroen.UNSAFE;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.lang.foreign.Arena;
+import java.lang.foreign.MemorySegment;
+import java.lang.foreign.ValueLayout;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.FileChannel;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.zip.CRC32;
+import java.util.zip.DataFormatException;
+import java.util.zip.Inflater;
+
+/**
+ * Gzip input using only {@link Inflater}. The compressed file is memory-mapped and
+ * inflated straight into off-heap buffers that feed {@code processChunk}. Headers are read
+ * through a bounds-checked segment of the whole file; the inflater takes its input from
+ * {@link MappedByteBuffer}s of the same file, and inflates into direct buffers, so no
+ * restricted method is needed.
+ * <ul>
+ * <li>Block-gzipped files (BGZF, as written by {@code bgzip}) record every member's
+ * compressed size in a {@code BC} header field, so member boundaries are found by
+ * walking headers only. Consecutive members are grouped into ~{@value #BATCH_COMPRESSED_BYTES}
+ * byte batches that workers take from a shared counter, inflate into one contiguous
+ * buffer and process in place; the partial lines at batch edges are stitched together
+ * at the end.</li>
+ * <li>Anything else (one member, or plain concatenated members whose sizes are only
+ * known after inflating them) goes through a single pipelined inflater feeding
+ * {@link StreamingAggregator}, so parsing still overlaps decompression.</li>
+ * </ul>
+ */
+final class GzipAggregator {
+
+    static final int BATCH_COMPRESSED_BYTES = 1 << 20;
+
+    private static final int FRESERVED = 0xE0;
+    private static final int FHCRC = 2;
+    private static final int FEXTRA = 4;
+    private static final int FNAME = 8;
+    private static final int FCOMMENT = 16;
+    private static final int TRAILER_BYTES = 8;
+    // Inflater input is fed as ByteBuffer windows, which cannot exceed 2 GB.
+    private static final long INPUT_WINDOW = 1L << 30;
+
+    private static final ValueLayout.OfShort LE_SHORT = ValueLayout.JAVA_SHORT_UNALIGNED.withOrder(ByteOrder.LITTLE_ENDIAN);
+    private static final ValueLayout.OfInt LE_INT = ValueLayout.JAVA_INT_UNALIGNED.withOrder(ByteOrder.LITTLE_ENDIAN);
+
+    private GzipAggregator() {
+    }
+
+    static boolean isGzipPath(Path file) {
+        return file.getFileName().toString().endsWith(".gz");
+    }
+
+    static StationTable aggregate(AggregationEngine engine, Path file, StationFilter filter)
+            throws IOException, InterruptedException {
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ);
+                Arena arena = Arena.ofShared()) {
+            long size = channel.size();
+            if (size == 0) {
+                return engine.acquireTable();
+            }
+            MemorySegment compressed = channel.map(FileChannel.MapMode.READ_ONLY, 0, size, arena);
+            long[] members = bgzfMembers(compressed);
+            if (members != null) {
+                return aggregateParallel(engine, channel, compressed, members, filter);
+            }
+            try (MemberInflatingChannel in = new MemberInflatingChannel(channel, compressed)) {
+                return StreamingAggregator.aggregate(engine, in, filter);
+            }
+        }
+    }
+
+    // ---- BGZF: parallel member inflation ----
+
+    // Member start offsets plus a final entry for the end of the file, or null if not BGZF.
+    static long[] bgzfMembers(MemorySegment data) throws IOException {
+        long size = data.byteSize();
+        long[] offsets = new long[1024];
+        int count = 0;
+        long pos = 0;
+        while (pos < size) {
+            int blockSize = bgzfBlockSize(data, pos);
+            if (blockSize < 0) {
+                return null;
+            }
+            if (count + 1 >= offsets.length) {
+                offsets = Arrays.copyOf(offsets, offsets.length * 2);
+            }
+            offsets[count++] = pos;
+            pos += blockSize;
+        }
+        if (pos != size) {
+            throw new IOException("truncated BGZF block at offset " + offsets[count - 1]);
+        }
+        offsets[count] = size;
+        return Arrays.copyOf(offsets, count + 1);
+    }
+
+    // Total member size from the BC extra subfield, or -1 if the header has none.
+    private static int bgzfBlockSize(MemorySegment data, long pos) throws IOException {
+        checkMagic(data, pos);
+        int flags = Byte.toUnsignedInt(byteAt(data, pos + 3));
+        if ((flags & FEXTRA) == 0 || pos + 12 > data.byteSize()) {
+            return -1;
+        }
+        int xlen = u16(data, pos + 10);
+        long sub = pos + 12;
+        long extraEnd = sub + xlen;
+        while (sub + 4 <= extraEnd) {
+            int subLen = u16(data, sub + 2);
+            if (byteAt(data, sub) == 'B' && byteAt(data, sub + 1) == 'C' && subLen == 2) {
+                return u16(data, sub + 4) + 1;
+            }
+            sub += 4 + subLen;
+        }
+        return -1;
+    }
+
+    private static StationTable aggregateParallel(AggregationEngine engine, FileChannel channel, MemorySegment compressed,
+            long[] members, StationFilter filter)
+            throws IOException, InterruptedException {
+        int[] batchFirst = batches(members);
+        int numBatches = batchFirst.length - 1;
+        byte[][] heads = new byte[numBatches][];
+        byte[][] tails = new byte[numBatches][];
+        boolean[] hasNewline = new boolean[numBatches];
+
+        int safeWorkers = Math.max(1, Math.min(engine.workers(), numBatches));
+        StationTable[] tables = new StationTable[safeWorkers];
+        for (int t = 0; t < safeWorkers; t++) {
+            tables[t] = engine.acquireTable(filter);
+        }
+        AtomicInteger counter = new AtomicInteger(0);
+        AtomicReference<Throwable> failure = new AtomicReference<>();
+        engine.run(safeWorkers, ti -> {
+            Inflater inflater = new Inflater(true);
+            CRC32 crc = new CRC32();
+            ByteBuffer out = null;
+            try {
+                int bi;
+                while ((bi = counter.getAndIncrement()) < numBatches && failure.get() == null) {
+                    int first = batchFirst[bi];
+                    int last = batchFirst[bi + 1];
+                    long total = 0;
+                    for (int m = first; m < last; m++) {
+                        total += isize(compressed, members[m + 1]);
+                    }
+                    if (total > Integer.MAX_VALUE - (1 << 20)) {
+                        throw new IOException("gzip batch at offset " + members[first] + " inflates past 2 GB");
+                    }
+                    int needed = (int) total;
+                    if (out == null || out.capacity() < needed + 64) {
+                        if (out != null) {
+                            UNSAFE.invokeCleaner(out);
+                        }
+                        out = ByteBuffer.allocateDirect(Math.max(needed + 64, 1 << 20));
+                    }
+                    // BGZF members are at most 64 KB, so a batch fits one small mapping.
+                    MappedByteBuffer input = channel.map(FileChannel.MapMode.READ_ONLY, members[first],
+                            members[last] - members[first]);
+                    try {
+                        int len = 0;
+                        for (int m = first; m < last; m++) {
+                            // The 64-byte slack lets zlib finish a member whose output exactly fills the rest.
+                            len += inflateMember(compressed, input, members[first], members[m], members[m + 1],
+                                    out.slice(len, needed - len + 64), inflater, crc);
+                        }
+                        processBatch(MemorySegment.ofBuffer(out), len, bi, heads, tails, hasNewline, tables[ti]);
+                    }
+                    finally {
+                        UNSAFE.invokeCleaner(input);
+                    }
+                }
+            }
+            catch (Throwable e) {
+                failure.compareAndSet(null, e);
+            }
+            finally {
+                inflater.end();
+                if (out != null) {
+                    UNSAFE.invokeCleaner(out);
+                }
+            }
+        });
+
+        if (failure.get() != null) {
+            for (StationTable table : tables) {
+                engine.releaseTable(table);
+            }
+            Throwable e = failure.get();
+            throw e instanceof IOException io ? io : new IOException("gzip worker failed", e);
+        }
+
+        StationTable merged = TableMerger.merge(engine, tables, TableMerger.MODE);
+        processStitched(heads, tails, hasNewline, merged);
+        return merged;
+    }
+
+    // Groups consecutive members into batches of about BATCH_COMPRESSED_BYTES; returns first-member indexes.
+    private static int[] batches(long[] members) {
+        int numMembers = members.length - 1;
+        int[] first = new int[numMembers + 1];
+        int count = 0;
+        int m = 0;
+        while (m < numMembers) {
+            first[count++] = m;
+            long start = members[m];
+            do {
+                m++;
+            } while (m < numMembers && members[m] - start < BATCH_COMPRESSED_BYTES);
+        }
+        first[count] = numMembers;
+        return Arrays.copyOf(first, count + 1);
+    }
+
+    // Complete lines are aggregated in place; the edges are kept for stitching.
+    private static void processBatch(MemorySegment batch, long len, int bi, byte[][] heads, byte[][] tails,
+            boolean[] hasNewline, StationTable table) {
+        long addr = batch.address();
+        long firstNl = -1;
+        for (long i = 0; i < len; i++) {
+            if (UNSAFE.getByte(addr + i) == '\n') {
+                firstNl = i;
+                break;
+            }
+        }
+        if (firstNl < 0) {
+            heads[bi] = copy(addr, len);
+            return;
+        }
+        long lastNl = len - 1;
+        while (UNSAFE.getByte(addr + lastNl) != '\n') {
+            lastNl--;
+        }
+        hasNewline[bi] = true;
+        heads[bi] = copy(addr, firstNl);
+        tails[bi] = copy(addr + lastNl + 1, len - lastNl - 1);
+        if (lastNl > firstNl) {
+            CalculateAverage_jeroen.processChunk(batch, addr + firstNl + 1, addr + lastNl + 1, table);
+        }
+    }
+
+    // Reassembles lines that straddle batch edges and aggregates them on the calling thread.
+    private static void processStitched(byte[][] heads, byte[][] tails, boolean[] hasNewline, StationTable table) {
+        ByteArrayOutputStream lines = new ByteArrayOutputStream();
+        ByteArrayOutputStream carry = new ByteArrayOutputStream();
+        for (int b = 0; b < heads.length; b++) {
+            carry.writeBytes(heads[b]);
+            if (hasNewline[b]) {
+                if (carry.size() > 0) {
+                    lines.writeBytes(carry.toByteArray());
+                    lines.write('\n');
+                }
+                carry.reset();
+                carry.writeBytes(tails[b]);
+            }
+        }
+        lines.writeBytes(carry.toByteArray());
+        byte[] stitched = lines.toByteArray();
+        if (stitched.length == 0) {
+            return;
+        }
+        try (Arena arena = Arena.ofConfined()) {
+            MemorySegment segment = arena.allocate(stitched.length + 64L, 64);
+            MemorySegment.copy(MemorySegment.ofArray(stitched), 0, segment, 0, stitched.length);
+            CalculateAverage_jeroen.processChunk(segment, segment.address(), segment.address() + stitched.length, table);
+        }
+    }
+
+    private static byte[] copy(long addr, long len) {
+        byte[] bytes = new byte[(int) len];
+        UNSAFE.copyMemory(null, addr, bytes, CalculateAverage_jeroen.BYTE_ARRAY_BASE, len);
+        return bytes;
+    }
+
+    // Inflates one complete member [start, end) into out, reading the body from input (which maps
+    // the file from inputStart); returns the uncompressed length.
+    private static int inflateMember(MemorySegment data, MappedByteBuffer input, long inputStart, long start, long end,
+            ByteBuffer out, Inflater inflater, CRC32 crc) throws IOException, DataFormatException {
+        long bodyStart = start + headerLength(data, start);
+        long bodyEnd = end - TRAILER_BYTES;
+        if (bodyEnd < bodyStart) {
+            throw new IOException("corrupt gzip member at offset " + start);
+        }
+        inflater.reset();
+        inflater.setInput(input.slice((int) (bodyStart - inputStart), (int) (bodyEnd - bodyStart)));
+        int begin = out.position();
+        while (!inflater.finished()) {
+            if (inflater.inflate(out) == 0 && !inflater.finished()
+                    && (inflater.needsInput() || !out.hasRemaining())) {
+                throw new IOException("corrupt gzip member at offset " + start);
+            }
+        }
+        int len = out.position() - begin;
+        crc.reset();
+        crc.update(out.duplicate().flip().position(begin));
+        if ((int) crc.getValue() != i32(data, bodyEnd) || len != isize(data, end)) {
+            throw new IOException("gzip CRC/size mismatch in member at offset " + start);
+        }
+        return len;
+    }
+
+    // ---- Sequential members: pipelined single inflater ----
+
+    /**
+     * Inflates all members of a mapped gzip file in order. Reads land directly in the
+     * caller's (off-heap) buffer; CRC32 and ISIZE of every member are verified.
+     */
+    static final class MemberInflatingChannel implements ReadableByteChannel {
+        private final FileChannel channel;
+        private final MemorySegment data;
+        private MappedByteBuffer input;
+        private final Inflater inflater = new Inflater(true);
+        private final CRC32 crc = new CRC32();
+        private long pos;
+        private long memberStart;
+        private long bodyStart;
+        private long fed;
+        private long memberSize;
+        private boolean inMember;
+        private boolean open = true;
+
+        MemberInflatingChannel(FileChannel channel, MemorySegment data) {
+            this.channel = channel;
+            this.data = data;
+        }
+
+        @Override
+        public int read(ByteBuffer dst) throws IOException {
+            if (!open) {
+                throw new ClosedChannelException();
+            }
+            int start = dst.position();
+            while (dst.hasRemaining()) {
+                if (!inMember) {
+                    if (pos >= data.byteSize()) {
+                        break;
+                    }
+                    memberStart = pos;
+                    bodyStart = pos + headerLength(data, pos);
+                    inflater.reset();
+                    crc.reset();
+                    fed = 0;
+                    memberSize = 0;
+                    inMember = true;
+                }
+                if (inflater.needsInput()) {
+                    long window = Math.min(INPUT_WINDOW, data.byteSize() - (bodyStart + fed));
+                    if (window <= 0) {
+                        throw new IOException("truncated gzip member at offset " + memberStart);
+                    }
+                    unmapInput();
+                    input = channel.map(FileChannel.MapMode.READ_ONLY, bodyStart + fed, window);
+                    inflater.setInput(input);
+                    fed += window;
+                }
+                int before = dst.position();
+                try {
+                    inflater.inflate(dst);
+                }
+                catch (DataFormatException e) {
+                    throw new IOException("corrupt gzip member at offset " + memberStart, e);
+                }
+                crc.update(dst.duplicate().flip().position(before));
+                memberSize += dst.position() - before;
+                if (inflater.finished()) {
+                    long trailer = bodyStart + inflater.getBytesRead();
+                    if (trailer + TRAILER_BYTES > data.byteSize()
+                            || (int) crc.getValue() != i32(data, trailer)
+                            || (int) memberSize != i32(data, trailer + 4)) {
+                        throw new IOException("gzip CRC/size mismatch in member at offset " + memberStart);
+                    }
+                    pos = trailer + TRAILER_BYTES;
+                    inMember = false;
+                }
+            }
+            int n = dst.position() - start;
+            return n == 0 && !inMember && pos >= data.byteSize() ? -1 : n;
+        }
+
+        @Override
+        public boolean isOpen() {
+            return open;
+        }
+
+        @Override
+        public void close() {
+            if (open) {
+                open = false;
+                inflater.end();
+                unmapInput();
+            }
+        }
+
+        // Mapped buffers are otherwise only unmapped by a GC, which Epsilon never runs.
+        private void unmapInput() {
+            if (input != null) {
+                UNSAFE.invokeCleaner(input);
+                input = null;
+            }
+        }
+    }
+
+    // ---- Header helpers ----
+
+    private static long headerLength(MemorySegment data, long pos) throws IOException {
+        checkMagic(data, pos);
+        int flags = Byte.toUnsignedInt(byteAt(data, pos + 3));
+        if ((flags & FRESERVED) != 0) {
+            throw new IOException("unsupported gzip flags at offset " + pos);
+        }
+        long p = pos + 10;
+        if ((flags & FEXTRA) != 0) {
+            p += 2 + u16(data, p);
+        }
+        if ((flags & FNAME) != 0) {
+            while (byteAt(data, p++) != 0) {
+            }
+        }
+        if ((flags & FCOMMENT) != 0) {
+            while (byteAt(data, p++) != 0) {
+            }
+        }
+        if ((flags & FHCRC) != 0) {
+            p += 2;
+        }
+        return p - pos;
+    }
+
+    private static void checkMagic(MemorySegment data, long pos) throws IOException {
+        if (pos + 10 > data.byteSize()
+                || byteAt(data, pos) != (byte) 0x1f || byteAt(data, pos + 1) != (byte) 0x8b
+                || byteAt(data, pos + 2) != 8) {
+            throw new IOException("not a gzip member at offset " + pos);
+        }
+    }
+
+    // ISIZE of the member ending at end (uncompressed length mod 2^32).
+    private static long isize(MemorySegment data, long end) {
+        return Integer.toUnsignedLong(i32(data, end - 4));
+    }
+
+    // Header fields go through bounds-checked segment access: a corrupt header must not read past the mapping.
+    private static byte byteAt(MemorySegment data, long pos) {
+        return data.get(ValueLayout.JAVA_BYTE, pos);
+    }
+
+    private static int u16(MemorySegment data, long pos) {
+        return Short.toUnsignedInt(data.get(LE_SHORT, pos));
+    }
+
+    private static int i32(MemorySegment data, long pos) {
+        return data.get(LE_INT, pos);
+    }
+}
@@ -0,0 +1,135 @@
+package dev.morling.onebrc;
+
+import static dev.morling.onebrc.CalculateAverage_jeroen.BYTE_ARRAY_BASE;
+import static dev.morling.onebrc.CalculateAverage_jeroen.UNSAFE;
+
+// Per-worker table preloaded with the station dictionary of a StationIndex. Same 64-byte slot
+// layout as StationTable, but a name's slot comes from the index's perfect hash over
+// StationIndex.dictionaryKey: one slot is compared, with no probing and no insert path. A name
+// the dictionary does not know (the file changed in a way the fingerprint missed, or a key
+// collision with a dictionary name) goes to the worker's StationTable instead, so the result
+// never depends on the dictionary being complete.
+final class IndexedTable {
+    private final StationTable overflow;
+    private final byte[][] keys;
+    private final int slotBits;
+    private final int bucketBits;
+    private long rawAddr;
+    private long dataAddr;
+    private long displacementAddr;
+
+    IndexedTable(StationIndex index, StationTable overflow) {
+        this.overflow = overflow;
+        this.slotBits = index.slotBits();
+        this.bucketBits = index.bucketBits();
+        int slots = 1 << slotBits;
+        int[] displacements = index.displacements();
+        long slotBytes = (long) slots * StationTable.ENTRY_BYTES;
+        rawAddr = UNSAFE.allocateMemory(slotBytes + 4L * displacements.length + 64);
+        dataAddr = (rawAddr + 63) & ~63L;
+        displacementAddr = dataAddr + slotBytes;
+        UNSAFE.setMemory(dataAddr, slotBytes, (byte) 0);
+        for (int b = 0; b < displacements.length; b++) {
+            UNSAFE.putInt(displacementAddr + 4L * b, displacements[b]);
+        }
+
+        keys = new byte[slots][];
+        for (int i = 0; i < index.stations(); i++) {
+            byte[] name = index.name(i);
+            int hash = index.hash(i);
+            int idx = index.slotOf(index.key(i));
+            long base = dataAddr + (long) idx * StationTable.ENTRY_BYTES;
+            keys[idx] = name;
+            UNSAFE.putLong(base + StationTable.E_PACKED, ((long) hash << 32) | (name.length & 0xFFFFFFFFL));
+            UNSAFE.putInt(base + StationTable.E_MIN, Integer.MAX_VALUE);
+            UNSAFE.putInt(base + StationTable.E_MAX, Integer.MIN_VALUE);
+            UNSAFE.copyMemory(name, BYTE_ARRAY_BASE, null, base + StationTable.E_NAME, Math.min(name.length, StationTable.INLINE_MAX));
+        }
+    }
+
+    StationTable overflow() {
+        return overflow;
+    }
+
+    void accumulate(long nameAddr, int nameLen, int hash, int temp) {
+        long firstWord = (nameLen >= 8)
+                ? UNSAFE.getLong(nameAddr)
+                : UNSAFE.getLong(nameAddr) & ((1L << (nameLen << 3)) - 1);
+        int key = StationIndex.dictionaryKey(hash, firstWord, nameLen);
+        int d = UNSAFE.getInt(displacementAddr + 4L * (key >>> (32 - bucketBits)));
+        int idx = ((key ^ d) * StationIndex.PERFECT_MULTIPLIER) >>> (32 - slotBits);
+        long base = dataAddr + (long) idx * StationTable.ENTRY_BYTES;
+
+        if (UNSAFE.getLong(base + StationTable.E_PACKED) == (((long) hash << 32) | (nameLen & 0xFFFFFFFFL))
+                && UNSAFE.getLong(base + StationTable.E_NAME) == firstWord
+                && matchNameRest(base, nameAddr, nameLen, idx)) {
+            UNSAFE.putLong(base + StationTable.E_SUM, UNSAFE.getLong(base + StationTable.E_SUM) + temp);
+            UNSAFE.putLong(base + StationTable.E_COUNT, UNSAFE.getLong(base + StationTable.E_COUNT) + 1);
+            if (temp < UNSAFE.getInt(base + StationTable.E_MIN)) {
+                UNSAFE.putInt(base + StationTable.E_MIN, temp);
+            }
+            if (temp > UNSAFE.getInt(base + StationTable.E_MAX)) {
+                UNSAFE.putInt(base + StationTable.E_MAX, temp);
+            }
+            return;
+        }
+        overflow.accumulate(nameAddr, nameLen, hash, temp);
+    }
+
+    private boolean matchNameRest(long base, long nameAddr, int nameLen, int idx) {
+        if (nameLen <= 8) {
+            return true;
+        }
+        int end = Math.min(nameLen, StationTable.INLINE_MAX);
+        int i = 8;
+        for (; i + 8 <= end; i += 8) {
+            if (UNSAFE.getLong(base + StationTable.E_NAME + i) != UNSAFE.getLong(nameAddr + i)) {
+                return false;
+            }
+        }
+        for (; i < end; i++) {
+            if (UNSAFE.getByte(base + StationTable.E_NAME + i) != UNSAFE.getByte(nameAddr + i)) {
+                return false;
+            }
+        }
+        if (nameLen > StationTable.INLINE_MAX) {
+            byte[] key = keys[idx];
+            for (i = StationTable.INLINE_MAX; i + 8 <= nameLen; i += 8) {
+                if (UNSAFE.getLong(key, BYTE_ARRAY_BASE + i) != UNSAFE.getLong(nameAddr + i)) {
+                    return false;
+                }
+            }
+            for (; i < nameLen; i++) {
+                if (key[i] != UNSAFE.getByte(nameAddr + i)) {
+                    return false;
+                }
+            }
+        }
+        return true;
+    }
+
+    // Merges the stations that saw rows into the overflow table and frees the slots; the table
+    // must not be used afterwards.
+    void drain() {
+        for (int idx = 0; idx < keys.length; idx++) {
+            long base = dataAddr + (long) idx * StationTable.ENTRY_BYTES;
+            long count = UNSAFE.getLong(base + StationTable.E_COUNT);
+            if (count > 0) {
+                byte[] name = keys[idx];
+                overflow.merge(name, name.length, (int) (UNSAFE.getLong(base + StationTable.E_PACKED) >>> 32),
+                        UNSAFE.getInt(base + StationTable.E_MIN), UNSAFE.getInt(base + StationTable.E_MAX),
+                        UNSAFE.getLong(base + StationTable.E_SUM), count);
+            }
+        }
+        free();
+    }
+
+    void free() {
+        if (rawAddr != 0) {
+            UNSAFE.freeMemory(rawAddr);
+            rawAddr = 0;
+            dataAddr = 0;
+            displacementAddr = 0;
+        }
+    }
+}
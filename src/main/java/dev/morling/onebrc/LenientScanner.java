@@ -0,0 +1,224 @@
+package dev.morling.onebrc;
+
+import static dev.morling.onebrc.CalculateAverage_jeroen.SEMICOLON_PATTERN;
+import static dev.morling.onebrc.CalculateAverage_jeroen.UNSAFE;
+import static dev.morling.onebrc.CalculateAverage_jeroen.finalMix;
+import static dev.morling.onebrc.CalculateAverage_jeroen.hasByte;
+import static dev.morling.onebrc.CalculateAverage_jeroen.mixHash;
+
+import java.util.Locale;
+
+/**
+ * {@code processChunk} for input that is not guaranteed to be clean, still a word at a
+ * time. Each name word is checked for '\n' as well as ';', so a line without a separator
+ * ends where it ends. The value is read as one word, which holds the longest accepted value
+ * with its line end ({@code -99.99\r\n}). It is then validated and parsed with masks:
+ * an optional '-', one or two integer digits, and optionally a '.' with one or two decimals.
+ * A '\r' before the '\n' is dropped. Two decimals are rounded half away from zero to the
+ * tenths the tables keep.
+ * <p>
+ * Any other line goes to the table's {@link LineRejects} and is skipped up to its '\n'.
+ * Examples are an empty name, a missing or malformed value, or extra fields. Blank lines
+ * are skipped without being counted. The last line or two of a chunk, where whole-word
+ * reads would run past its end, are copied to a padded buffer and go through the same loop,
+ * so no line is parsed byte by byte.
+ * <p>
+ * Selected with {@code -Donebrc.parse=strict|lenient}; {@code strict} (the default) keeps
+ * the loops that assume {@code name;-?d?d.d\n} rows.
+ */
+final class LenientScanner {
+
+    enum Mode {
+        STRICT,
+        LENIENT
+    }
+
+    static final Mode MODE = Mode.valueOf(System.getProperty("onebrc.parse", "strict").toUpperCase(Locale.ROOT));
+
+    private static final long NEWLINE_PATTERN = 0x0A0A0A0A0A0A0A0AL;
+    private static final long DOT_PATTERN = 0x2E2E2E2E2E2E2E2EL;
+    private static final long ZEROS = 0x3030303030303030L;
+    private static final long HIGH_BITS = 0x8080808080808080L;
+    // Zeroed bytes after the copied tail, for the word reads past its last '\n'.
+    private static final int TAIL_PADDING = 16;
+
+    static final int INVALID = Integer.MIN_VALUE;
+
+    private LenientScanner() {
+    }
+
+    static void processChunk(long addr, long endAddr, StationTable table) {
+        // Lines up to the last '\n' a word before the end are scanned in place: no word read
+        // goes more than 7 bytes past a line's '\n', so the loops need no bounds checks.
+        long lastNewline = endAddr - 8;
+        while (lastNewline >= addr && UNSAFE.getByte(lastNewline) != '\n') {
+            lastNewline--;
+        }
+        if (lastNewline >= addr) {
+            scan(addr, lastNewline + 1, table);
+        }
+        if (lastNewline + 1 < endAddr) {
+            processTail(Math.max(addr, lastNewline + 1), endAddr, table);
+        }
+    }
+
+    // Copies [addr, endAddr) to a zeroed buffer, ending it with a '\n' if it lacks one, and
+    // scans it there.
+    private static void processTail(long addr, long endAddr, StationTable table) {
+        long len = endAddr - addr;
+        long buffer = UNSAFE.allocateMemory(len + 1 + TAIL_PADDING);
+        try {
+            UNSAFE.setMemory(buffer, len + 1 + TAIL_PADDING, (byte) 0);
+            UNSAFE.copyMemory(addr, buffer, len);
+            if (UNSAFE.getByte(endAddr - 1) != '\n') {
+                UNSAFE.putByte(buffer + len++, (byte) '\n');
+            }
+            scan(buffer, buffer + len, table);
+        }
+        finally {
+            UNSAFE.freeMemory(buffer);
+        }
+    }
+
+    // Scans the lines in [addr, endAddr), which ends with a '\n' and has 8 readable bytes after it.
+    private static void scan(long addr, long endAddr, StationTable table) {
+        // Names are checked by the table before it inserts them.
+        StationFilter filter = table.filter();
+        LineRejects rejects = table.rejects();
+
+        while (addr < endAddr) {
+            long lineStart = addr;
+            long hash = 0;
+            long word;
+            long semi;
+            long newline;
+
+            while (true) {
+                word = UNSAFE.getLong(addr);
+                semi = hasByte(word, SEMICOLON_PATTERN);
+                newline = hasByte(word, NEWLINE_PATTERN);
+                if ((semi | newline) != 0) {
+                    break;
+                }
+                hash = mixHash(hash, word);
+                addr += 8;
+            }
+
+            int semiBit = Long.numberOfTrailingZeros(semi);
+            int newlineBit = Long.numberOfTrailingZeros(newline);
+            if (newlineBit < semiBit) {
+                // No ';' on this line.
+                long lineEnd = addr + (newlineBit >>> 3);
+                long contentEnd = lineEnd > lineStart && UNSAFE.getByte(lineEnd - 1) == '\r' ? lineEnd - 1 : lineEnd;
+                if (contentEnd > lineStart) {
+                    rejects.add(lineStart, contentEnd);
+                }
+                addr = lineEnd + 1;
+                continue;
+            }
+
+            int semiPos = semiBit >>> 3;
+            hash = mixHash(hash, word & ((1L << (semiPos << 3)) - 1));
+            long semiAddr = addr + semiPos;
+            int nameLen = (int) (semiAddr - lineStart);
+
+            long valueAddr = semiAddr + 1;
+            long value = UNSAFE.getLong(valueAddr);
+            int dotBitPos = Long.numberOfTrailingZeros(~value & 0x10101000); // merykitty
+            int temp = parseCanonical(value, dotBitPos);
+            if (temp != INVALID && nameLen != 0) {
+                // '\n' or '\r' right after the decimal; only '\r' has bit 0 set.
+                addr = valueAddr + (dotBitPos >>> 3) + 3 + ((value >>> (dotBitPos + 12)) & 1);
+                if (filter == null || filter.acceptsTemperature(temp)) {
+                    table.accumulate(lineStart, nameLen, finalMix(hash), temp);
+                }
+                continue;
+            }
+
+            long valueNewline = hasByte(value, NEWLINE_PATTERN);
+            if (valueNewline == 0) {
+                // Longer than any accepted value: skip to the line end a word at a time.
+                long p = valueAddr + 8;
+                long found;
+                while ((found = hasByte(UNSAFE.getLong(p), NEWLINE_PATTERN)) == 0) {
+                    p += 8;
+                }
+                long lineEnd = p + (Long.numberOfTrailingZeros(found) >>> 3);
+                rejects.add(lineStart, UNSAFE.getByte(lineEnd - 1) == '\r' ? lineEnd - 1 : lineEnd);
+                addr = lineEnd + 1;
+                continue;
+            }
+            int lineEndPos = Long.numberOfTrailingZeros(valueNewline) >>> 3;
+            addr = valueAddr + lineEndPos + 1;
+
+            temp = parseValue(value, lineEndPos);
+            if (temp == INVALID || nameLen == 0) {
+                long lineEnd = valueAddr + lineEndPos;
+                rejects.add(lineStart, lineEnd > lineStart && UNSAFE.getByte(lineEnd - 1) == '\r' ? lineEnd - 1 : lineEnd);
+                continue;
+            }
+            if (filter == null || filter.acceptsTemperature(temp)) {
+                table.accumulate(lineStart, nameLen, finalMix(hash), temp);
+            }
+        }
+    }
+
+    // Fast path for the rows the strict loops read, -?d?d.d followed by '\n' or '\r\n': the
+    // merykitty parse after checking the dot, the line end and the digits. INVALID for anything
+    // else, which parseValue then decides on.
+    static int parseCanonical(long word, int dotBitPos) {
+        int dotPos = dotBitPos >>> 3;
+        long end = word >>> (dotBitPos + 12);
+        if (((word >>> (dotBitPos - 4)) & 0xFF) != '.' || ((end & 0xFF) != '\n' && (end & 0xFFFF) != 0x0A0D)) {
+            return INVALID;
+        }
+        int negative = (word & 0xFF) == '-' ? 1 : 0;
+        int wholeDigits = dotPos - negative;
+        // High bits of the bytes before the dot, after a leading '-', and of the byte after it.
+        long checked = ((0x8080L << (dotPos << 3)) - 1) & HIGH_BITS & (-1L << (negative << 3));
+        if ((nonDigits(word) & checked) != 0 || wholeDigits < 1 || wholeDigits > 2) {
+            return INVALID;
+        }
+        return CalculateAverage_jeroen.parseTemperatureBranchless(word, dotBitPos);
+    }
+
+    // High bit of each byte that is not '0'-'9'; (x & 0x7F) + 0x76 never carries.
+    static long nonDigits(long word) {
+        long x = word ^ ZEROS;
+        return (((x & 0x7F7F7F7F7F7F7F7FL) + 0x7676767676767676L) | x) & HIGH_BITS;
+    }
+
+    /**
+     * The value in the low len bytes of word (little-endian, len < 8, without its '\n') in
+     * tenths, or INVALID. Takes an optional trailing '\r', an optional '-', one or two digits,
+     * then optionally '.' and one or two digits.
+     */
+    static int parseValue(long word, int len) {
+        if (len > 0 && ((word >>> ((len - 1) << 3)) & 0xFF) == '\r') {
+            len--;
+        }
+        int negative = (word & 0xFF) == '-' ? 1 : 0;
+        long v = word >>> (negative << 3);
+        len -= negative;
+        if (len <= 0) {
+            return INVALID;
+        }
+        long lenMask = (1L << (len << 3)) - 1;
+        long dots = hasByte(v, DOT_PATTERN) & lenMask;
+        int dotPos = dots == 0 ? len : Long.numberOfTrailingZeros(dots) >>> 3;
+        int fracLen = dots == 0 ? 0 : len - dotPos - 1;
+        long dotByte = dots == 0 ? 0 : 0xFFL << (dotPos << 3);
+        if ((nonDigits(v) & lenMask & ~dotByte) != 0 || dotPos < 1 || dotPos > 2 || fracLen > 2 || (dots != 0 && fracLen == 0)) {
+            return INVALID;
+        }
+        // Bytes 0-3: tens, ones, tenths, hundredths (0 where absent).
+        long digits = v & 0x0F0F0F0F0F0F0F0FL;
+        long whole = (digits & ((1L << (dotPos << 3)) - 1)) << ((2 - dotPos) << 3);
+        long frac = (digits >>> ((dotPos + 1) << 3)) & ((1L << (fracLen << 3)) - 1);
+        long four = whole | (frac << 16);
+        long pairs = four * 10 + (four >>> 8);
+        int hundredths = (int) (pairs & 0xFF) * 100 + (int) ((pairs >>> 16) & 0xFF);
+        int tenths = (hundredths + 5) / 10;
+        return negative == 0 ? tenths : -tenths;
+    }
+}
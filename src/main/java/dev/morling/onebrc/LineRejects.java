@@ -0,0 +1,54 @@
+package dev.morling.onebrc;
+
+import static dev.morling.onebrc.CalculateAverage_jeroen.BYTE_ARRAY_BASE;
+import static dev.morling.onebrc.CalculateAverage_jeroen.UNSAFE;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+
+// Lines the lenient scanner rejected: a count plus the first few lines as text, kept per
+// StationTable so each worker records its own and merges add them up.
+final class LineRejects {
+    // -Donebrc.parse.samples=N lines kept per table (0 = count only).
+    static final int SAMPLE_LIMIT = Integer.getInteger("onebrc.parse.samples", 5);
+    // Longer lines are cut in the sample.
+    static final int SAMPLE_BYTES = 120;
+
+    private long count;
+    private final List<String> samples = new ArrayList<>();
+
+    long count() {
+        return count;
+    }
+
+    List<String> samples() {
+        return List.copyOf(samples);
+    }
+
+    // The line in [start, end), without its line terminator.
+    void add(long start, long end) {
+        count++;
+        if (samples.size() < SAMPLE_LIMIT) {
+            int len = (int) Math.min(end - start, SAMPLE_BYTES);
+            byte[] bytes = new byte[len];
+            UNSAFE.copyMemory(null, start, bytes, BYTE_ARRAY_BASE, len);
+            samples.add(new String(bytes, StandardCharsets.UTF_8) + (end - start > len ? "..." : ""));
+        }
+    }
+
+    void addAll(LineRejects other) {
+        count += other.count;
+        for (String sample : other.samples) {
+            if (samples.size() >= SAMPLE_LIMIT) {
+                break;
+            }
+            samples.add(sample);
+        }
+    }
+
+    void clear() {
+        count = 0;
+        samples.clear();
+    }
+}
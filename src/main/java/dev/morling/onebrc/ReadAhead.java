@@ -0,0 +1,197 @@
+package dev.morling.onebrc;
+
+import static dev.morling.onebrc.CalculateAverage_jeroen.UNSAFE;
+
+import java.io.IOException;
+import java.lang.foreign.MemorySegment;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.Locale;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Cold-page-cache ingestion. When the input has just landed and is not in the page cache,
+ * workers parsing the mapping stall on page faults one at a time, and the device sees a queue
+ * depth of about one read per worker. With {@code -Donebrc.io=readahead} a few I/O threads
+ * walk the input in file order instead, a bounded distance in front of the scheduler's
+ * cursor, and issue large positional {@link FileChannel#read}s into scratch buffers. Each
+ * read pulls its block into the page cache, with {@value #THREADS_DEFAULT} of them in flight
+ * by default, so by the time a worker claims a slice its pages are resident and the mapping
+ * it parses does not fault on I/O. Blocks already in the page cache are skipped: with the
+ * files' mappings at hand, one {@code mincore} per block ({@link MemorySegment#isLoaded})
+ * decides, so a warm run costs little more than plain {@code mmap}.
+ * <p>
+ * The reads only warm the cache: workers parse the same mapping either way, so results,
+ * filters, formats and the sidecar index are unaffected, and a failed read just ends that
+ * thread's read-ahead. Claims must advance through the input in order, which holds for
+ * {@code guided} and {@code fixed} scheduling; a {@code steal} run uses {@code guided} claims
+ * instead. The threads take CPU time from the parsers, most of all where there is no spare
+ * core, which is why {@code mmap} (no read-ahead) is the default.
+ * <p>
+ * Tuning: {@code -Donebrc.io.threads} (I/O threads), {@code -Donebrc.io.block} (bytes per
+ * read) and {@code -Donebrc.io.distance} (how far past the cursor reads may go), the sizes
+ * with an optional k/m/g suffix.
+ */
+final class ReadAhead implements AutoCloseable {
+
+    enum Mode {
+        MMAP,
+        READAHEAD
+    }
+
+    static final Mode MODE = Mode.valueOf(System.getProperty("onebrc.io", "mmap").toUpperCase(Locale.ROOT));
+
+    private static final int THREADS_DEFAULT = 4;
+    static final int THREADS = Math.max(1, Integer.getInteger("onebrc.io.threads", THREADS_DEFAULT));
+    static final int BLOCK = Math.clamp(WindowedAggregator.parseSize(System.getProperty("onebrc.io.block", "4m")), 1 << 16, 1 << 30);
+    static final long DISTANCE = Math.max(BLOCK, WindowedAggregator.parseSize(System.getProperty("onebrc.io.distance", "128m")));
+
+    // Back-off while a thread is DISTANCE ahead of the cursor. Short against the time the
+    // workers take to parse DISTANCE bytes, long enough that idle polling costs no parsing time.
+    private static final long WAIT_NANOS = 2_000_000;
+
+    private final ChunkScheduler scheduler;
+    private final FileChannel[] channels;
+    private final long[] positions;
+    private final MemorySegment[] mappings;
+    private final long block;
+    private final long distance;
+    private final AtomicLong next = new AtomicLong();
+    private final AtomicLong bytesRead = new AtomicLong();
+    private final Thread[] threads;
+    private volatile boolean stopped;
+
+    // Range r of the scheduler is channels[r] from file position positions[r] on; mappings[r],
+    // if there, maps that file from position 0.
+    private ReadAhead(ChunkScheduler scheduler, FileChannel[] channels, long[] positions, MemorySegment[] mappings,
+            int threads, long block, long distance) {
+        this.scheduler = scheduler;
+        this.channels = channels;
+        this.positions = positions;
+        this.mappings = mappings;
+        this.block = block;
+        this.distance = distance;
+        this.threads = new Thread[threads];
+        for (int t = 0; t < threads; t++) {
+            this.threads[t] = Thread.ofPlatform().daemon().name("onebrc-readahead-" + t).unstarted(this::run);
+        }
+    }
+
+    /**
+     * Starts reading ahead of scheduler's claims with the configured threads and sizes.
+     * mappings (null without) lets resident blocks be skipped.
+     */
+    static ReadAhead start(ChunkScheduler scheduler, FileChannel[] channels, long[] positions, MemorySegment[] mappings) {
+        return start(scheduler, channels, positions, mappings, THREADS, BLOCK, DISTANCE);
+    }
+
+    static ReadAhead start(ChunkScheduler scheduler, FileChannel[] channels, long[] positions, MemorySegment[] mappings,
+            int threads, long block, long distance) {
+        if (scheduler.mode() == ChunkScheduler.Mode.STEAL) {
+            throw new IllegalArgumentException("read-ahead follows a shared cursor; steal scheduling has none");
+        }
+        ReadAhead readAhead = new ReadAhead(scheduler, channels, positions, mappings, threads, block, distance);
+        for (Thread thread : readAhead.threads) {
+            thread.start();
+        }
+        return readAhead;
+    }
+
+    // Schedule to use with read-ahead for the requested one.
+    static ChunkScheduler.Mode schedule(ChunkScheduler.Mode requested) {
+        return MODE == Mode.READAHEAD && requested == ChunkScheduler.Mode.STEAL ? ChunkScheduler.Mode.GUIDED : requested;
+    }
+
+    /** Bytes read so far; blocks already resident or behind the cursor are not read. */
+    long bytesRead() {
+        return bytesRead.get();
+    }
+
+    private void run() {
+        // Allocated on the first block that is not resident; freed on the way out, as no GC
+        // would (Epsilon), so a reused engine does not leak a block per thread and run.
+        ByteBuffer buffer = null;
+        long total = scheduler.totalBytes();
+        try {
+            while (!stopped) {
+                long from = next.get();
+                long cursor = scheduler.cursor();
+                if (from >= total) {
+                    return;
+                }
+                if (from + block <= cursor) {
+                    // Claimed already: the worker that owns it faults it in itself.
+                    next.compareAndSet(from, cursor);
+                    continue;
+                }
+                if (from >= cursor + distance) {
+                    LockSupport.parkNanos(WAIT_NANOS);
+                    continue;
+                }
+                long to = Math.min(total, from + block);
+                if (next.compareAndSet(from, to)) {
+                    buffer = read(buffer, from, to);
+                }
+            }
+        }
+        catch (IOException e) {
+            // Advisory only; the workers still read every page through the mapping.
+        }
+        finally {
+            if (buffer != null) {
+                UNSAFE.invokeCleaner(buffer);
+            }
+        }
+    }
+
+    // Reads global [from, to), cut at range ends like worker slices, into buffer (null: not
+    // allocated yet); returns the buffer to use for the next block.
+    private ByteBuffer read(ByteBuffer buffer, long from, long to) throws IOException {
+        long pos = from;
+        int r = scheduler.rangeOf(pos);
+        while (pos < to && !stopped) {
+            long pieceEnd = Math.min(to, scheduler.offset(r + 1));
+            long filePos = positions[r] + pos - scheduler.offset(r);
+            if (mappings != null && mappings[r] != null && mappings[r].asSlice(filePos, pieceEnd - pos).isLoaded()) {
+                pos = pieceEnd;
+                r++;
+                continue;
+            }
+            if (buffer == null) {
+                buffer = ByteBuffer.allocateDirect((int) block);
+            }
+            buffer.clear().limit((int) (pieceEnd - pos));
+            while (buffer.hasRemaining()) {
+                int n = channels[r].read(buffer, filePos + buffer.position());
+                if (n < 0) {
+                    break;
+                }
+            }
+            bytesRead.addAndGet(buffer.position());
+            pos = pieceEnd;
+            r++;
+        }
+        return buffer;
+    }
+
+    /**
+     * Stops the I/O threads and waits for their reads in flight. If interrupted, returns with
+     * the interrupt flag set; the threads then finish their current read and free their buffers.
+     */
+    @Override
+    public void close() {
+        stopped = true;
+        for (Thread thread : threads) {
+            LockSupport.unpark(thread);
+        }
+        try {
+            for (Thread thread : threads) {
+                thread.join();
+            }
+        }
+        catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+}
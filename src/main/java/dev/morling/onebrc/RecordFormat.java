@@ -0,0 +1,84 @@
+package dev.morling.onebrc;
+
+/**
+ * Layout of the delimited records an {@link AggregationEngine} groups: a single-byte field
+ * delimiter, the 0-based columns of the key and of the value, and the value's scale (digits
+ * after the decimal point). Values are kept as fixed-point integers in units of 10^-scale, so
+ * min/mean/max come out with {@code scale} decimals. Lines end with '\n', optionally after a
+ * '\r'; fields are not quoted, so the delimiter cannot appear inside one.
+ * <p>
+ * {@link #ONEBRC} ({@code name;-?d?d.d}) keeps the scan loops specialized for the challenge
+ * input; every other format goes through {@link DelimitedScanner}. Immutable; use {@link #of}.
+ */
+public final class RecordFormat {
+
+    /** The challenge's {@code station;temperature} rows, in tenths of a degree. */
+    public static final RecordFormat ONEBRC = new RecordFormat((byte) ';', 0, 1, 1);
+
+    // Up to 9 digits in all, so every value fits an int.
+    static final int MAX_SCALE = 6;
+    static final int MAX_DIGITS = 9;
+    private static final int[] POWERS_OF_TEN = { 1, 10, 100, 1_000, 10_000, 100_000, 1_000_000 };
+
+    final byte delimiter;
+    final int keyColumn;
+    final int valueColumn;
+    final int scale;
+
+    private RecordFormat(byte delimiter, int keyColumn, int valueColumn, int scale) {
+        this.delimiter = delimiter;
+        this.keyColumn = keyColumn;
+        this.valueColumn = valueColumn;
+        this.scale = scale;
+    }
+
+    /**
+     * Records split at {@code delimiter}, grouped by column {@code keyColumn}, aggregating the
+     * fixed-point value in column {@code valueColumn} with up to {@code scale} decimals. Returns
+     * {@link #ONEBRC} for its own layout.
+     */
+    public static RecordFormat of(char delimiter, int keyColumn, int valueColumn, int scale) {
+        if (delimiter > 0x7F || delimiter == '\n' || delimiter == '\r' || delimiter == '-' || delimiter == '.'
+                || (delimiter >= '0' && delimiter <= '9')) {
+            throw new IllegalArgumentException("delimiter must be one ASCII byte other than a line end, digit, '-' or '.': "
+                    + (int) delimiter);
+        }
+        if (keyColumn < 0 || valueColumn < 0 || keyColumn == valueColumn) {
+            throw new IllegalArgumentException("key and value columns must be two different indexes from 0: " + keyColumn + ", " + valueColumn);
+        }
+        if (scale < 0 || scale > MAX_SCALE) {
+            throw new IllegalArgumentException("scale must be 0.." + MAX_SCALE + ": " + scale);
+        }
+        if (delimiter == ';' && keyColumn == 0 && valueColumn == 1 && scale == 1) {
+            return ONEBRC;
+        }
+        return new RecordFormat((byte) delimiter, keyColumn, valueColumn, scale);
+    }
+
+    public char delimiter() {
+        return (char) delimiter;
+    }
+
+    public int keyColumn() {
+        return keyColumn;
+    }
+
+    public int valueColumn() {
+        return valueColumn;
+    }
+
+    public int scale() {
+        return scale;
+    }
+
+    // 10^scale, for scale 0..MAX_SCALE.
+    static int powerOfTen(int scale) {
+        return POWERS_OF_TEN[scale];
+    }
+
+    @Override
+    public String toString() {
+        return "RecordFormat[delimiter=" + (delimiter == '\t' ? "\\t" : Character.toString(delimiter)) + ", key=" + keyColumn
+                + ", value=" + valueColumn + ", scale=" + scale + "]";
+    }
+}
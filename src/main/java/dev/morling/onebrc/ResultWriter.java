@@ -0,0 +1,241 @@
+package dev.morling.onebrc;
+
+import static dev.morling.onebrc.CalculateAverage_jeroen.UNSAFE;
+
+import java.io.IOException;
+import java.lang.foreign.MemorySegment;
+import java.nio.ByteBuffer;
+import java.nio.channels.WritableByteChannel;
+import java.util.Arrays;
+import java.util.Comparator;
+
+/**
+ * Writes a merged {@link StationTable} in the output format of
+ * {@link CalculateAverage_jeroen#format(java.util.Map)} without going through Strings:
+ * entries are sorted by their UTF-8 name bytes in {@code String} order, digits are
+ * written straight into an off-heap buffer that is kept and reused across calls, and the
+ * result leaves with a single channel write. Produces the same bytes as
+ * {@code format(...) + '\n'} encoded as UTF-8.
+ */
+final class ResultWriter {
+
+    // Per entry: ", " + '=' + three numbers of at most 21 bytes ("-", 19 digits and '.') + two '/'.
+    private static final int MAX_ENTRY_OVERHEAD = 2 + 1 + 3 * 22 + 2;
+
+    /**
+     * {@code String.compareTo} order for names given as UTF-8 bytes. Code point order, which
+     * is what unsigned byte order gives, matches UTF-16 order except that supplementary
+     * characters (4-byte sequences, surrogate pairs in UTF-16) sort before U+E000..U+FFFF
+     * (3-byte sequences led by 0xEE or 0xEF). Both sides share the bytes before the first
+     * mismatch, so a mismatch between lead bytes is always between two lead bytes.
+     */
+    static final Comparator<byte[]> STRING_ORDER = (a, b) -> {
+        int i = Arrays.mismatch(a, b);
+        if (i < 0) {
+            return 0;
+        }
+        if (i == a.length || i == b.length) {
+            return a.length - b.length;
+        }
+        return Integer.compare(utf16Rank(a[i]), utf16Rank(b[i]));
+    };
+
+    private ByteBuffer buffer = ByteBuffer.allocateDirect(1 << 16);
+    private long address = MemorySegment.ofBuffer(buffer).address();
+    // Decimals of the values (RecordFormat.scale()); 1 for tenths.
+    private final int scale;
+
+    ResultWriter() {
+        this(RecordFormat.ONEBRC.scale());
+    }
+
+    ResultWriter(int scale) {
+        this.scale = scale;
+    }
+
+    private static int utf16Rank(byte b) {
+        int v = b & 0xFF;
+        // 0xEE/0xEF lead U+E000..U+FFFF; move them above the 4-byte leads 0xF0..0xF4.
+        return v == 0xEE || v == 0xEF ? v + 8 : v;
+    }
+
+    /**
+     * Fills the buffer with the formatted table followed by a newline and returns the number of
+     * bytes. Returns -1 if a name is not well-formed UTF-8: {@code String} decoding would
+     * replace those bytes, so only the {@code Map<String, Stats>} path gives the expected output.
+     * Tables with histograms (extended statistics) also go through that path.
+     */
+    int format(StationTable table) {
+        if (table.hasHistograms()) {
+            return -1;
+        }
+        long capacity = 3;
+        boolean[] wellFormed = { true };
+        long[] nameBytes = { 0 };
+        table.forEach((name, nameLen, minVal, maxVal, sumVal, countVal) -> {
+            nameBytes[0] += nameLen;
+            if (wellFormed[0] && !isWellFormedUtf8(name, nameLen)) {
+                wellFormed[0] = false;
+            }
+        });
+        if (!wellFormed[0]) {
+            return -1;
+        }
+        capacity += nameBytes[0] + (long) table.size() * MAX_ENTRY_OVERHEAD;
+        if (capacity > Integer.MAX_VALUE) {
+            return -1;
+        }
+        ensureCapacity((int) capacity);
+
+        long[] pos = { address };
+        UNSAFE.putByte(pos[0]++, (byte) '{');
+        table.forEachSorted(STRING_ORDER, (name, nameLen, minVal, maxVal, sumVal, countVal) -> {
+            long p = pos[0];
+            if (p != address + 1) {
+                UNSAFE.putByte(p++, (byte) ',');
+                UNSAFE.putByte(p++, (byte) ' ');
+            }
+            UNSAFE.copyMemory(name, CalculateAverage_jeroen.BYTE_ARRAY_BASE, null, p, nameLen);
+            p += nameLen;
+            UNSAFE.putByte(p++, (byte) '=');
+            p = putValue(p, minVal);
+            UNSAFE.putByte(p++, (byte) '/');
+            p = putValue(p, CalculateAverage_jeroen.roundedMeanTenths(sumVal, countVal));
+            UNSAFE.putByte(p++, (byte) '/');
+            pos[0] = putValue(p, maxVal);
+        });
+        UNSAFE.putByte(pos[0]++, (byte) '}');
+        UNSAFE.putByte(pos[0]++, (byte) '\n');
+        return (int) (pos[0] - address);
+    }
+
+    // Writes the first length bytes of the buffer; one write() unless the channel takes less.
+    void writeTo(WritableByteChannel channel, int length) throws IOException {
+        ByteBuffer out = buffer.duplicate().position(0).limit(length);
+        while (out.hasRemaining()) {
+            channel.write(out);
+        }
+    }
+
+    // Bytes of the last format() call, for tests.
+    byte[] bytes(int length) {
+        byte[] out = new byte[length];
+        buffer.duplicate().position(0).limit(length).get(out);
+        return out;
+    }
+
+    private void ensureCapacity(int bytes) {
+        if (buffer.capacity() < bytes) {
+            // Freed here, as no GC would (Epsilon); format() fills the new buffer from the start.
+            UNSAFE.invokeCleaner(buffer);
+            buffer = ByteBuffer.allocateDirect(Math.max(bytes, buffer.capacity() * 2));
+            address = MemorySegment.ofBuffer(buffer).address();
+        }
+    }
+
+    private long putValue(long p, long value) {
+        return scale == 1 ? putTenths(p, value) : putFixed(p, value, scale);
+    }
+
+    // "-12.3" for -123, same as CalculateAverage_jeroen.formatFixed at scale 1.
+    private static long putTenths(long p, long tenths) {
+        long abs = tenths;
+        if (tenths < 0) {
+            UNSAFE.putByte(p++, (byte) '-');
+            abs = -tenths;
+        }
+        long whole = abs / 10;
+        if (whole < 10) {
+            UNSAFE.putByte(p++, (byte) ('0' + whole));
+        }
+        else if (whole < 100) {
+            UNSAFE.putByte(p++, (byte) ('0' + whole / 10));
+            UNSAFE.putByte(p++, (byte) ('0' + whole % 10));
+        }
+        else {
+            int digits = 1;
+            for (long w = whole / 10; w > 0; w /= 10) {
+                digits++;
+            }
+            for (int d = digits - 1; d >= 0; d--) {
+                UNSAFE.putByte(p + d, (byte) ('0' + whole % 10));
+                whole /= 10;
+            }
+            p += digits;
+        }
+        UNSAFE.putByte(p++, (byte) '.');
+        UNSAFE.putByte(p++, (byte) ('0' + abs % 10));
+        return p;
+    }
+
+    // "-0.05" for -5 at scale 2, "7" at scale 0, same as CalculateAverage_jeroen.formatFixed.
+    private static long putFixed(long p, long value, int scale) {
+        long abs = value;
+        if (value < 0) {
+            UNSAFE.putByte(p++, (byte) '-');
+            abs = -value;
+        }
+        int digits = 1;
+        for (long w = abs / 10; w > 0; w /= 10) {
+            digits++;
+        }
+        digits = Math.max(digits, scale + 1);
+        long end = p + digits + (scale > 0 ? 1 : 0);
+        long q = end;
+        for (int d = 0; d < digits; d++) {
+            if (d == scale && scale > 0) {
+                UNSAFE.putByte(--q, (byte) '.');
+            }
+            UNSAFE.putByte(--q, (byte) ('0' + abs % 10));
+            abs /= 10;
+        }
+        return end;
+    }
+
+    // Strict UTF-8 (no overlongs, surrogates or code points above U+10FFFF), as decoded by
+    // new String(bytes, UTF_8) without replacement characters.
+    static boolean isWellFormedUtf8(byte[] name, int len) {
+        int i = 0;
+        while (i < len) {
+            int b = name[i] & 0xFF;
+            if (b < 0x80) {
+                i++;
+                continue;
+            }
+            int n;
+            int lo = 0x80;
+            int hi = 0xBF;
+            if (b >= 0xC2 && b <= 0xDF) {
+                n = 1;
+            }
+            else if (b >= 0xE0 && b <= 0xEF) {
+                n = 2;
+                lo = b == 0xE0 ? 0xA0 : 0x80;
+                hi = b == 0xED ? 0x9F : 0xBF;
+            }
+            else if (b >= 0xF0 && b <= 0xF4) {
+                n = 3;
+                lo = b == 0xF0 ? 0x90 : 0x80;
+                hi = b == 0xF4 ? 0x8F : 0xBF;
+            }
+            else {
+                return false;
+            }
+            if (i + n >= len) {
+                return false;
+            }
+            int second = name[i + 1] & 0xFF;
+            if (second < lo || second > hi) {
+                return false;
+            }
+            for (int k = 2; k <= n; k++) {
+                int c = name[i + k] & 0xFF;
+                if (c < 0x80 || c > 0xBF) {
+                    return false;
+                }
+            }
+            i += n + 1;
+        }
+        return true;
+    }
+}
@@ -0,0 +1,164 @@
+package dev.morling.onebrc;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.lang.management.ManagementFactory;
+import java.net.URISyntaxException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.security.CodeSource;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.stream.Stream;
+
+/**
+ * Splits one file across several local JVMs, for machines where a single process stops
+ * scaling with more workers (memory bandwidth, NUMA). The file is cut into equal raw byte
+ * ranges; each child runs {@code CalculateAverage_jeroen --shard=start:end}, which snaps its
+ * range to line starts like the chunker does (see {@link AggregationEngine#aggregateRange}),
+ * aggregates it with its own workers and writes a {@link TableSnapshot}. The coordinator
+ * merges the snapshots, so the result is the same as a single-process run.
+ * <p>
+ * Children run the current JVM binary with the same JVM options and this class's code source.
+ * Their stderr is passed through, and a child that fails fails the whole run.
+ */
+final class ShardCoordinator {
+
+    private ShardCoordinator() {
+    }
+
+    // Raw range of shard i of n over size bytes; consecutive shards share their boundaries.
+    static long[] range(long size, int shards, int i) {
+        return new long[]{ size * i / shards, size * (i + 1) / shards };
+    }
+
+    /**
+     * Aggregates file with processes children of workersPerProcess workers each; childArgs
+     * (e.g. filter flags) are passed to every child. The caller frees the returned table.
+     */
+    static StationTable run(Path file, int processes, int workersPerProcess, List<String> childArgs)
+            throws IOException, InterruptedException {
+        if (!Files.isRegularFile(file) || GzipAggregator.isGzipPath(file)) {
+            throw new IllegalArgumentException("sharding needs one uncompressed regular file: " + file);
+        }
+        if (StationHistograms.MODE == StationHistograms.Mode.EXTENDED) {
+            throw new IllegalArgumentException("extended statistics cannot be sharded; partial results keep min/max/sum/count only");
+        }
+        long size = Files.size(file);
+        Path dir = Files.createTempDirectory("1brc-shards");
+        List<Process> children = new ArrayList<>(processes);
+        try {
+            List<Path> partials = new ArrayList<>(processes);
+            for (int i = 0; i < processes; i++) {
+                long[] range = range(size, processes, i);
+                Path partial = dir.resolve("shard-" + i + ".snap");
+                List<String> command = javaCommand();
+                command.add("--shard=" + range[0] + ":" + range[1]);
+                command.add("--snapshot=" + partial);
+                command.addAll(childArgs);
+                command.add(file.toString());
+                command.add(Integer.toString(workersPerProcess));
+                children.add(new ProcessBuilder(command)
+                        .redirectOutput(ProcessBuilder.Redirect.DISCARD)
+                        .redirectError(ProcessBuilder.Redirect.INHERIT)
+                        .start());
+                partials.add(partial);
+            }
+            // Children are checked as they exit, so the first failure ends the run at once.
+            BlockingQueue<Integer> exited = new LinkedBlockingQueue<>();
+            for (int i = 0; i < processes; i++) {
+                int shard = i;
+                children.get(i).onExit().thenRun(() -> exited.add(shard));
+            }
+            for (int n = 0; n < processes; n++) {
+                int i = exited.take();
+                int exit = children.get(i).exitValue();
+                if (exit != 0) {
+                    throw new IOException("shard " + i + " of " + file + " exited with code " + exit);
+                }
+            }
+            return TableSnapshot.merge(partials);
+        }
+        finally {
+            destroyAll(children);
+            deleteQuietly(dir);
+        }
+    }
+
+    // Kills the children that still run and waits until they are gone, so none writes into the
+    // temp directory while it is deleted.
+    private static void destroyAll(List<Process> children) {
+        boolean interrupted = false;
+        for (Process child : children) {
+            child.destroyForcibly();
+        }
+        for (Process child : children) {
+            while (true) {
+                try {
+                    child.waitFor();
+                    break;
+                }
+                catch (InterruptedException e) {
+                    interrupted = true;
+                }
+            }
+        }
+        if (interrupted) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    // Best effort: a leftover temp directory must not replace the exception the run ends with.
+    private static void deleteQuietly(Path dir) {
+        try {
+            try (Stream<Path> entries = Files.list(dir)) {
+                for (Path entry : entries.toList()) {
+                    Files.deleteIfExists(entry);
+                }
+            }
+            Files.delete(dir);
+        }
+        catch (IOException | UncheckedIOException e) {
+            System.err.println("could not delete " + dir + ": " + e.getMessage());
+        }
+    }
+
+    // This JVM's binary and options, then the jar or directory this class was loaded from (the
+    // entry has no runtime dependencies; java.class.path may only name a launcher) and the main class.
+    // In a native image, the executable itself and the onebrc.* system properties it was started with.
+    // Also used by FastExit.
+    static List<String> javaCommand() {
+        List<String> command = new ArrayList<>();
+        if (System.getProperty("org.graalvm.nativeimage.imagecode") != null) {
+            command.add(ProcessHandle.current().info().command().orElseThrow());
+            for (String key : System.getProperties().stringPropertyNames()) {
+                if (key.startsWith("onebrc.")) {
+                    command.add("-D" + key + "=" + System.getProperty(key));
+                }
+            }
+            return command;
+        }
+        command.add(ProcessHandle.current().info().command()
+                .orElse(Path.of(System.getProperty("java.home"), "bin", "java").toString()));
+        command.addAll(ManagementFactory.getRuntimeMXBean().getInputArguments());
+        command.add("-cp");
+        command.add(classPath());
+        command.add(CalculateAverage_jeroen.class.getName());
+        return command;
+    }
+
+    private static String classPath() {
+        CodeSource source = ShardCoordinator.class.getProtectionDomain().getCodeSource();
+        if (source != null && source.getLocation() != null) {
+            try {
+                return Path.of(source.getLocation().toURI()).toString();
+            }
+            catch (URISyntaxException | IllegalArgumentException e) {
+                // Not a file location; fall back to the class path.
+            }
+        }
+        return System.getProperty("java.class.path");
+    }
+}
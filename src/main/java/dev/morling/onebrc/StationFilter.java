@@ -0,0 +1,171 @@
+package dev.morling.onebrc;
+
+import static dev.morling.onebrc.CalculateAverage_jeroen.BYTE_ARRAY_BASE;
+import static dev.morling.onebrc.CalculateAverage_jeroen.UNSAFE;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Collection;
+import java.util.Set;
+
+/**
+ * Row filter pushed down into the scan loop: a station allowlist, a name prefix and an
+ * inclusive temperature range, all optional. Rows that do not match are scanned past without
+ * probing the {@link StationTable}, so a query over a few stations costs little more than
+ * finding the line ends.
+ * <p>
+ * The name check is split in two. {@link #mayAcceptName} runs in the scan loop for every row and
+ * may let a few wrong names through: a bitmap indexed by the name hash the scanner has already
+ * computed, at least 64 bits per allowed name, and the first word of the prefix. Rows that pass
+ * go to {@link StationTable#accumulate}, which only calls the exact {@link #acceptsName} before
+ * inserting a name it has not seen. A name found in the table has passed that check before, so
+ * accepted rows pay no name comparison beyond the table's own.
+ * Immutable; use {@link #stations}, {@link #prefix} or {@link #all} and then
+ * {@link #withTemperatureRange}.
+ */
+public final class StationFilter {
+
+    private final Set<String> stations;
+    private final String prefix;
+    private final int minTenths;
+    private final int maxTenths;
+
+    // Compiled forms.
+    private final byte[] prefixBytes;
+    private final long prefixWord;
+    private final long prefixMask;
+    private final long[] bitmap;
+    private final int bitmapMask;
+    private final byte[][] names;
+    private final int[] nameHashes;
+    private final int namesMask;
+
+    private StationFilter(Set<String> stations, String prefix, int minTenths, int maxTenths) {
+        this.stations = stations;
+        this.prefix = prefix;
+        this.minTenths = minTenths;
+        this.maxTenths = maxTenths;
+        this.prefixBytes = prefix != null ? prefix.getBytes(StandardCharsets.UTF_8) : null;
+        long word = 0;
+        int wordBytes = prefixBytes != null ? Math.min(8, prefixBytes.length) : 0;
+        for (int i = 0; i < wordBytes; i++) {
+            word |= ((long) (prefixBytes[i] & 0xFF)) << (i << 3);
+        }
+        this.prefixWord = word;
+        this.prefixMask = wordBytes == 8 ? -1L : (1L << (wordBytes << 3)) - 1;
+        if (stations == null) {
+            bitmap = null;
+            bitmapMask = 0;
+            names = null;
+            nameHashes = null;
+            namesMask = 0;
+            return;
+        }
+        int words = Integer.highestOneBit(Math.max(1, stations.size()) * 2 - 1);
+        bitmap = new long[words];
+        bitmapMask = words - 1;
+        names = new byte[Integer.highestOneBit(Math.max(1, stations.size()) * 4 - 1)][];
+        nameHashes = new int[names.length];
+        namesMask = names.length - 1;
+        for (String station : stations) {
+            byte[] name = station.getBytes(StandardCharsets.UTF_8);
+            int hash = CalculateAverage_jeroen.hashName(name, name.length);
+            bitmap[(hash >>> 6) & bitmapMask] |= 1L << hash;
+            int idx = hash & namesMask;
+            while (names[idx] != null) {
+                idx = (idx + 1) & namesMask;
+            }
+            names[idx] = name;
+            nameHashes[idx] = hash;
+        }
+    }
+
+    /** Every row; combine with {@link #withTemperatureRange}. */
+    public static StationFilter all() {
+        return new StationFilter(null, null, Integer.MIN_VALUE, Integer.MAX_VALUE);
+    }
+
+    /** Only rows of the given stations (exact names). */
+    public static StationFilter stations(Collection<String> stations) {
+        return new StationFilter(Set.copyOf(stations), null, Integer.MIN_VALUE, Integer.MAX_VALUE);
+    }
+
+    /** Only rows whose station name starts with {@code prefix}. */
+    public static StationFilter prefix(String prefix) {
+        return new StationFilter(null, prefix, Integer.MIN_VALUE, Integer.MAX_VALUE);
+    }
+
+    /** Additionally keeps only readings in [min, max] (degrees, inclusive, one decimal). */
+    public StationFilter withTemperatureRange(double min, double max) {
+        return withValueRange(min, max, RecordFormat.ONEBRC.scale());
+    }
+
+    /** Additionally keeps only values in [min, max] (inclusive) of a {@link RecordFormat} with this scale. */
+    public StationFilter withValueRange(double min, double max, int scale) {
+        if (!(min <= max)) {
+            throw new IllegalArgumentException("empty temperature range: " + min + ".." + max);
+        }
+        double unit = RecordFormat.powerOfTen(scale);
+        return new StationFilter(stations, prefix, (int) Math.round(min * unit), (int) Math.round(max * unit));
+    }
+
+    // ---- Scan-loop checks ----
+
+    // Cheap per-row check: false means the name is certainly rejected. Reads 8 bytes at nameAddr
+    // (the scan loops' inputs are padded for that); hash is the scanner's finalMix hash.
+    boolean mayAcceptName(long nameAddr, int hash) {
+        return (UNSAFE.getLong(nameAddr) & prefixMask) == prefixWord
+                && (bitmap == null || (bitmap[(hash >>> 6) & bitmapMask] & (1L << hash)) != 0);
+    }
+
+    // Exact check, for names about to be inserted into a table.
+    boolean acceptsName(long nameAddr, int nameLen, int hash) {
+        if (prefixBytes != null && !startsWith(nameAddr, nameLen)) {
+            return false;
+        }
+        if (bitmap == null) {
+            return true;
+        }
+        if ((bitmap[(hash >>> 6) & bitmapMask] & (1L << hash)) == 0) {
+            return false;
+        }
+        int idx = hash & namesMask;
+        byte[] name;
+        while ((name = names[idx]) != null) {
+            if (nameHashes[idx] == hash && name.length == nameLen && equalsAt(name, nameAddr)) {
+                return true;
+            }
+            idx = (idx + 1) & namesMask;
+        }
+        return false;
+    }
+
+    boolean acceptsTemperature(int tenths) {
+        return tenths >= minTenths && tenths <= maxTenths;
+    }
+
+    private boolean startsWith(long nameAddr, int nameLen) {
+        return nameLen >= prefixBytes.length && equalsAt(prefixBytes, nameAddr);
+    }
+
+    // Whether memory at addr starts with bytes; compares whole words while they fit.
+    private static boolean equalsAt(byte[] bytes, long addr) {
+        int i = 0;
+        for (; i + 8 <= bytes.length; i += 8) {
+            if (UNSAFE.getLong(bytes, BYTE_ARRAY_BASE + i) != UNSAFE.getLong(addr + i)) {
+                return false;
+            }
+        }
+        for (; i < bytes.length; i++) {
+            if (bytes[i] != UNSAFE.getByte(addr + i)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    @Override
+    public String toString() {
+        return "StationFilter[stations=" + (stations != null ? stations.size() : "all") + ", prefix=" + prefix
+                + ", tenths=" + minTenths + ".." + maxTenths + "]";
+    }
+}
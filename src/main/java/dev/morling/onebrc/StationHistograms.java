@@ -0,0 +1,375 @@
+package dev.morling.onebrc;
+
+import static dev.morling.onebrc.CalculateAverage_jeroen.UNSAFE;
+
+import java.util.Arrays;
+import java.util.Locale;
+
+/**
+ * Exact per-station value histograms for the extended-statistics mode, one per
+ * {@link StationTable} slot. Each histogram is an off-heap block that starts sparse: distinct
+ * values with their counts in a small open-addressed hash table, so a row costs one probe
+ * whatever the number of distinct values. Once it holds at least {@link #SPARSE_MAX} distinct
+ * values spread over at most {@link #DENSE_SPREAD} buckets per value, it turns dense: one
+ * counter per unit in the range of values seen so far, in whatever units the record format
+ * uses (tenths for the challenge input, 10^-scale otherwise). A value outside that range
+ * widens it, at least doubling, up to {@link #MAX_DENSE_BUCKETS}; past that the histogram
+ * goes back to a sparse one that stays sparse, so counts remain exact. Stations seen a
+ * handful of times therefore cost tens of bytes, hot ones 8 bytes per unit of their range.
+ * <p>
+ * Selected with {@code -Donebrc.stats=plain|extended}; in plain mode tables carry no
+ * histograms and {@link StationTable#accumulate} only pays a null check.
+ */
+final class StationHistograms {
+
+    enum Mode {
+        PLAIN,
+        EXTENDED
+    }
+
+    static final Mode MODE = Mode.valueOf(System.getProperty("onebrc.stats", "plain").toUpperCase(Locale.ROOT));
+
+    // Quantiles reported in extended mode, in output order.
+    static final double[] QUANTILES = { 0.50, 0.95, 0.99 };
+
+    // Distinct values from which a sparse histogram may turn dense.
+    static final int SPARSE_MAX = 64;
+    // A dense range holds at most this many buckets per distinct value when it is created or widened.
+    static final int DENSE_SPREAD = 32;
+    // Widest dense range (2 MB of counters): two-decimal values of +-1310.71, or tenths of +-13107.1.
+    static final int MAX_DENSE_BUCKETS = 1 << 18;
+    private static final int SPARSE_INITIAL = 4;
+
+    // Block header: [0:4] sparse size, or DENSE; [4:8] sparse capacity (a power of two), with
+    // PINNED_FLAG once demoted, or the dense bucket count; [8:12] the dense range's first value.
+    // Sparse body: int values[capacity], then long counts[capacity], where count 0 marks a free
+    // slot. Dense body: long counts[buckets].
+    private static final int H_SIZE = 0;
+    private static final int H_CAPACITY = 4;
+    private static final int H_BASE = 8;
+    private static final int HEADER_BYTES = 16;
+    private static final int DENSE = -1;
+    private static final int PINNED_FLAG = 1 << 30;
+
+    // Block address per slot of the owning table, 0 = no rows yet.
+    private long[] blocks;
+
+    StationHistograms(int capacity) {
+        blocks = new long[capacity];
+    }
+
+    // ---- Updates ----
+
+    void add(int slot, int value) {
+        long block = blocks[slot];
+        if (block != 0 && UNSAFE.getInt(block + H_SIZE) == DENSE) {
+            long bucket = (long) value - UNSAFE.getInt(block + H_BASE);
+            if (bucket >= 0 && bucket < UNSAFE.getInt(block + H_CAPACITY)) {
+                long counter = block + HEADER_BYTES + bucket * 8;
+                UNSAFE.putLong(counter, UNSAFE.getLong(counter) + 1);
+                return;
+            }
+        }
+        add(slot, value, 1);
+    }
+
+    private void add(int slot, int value, long count) {
+        long block = blocks[slot];
+        if (block == 0) {
+            block = blocks[slot] = allocateSparse(SPARSE_INITIAL, false);
+        }
+        int size = UNSAFE.getInt(block + H_SIZE);
+        if (size == DENSE) {
+            long bucket = (long) value - UNSAFE.getInt(block + H_BASE);
+            if (bucket < 0 || bucket >= UNSAFE.getInt(block + H_CAPACITY)) {
+                long widened = widenDense(block, value);
+                if (widened == 0) {
+                    block = blocks[slot] = denseToSparse(block);
+                    add(slot, value, count);
+                    return;
+                }
+                block = blocks[slot] = widened;
+                bucket = (long) value - UNSAFE.getInt(block + H_BASE);
+            }
+            long counter = block + HEADER_BYTES + bucket * 8;
+            UNSAFE.putLong(counter, UNSAFE.getLong(counter) + count);
+            return;
+        }
+        int capacityWord = UNSAFE.getInt(block + H_CAPACITY);
+        int capacity = capacityWord & ~PINNED_FLAG;
+        long values = block + HEADER_BYTES;
+        long counts = values + 4L * capacity;
+        int i = probe(value, capacity);
+        long c;
+        while ((c = UNSAFE.getLong(counts + 8L * i)) != 0) {
+            if (UNSAFE.getInt(values + 4L * i) == value) {
+                UNSAFE.putLong(counts + 8L * i, c + count);
+                return;
+            }
+            i = (i + 1) & (capacity - 1);
+        }
+        // Kept at most three quarters full, so probes stay short and always end on a free slot.
+        if ((size + 1) * 4 > capacity * 3) {
+            boolean pinned = (capacityWord & PINNED_FLAG) != 0;
+            long dense = !pinned && size >= SPARSE_MAX ? sparseToDense(block) : 0;
+            blocks[slot] = dense != 0 ? dense : growSparse(block, capacity * 2);
+            add(slot, value, count);
+            return;
+        }
+        UNSAFE.putInt(values + 4L * i, value);
+        UNSAFE.putLong(counts + 8L * i, count);
+        UNSAFE.putInt(block + H_SIZE, size + 1);
+    }
+
+    // Adds the histogram of other's slot otherSlot to slot.
+    void merge(int slot, StationHistograms other, int otherSlot) {
+        long src = other.blocks[otherSlot];
+        if (src == 0) {
+            return;
+        }
+        int size = UNSAFE.getInt(src + H_SIZE);
+        if (size == DENSE) {
+            int srcBase = UNSAFE.getInt(src + H_BASE);
+            int srcBuckets = UNSAFE.getInt(src + H_CAPACITY);
+            long dst = blocks[slot];
+            if (dst != 0 && UNSAFE.getInt(dst + H_SIZE) == DENSE) {
+                long offset = (long) srcBase - UNSAFE.getInt(dst + H_BASE);
+                if (offset >= 0 && offset + srcBuckets <= UNSAFE.getInt(dst + H_CAPACITY)) {
+                    long to = dst + HEADER_BYTES + 8L * offset;
+                    for (int b = 0; b < srcBuckets; b++) {
+                        UNSAFE.putLong(to + 8L * b, UNSAFE.getLong(to + 8L * b) + UNSAFE.getLong(src + HEADER_BYTES + 8L * b));
+                    }
+                    return;
+                }
+            }
+            for (int b = 0; b < srcBuckets; b++) {
+                long count = UNSAFE.getLong(src + HEADER_BYTES + 8L * b);
+                if (count != 0) {
+                    add(slot, srcBase + b, count);
+                }
+            }
+            return;
+        }
+        int capacity = UNSAFE.getInt(src + H_CAPACITY) & ~PINNED_FLAG;
+        long counts = src + HEADER_BYTES + 4L * capacity;
+        for (int i = 0; i < capacity; i++) {
+            long count = UNSAFE.getLong(counts + 8L * i);
+            if (count != 0) {
+                add(slot, UNSAFE.getInt(src + HEADER_BYTES + 4L * i), count);
+            }
+        }
+    }
+
+    // Whether slot's histogram is dense; for tests.
+    boolean isDense(int slot) {
+        return blocks[slot] != 0 && UNSAFE.getInt(blocks[slot] + H_SIZE) == DENSE;
+    }
+
+    // ---- Queries ----
+
+    /**
+     * Exact nearest-rank quantiles of slot's histogram, which holds {@code count} rows: for each
+     * q, the smallest value v such that at least ceil(q x count) rows are <= v.
+     */
+    int[] quantiles(int slot, long count, double[] qs) {
+        int[] out = new int[qs.length];
+        long block = blocks[slot];
+        if (block == 0 || count == 0) {
+            return out;
+        }
+        long[] ranks = new long[qs.length];
+        for (int q = 0; q < qs.length; q++) {
+            ranks[q] = Math.max(1, (long) Math.ceil(qs[q] * count));
+        }
+        int size = UNSAFE.getInt(block + H_SIZE);
+        int q = 0;
+        long cumulative = 0;
+        if (size == DENSE) {
+            int base = UNSAFE.getInt(block + H_BASE);
+            int buckets = UNSAFE.getInt(block + H_CAPACITY);
+            for (int b = 0; b < buckets && q < qs.length; b++) {
+                cumulative += UNSAFE.getLong(block + HEADER_BYTES + 8L * b);
+                while (q < qs.length && cumulative >= ranks[q]) {
+                    out[q++] = base + b;
+                }
+            }
+            return out;
+        }
+        int capacity = UNSAFE.getInt(block + H_CAPACITY) & ~PINNED_FLAG;
+        long counts = block + HEADER_BYTES + 4L * capacity;
+        // Sort (value, index) pairs of the used slots packed into longs; the index is below 2^31.
+        long[] order = new long[size];
+        int n = 0;
+        for (int i = 0; i < capacity; i++) {
+            if (UNSAFE.getLong(counts + 8L * i) != 0) {
+                order[n++] = ((long) UNSAFE.getInt(block + HEADER_BYTES + 4L * i) << 32) | i;
+            }
+        }
+        Arrays.sort(order);
+        for (int i = 0; i < size && q < qs.length; i++) {
+            cumulative += UNSAFE.getLong(counts + 8L * (int) order[i]);
+            while (q < qs.length && cumulative >= ranks[q]) {
+                out[q++] = (int) (order[i] >> 32);
+            }
+        }
+        return out;
+    }
+
+    // ---- Slot bookkeeping (driven by StationTable) ----
+
+    // Starts a block array for a table grown to capacity; returns the old one for moveBlock.
+    long[] resize(int capacity) {
+        long[] old = blocks;
+        blocks = new long[capacity];
+        return old;
+    }
+
+    void moveBlock(long[] oldBlocks, int oldSlot, int slot) {
+        blocks[slot] = oldBlocks[oldSlot];
+    }
+
+    // Frees the histograms of the given slots.
+    void clear(int[] slots, int count) {
+        for (int j = 0; j < count; j++) {
+            int slot = slots[j];
+            if (blocks[slot] != 0) {
+                UNSAFE.freeMemory(blocks[slot]);
+                blocks[slot] = 0;
+            }
+        }
+    }
+
+    // ---- Block layouts ----
+
+    private static int probe(int value, int capacity) {
+        int h = value * 0x9E3779B9;
+        return (h ^ (h >>> 16)) & (capacity - 1);
+    }
+
+    private static long allocateSparse(int capacity, boolean pinned) {
+        long block = UNSAFE.allocateMemory(HEADER_BYTES + 12L * capacity);
+        UNSAFE.putInt(block + H_SIZE, 0);
+        UNSAFE.putInt(block + H_CAPACITY, capacity | (pinned ? PINNED_FLAG : 0));
+        UNSAFE.setMemory(block + HEADER_BYTES + 4L * capacity, 8L * capacity, (byte) 0);
+        return block;
+    }
+
+    // Rehashes block into a sparse block of newCapacity slots.
+    private static long growSparse(long block, int newCapacity) {
+        int capacityWord = UNSAFE.getInt(block + H_CAPACITY);
+        int capacity = capacityWord & ~PINNED_FLAG;
+        long grown = allocateSparse(newCapacity, (capacityWord & PINNED_FLAG) != 0);
+        long counts = block + HEADER_BYTES + 4L * capacity;
+        long grownCounts = grown + HEADER_BYTES + 4L * newCapacity;
+        for (int i = 0; i < capacity; i++) {
+            long count = UNSAFE.getLong(counts + 8L * i);
+            if (count != 0) {
+                int value = UNSAFE.getInt(block + HEADER_BYTES + 4L * i);
+                int j = probe(value, newCapacity);
+                while (UNSAFE.getLong(grownCounts + 8L * j) != 0) {
+                    j = (j + 1) & (newCapacity - 1);
+                }
+                UNSAFE.putInt(grown + HEADER_BYTES + 4L * j, value);
+                UNSAFE.putLong(grownCounts + 8L * j, count);
+            }
+        }
+        UNSAFE.putInt(grown + H_SIZE, UNSAFE.getInt(block + H_SIZE));
+        UNSAFE.freeMemory(block);
+        return grown;
+    }
+
+    private static long allocateDense(int base, int buckets) {
+        long dense = UNSAFE.allocateMemory(HEADER_BYTES + 8L * buckets);
+        UNSAFE.setMemory(dense + HEADER_BYTES, 8L * buckets, (byte) 0);
+        UNSAFE.putInt(dense + H_SIZE, DENSE);
+        UNSAFE.putInt(dense + H_CAPACITY, buckets);
+        UNSAFE.putInt(dense + H_BASE, base);
+        return dense;
+    }
+
+    // A dense copy of block covering exactly its values, or 0 (block kept) if they are spread too thin.
+    private static long sparseToDense(long block) {
+        int size = UNSAFE.getInt(block + H_SIZE);
+        int capacity = UNSAFE.getInt(block + H_CAPACITY) & ~PINNED_FLAG;
+        long counts = block + HEADER_BYTES + 4L * capacity;
+        int min = Integer.MAX_VALUE;
+        int max = Integer.MIN_VALUE;
+        for (int i = 0; i < capacity; i++) {
+            if (UNSAFE.getLong(counts + 8L * i) != 0) {
+                int value = UNSAFE.getInt(block + HEADER_BYTES + 4L * i);
+                min = Math.min(min, value);
+                max = Math.max(max, value);
+            }
+        }
+        long span = (long) max - min + 1;
+        if (span > MAX_DENSE_BUCKETS || span > (long) DENSE_SPREAD * size) {
+            return 0;
+        }
+        long dense = allocateDense(min, (int) span);
+        for (int i = 0; i < capacity; i++) {
+            long count = UNSAFE.getLong(counts + 8L * i);
+            if (count != 0) {
+                int value = UNSAFE.getInt(block + HEADER_BYTES + 4L * i);
+                UNSAFE.putLong(dense + HEADER_BYTES + 8L * (value - min), count);
+            }
+        }
+        UNSAFE.freeMemory(block);
+        return dense;
+    }
+
+    // A dense copy of block whose range also covers value, at least twice as wide on value's
+    // side; 0 (block kept) if that would exceed MAX_DENSE_BUCKETS or DENSE_SPREAD.
+    private static long widenDense(long block, int value) {
+        int base = UNSAFE.getInt(block + H_BASE);
+        int buckets = UNSAFE.getInt(block + H_CAPACITY);
+        long lo = Math.min(base, value);
+        long hi = Math.max((long) base + buckets - 1, value);
+        long span = hi - lo + 1;
+        int used = 1;
+        for (int b = 0; b < buckets; b++) {
+            if (UNSAFE.getLong(block + HEADER_BYTES + 8L * b) != 0) {
+                used++;
+            }
+        }
+        if (span > MAX_DENSE_BUCKETS || span > (long) DENSE_SPREAD * used) {
+            return 0;
+        }
+        long newSpan = Math.min(Math.max(span, 2L * buckets), Math.min(MAX_DENSE_BUCKETS, (long) DENSE_SPREAD * used));
+        long newLo = value < base ? hi - newSpan + 1 : lo;
+        newLo = Math.max(newLo, Integer.MIN_VALUE);
+        newLo = Math.min(newLo, Integer.MAX_VALUE - newSpan + 1);
+        long dense = allocateDense((int) newLo, (int) newSpan);
+        UNSAFE.copyMemory(block + HEADER_BYTES, dense + HEADER_BYTES + 8L * (base - newLo), 8L * buckets);
+        UNSAFE.freeMemory(block);
+        return dense;
+    }
+
+    // For a value the dense range cannot take: a pinned sparse copy with room for more values.
+    private static long denseToSparse(long block) {
+        int base = UNSAFE.getInt(block + H_BASE);
+        int buckets = UNSAFE.getInt(block + H_CAPACITY);
+        int size = 0;
+        for (int b = 0; b < buckets; b++) {
+            if (UNSAFE.getLong(block + HEADER_BYTES + 8L * b) != 0) {
+                size++;
+            }
+        }
+        int capacity = Integer.highestOneBit(Math.max(SPARSE_INITIAL, size * 2)) * 2;
+        long sparse = allocateSparse(capacity, true);
+        long counts = sparse + HEADER_BYTES + 4L * capacity;
+        for (int b = 0; b < buckets; b++) {
+            long count = UNSAFE.getLong(block + HEADER_BYTES + 8L * b);
+            if (count != 0) {
+                int j = probe(base + b, capacity);
+                while (UNSAFE.getLong(counts + 8L * j) != 0) {
+                    j = (j + 1) & (capacity - 1);
+                }
+                UNSAFE.putInt(sparse + HEADER_BYTES + 4L * j, base + b);
+                UNSAFE.putLong(counts + 8L * j, count);
+            }
+        }
+        UNSAFE.putInt(sparse + H_SIZE, size);
+        UNSAFE.freeMemory(block);
+        return sparse;
+    }
+}
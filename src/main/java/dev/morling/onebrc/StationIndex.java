@@ -0,0 +1,466 @@
+package dev.morling.onebrc;
+
+import java.io.IOException;
+import java.lang.foreign.Arena;
+import java.lang.foreign.MemorySegment;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Locale;
+import java.util.zip.CRC32C;
+
+/**
+ * Sidecar index for an input file that is queried many times, written next to it as
+ * {@code <file>}{@link #SUFFIX} by {@code CalculateAverage_jeroen --build-index}. It holds:
+ * <ul>
+ * <li>a fingerprint of the file (size, modification time, CRC32C of its first and last
+ * {@link #SAMPLE_BYTES}); a sidecar whose fingerprint does not match is ignored;</li>
+ * <li>the line starts at or after every multiple of {@link #STRIDE}, so workers snap their
+ * slices with a binary search instead of probing for newlines;</li>
+ * <li>the station names with a perfect hash over their {@link #dictionaryKey}s (hash and
+ * displace: the top bits of a key pick a bucket, the bucket's displacement d gives the slot
+ * {@code ((key ^ d) * PERFECT_MULTIPLIER) >>> (32 - slotBits)}). Workers fill an
+ * {@link IndexedTable} preloaded with these names, which finds a name's slot without probing
+ * and has no insert path. Only written for up to {@link #DICTIONARY_MAX} names.</li>
+ * </ul>
+ * Names are stored, hashes are not: loading recomputes them and rebuilds the perfect hash if the
+ * stored displacements no longer fit, so sidecars outlive changes to the scanner's hash.
+ * <p>
+ * Used by {@link AggregationEngine} when the input is one mappable file; line starts also for
+ * filtered and extended runs, the dictionary only for unfiltered plain ones.
+ * {@code -Donebrc.index=off} ignores sidecars.
+ */
+final class StationIndex {
+
+    enum Mode {
+        AUTO,
+        OFF
+    }
+
+    static final Mode MODE = Mode.valueOf(System.getProperty("onebrc.index", "auto").toUpperCase(Locale.ROOT));
+
+    static final String SUFFIX = ".1brcidx";
+    // "1BRCIDX" plus a zero byte, read as a little-endian long.
+    static final long MAGIC = 0x0058444943524231L;
+    static final int VERSION = 1;
+
+    // Granularity of the line starts; the scheduler never hands out smaller slices.
+    static final long STRIDE = ChunkScheduler.MIN_CHUNK;
+    // Past this each worker's IndexedTable (2^slotBits x 64 bytes) outgrows the caches it is meant for.
+    static final int DICTIONARY_MAX = 1 << 16;
+    static final int SAMPLE_BYTES = 1 << 16;
+    static final int PERFECT_MULTIPLIER = 0x9E3779B9;
+    // Displacements tried per bucket before the slot array is doubled.
+    private static final int MAX_DISPLACEMENT = 1 << 16;
+
+    // Header: magic, version, station count, file size, modification time, sample CRC, line
+    // start count, slot bits, bucket bits, CRC32C of the body, name bytes.
+    // Body: long lineStarts[], int displacements[1 << bucketBits], int nameLens[], name bytes.
+    private static final int HEADER_BYTES = 64;
+    private static final int H_MAGIC = 0;
+    private static final int H_VERSION = 8;
+    private static final int H_STATIONS = 12;
+    private static final int H_FILE_SIZE = 16;
+    private static final int H_MODIFIED = 24;
+    private static final int H_SAMPLE_CRC = 32;
+    private static final int H_LINE_STARTS = 36;
+    private static final int H_SLOT_BITS = 40;
+    private static final int H_BUCKET_BITS = 44;
+    private static final int H_CRC = 48;
+    private static final int H_NAME_BYTES = 56;
+
+    private final long fileSize;
+    private final long modified;
+    private final int sampleCrc;
+    // Ascending, first 0, last fileSize.
+    private final long[] lineStarts;
+    // Null when the file has more than DICTIONARY_MAX names or two names share a key.
+    private final byte[][] names;
+    private final int[] hashes;
+    private final int[] keys;
+    private final int slotBits;
+    private final int bucketBits;
+    private final int[] displacements;
+
+    private StationIndex(long fileSize, long modified, int sampleCrc, long[] lineStarts, byte[][] names, int[] displacements,
+                         int slotBits, int bucketBits) {
+        this.fileSize = fileSize;
+        this.modified = modified;
+        this.sampleCrc = sampleCrc;
+        this.lineStarts = lineStarts;
+        int[] nameHashes = null;
+        int[] nameKeys = null;
+        if (names != null && names.length == 0) {
+            names = null;
+        }
+        if (names != null) {
+            nameHashes = new int[names.length];
+            nameKeys = new int[names.length];
+            for (int i = 0; i < names.length; i++) {
+                byte[] name = names[i];
+                long firstWord = 0;
+                for (int b = 0; b < Math.min(8, name.length); b++) {
+                    firstWord |= ((long) (name[b] & 0xFF)) << (b << 3);
+                }
+                nameHashes[i] = CalculateAverage_jeroen.hashName(name, name.length);
+                nameKeys[i] = dictionaryKey(nameHashes[i], firstWord, name.length);
+            }
+            if (displacements == null || !isPerfect(nameKeys, displacements, slotBits, bucketBits)) {
+                int[] params = perfectHash(nameKeys);
+                if (params != null) {
+                    slotBits = params[0];
+                    bucketBits = params[1];
+                    displacements = Arrays.copyOfRange(params, 2, params.length);
+                }
+                else {
+                    names = null;
+                    nameHashes = null;
+                    nameKeys = null;
+                }
+            }
+        }
+        this.names = names;
+        this.hashes = nameHashes;
+        this.keys = nameKeys;
+        this.slotBits = names != null ? slotBits : 0;
+        this.bucketBits = names != null ? bucketBits : 0;
+        this.displacements = names != null ? displacements : new int[0];
+    }
+
+    /**
+     * Perfect-hash key of a name from what the scan loop has at hand: its hash, its first word
+     * (zero-padded below 8 bytes) and its length. The hash alone folds words with XOR and
+     * collides on names that share word sets; mixing in the first word and the length separates
+     * them, so real station lists get distinct keys.
+     */
+    static int dictionaryKey(int hash, long firstWord, int nameLen) {
+        return hash ^ (int) (((firstWord + nameLen) * 0x9E3779B97F4A7C15L) >>> 32);
+    }
+
+    static Path sidecarOf(Path file) {
+        return file.resolveSibling(file.getFileName() + SUFFIX);
+    }
+
+    // ---- Build ----
+
+    // Scans file once for its line starts and station names.
+    static StationIndex build(AggregationEngine engine, Path file) throws IOException, InterruptedException {
+        long modified = Files.getLastModifiedTime(file).toMillis();
+        long size;
+        int sampleCrc;
+        long[] lineStarts;
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ);
+                Arena arena = Arena.ofConfined()) {
+            size = channel.size();
+            sampleCrc = sampleCrc(channel, size);
+            List<Long> starts = new ArrayList<>();
+            starts.add(0L);
+            if (size > 0) {
+                long base = channel.map(FileChannel.MapMode.READ_ONLY, 0, size, arena).address();
+                for (long pos = STRIDE; pos < size; pos += STRIDE) {
+                    long start = CalculateAverage_jeroen.lineStartAtOrAfter(base + pos, base, base + size) - base;
+                    if (start > starts.getLast()) {
+                        starts.add(start);
+                    }
+                }
+                if (starts.getLast() < size) {
+                    starts.add(size);
+                }
+            }
+            lineStarts = starts.stream().mapToLong(Long::longValue).toArray();
+        }
+
+        StationTable table = engine.aggregateMapped(List.of(file), 0, ChunkScheduler.MODE, null, null, null);
+        byte[][] names = null;
+        if (table.size() <= DICTIONARY_MAX) {
+            List<byte[]> found = new ArrayList<>(table.size());
+            table.forEachSorted(Arrays::compareUnsigned,
+                    (name, nameLen, minVal, maxVal, sumVal, countVal) -> found.add(Arrays.copyOf(name, nameLen)));
+            names = found.toArray(new byte[0][]);
+        }
+        engine.releaseTable(table);
+        return new StationIndex(size, modified, sampleCrc, lineStarts, names, null, 0, 0);
+    }
+
+    /** Writes the sidecar, replacing it through a temporary file like {@link TableSnapshot#write}. */
+    void write(Path sidecar) throws IOException {
+        int[] nameLens = new int[stations()];
+        long nameBytes = 0;
+        for (int i = 0; i < nameLens.length; i++) {
+            nameLens[i] = names[i].length;
+            nameBytes += nameLens[i];
+        }
+        long size = HEADER_BYTES + 8L * lineStarts.length + 4L * displacements.length + 4L * nameLens.length + nameBytes;
+        Path tmp = sidecar.resolveSibling(sidecar.getFileName() + ".tmp");
+        try {
+            try (FileChannel channel = FileChannel.open(tmp, StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING,
+                    StandardOpenOption.READ, StandardOpenOption.WRITE);
+                    Arena arena = Arena.ofConfined()) {
+                MemorySegment segment = channel.map(FileChannel.MapMode.READ_WRITE, 0, size, arena);
+                ByteBuffer body = segment.asSlice(HEADER_BYTES).asByteBuffer().order(ByteOrder.LITTLE_ENDIAN);
+                for (long start : lineStarts) {
+                    body.putLong(start);
+                }
+                for (int d : displacements) {
+                    body.putInt(d);
+                }
+                for (int len : nameLens) {
+                    body.putInt(len);
+                }
+                for (int i = 0; i < nameLens.length; i++) {
+                    body.put(names[i]);
+                }
+                CRC32C crc = new CRC32C();
+                crc.update(segment.asSlice(HEADER_BYTES).asByteBuffer());
+                ByteBuffer header = segment.asSlice(0, HEADER_BYTES).asByteBuffer().order(ByteOrder.LITTLE_ENDIAN);
+                header.putLong(H_MAGIC, MAGIC)
+                        .putInt(H_VERSION, VERSION)
+                        .putInt(H_STATIONS, nameLens.length)
+                        .putLong(H_FILE_SIZE, fileSize)
+                        .putLong(H_MODIFIED, modified)
+                        .putInt(H_SAMPLE_CRC, sampleCrc)
+                        .putInt(H_LINE_STARTS, lineStarts.length)
+                        .putInt(H_SLOT_BITS, slotBits)
+                        .putInt(H_BUCKET_BITS, bucketBits)
+                        .putInt(H_CRC, (int) crc.getValue())
+                        .putLong(H_NAME_BYTES, nameBytes);
+            }
+            Files.move(tmp, sidecar, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        }
+        catch (IOException | RuntimeException e) {
+            Files.deleteIfExists(tmp);
+            throw e;
+        }
+    }
+
+    // ---- Load ----
+
+    /**
+     * The sidecar of file if there is one and its fingerprint matches file, else null (also with
+     * {@code -Donebrc.index=off}). Throws an IOException for a damaged sidecar.
+     */
+    static StationIndex load(Path file) throws IOException {
+        Path sidecar = sidecarOf(file);
+        if (MODE == Mode.OFF || !Files.isRegularFile(sidecar)) {
+            return null;
+        }
+        ByteBuffer in = ByteBuffer.wrap(Files.readAllBytes(sidecar)).order(ByteOrder.LITTLE_ENDIAN);
+        if (in.remaining() < HEADER_BYTES || in.getLong(H_MAGIC) != MAGIC) {
+            throw new IOException(sidecar + ": not a station index");
+        }
+        if (in.getInt(H_VERSION) != VERSION) {
+            return null;
+        }
+        CRC32C crc = new CRC32C();
+        crc.update(in.slice(HEADER_BYTES, in.remaining() - HEADER_BYTES));
+        if ((int) crc.getValue() != in.getInt(H_CRC)) {
+            throw new IOException(sidecar + ": station index checksum mismatch");
+        }
+        long fileSize = in.getLong(H_FILE_SIZE);
+        long modified = in.getLong(H_MODIFIED);
+        int sampleCrc = in.getInt(H_SAMPLE_CRC);
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            long size = channel.size();
+            if (size != fileSize || Files.getLastModifiedTime(file).toMillis() != modified || sampleCrc(channel, size) != sampleCrc) {
+                return null;
+            }
+        }
+
+        int stations = in.getInt(H_STATIONS);
+        int slotBits = in.getInt(H_SLOT_BITS);
+        int bucketBits = in.getInt(H_BUCKET_BITS);
+        in.position(HEADER_BYTES);
+        long[] lineStarts = new long[in.getInt(H_LINE_STARTS)];
+        for (int i = 0; i < lineStarts.length; i++) {
+            lineStarts[i] = in.getLong();
+        }
+        int[] displacements = new int[stations > 0 ? 1 << bucketBits : 0];
+        for (int i = 0; i < displacements.length; i++) {
+            displacements[i] = in.getInt();
+        }
+        byte[][] names = new byte[stations][];
+        for (int i = 0; i < stations; i++) {
+            names[i] = new byte[in.getInt()];
+        }
+        for (byte[] name : names) {
+            in.get(name);
+        }
+        return new StationIndex(fileSize, modified, sampleCrc, lineStarts, names, displacements, slotBits, bucketBits);
+    }
+
+    // CRC32C of the first and last SAMPLE_BYTES of the file.
+    private static int sampleCrc(FileChannel channel, long size) throws IOException {
+        CRC32C crc = new CRC32C();
+        ByteBuffer buffer = ByteBuffer.allocate((int) Math.min(SAMPLE_BYTES, size));
+        for (long from : new long[]{ 0, Math.max(0, size - SAMPLE_BYTES) }) {
+            buffer.clear();
+            while (buffer.hasRemaining() && channel.read(buffer, from + buffer.position()) > 0) {
+            }
+            crc.update(buffer.flip());
+        }
+        return (int) crc.getValue();
+    }
+
+    // ---- Queries ----
+
+    /** First indexed line start at or after pos; monotonic, so slices snapped with it partition the file. */
+    long lineStartAtOrAfter(long pos) {
+        int i = Arrays.binarySearch(lineStarts, pos);
+        return lineStarts[i >= 0 ? i : Math.min(-i - 1, lineStarts.length - 1)];
+    }
+
+    int lineStartCount() {
+        return lineStarts.length;
+    }
+
+    boolean hasDictionary() {
+        return names != null;
+    }
+
+    // Dictionary names, sorted by bytes, with their scanner hashes and keys; empty without a dictionary.
+    int stations() {
+        return names != null ? names.length : 0;
+    }
+
+    byte[] name(int i) {
+        return names[i];
+    }
+
+    int hash(int i) {
+        return hashes[i];
+    }
+
+    int key(int i) {
+        return keys[i];
+    }
+
+    int slotBits() {
+        return slotBits;
+    }
+
+    int bucketBits() {
+        return bucketBits;
+    }
+
+    int[] displacements() {
+        return displacements.clone();
+    }
+
+    int slotOf(int key) {
+        return slotOf(key, displacements, slotBits, bucketBits);
+    }
+
+    static int slotOf(int key, int[] displacements, int slotBits, int bucketBits) {
+        return ((key ^ displacements[key >>> (32 - bucketBits)]) * PERFECT_MULTIPLIER) >>> (32 - slotBits);
+    }
+
+    // ---- Perfect hash ----
+
+    private static boolean isPerfect(int[] keys, int[] displacements, int slotBits, int bucketBits) {
+        if (slotBits < 1 || slotBits > 30 || bucketBits < 1 || bucketBits > 30 || displacements.length != 1 << bucketBits) {
+            return false;
+        }
+        boolean[] used = new boolean[1 << slotBits];
+        for (int key : keys) {
+            int slot = slotOf(key, displacements, slotBits, bucketBits);
+            if (used[slot]) {
+                return false;
+            }
+            used[slot] = true;
+        }
+        return true;
+    }
+
+    // {slotBits, bucketBits, displacements...} for keys, starting at two slots per name and
+    // doubling when a bucket finds no displacement; null if two names share a key.
+    private static int[] perfectHash(int[] keys) {
+        int[] sorted = keys.clone();
+        Arrays.sort(sorted);
+        for (int i = 1; i < sorted.length; i++) {
+            if (sorted[i] == sorted[i - 1]) {
+                return null;
+            }
+        }
+        int bits = 32 - Integer.numberOfLeadingZeros(Math.max(1, keys.length * 2 - 1));
+        // About four names per bucket.
+        int bucketBits = Math.max(1, bits - 3);
+        for (int slotBits = Math.max(4, bits); slotBits <= bits + 3; slotBits++) {
+            int[] displacements = displace(keys, slotBits, bucketBits);
+            if (displacements != null) {
+                int[] params = new int[2 + displacements.length];
+                params[0] = slotBits;
+                params[1] = bucketBits;
+                System.arraycopy(displacements, 0, params, 2, displacements.length);
+                return params;
+            }
+        }
+        return null;
+    }
+
+    // Buckets from the largest down each take the first displacement that puts all their
+    // names on free, distinct slots.
+    private static int[] displace(int[] keys, int slotBits, int bucketBits) {
+        int buckets = 1 << bucketBits;
+        List<List<Integer>> members = new ArrayList<>(buckets);
+        for (int b = 0; b < buckets; b++) {
+            members.add(new ArrayList<>());
+        }
+        for (int key : keys) {
+            members.get(key >>> (32 - bucketBits)).add(key);
+        }
+        Integer[] order = new Integer[buckets];
+        for (int b = 0; b < buckets; b++) {
+            order[b] = b;
+        }
+        Arrays.sort(order, (a, b) -> members.get(b).size() - members.get(a).size());
+
+        int[] displacements = new int[buckets];
+        boolean[] used = new boolean[1 << slotBits];
+        int[] slots = new int[keys.length];
+        for (int b : order) {
+            List<Integer> bucket = members.get(b);
+            if (bucket.isEmpty()) {
+                break;
+            }
+            boolean placed = false;
+            for (int d = 0; d < MAX_DISPLACEMENT && !placed; d++) {
+                int n = 0;
+                for (int key : bucket) {
+                    int slot = ((key ^ d) * PERFECT_MULTIPLIER) >>> (32 - slotBits);
+                    if (used[slot]) {
+                        break;
+                    }
+                    used[slot] = true;
+                    slots[n++] = slot;
+                }
+                if (n == bucket.size()) {
+                    displacements[b] = d;
+                    placed = true;
+                }
+                else {
+                    for (int i = 0; i < n; i++) {
+                        used[slots[i]] = false;
+                    }
+                }
+            }
+            if (!placed) {
+                return null;
+            }
+        }
+        return displacements;
+    }
+
+    @Override
+    public String toString() {
+        return lineStarts.length + " line starts, " + (names != null
+                ? names.length + " stations over " + (1 << slotBits) + " perfect-hash slots"
+                : "no station dictionary");
+    }
+}
@@ -0,0 +1,923 @@
+package dev.morling.onebrc;
+
+import static dev.morling.onebrc.CalculateAverage_jeroen.BYTE_ARRAY_BASE;
+import static dev.morling.onebrc.CalculateAverage_jeroen.UNSAFE;
+
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.Locale;
+import java.util.SplittableRandom;
+
+// AoS hash table design inspired by thomaswue and gonix: one cache line per slot.
+// Off-heap allocation with 64-byte alignment to avoid cross-cache-line splits.
+// Starts small and doubles at LOAD_FACTOR, so memory follows the number of distinct names.
+// Compare paths are specialized per table by name length (see Mode); the slot layout is shared.
+// Probe lengths are watched on insert; a table whose chains grow too long re-seeds (see HashMode).
+final class StationTable {
+    // AoS layout: 1 cache line (64 bytes) per slot, off-heap, 64-byte aligned.
+    // [0:8]   packed: (hash<<32)|nameLen, 0=empty
+    // [8:16]  sum (long)
+    // [16:24] count (long)
+    // [24:28] min (int)
+    // [28:32] max (int)
+    // [32:64] inline name (first 32 bytes)
+    static final int ENTRY_BYTES = 64;
+    static final int E_PACKED = 0;
+    static final int E_SUM = 8;
+    static final int E_COUNT = 16;
+    static final int E_MIN = 24;
+    static final int E_MAX = 28;
+    static final int E_NAME = 32;
+    static final int INLINE_MAX = 32;
+
+    // 4096 slots (256 KB): the 413-station set sits at ~10% load and never resizes.
+    static final int INITIAL_CAPACITY = 1 << 12;
+    // Linear probing degrades quickly past half full; grow before that.
+    private static final int LOAD_FACTOR_PERCENT = 50;
+    private static final int MAX_CAPACITY = 1 << 30;
+
+    // How accumulate compares names; chosen per table while it is empty.
+    // GENERAL: first word and inline bytes in the slot, names past INLINE_MAX against keys[idx].
+    // SHORT:   names of up to 16 bytes are two masked words compared straight against the slot,
+    //          with no loops; longer names take the GENERAL path.
+    // LONG:    names past INLINE_MAX keep 24 inline bytes plus the address of the rest, which
+    //          lives in an off-heap arena owned by the table, so the whole compare stays
+    //          off-heap and needs no load of keys[idx] and its array.
+    // -Donebrc.table=auto|general|short|long; auto lets each worker sample its first chunk.
+    enum Mode {
+        AUTO,
+        GENERAL,
+        SHORT,
+        LONG
+    }
+
+    static final Mode MODE = Mode.valueOf(System.getProperty("onebrc.table", "auto").toUpperCase(Locale.ROOT));
+
+    static final int SHORT_MAX = 16;
+    // LONG tables: inline name bytes of a name past INLINE_MAX, followed by the arena address.
+    static final int LONG_INLINE = 24;
+    static final int E_TAIL = E_NAME + LONG_INLINE;
+    // Lines sampled by chooseMode; LONG from 1 in 8 names past INLINE_MAX, else SHORT from 1 in 4
+    // names of up to SHORT_MAX bytes (the loop-free compare pays for the extra length check).
+    private static final int SAMPLE_LINES = 256;
+    private static final int ARENA_BLOCK = 1 << 20;
+
+    // Which hash places names. The scan loops' XOR fold is cheap but ignores word order, so
+    // inputs can be built whose names all share a slot and turn every row into a long probe.
+    // FAST:   the scan hash only; probe lengths are still recorded.
+    // SEEDED: every table hashes names again with seededHash under a per-run random seed.
+    // AUTO:   the scan hash until an insert probes past MAX_PROBE slots, then the table rehashes
+    //         its entries from keys under the next seed, up to MAX_RESEEDS times.
+    // -Donebrc.hash=auto|fast|seeded sets it for every table; setHashMode for one.
+    enum HashMode {
+        AUTO,
+        FAST,
+        SEEDED
+    }
+
+    static final HashMode HASH_MODE = HashMode.valueOf(System.getProperty("onebrc.hash", "auto").toUpperCase(Locale.ROOT));
+
+    // At 50% load a linear-probe run this long is all but impossible for a working hash.
+    static final int MAX_PROBE = 128;
+    static final int MAX_RESEEDS = 4;
+    // Not secret, but drawn per run, so colliding names cannot be prepared in advance.
+    private static final long RUN_SEED = new SplittableRandom().nextLong();
+
+    interface EntryConsumer {
+        void accept(byte[] name, int nameLen, int min, int max, long sum, long count);
+    }
+
+    // EntryConsumer plus the StationHistograms.QUANTILES of the entry, in tenths.
+    interface QuantileConsumer {
+        void accept(byte[] name, int nameLen, int min, int max, long sum, long count, int[] quantiles);
+    }
+
+    private long rawAddr;
+    private long dataAddr;
+    private int capacity;
+    private int mask;
+    private int growThreshold;
+    private byte[][] keys;
+    private int[] occupied;
+    private int occupiedCount = 0;
+    // Extended-statistics mode only; null keeps accumulate at min/max/sum/count.
+    private final StationHistograms histograms;
+    // Rows the scan loops feed into this table; null = every row. Cleared by reset().
+    private StationFilter filter;
+    // Layout of the lines the scan loops feed into this table. Back to ONEBRC on reset().
+    private RecordFormat format = RecordFormat.ONEBRC;
+    // Lines LenientScanner or DelimitedScanner could not parse; cleared by reset(), added up by merges.
+    private final LineRejects rejects = new LineRejects();
+    // Never AUTO. Back to GENERAL on reset().
+    private Mode mode = Mode.GENERAL;
+    // LONG only: blocks of name tails, the current block's next free byte and its end.
+    private long[] arenaBlocks = new long[0];
+    private int arenaBlockCount;
+    private long arenaPos;
+    private long arenaEnd;
+    // HASH_MODE unless set per table; back to HASH_MODE on reset().
+    private HashMode hashMode = HASH_MODE;
+    // 0: the scan hash; otherwise the seededHash seed of seed generation seedGeneration.
+    private long seed;
+    private int seedGeneration;
+    private int maxProbe;
+    private int reseeds;
+
+    StationTable() {
+        this(INITIAL_CAPACITY);
+    }
+
+    StationTable(int initialCapacity) {
+        this(initialCapacity, false);
+    }
+
+    StationTable(int initialCapacity, boolean withHistograms) {
+        if (Integer.bitCount(initialCapacity) != 1 || initialCapacity > MAX_CAPACITY) {
+            throw new IllegalArgumentException("capacity must be a power of two <= 2^30: " + initialCapacity);
+        }
+        allocate(initialCapacity);
+        keys = new byte[initialCapacity][];
+        occupied = new int[growThreshold + 1];
+        histograms = withHistograms ? new StationHistograms(initialCapacity) : null;
+        resetSeed();
+    }
+
+    private void allocate(int newCapacity) {
+        long bytes = (long) newCapacity * ENTRY_BYTES;
+        rawAddr = UNSAFE.allocateMemory(bytes + 64);
+        dataAddr = (rawAddr + 63) & ~63L;
+        UNSAFE.setMemory(dataAddr, bytes, (byte) 0);
+        capacity = newCapacity;
+        mask = newCapacity - 1;
+        growThreshold = (int) ((long) newCapacity * LOAD_FACTOR_PERCENT / 100);
+    }
+
+    int size() {
+        return occupiedCount;
+    }
+
+    int capacity() {
+        return capacity;
+    }
+
+    boolean hasHistograms() {
+        return histograms != null;
+    }
+
+    StationFilter filter() {
+        return filter;
+    }
+
+    void setFilter(StationFilter filter) {
+        this.filter = filter;
+    }
+
+    RecordFormat format() {
+        return format;
+    }
+
+    void setFormat(RecordFormat format) {
+        this.format = format;
+    }
+
+    LineRejects rejects() {
+        return rejects;
+    }
+
+    Mode mode() {
+        return mode;
+    }
+
+    // Picks the compare path; only while the table is empty, since LONG stores names differently.
+    void setMode(Mode mode) {
+        if (mode == Mode.AUTO) {
+            throw new IllegalArgumentException("a table needs a concrete mode");
+        }
+        if (occupiedCount != 0 && mode != this.mode) {
+            throw new IllegalStateException("table mode can only change while the table is empty");
+        }
+        this.mode = mode;
+    }
+
+    HashMode hashMode() {
+        return hashMode;
+    }
+
+    // Like setMode, only while the table is empty.
+    void setHashMode(HashMode hashMode) {
+        if (occupiedCount != 0 && hashMode != this.hashMode) {
+            throw new IllegalStateException("hash mode can only change while the table is empty");
+        }
+        this.hashMode = hashMode;
+        resetSeed();
+    }
+
+    long seed() {
+        return seed;
+    }
+
+    // Longest probe run of an insert since the last reset.
+    int maxProbe() {
+        return maxProbe;
+    }
+
+    int reseeds() {
+        return reseeds;
+    }
+
+    int seedGeneration() {
+        return seedGeneration;
+    }
+
+    // Rehashes the entries under the seed of generation, e.g. to merge with a table that
+    // re-seeded more often; not counted in reseeds().
+    void reseedTo(int generation) {
+        if (generation != seedGeneration) {
+            seedGeneration = generation;
+            rebuild(capacity, seedOf(generation));
+        }
+    }
+
+    // The seed of a generation: the same for every table of a run, so worker tables that
+    // re-seeded equally often still merge partition by partition. Never 0.
+    static long seedOf(int generation) {
+        if (generation == 0) {
+            return 0;
+        }
+        long z = RUN_SEED + generation * 0x9E3779B97F4A7C15L;
+        z = (z ^ (z >>> 30)) * 0xBF58476D1CE4E5B9L;
+        z = (z ^ (z >>> 27)) * 0x94D049BB133111EBL;
+        return (z ^ (z >>> 31)) | 1;
+    }
+
+    private void resetSeed() {
+        seedGeneration = hashMode == HashMode.SEEDED ? 1 : 0;
+        seed = seedOf(seedGeneration);
+        maxProbe = 0;
+        reseeds = 0;
+    }
+
+    // This table's hash of a name held in an array.
+    private int hashOf(byte[] name, int nameLen) {
+        return seed == 0 ? CalculateAverage_jeroen.hashName(name, nameLen) : CalculateAverage_jeroen.seededHash(name, nameLen, seed);
+    }
+
+    /**
+     * The mode for rows like the complete lines in [addr, end): MODE unless that is AUTO, else
+     * decided from the name lengths of the first SAMPLE_LINES lines.
+     */
+    static Mode chooseMode(long addr, long end) {
+        if (MODE != Mode.AUTO) {
+            return MODE;
+        }
+        int lines = 0;
+        int shortNames = 0;
+        int longNames = 0;
+        long lineStart = addr;
+        long semi = -1;
+        for (long p = addr; p < end && lines < SAMPLE_LINES; p++) {
+            byte b = UNSAFE.getByte(p);
+            if (b == ';' && semi < 0) {
+                semi = p;
+            }
+            else if (b == '\n') {
+                if (semi >= 0) {
+                    long nameLen = semi - lineStart;
+                    lines++;
+                    shortNames += nameLen <= SHORT_MAX ? 1 : 0;
+                    longNames += nameLen > INLINE_MAX ? 1 : 0;
+                }
+                lineStart = p + 1;
+                semi = -1;
+            }
+        }
+        if (lines == 0) {
+            return Mode.GENERAL;
+        }
+        if (longNames * 8 >= lines) {
+            return Mode.LONG;
+        }
+        return shortNames * 4 >= lines ? Mode.SHORT : Mode.GENERAL;
+    }
+
+    // hash: the scan loops' hash of the name, replaced by seededHash in seeded tables.
+    void accumulate(long nameAddr, int nameLen, int hash, int temp) {
+        if (seed != 0) {
+            hash = CalculateAverage_jeroen.seededHash(nameAddr, nameLen, seed);
+        }
+        switch (mode) {
+            case SHORT -> accumulateShort(nameAddr, nameLen, hash, temp);
+            case LONG -> accumulateLong(nameAddr, nameLen, hash, temp);
+            default -> accumulateGeneral(nameAddr, nameLen, hash, temp);
+        }
+    }
+
+    private void accumulateGeneral(long nameAddr, int nameLen, int hash, int temp) {
+        long firstWord = (nameLen >= 8)
+                ? UNSAFE.getLong(nameAddr)
+                : readPartialWord(nameAddr, nameLen);
+        long packedHashLen = ((long) hash << 32) | (nameLen & 0xFFFFFFFFL);
+        int idx = hash & mask;
+
+        while (true) {
+            long base = dataAddr + (long) idx * ENTRY_BYTES;
+            long stored = UNSAFE.getLong(base + E_PACKED);
+
+            if (stored == packedHashLen
+                    && UNSAFE.getLong(base + E_NAME) == firstWord
+                    && matchNameRest(base, nameAddr, nameLen, idx)) {
+                addRow(base, idx, temp);
+                return;
+            }
+
+            if (stored == 0) {
+                insertRow(base, idx, nameAddr, nameLen, hash, packedHashLen, temp);
+                return;
+            }
+
+            idx = (idx + 1) & mask;
+        }
+    }
+
+    // SHORT: names of up to 16 bytes as two words, zero-padded like the inline slot bytes.
+    private void accumulateShort(long nameAddr, int nameLen, int hash, int temp) {
+        if (nameLen > SHORT_MAX) {
+            accumulateGeneral(nameAddr, nameLen, hash, temp);
+            return;
+        }
+        long word0 = (nameLen >= 8)
+                ? UNSAFE.getLong(nameAddr)
+                : readPartialWord(nameAddr, nameLen);
+        long word1 = (nameLen > 8)
+                ? UNSAFE.getLong(nameAddr + 8) & (-1L >>> ((SHORT_MAX - nameLen) << 3))
+                : 0;
+        long packedHashLen = ((long) hash << 32) | (nameLen & 0xFFFFFFFFL);
+        int idx = hash & mask;
+
+        while (true) {
+            long base = dataAddr + (long) idx * ENTRY_BYTES;
+            long stored = UNSAFE.getLong(base + E_PACKED);
+
+            if (stored == packedHashLen
+                    && UNSAFE.getLong(base + E_NAME) == word0
+                    && UNSAFE.getLong(base + E_NAME + 8) == word1) {
+                addRow(base, idx, temp);
+                return;
+            }
+
+            if (stored == 0) {
+                insertRow(base, idx, nameAddr, nameLen, hash, packedHashLen, temp);
+                return;
+            }
+
+            idx = (idx + 1) & mask;
+        }
+    }
+
+    // LONG: like GENERAL up to INLINE_MAX; longer names compare 24 inline bytes, then the tail
+    // in the arena word by word, the last word masked.
+    private void accumulateLong(long nameAddr, int nameLen, int hash, int temp) {
+        long firstWord = (nameLen >= 8)
+                ? UNSAFE.getLong(nameAddr)
+                : readPartialWord(nameAddr, nameLen);
+        long packedHashLen = ((long) hash << 32) | (nameLen & 0xFFFFFFFFL);
+        int idx = hash & mask;
+
+        while (true) {
+            long base = dataAddr + (long) idx * ENTRY_BYTES;
+            long stored = UNSAFE.getLong(base + E_PACKED);
+
+            if (stored == packedHashLen
+                    && UNSAFE.getLong(base + E_NAME) == firstWord
+                    && (nameLen <= INLINE_MAX ? matchNameRest(base, nameAddr, nameLen, idx) : matchLongName(base, nameAddr, nameLen))) {
+                addRow(base, idx, temp);
+                return;
+            }
+
+            if (stored == 0) {
+                insertRow(base, idx, nameAddr, nameLen, hash, packedHashLen, temp);
+                return;
+            }
+
+            idx = (idx + 1) & mask;
+        }
+    }
+
+    private static boolean matchLongName(long base, long nameAddr, int nameLen) {
+        if (UNSAFE.getLong(base + E_NAME + 8) != UNSAFE.getLong(nameAddr + 8)
+                || UNSAFE.getLong(base + E_NAME + 16) != UNSAFE.getLong(nameAddr + 16)) {
+            return false;
+        }
+        long tail = UNSAFE.getLong(base + E_TAIL) - LONG_INLINE;
+        int i = LONG_INLINE;
+        for (; i + 8 <= nameLen; i += 8) {
+            if (UNSAFE.getLong(tail + i) != UNSAFE.getLong(nameAddr + i)) {
+                return false;
+            }
+        }
+        // Arena tails are padded, so the last word is read whole and masked.
+        return i == nameLen
+                || ((UNSAFE.getLong(tail + i) ^ UNSAFE.getLong(nameAddr + i)) & ((1L << ((nameLen - i) << 3)) - 1)) == 0;
+    }
+
+    private void addRow(long base, int idx, int temp) {
+        long curSum = UNSAFE.getLong(base + E_SUM);
+        long curCount = UNSAFE.getLong(base + E_COUNT);
+        int curMin = UNSAFE.getInt(base + E_MIN);
+        int curMax = UNSAFE.getInt(base + E_MAX);
+        UNSAFE.putLong(base + E_SUM, curSum + temp);
+        UNSAFE.putLong(base + E_COUNT, curCount + 1);
+        if (temp < curMin) {
+            UNSAFE.putInt(base + E_MIN, temp);
+        }
+        if (temp > curMax) {
+            UNSAFE.putInt(base + E_MAX, temp);
+        }
+        if (histograms != null) {
+            histograms.add(idx, temp);
+        }
+    }
+
+    // First row of a name (cold path): the filter's exact name check, then a new entry. The
+    // filter indexes names by the scan hash, which a seeded table has to compute again.
+    private void insertRow(long base, int idx, long nameAddr, int nameLen, int hash, long packedHashLen, int temp) {
+        if (filter != null && !filter.acceptsName(nameAddr, nameLen, seed == 0 ? hash : CalculateAverage_jeroen.hashName(nameAddr, nameLen))) {
+            return;
+        }
+        byte[] name = new byte[nameLen];
+        UNSAFE.copyMemory(null, nameAddr, name, BYTE_ARRAY_BASE, nameLen);
+        keys[idx] = name;
+        UNSAFE.putLong(base + E_PACKED, packedHashLen);
+        UNSAFE.putLong(base + E_SUM, temp);
+        UNSAFE.putLong(base + E_COUNT, 1);
+        UNSAFE.putInt(base + E_MIN, temp);
+        UNSAFE.putInt(base + E_MAX, temp);
+        storeName(base, name, nameLen);
+        if (histograms != null) {
+            histograms.add(idx, temp);
+        }
+        addOccupied(idx);
+    }
+
+    // Inline name bytes of a new entry, plus the arena tail for long names in LONG tables.
+    private void storeName(long base, byte[] name, int nameLen) {
+        if (mode == Mode.LONG && nameLen > INLINE_MAX) {
+            UNSAFE.copyMemory(name, BYTE_ARRAY_BASE, null, base + E_NAME, LONG_INLINE);
+            long tail = arenaAllocate(nameLen - LONG_INLINE);
+            UNSAFE.copyMemory(name, BYTE_ARRAY_BASE + LONG_INLINE, null, tail, nameLen - LONG_INLINE);
+            UNSAFE.putLong(base + E_TAIL, tail);
+            return;
+        }
+        UNSAFE.copyMemory(name, BYTE_ARRAY_BASE, null, base + E_NAME, Math.min(nameLen, INLINE_MAX));
+    }
+
+    // len bytes plus 8 of zeroed slack for the masked last-word read; blocks are never moved.
+    private long arenaAllocate(int len) {
+        long size = (len + 15L) & ~7L;
+        if (arenaPos + size > arenaEnd) {
+            long blockSize = Math.max(ARENA_BLOCK, size);
+            long block = UNSAFE.allocateMemory(blockSize);
+            UNSAFE.setMemory(block, blockSize, (byte) 0);
+            if (arenaBlockCount == arenaBlocks.length) {
+                arenaBlocks = Arrays.copyOf(arenaBlocks, Math.max(4, arenaBlockCount * 2));
+            }
+            arenaBlocks[arenaBlockCount++] = block;
+            arenaPos = block;
+            arenaEnd = block + blockSize;
+        }
+        long addr = arenaPos;
+        arenaPos += size;
+        return addr;
+    }
+
+    private void freeArena() {
+        for (int b = 0; b < arenaBlockCount; b++) {
+            UNSAFE.freeMemory(arenaBlocks[b]);
+        }
+        arenaBlockCount = 0;
+        arenaPos = 0;
+        arenaEnd = 0;
+    }
+
+    private boolean matchNameRest(long base, long nameAddr, int nameLen, int idx) {
+        if (nameLen <= 8) {
+            return true;
+        }
+        int end = Math.min(nameLen, INLINE_MAX);
+        int i = 8;
+        for (; i + 8 <= end; i += 8) {
+            if (UNSAFE.getLong(base + E_NAME + i)
+                    != UNSAFE.getLong(nameAddr + i)) {
+                return false;
+            }
+        }
+        for (; i < end; i++) {
+            if (UNSAFE.getByte(base + E_NAME + i)
+                    != UNSAFE.getByte(nameAddr + i)) {
+                return false;
+            }
+        }
+        if (nameLen > INLINE_MAX) {
+            byte[] key = keys[idx];
+            for (i = INLINE_MAX; i + 8 <= nameLen; i += 8) {
+                if (UNSAFE.getLong(key, BYTE_ARRAY_BASE + i)
+                        != UNSAFE.getLong(nameAddr + i)) {
+                    return false;
+                }
+            }
+            for (; i < nameLen; i++) {
+                if (key[i] != UNSAFE.getByte(nameAddr + i)) {
+                    return false;
+                }
+            }
+        }
+        return true;
+    }
+
+    void mergeFrom(StationTable other) {
+        for (int j = 0; j < other.occupiedCount; j++) {
+            mergeSlot(other, other.occupied[j]);
+        }
+        rejects.addAll(other.rejects);
+    }
+
+    // Merges the given occupied slots of other.
+    void mergeSlots(StationTable other, int[] slots) {
+        for (int i : slots) {
+            mergeSlot(other, i);
+        }
+    }
+
+    private void mergeSlot(StationTable other, int i) {
+        long oBase = other.dataAddr + (long) i * ENTRY_BYTES;
+        long packed = UNSAFE.getLong(oBase + E_PACKED);
+        int nameLen = (int) packed;
+        int hash = (int) (packed >>> 32);
+        if (other.seed != seed) {
+            hash = hashOf(other.keys[i], nameLen);
+            packed = ((long) hash << 32) | (nameLen & 0xFFFFFFFFL);
+        }
+        mergeEntry(other.keys[i], nameLen, hash, packed,
+                UNSAFE.getInt(oBase + E_MIN),
+                UNSAFE.getInt(oBase + E_MAX),
+                UNSAFE.getLong(oBase + E_SUM),
+                UNSAFE.getLong(oBase + E_COUNT),
+                other.histograms, i);
+    }
+
+    // Partition of a hash for the partitioned merge: the top partBits of its home index within
+    // a block of 2^blockBits slots. Every table of at least 2^blockBits slots keeps partition p
+    // in one contiguous stripe per block, so a partition is scanned sequentially.
+    static int partitionOf(int hash, int blockBits, int partBits) {
+        return (hash & ((1 << blockBits) - 1)) >>> (blockBits - partBits);
+    }
+
+    // Merges every entry of other in partition part into the matching entry here, touching no
+    // other slot and never inserting, so tasks for different partitions may run concurrently.
+    // Requires capacity() >= 2^blockBits for both tables and the same seed(). Returns the slots of other whose
+    // name is not present here.
+    int[] mergePartitionExisting(StationTable other, int blockBits, int partBits, int part) {
+        int block = 1 << blockBits;
+        int stripe = block >>> partBits;
+        int otherMask = other.mask;
+        int[] missing = new int[0];
+        int n = 0;
+        for (int start = part * stripe; start < other.capacity; start += block) {
+            // The stripe plus the probe run spilling out of it, up to this partition's next stripe.
+            int end = start + stripe;
+            int limit = start + block;
+            for (int pos = start; pos < limit; pos++) {
+                int i = pos & otherMask;
+                long packed = UNSAFE.getLong(other.dataAddr + (long) i * ENTRY_BYTES + E_PACKED);
+                if (packed == 0) {
+                    if (pos >= end) {
+                        break;
+                    }
+                    continue;
+                }
+                if (partitionOf((int) (packed >>> 32), blockBits, partBits) == part && !mergeExisting(other, i)) {
+                    if (n == missing.length) {
+                        missing = Arrays.copyOf(missing, Math.max(16, n * 2));
+                    }
+                    missing[n++] = i;
+                }
+            }
+        }
+        return Arrays.copyOf(missing, n);
+    }
+
+    private boolean mergeExisting(StationTable other, int i) {
+        long oBase = other.dataAddr + (long) i * ENTRY_BYTES;
+        long packed = UNSAFE.getLong(oBase + E_PACKED);
+        long firstWord = UNSAFE.getLong(oBase + E_NAME);
+        int idx = (int) (packed >>> 32) & mask;
+        while (true) {
+            long base = dataAddr + (long) idx * ENTRY_BYTES;
+            long stored = UNSAFE.getLong(base + E_PACKED);
+            if (stored == 0) {
+                return false;
+            }
+            if (stored == packed
+                    && UNSAFE.getLong(base + E_NAME) == firstWord
+                    && equalsNameBytes(keys[idx], other.keys[i], (int) packed)) {
+                UNSAFE.putInt(base + E_MIN, Math.min(UNSAFE.getInt(base + E_MIN), UNSAFE.getInt(oBase + E_MIN)));
+                UNSAFE.putInt(base + E_MAX, Math.max(UNSAFE.getInt(base + E_MAX), UNSAFE.getInt(oBase + E_MAX)));
+                UNSAFE.putLong(base + E_SUM, UNSAFE.getLong(base + E_SUM) + UNSAFE.getLong(oBase + E_SUM));
+                UNSAFE.putLong(base + E_COUNT, UNSAFE.getLong(base + E_COUNT) + UNSAFE.getLong(oBase + E_COUNT));
+                if (histograms != null && other.histograms != null) {
+                    histograms.merge(idx, other.histograms, i);
+                }
+                return true;
+            }
+            idx = (idx + 1) & mask;
+        }
+    }
+
+    // Merges one entry given by value, e.g. read back from a TableSnapshot; hash must be
+    // CalculateAverage_jeroen.hashName of the name. Only name[0, nameLen) is read.
+    void merge(byte[] name, int nameLen, int hash, int minVal, int maxVal, long sumVal, long countVal) {
+        if (seed != 0) {
+            hash = hashOf(name, nameLen);
+        }
+        mergeEntry(name, nameLen, hash, ((long) hash << 32) | (nameLen & 0xFFFFFFFFL),
+                minVal, maxVal, sumVal, countVal, null, 0);
+    }
+
+    // otherHistograms/otherSlot: the entry's histogram, merged in when both tables carry them.
+    private void mergeEntry(byte[] name, int nameLen, int hash,
+            long packedHashLen, int minVal, int maxVal, long sumVal, long countVal,
+            StationHistograms otherHistograms, int otherSlot) {
+        long firstWord = (nameLen >= 8)
+                ? UNSAFE.getLong(name, BYTE_ARRAY_BASE)
+                : readPartialWordArr(name, nameLen);
+        int idx = hash & mask;
+        while (true) {
+            long base = dataAddr + (long) idx * ENTRY_BYTES;
+            long stored = UNSAFE.getLong(base + E_PACKED);
+
+            if (stored == 0) {
+                byte[] copy = new byte[nameLen];
+                System.arraycopy(name, 0, copy, 0, nameLen);
+                keys[idx] = copy;
+                UNSAFE.putLong(base + E_PACKED, packedHashLen);
+                UNSAFE.putLong(base + E_SUM, sumVal);
+                UNSAFE.putLong(base + E_COUNT, countVal);
+                UNSAFE.putInt(base + E_MIN, minVal);
+                UNSAFE.putInt(base + E_MAX, maxVal);
+                storeName(base, copy, nameLen);
+                if (histograms != null && otherHistograms != null) {
+                    histograms.merge(idx, otherHistograms, otherSlot);
+                }
+                addOccupied(idx);
+                return;
+            }
+
+            if (stored == packedHashLen
+                    && UNSAFE.getLong(base + E_NAME) == firstWord
+                    && equalsNameBytes(keys[idx], name, nameLen)) {
+                UNSAFE.putInt(base + E_MIN,
+                        Math.min(UNSAFE.getInt(base + E_MIN), minVal));
+                UNSAFE.putInt(base + E_MAX,
+                        Math.max(UNSAFE.getInt(base + E_MAX), maxVal));
+                UNSAFE.putLong(base + E_SUM,
+                        UNSAFE.getLong(base + E_SUM) + sumVal);
+                UNSAFE.putLong(base + E_COUNT,
+                        UNSAFE.getLong(base + E_COUNT) + countVal);
+                if (histograms != null && otherHistograms != null) {
+                    histograms.merge(idx, otherHistograms, otherSlot);
+                }
+                return;
+            }
+
+            idx = (idx + 1) & mask;
+        }
+    }
+
+    void forEach(EntryConsumer consumer) {
+        for (int j = 0; j < occupiedCount; j++) {
+            int i = occupied[j];
+            long base = dataAddr + (long) i * ENTRY_BYTES;
+            consumer.accept(keys[i], (int) UNSAFE.getLong(base + E_PACKED),
+                    UNSAFE.getInt(base + E_MIN),
+                    UNSAFE.getInt(base + E_MAX),
+                    UNSAFE.getLong(base + E_SUM),
+                    UNSAFE.getLong(base + E_COUNT));
+        }
+    }
+
+    // Like forEach, with exact quantiles from the histograms; only for tables that carry them.
+    void forEachQuantiles(double[] quantiles, QuantileConsumer consumer) {
+        for (int j = 0; j < occupiedCount; j++) {
+            int i = occupied[j];
+            long base = dataAddr + (long) i * ENTRY_BYTES;
+            long count = UNSAFE.getLong(base + E_COUNT);
+            consumer.accept(keys[i], (int) UNSAFE.getLong(base + E_PACKED),
+                    UNSAFE.getInt(base + E_MIN),
+                    UNSAFE.getInt(base + E_MAX),
+                    UNSAFE.getLong(base + E_SUM),
+                    count,
+                    histograms.quantiles(i, count, quantiles));
+        }
+    }
+
+    // Like forEach, in the order of names given by nameOrder.
+    void forEachSorted(Comparator<byte[]> nameOrder, EntryConsumer consumer) {
+        for (int i : sortedSlots(nameOrder)) {
+            long base = dataAddr + (long) i * ENTRY_BYTES;
+            consumer.accept(keys[i], (int) UNSAFE.getLong(base + E_PACKED),
+                    UNSAFE.getInt(base + E_MIN),
+                    UNSAFE.getInt(base + E_MAX),
+                    UNSAFE.getLong(base + E_SUM),
+                    UNSAFE.getLong(base + E_COUNT));
+        }
+    }
+
+    // Occupied slot indexes in the order of names given by nameOrder.
+    int[] sortedSlots(Comparator<byte[]> nameOrder) {
+        int[] slots = Arrays.copyOf(occupied, occupiedCount);
+        sortSlots(slots, new int[slots.length], 0, slots.length, nameOrder);
+        return slots;
+    }
+
+    // The full name of an occupied slot.
+    byte[] name(int slot) {
+        return keys[slot];
+    }
+
+    // Copies the ENTRY_BYTES of a slot to dst, e.g. for TableSnapshot; the inline name bytes are
+    // the same in every mode, and the hash is always the scan hash.
+    void copySlot(int slot, long dst) {
+        UNSAFE.copyMemory(dataAddr + (long) slot * ENTRY_BYTES, dst, ENTRY_BYTES);
+        byte[] name = keys[slot];
+        if (mode == Mode.LONG && name.length > INLINE_MAX) {
+            UNSAFE.copyMemory(name, BYTE_ARRAY_BASE + LONG_INLINE, null, dst + E_TAIL, INLINE_MAX - LONG_INLINE);
+        }
+        if (seed != 0) {
+            UNSAFE.putLong(dst + E_PACKED, ((long) CalculateAverage_jeroen.hashName(name, name.length) << 32) | name.length);
+        }
+    }
+
+    // Merge sort of slot indexes by name; avoids boxing the indexes for a Comparator sort.
+    private void sortSlots(int[] slots, int[] tmp, int from, int to, Comparator<byte[]> nameOrder) {
+        if (to - from < 16) {
+            for (int i = from + 1; i < to; i++) {
+                int slot = slots[i];
+                int j = i - 1;
+                while (j >= from && nameOrder.compare(keys[slots[j]], keys[slot]) > 0) {
+                    slots[j + 1] = slots[j];
+                    j--;
+                }
+                slots[j + 1] = slot;
+            }
+            return;
+        }
+        int mid = (from + to) >>> 1;
+        sortSlots(slots, tmp, from, mid, nameOrder);
+        sortSlots(slots, tmp, mid, to, nameOrder);
+        if (nameOrder.compare(keys[slots[mid - 1]], keys[slots[mid]]) <= 0) {
+            return;
+        }
+        System.arraycopy(slots, from, tmp, from, to - from);
+        int i = from;
+        int j = mid;
+        for (int k = from; k < to; k++) {
+            if (j >= to || (i < mid && nameOrder.compare(keys[tmp[i]], keys[tmp[j]]) <= 0)) {
+                slots[k] = tmp[i++];
+            }
+            else {
+                slots[k] = tmp[j++];
+            }
+        }
+    }
+
+    // Empties the table for reuse; keeps the (possibly grown) capacity.
+    void reset() {
+        // A grown table that is mostly empty is cheaper to clear slot by slot.
+        boolean sparse = occupiedCount < capacity >>> 3;
+        if (!sparse) {
+            UNSAFE.setMemory(dataAddr, (long) capacity * ENTRY_BYTES, (byte) 0);
+        }
+        for (int j = 0; j < occupiedCount; j++) {
+            int idx = occupied[j];
+            if (sparse) {
+                UNSAFE.setMemory(dataAddr + (long) idx * ENTRY_BYTES, ENTRY_BYTES, (byte) 0);
+            }
+            keys[idx] = null;
+        }
+        if (histograms != null) {
+            histograms.clear(occupied, occupiedCount);
+        }
+        occupiedCount = 0;
+        filter = null;
+        format = RecordFormat.ONEBRC;
+        rejects.clear();
+        freeArena();
+        mode = Mode.GENERAL;
+        hashMode = HASH_MODE;
+        resetSeed();
+    }
+
+    // Releases the off-heap slots; the table must not be used afterwards.
+    void free() {
+        if (histograms != null) {
+            histograms.clear(occupied, occupiedCount);
+        }
+        if (rawAddr != 0) {
+            UNSAFE.freeMemory(rawAddr);
+            rawAddr = 0;
+            dataAddr = 0;
+        }
+        freeArena();
+    }
+
+    // ---- Growth and re-seeding (cold path, only reached on first insert of a name) ----
+
+    // Records idx as occupied, then grows the table or, when the insert probed past MAX_PROBE
+    // and AUTO still has seeds left, rehashes it under the next seed.
+    private void addOccupied(int idx) {
+        occupied[occupiedCount++] = idx;
+        int probe = probeLength(dataAddr, idx);
+        if (probe > maxProbe) {
+            maxProbe = probe;
+        }
+        if (occupiedCount > growThreshold) {
+            rebuild(capacity << 1, seed);
+        }
+        else if (probe > MAX_PROBE && hashMode == HashMode.AUTO && reseeds < MAX_RESEEDS) {
+            reseeds++;
+            seedGeneration++;
+            rebuild(capacity, seedOf(seedGeneration));
+        }
+    }
+
+    // Distance of the entry in slot idx from its home slot.
+    private int probeLength(long data, int idx) {
+        return (idx - (int) (UNSAFE.getLong(data + (long) idx * ENTRY_BYTES + E_PACKED) >>> 32)) & mask;
+    }
+
+    // Moves every entry to a new slot array of newCapacity slots placed by newSeed. With the same
+    // seed each 64-byte slot already carries its hash, so entries are moved with one copyMemory
+    // and no name is re-read; a new seed hashes every name again from keys.
+    private void rebuild(int newCapacity, long newSeed) {
+        if (newCapacity > MAX_CAPACITY) {
+            throw new IllegalStateException("StationTable is full: " + occupiedCount + " distinct names");
+        }
+        long oldRaw = rawAddr;
+        long oldData = dataAddr;
+        byte[][] oldKeys = keys;
+        int[] oldOccupied = occupied;
+        boolean rehash = newSeed != seed;
+
+        allocate(newCapacity);
+        seed = newSeed;
+        keys = new byte[capacity][];
+        occupied = Arrays.copyOf(oldOccupied, growThreshold + 1);
+        long[] oldHistograms = histograms != null ? histograms.resize(capacity) : null;
+        maxProbe = 0;
+
+        for (int j = 0; j < occupiedCount; j++) {
+            int oldIdx = oldOccupied[j];
+            long oldBase = oldData + (long) oldIdx * ENTRY_BYTES;
+            byte[] name = oldKeys[oldIdx];
+            int hash = rehash ? hashOf(name, name.length) : (int) (UNSAFE.getLong(oldBase + E_PACKED) >>> 32);
+            int idx = hash & mask;
+            while (UNSAFE.getLong(dataAddr + (long) idx * ENTRY_BYTES + E_PACKED) != 0) {
+                idx = (idx + 1) & mask;
+            }
+            long base = dataAddr + (long) idx * ENTRY_BYTES;
+            UNSAFE.copyMemory(oldBase, base, ENTRY_BYTES);
+            if (rehash) {
+                UNSAFE.putLong(base + E_PACKED, ((long) hash << 32) | (name.length & 0xFFFFFFFFL));
+            }
+            maxProbe = Math.max(maxProbe, probeLength(dataAddr, idx));
+            keys[idx] = name;
+            if (oldHistograms != null) {
+                histograms.moveBlock(oldHistograms, oldIdx, idx);
+            }
+            occupied[j] = idx;
+        }
+        UNSAFE.freeMemory(oldRaw);
+    }
+
+    private static boolean equalsNameBytes(byte[] a, byte[] b, int len) {
+        for (int i = 0; i < len; i++) {
+            if (a[i] != b[i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static long readPartialWord(long addr, int len) {
+        return UNSAFE.getLong(addr) & ((1L << (len << 3)) - 1);
+    }
+
+    private static long readPartialWordArr(byte[] arr, int len) {
+        long word = 0;
+        int n = Math.min(len, 8);
+        for (int i = 0; i < n; i++) {
+            word |= ((long) (arr[i] & 0xFF)) << (i << 3);
+        }
+        return word;
+    }
+}
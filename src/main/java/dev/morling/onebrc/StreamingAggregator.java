@@ -0,0 +1,203 @@
+package dev.morling.onebrc;
+
+import static dev.morling.onebrc.CalculateAverage_jeroen.UNSAFE;
+
+import java.io.IOException;
+import java.lang.foreign.MemorySegment;
+import java.nio.ByteBuffer;
+import java.nio.channels.ReadableByteChannel;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * Aggregation over a {@link ReadableByteChannel} that cannot be memory-mapped (stdin,
+ * pipes, FIFOs). The calling thread reads into a fixed pool of off-heap buffers and
+ * hands every buffer, cut at its last newline, to the workers; the partial line is
+ * carried over to the start of the next buffer. Workers run the usual
+ * {@code processChunk} as {@link AggregationEngine} tasks and return buffers to the
+ * pool, so the reader blocks once {@code buffersPerWorker * workers} buffers are in flight.
+ */
+final class StreamingAggregator {
+
+    static final int BUFFER_SIZE = CalculateAverage_jeroen.CHUNK_SIZE;
+    static final int BUFFERS_PER_WORKER = 3;
+
+    // processChunk never reads past endAddr, but keep a tail so word reads stay inside the segment.
+    private static final int BUFFER_SLACK = 64;
+
+    private static final class Buffer {
+        // Owns the allocation; view and address point into a 64-byte aligned slice of it.
+        final ByteBuffer memory;
+        final MemorySegment segment;
+        final long address;
+        final ByteBuffer view;
+        int length;
+
+        Buffer(int capacity) {
+            // A direct buffer rather than an arena segment, so channels such as GzipAggregator's
+            // inflater can write into it without a restricted global-scope alias.
+            this.memory = ByteBuffer.allocateDirect(capacity + BUFFER_SLACK + 63);
+            ByteBuffer aligned = memory.alignedSlice(64);
+            this.segment = MemorySegment.ofBuffer(aligned);
+            this.address = segment.address();
+            this.view = aligned.slice(0, capacity);
+        }
+
+        private Buffer() {
+            this.memory = null;
+            this.segment = null;
+            this.address = 0;
+            this.view = null;
+        }
+    }
+
+    // Poison pill: one per worker once the channel is exhausted.
+    private static final Buffer END = new Buffer();
+
+    private StreamingAggregator() {
+    }
+
+    static StationTable aggregate(AggregationEngine engine, ReadableByteChannel in)
+            throws IOException, InterruptedException {
+        return aggregate(engine, in, null);
+    }
+
+    static StationTable aggregate(AggregationEngine engine, ReadableByteChannel in, StationFilter filter)
+            throws IOException, InterruptedException {
+        return aggregate(engine, in, filter, BUFFER_SIZE, BUFFERS_PER_WORKER);
+    }
+
+    static StationTable aggregate(AggregationEngine engine, ReadableByteChannel in, int bufferSize,
+            int buffersPerWorker)
+            throws IOException, InterruptedException {
+        return aggregate(engine, in, null, bufferSize, buffersPerWorker);
+    }
+
+    static StationTable aggregate(AggregationEngine engine, ReadableByteChannel in, StationFilter filter,
+            int bufferSize, int buffersPerWorker)
+            throws IOException, InterruptedException {
+        int safeWorkers = engine.workers();
+        int poolSize = Math.max(2, safeWorkers * buffersPerWorker);
+
+        Buffer[] pool = new Buffer[poolSize];
+        try {
+            BlockingQueue<Buffer> free = new ArrayBlockingQueue<>(poolSize);
+            BlockingQueue<Buffer> full = new ArrayBlockingQueue<>(poolSize + safeWorkers);
+            for (int i = 0; i < poolSize; i++) {
+                pool[i] = new Buffer(bufferSize);
+                free.add(pool[i]);
+            }
+
+            StationTable[] tables = new StationTable[safeWorkers];
+            for (int t = 0; t < safeWorkers; t++) {
+                tables[t] = engine.acquireTable(filter);
+            }
+            AtomicReference<Throwable> failure = new AtomicReference<>();
+            AggregationEngine.TaskGroup consumers = engine.start(safeWorkers, t -> {
+                StationTable table = tables[t];
+                try {
+                    Buffer buf;
+                    while ((buf = full.take()) != END) {
+                        // After a failure keep draining so the reader never blocks on the pool.
+                        if (failure.get() == null) {
+                            try {
+                                CalculateAverage_jeroen.processChunk(buf.segment, buf.address, buf.address + buf.length, table);
+                            }
+                            catch (Throwable e) {
+                                failure.compareAndSet(null, e);
+                            }
+                        }
+                        free.put(buf);
+                    }
+                }
+                catch (InterruptedException e) {
+                    failure.compareAndSet(null, e);
+                }
+            });
+
+            boolean readOk = false;
+            try {
+                readAll(in, free, full);
+                readOk = true;
+            }
+            finally {
+                for (int t = 0; t < safeWorkers; t++) {
+                    full.put(END);
+                }
+                consumers.join();
+                if (!readOk) {
+                    for (StationTable table : tables) {
+                        engine.releaseTable(table);
+                    }
+                }
+            }
+
+            Throwable error = failure.get();
+            if (error != null) {
+                for (StationTable table : tables) {
+                    engine.releaseTable(table);
+                }
+                throw new IOException("streaming worker failed", error);
+            }
+
+            return TableMerger.merge(engine, tables, TableMerger.MODE);
+        }
+        finally {
+            // The workers have been joined; free the pool now rather than on a GC that Epsilon never runs.
+            for (Buffer buf : pool) {
+                if (buf != null) {
+                    UNSAFE.invokeCleaner(buf.memory);
+                }
+            }
+        }
+    }
+
+    private static void readAll(ReadableByteChannel in, BlockingQueue<Buffer> free, BlockingQueue<Buffer> full)
+            throws IOException, InterruptedException {
+        Buffer cur = free.take();
+        cur.view.clear();
+        while (true) {
+            boolean eof = fill(in, cur.view);
+            int filled = cur.view.position();
+            if (eof) {
+                if (filled > 0) {
+                    cur.length = filled;
+                    full.put(cur);
+                }
+                else {
+                    free.put(cur);
+                }
+                return;
+            }
+
+            int lineEnd = filled;
+            while (lineEnd > 0 && UNSAFE.getByte(cur.address + lineEnd - 1) != '\n') {
+                lineEnd--;
+            }
+            if (lineEnd == 0) {
+                free.put(cur);
+                throw new IOException("line longer than streaming buffer (" + cur.view.capacity() + " bytes)");
+            }
+
+            Buffer next = free.take();
+            int carry = filled - lineEnd;
+            UNSAFE.copyMemory(cur.address + lineEnd, next.address, carry);
+            next.view.clear().position(carry);
+
+            cur.length = lineEnd;
+            full.put(cur);
+            cur = next;
+        }
+    }
+
+    // Reads until the buffer is full or the channel ends; returns true on end of stream.
+    private static boolean fill(ReadableByteChannel in, ByteBuffer view) throws IOException {
+        while (view.hasRemaining()) {
+            if (in.read(view) < 0) {
+                return true;
+            }
+        }
+        return false;
+    }
+}
@@ -0,0 +1,114 @@
+package dev.morling.onebrc;
+
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Locale;
+import java.util.Objects;
+
+/**
+ * Merges per-worker {@link StationTable}s into one. The serial merge folds every table
+ * into the first on the calling thread, O(workers x distinct names). With many distinct
+ * names the partitioned merge spreads that over the engine's workers: names are split into
+ * hash partitions, and one task per partition walks that partition's slot stripes of every
+ * other table sequentially (see {@link StationTable#partitionOf}) and folds each entry into
+ * the matching entry of the first table. Entries of different partitions are different
+ * slots and the first table's structure does not change, so the tasks need no locking.
+ * Names the first table lacks, few since every worker tends to see most names, are only
+ * collected and inserted serially afterwards. Partitions follow the hash, so tables that
+ * re-seeded (see {@link StationTable.HashMode}) are first brought to the latest seed any of
+ * them reached.
+ * <p>
+ * Selected with {@code -Donebrc.merge=auto|serial|partitioned}; {@code auto} switches to the
+ * partitioned merge from {@link #PARTITIONED_MIN_ENTRIES} entries across all tables.
+ */
+final class TableMerger {
+
+    enum Mode {
+        AUTO,
+        SERIAL,
+        PARTITIONED
+    }
+
+    static final Mode MODE = Mode.valueOf(System.getProperty("onebrc.merge", "auto").toUpperCase(Locale.ROOT));
+
+    // Below this the serial merge finishes before the partition tasks are scheduled.
+    static final int PARTITIONED_MIN_ENTRIES = 1 << 15;
+
+    private TableMerger() {
+    }
+
+    static boolean usesPartitions(Mode mode, StationTable[] tables, int workers) {
+        int live = 0;
+        long entries = 0;
+        for (StationTable table : tables) {
+            if (table != null) {
+                live++;
+                entries += table.size();
+            }
+        }
+        return switch (mode) {
+            case SERIAL -> false;
+            case PARTITIONED -> live > 1;
+            case AUTO -> live > 1 && workers > 1 && entries >= PARTITIONED_MIN_ENTRIES;
+        };
+    }
+
+    /**
+     * Merges {@code tables} (null slots are skipped) and returns the result; every input
+     * table is either returned or released to the engine.
+     */
+    static StationTable merge(AggregationEngine engine, StationTable[] tables, Mode mode)
+            throws IOException, InterruptedException {
+        StationTable[] live = Arrays.stream(tables).filter(Objects::nonNull).toArray(StationTable[]::new);
+        if (live.length == 0) {
+            return engine.acquireTable();
+        }
+        if (!usesPartitions(mode, live, engine.workers())) {
+            StationTable merged = live[0];
+            for (int t = 1; t < live.length; t++) {
+                merged.mergeFrom(live[t]);
+                engine.releaseTable(live[t]);
+            }
+            return merged;
+        }
+
+        int generation = Arrays.stream(live).mapToInt(StationTable::seedGeneration).max().getAsInt();
+        for (StationTable table : live) {
+            table.reseedTo(generation);
+        }
+
+        // Power-of-two partition count, at least one per worker; the block is the smallest
+        // table so that every table holds whole blocks.
+        int blockBits = Integer.numberOfTrailingZeros(Arrays.stream(live).mapToInt(StationTable::capacity).min().getAsInt());
+        int partBits = Math.min(blockBits, 32 - Integer.numberOfLeadingZeros(engine.workers() - 1));
+        int parts = 1 << partBits;
+        StationTable merged = live[0];
+        int[][][] missing = new int[parts][][];
+        try {
+            engine.run(parts, p -> {
+                missing[p] = new int[live.length][];
+                for (int t = 1; t < live.length; t++) {
+                    missing[p][t] = merged.mergePartitionExisting(live[t], blockBits, partBits, p);
+                }
+            });
+            for (int p = 0; p < parts; p++) {
+                for (int t = 1; t < live.length; t++) {
+                    merged.mergeSlots(live[t], missing[p][t]);
+                }
+            }
+            for (int t = 1; t < live.length; t++) {
+                merged.rejects().addAll(live[t].rejects());
+            }
+        }
+        catch (IOException | InterruptedException | RuntimeException e) {
+            engine.releaseTable(merged);
+            throw e;
+        }
+        finally {
+            for (int t = 1; t < live.length; t++) {
+                engine.releaseTable(live[t]);
+            }
+        }
+        return merged;
+    }
+}
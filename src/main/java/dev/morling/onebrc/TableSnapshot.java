@@ -0,0 +1,222 @@
+package dev.morling.onebrc;
+
+import static dev.morling.onebrc.CalculateAverage_jeroen.BYTE_ARRAY_BASE;
+import static dev.morling.onebrc.CalculateAverage_jeroen.UNSAFE;
+
+import java.io.IOException;
+import java.lang.foreign.Arena;
+import java.lang.foreign.MemorySegment;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.List;
+import java.util.zip.CRC32C;
+
+/**
+ * Versioned binary file holding the aggregates of a {@link StationTable}, so results can be
+ * kept and merged later instead of rescanning the input: daily snapshots merge into a weekly
+ * report in milliseconds. Files are written and read through {@link FileChannel#map}, so
+ * slots go straight between the table and the page cache.
+ * <p>
+ * Layout, little-endian:
+ * <pre>
+ * header   [0:8]   MAGIC ("1BRCSNAP")
+ *          [8:12]  VERSION
+ *          [12:16] entry count n
+ *          [16:24] name dictionary bytes
+ *          [24:28] CRC32C of everything after the header
+ *          [28:32] reserved, 0
+ * entries  n x {@link StationTable#ENTRY_BYTES}: the table's slot layout (packed hash and name
+ *          length, sum, count, min, max, first {@link StationTable#INLINE_MAX} name bytes)
+ * names    the full names of the entries, in entry order
+ * </pre>
+ * Entries are sorted by name bytes, so a table gives the same file whatever order its workers
+ * inserted names in. Loading recomputes each hash from the name, so snapshots stay readable if
+ * the scanner's hash changes. Only min/max/sum/count are stored; tables with histograms
+ * (extended statistics) cannot be written.
+ */
+final class TableSnapshot {
+
+    // "1BRCSNAP" read as a little-endian long.
+    static final long MAGIC = 0x50414E5343524231L;
+    static final int VERSION = 1;
+
+    static final int HEADER_BYTES = 32;
+    private static final int H_MAGIC = 0;
+    private static final int H_VERSION = 8;
+    private static final int H_COUNT = 12;
+    private static final int H_NAME_BYTES = 16;
+    private static final int H_CRC = 24;
+
+    private static final int CRC_SLICE = 1 << 30;
+
+    private TableSnapshot() {
+    }
+
+    /**
+     * Writes table to file, replacing it. The file is written under a temporary name next to it
+     * and moved into place, so readers never see a partial snapshot.
+     */
+    static void write(StationTable table, Path file) throws IOException {
+        if (table.hasHistograms()) {
+            throw new IllegalArgumentException("snapshots hold min/max/sum/count only; extended statistics cannot be written");
+        }
+        int[] slots = table.sortedSlots(Arrays::compareUnsigned);
+        long nameBytes = 0;
+        for (int slot : slots) {
+            nameBytes += table.name(slot).length;
+        }
+        long entriesStart = HEADER_BYTES;
+        long namesStart = entriesStart + (long) slots.length * StationTable.ENTRY_BYTES;
+        long size = namesStart + nameBytes;
+
+        Path tmp = file.resolveSibling(file.getFileName() + ".tmp");
+        try {
+            try (FileChannel channel = FileChannel.open(tmp, StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING,
+                    StandardOpenOption.READ, StandardOpenOption.WRITE);
+                    Arena arena = Arena.ofConfined()) {
+                MemorySegment segment = channel.map(FileChannel.MapMode.READ_WRITE, 0, size, arena);
+                long base = segment.address();
+                long names = base + namesStart;
+                for (int j = 0; j < slots.length; j++) {
+                    table.copySlot(slots[j], base + entriesStart + (long) j * StationTable.ENTRY_BYTES);
+                    byte[] name = table.name(slots[j]);
+                    UNSAFE.copyMemory(name, BYTE_ARRAY_BASE, null, names, name.length);
+                    names += name.length;
+                }
+                UNSAFE.putLong(base + H_MAGIC, MAGIC);
+                UNSAFE.putInt(base + H_VERSION, VERSION);
+                UNSAFE.putInt(base + H_COUNT, slots.length);
+                UNSAFE.putLong(base + H_NAME_BYTES, nameBytes);
+                UNSAFE.putInt(base + H_CRC, crc(segment, HEADER_BYTES, size));
+                UNSAFE.putInt(base + H_CRC + 4, 0);
+            }
+            Files.move(tmp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        }
+        catch (IOException | RuntimeException e) {
+            Files.deleteIfExists(tmp);
+            throw e;
+        }
+    }
+
+    // Reads file into a new table without histograms, sized to hold it; the caller frees it.
+    static StationTable load(Path file) throws IOException {
+        return read(file, null);
+    }
+
+    /**
+     * Merges the entries of file into table. Throws an IOException, leaving table unchanged,
+     * if the file is not a snapshot, has another version or is damaged.
+     */
+    static void loadInto(Path file, StationTable table) throws IOException {
+        read(file, table);
+    }
+
+    // Validates file, then merges it into table, or into a new table if that is null.
+    private static StationTable read(Path file, StationTable table) throws IOException {
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ);
+                Arena arena = Arena.ofConfined()) {
+            long size = channel.size();
+            if (size < HEADER_BYTES) {
+                throw new IOException(file + ": not a station snapshot (" + size + " bytes)");
+            }
+            MemorySegment segment = channel.map(FileChannel.MapMode.READ_ONLY, 0, size, arena);
+            long base = segment.address();
+            if (UNSAFE.getLong(base + H_MAGIC) != MAGIC) {
+                throw new IOException(file + ": not a station snapshot");
+            }
+            int version = UNSAFE.getInt(base + H_VERSION);
+            if (version != VERSION) {
+                throw new IOException(file + ": snapshot version " + version + ", this build reads " + VERSION);
+            }
+            int count = UNSAFE.getInt(base + H_COUNT);
+            long nameBytes = UNSAFE.getLong(base + H_NAME_BYTES);
+            long namesStart = HEADER_BYTES + (long) count * StationTable.ENTRY_BYTES;
+            if (count < 0 || nameBytes < 0 || namesStart + nameBytes != size) {
+                throw new IOException(file + ": snapshot size " + size + " does not match its header");
+            }
+            if (crc(segment, HEADER_BYTES, size) != UNSAFE.getInt(base + H_CRC)) {
+                throw new IOException(file + ": snapshot checksum mismatch");
+            }
+            long total = 0;
+            for (int j = 0; j < count; j++) {
+                int nameLen = (int) UNSAFE.getLong(base + HEADER_BYTES + (long) j * StationTable.ENTRY_BYTES + StationTable.E_PACKED);
+                if (nameLen < 0) {
+                    throw new IOException(file + ": negative name length in entry " + j);
+                }
+                total += nameLen;
+            }
+            if (total != nameBytes) {
+                throw new IOException(file + ": name lengths add up to " + total + ", header says " + nameBytes);
+            }
+
+            StationTable target = table != null ? table : new StationTable(capacityFor(count));
+            byte[] name = new byte[64];
+            long names = base + namesStart;
+            for (int j = 0; j < count; j++) {
+                long entry = base + HEADER_BYTES + (long) j * StationTable.ENTRY_BYTES;
+                int nameLen = (int) UNSAFE.getLong(entry + StationTable.E_PACKED);
+                if (nameLen > name.length) {
+                    name = new byte[Math.max(nameLen, name.length * 2)];
+                }
+                UNSAFE.copyMemory(null, names, name, BYTE_ARRAY_BASE, nameLen);
+                names += nameLen;
+                target.merge(name, nameLen, CalculateAverage_jeroen.hashName(name, nameLen),
+                        UNSAFE.getInt(entry + StationTable.E_MIN),
+                        UNSAFE.getInt(entry + StationTable.E_MAX),
+                        UNSAFE.getLong(entry + StationTable.E_SUM),
+                        UNSAFE.getLong(entry + StationTable.E_COUNT));
+            }
+            return target;
+        }
+    }
+
+    // Loads every snapshot and folds them into the first with StationTable.mergeFrom; the caller
+    // frees the result.
+    static StationTable merge(List<Path> files) throws IOException {
+        StationTable merged = null;
+        try {
+            for (Path file : files) {
+                StationTable table = load(file);
+                if (merged == null) {
+                    merged = table;
+                    continue;
+                }
+                try {
+                    merged.mergeFrom(table);
+                }
+                finally {
+                    table.free();
+                }
+            }
+        }
+        catch (IOException | RuntimeException e) {
+            if (merged != null) {
+                merged.free();
+            }
+            throw e;
+        }
+        return merged != null ? merged : new StationTable();
+    }
+
+    // Smallest table capacity that holds count entries without growing.
+    private static int capacityFor(int count) {
+        int capacity = StationTable.INITIAL_CAPACITY;
+        while (capacity < (1 << 30) && capacity / 2 < count) {
+            capacity <<= 1;
+        }
+        return capacity;
+    }
+
+    // CRC32C of [from, to) of segment, in slices that fit a ByteBuffer.
+    private static int crc(MemorySegment segment, long from, long to) {
+        CRC32C crc = new CRC32C();
+        for (long pos = from; pos < to; pos += CRC_SLICE) {
+            crc.update(segment.asSlice(pos, Math.min(CRC_SLICE, to - pos)).asByteBuffer());
+        }
+        return (int) crc.getValue();
+    }
+}
@@ -0,0 +1,95 @@
+package dev.morling.onebrc;
+
+import static dev.morling.onebrc.CalculateAverage_jeroen.UNSAFE;
+
+import java.lang.foreign.MemorySegment;
+import java.nio.ByteOrder;
+
+import jdk.incubator.vector.ByteVector;
+import jdk.incubator.vector.VectorMask;
+import jdk.incubator.vector.VectorOperators;
+import jdk.incubator.vector.VectorSpecies;
+
+/**
+ * {@code processChunk} with the name scan done by {@code jdk.incubator.vector}: one
+ * {@link ByteVector} compare against ';' covers 32 or 64 name bytes, so a 100-byte
+ * name costs two (512-bit) or four (256-bit) compares instead of thirteen SWAR words.
+ * The line end still comes from the branchless temperature parser, which finds the
+ * '\n' for free from the dot position.
+ *
+ * <p>The hash is the XOR of the name's little-endian 8-byte words, exactly as in the
+ * SWAR loop, so tables filled by either scanner can be merged. Only referenced
+ * through {@link CalculateAverage_jeroen#processChunk} after {@link #isUsable()} has
+ * been checked; without {@code --add-modules jdk.incubator.vector} this class is never
+ * loaded.
+ *
+ * <p>Vectors are loaded through the segment the chunk lies in (the mapping or buffer), so
+ * every load is bounds- and liveness-checked. A name that would run a load past the
+ * segment, which only malformed input can cause, is left to the bounds-checked scalar tail.
+ */
+final class VectorScanner {
+
+    static final VectorSpecies<Byte> SPECIES = ByteVector.SPECIES_PREFERRED.length() >= 64
+            ? ByteVector.SPECIES_512
+            : ByteVector.SPECIES_256;
+
+    private static final int LANES = SPECIES.length();
+    private static final ByteVector IOTA = ByteVector.zero(SPECIES).addIndex(1);
+    private static final int SAFE_MARGIN = 128;
+
+    private VectorScanner() {
+    }
+
+    // 128-bit lanes are no wider than two SWAR words; only dispatch here for 256 bits and up.
+    static boolean isUsable() {
+        return ByteVector.SPECIES_PREFERRED.vectorBitSize() >= 256;
+    }
+
+    // addr and endAddr are addresses inside memory.
+    static void processChunk(MemorySegment memory, long addr, long endAddr, StationTable table) {
+        long safeEnd = endAddr - SAFE_MARGIN;
+        long base = memory.address();
+        long lastLoad = base + memory.byteSize() - LANES;
+
+        scan: while (addr < safeEnd) {
+            long nameAddr = addr;
+            long hash = 0;
+            ByteVector block;
+            VectorMask<Byte> semis;
+
+            while (true) {
+                if (addr > lastLoad) {
+                    addr = nameAddr;
+                    break scan;
+                }
+                block = ByteVector.fromMemorySegment(SPECIES, memory, addr - base, ByteOrder.LITTLE_ENDIAN);
+                semis = block.eq((byte) ';');
+                if (semis.anyTrue()) {
+                    break;
+                }
+                hash ^= block.reinterpretAsLongs().reduceLanes(VectorOperators.XOR);
+                addr += LANES;
+            }
+
+            int semiPos = semis.firstTrue();
+            // Zero the ';' and everything after it, like the SWAR tail mask.
+            ByteVector name = block.blend((byte) 0, IOTA.compare(VectorOperators.GE, (byte) semiPos));
+            hash ^= name.reinterpretAsLongs().reduceLanes(VectorOperators.XOR);
+
+            long semiAddr = addr + semiPos;
+            int nameLen = (int) (semiAddr - nameAddr);
+            int finalHash = CalculateAverage_jeroen.finalMix(hash);
+
+            long tempWord = UNSAFE.getLong(semiAddr + 1);
+            int dotBitPos = Long.numberOfTrailingZeros(~tempWord & 0x10101000);
+            int temp = CalculateAverage_jeroen.parseTemperatureBranchless(tempWord, dotBitPos);
+            addr = semiAddr + 1 + (dotBitPos >>> 3) + 3;
+
+            table.accumulate(nameAddr, nameLen, finalHash, temp);
+        }
+
+        if (addr < endAddr) {
+            CalculateAverage_jeroen.processChunkSafe(addr, endAddr, table);
+        }
+    }
+}
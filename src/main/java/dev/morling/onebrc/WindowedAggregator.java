@@ -0,0 +1,143 @@
+package dev.morling.onebrc;
+
+import static dev.morling.onebrc.CalculateAverage_jeroen.CHUNK_SIZE;
+import static dev.morling.onebrc.CalculateAverage_jeroen.UNSAFE;
+
+import java.io.IOException;
+import java.lang.foreign.Arena;
+import java.lang.foreign.MemorySegment;
+import java.nio.channels.FileChannel;
+import java.util.Locale;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import dev.morling.onebrc.CalculateAverage_jeroen.WorkerProfile;
+
+/**
+ * Mapping mode for inputs that should not be mapped whole. Workers claim the same raw
+ * slices from the {@link ChunkScheduler} as {@link CalculateAverage_jeroen#runWorkers}, cut
+ * at window boundaries, and each maps only the window of the file that contains its current
+ * piece, in a confined arena that is closed (unmapped) as soon as the worker moves on to a
+ * piece outside it. Mapped
+ * address space, and with it RSS, stays below {@code workers x (window + tail)} however
+ * large the input is.
+ *
+ * <p>Enabled with {@code -Donebrc.mmap.window=<size>} ({@code 64m}, {@code 256m}, ...);
+ * the default {@code 0} maps each file in one piece.
+ */
+final class WindowedAggregator {
+
+    static final long WINDOW_BYTES = parseSize(System.getProperty("onebrc.mmap.window", "0"));
+
+    // Mapped past the window end so the last slice can read on to its closing newline.
+    static final int WINDOW_TAIL = 1 << 16;
+
+    private WindowedAggregator() {
+    }
+
+    // Window sizes are whole CHUNK_SIZE multiples so that fixed-schedule slices never straddle two windows.
+    static long roundWindow(long windowBytes) {
+        return Math.max(CHUNK_SIZE, (windowBytes + CHUNK_SIZE - 1) / CHUNK_SIZE * CHUNK_SIZE);
+    }
+
+    static void runWorkers(AggregationEngine engine, ChunkScheduler scheduler, FileChannel[] channels,
+            long windowBytes, StationTable[] tables, StationFilter filter, WorkerProfile[] workerProfiles)
+            throws IOException, InterruptedException {
+        long window = roundWindow(windowBytes);
+        AtomicBoolean failed = new AtomicBoolean();
+        engine.run(scheduler.workers(), ti -> {
+            StationTable table = tables[ti];
+            if (table == null) {
+                table = engine.acquireTable(filter);
+                tables[ti] = table;
+            }
+            WorkerProfile wp = workerProfiles != null ? new WorkerProfile() : null;
+            long busyStart = System.nanoTime();
+            Arena arena = null;
+            MemorySegment mapping = null;
+            int mappedRange = -1;
+            long mappedWindow = -1;
+            long base = 0; // address of file offset 0 in the current mapping
+            long mappedEnd = 0; // file offset where the current mapping ends
+            long[] slice = new long[2];
+            try {
+                while (!failed.get() && scheduler.claim(ti, slice)) {
+                    long pos = slice[0];
+                    int r = scheduler.rangeOf(pos);
+                    while (pos < slice[1]) {
+                        // Slices are global; cut them at file ends and window boundaries.
+                        long offset = scheduler.offset(r);
+                        long size = scheduler.offset(r + 1) - offset;
+                        long raw = pos - offset;
+                        long w = raw / window;
+                        long pieceEnd = Math.min(Math.min(slice[1] - offset, size), (w + 1) * window);
+                        if (r != mappedRange || w != mappedWindow) {
+                            if (arena != null) {
+                                arena.close();
+                                arena = null;
+                            }
+                            // One byte before the window for the start-of-slice newline check.
+                            long from = Math.max(0, w * window - 1);
+                            mappedEnd = Math.min(size, (w + 1) * window + WINDOW_TAIL);
+                            arena = Arena.ofConfined();
+                            mapping = channels[r].map(FileChannel.MapMode.READ_ONLY, from, mappedEnd - from, arena);
+                            base = mapping.address() - from;
+                            mappedRange = r;
+                            mappedWindow = w;
+                        }
+                        long start = CalculateAverage_jeroen.lineStartAtOrAfter(base + raw, base, base + mappedEnd);
+                        long end = CalculateAverage_jeroen.lineStartAtOrAfter(base + pieceEnd, base, base + mappedEnd);
+                        if (end == base + mappedEnd && mappedEnd < size && UNSAFE.getByte(end - 1) != '\n') {
+                            throw new IOException("line longer than the mmap window tail (" + WINDOW_TAIL + " bytes)");
+                        }
+                        if (start < end) {
+                            CalculateAverage_jeroen.processChunk(mapping, start, end, table);
+                        }
+                        if (wp != null) {
+                            wp.bytes += Math.max(0, end - start);
+                        }
+                        pos = offset + pieceEnd;
+                        if (pieceEnd == size) {
+                            r++;
+                        }
+                    }
+                    if (wp != null) {
+                        wp.chunks++;
+                    }
+                }
+            }
+            catch (Throwable e) {
+                // Stop the other workers early; the engine rethrows e from run().
+                failed.set(true);
+                throw e;
+            }
+            finally {
+                if (arena != null) {
+                    arena.close();
+                }
+            }
+            if (wp != null) {
+                wp.endNanos = System.nanoTime();
+                wp.busyNanos = wp.endNanos - busyStart;
+                workerProfiles[ti] = wp;
+            }
+        });
+    }
+
+    // Bytes with an optional k/m/g suffix: 65536, 64k, 256m, 1g.
+    static long parseSize(String value) {
+        String v = value.trim().toLowerCase(Locale.ROOT);
+        if (v.isEmpty()) {
+            return 0;
+        }
+        long unit = switch (v.charAt(v.length() - 1)) {
+            case 'k' -> 1L << 10;
+            case 'm' -> 1L << 20;
+            case 'g' -> 1L << 30;
+            default -> 1;
+        };
+        if (unit != 1) {
+            v = v.substring(0, v.length() - 1);
+        }
+        return Long.parseLong(v) * unit;
+    }
+}
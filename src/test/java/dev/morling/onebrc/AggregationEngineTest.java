@@ -0,0 +1,69 @@
+package dev.morling.onebrc;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import org.junit.jupiter.api.Test;
+
+class AggregationEngineTest {
+
+    @Test
+    void servesConcurrentRequestsWithPooledTables() throws Exception {
+        List<Path> files = new ArrayList<>();
+        List<String> expected = new ArrayList<>();
+        for (int f = 0; f < 6; f++) {
+            Path file = Files.createTempFile("1brc-engine", ".txt");
+            StringBuilder sb = new StringBuilder();
+            for (int i = 0; i < 5_000 + 1_000 * f; i++) {
+                sb.append("Spot").append((i * 3 + f) % (20 + 10 * f)).append(';')
+                        .append((i % 50) - 25).append('.').append(i % 10).append('\n');
+            }
+            Files.writeString(file, sb, StandardCharsets.UTF_8);
+            files.add(file);
+            expected.add(CalculateAverage_jeroen.format(CalculateAverage_jeroen.calculate(file, 1)));
+        }
+
+        ExecutorService callers = Executors.newFixedThreadPool(4);
+        try (AggregationEngine engine = new AggregationEngine(3)) {
+            for (int round = 0; round < 5; round++) {
+                List<Future<String>> results = new ArrayList<>();
+                for (Path file : files) {
+                    results.add(callers.submit(() -> CalculateAverage_jeroen.format(engine.calculate(file))));
+                }
+                for (int f = 0; f < files.size(); f++) {
+                    assertEquals(expected.get(f), results.get(f).get());
+                }
+            }
+            // Tables went back to the pool (reset) instead of being freed or leaked.
+            assertTrue(engine.pooledTableCount() > 0);
+            assertTrue(engine.pooledTableCount() <= 2 * engine.workers() + 1);
+        }
+        finally {
+            callers.shutdown();
+        }
+    }
+
+    @Test
+    void closeFreesPoolAndRejectsFurtherWork() throws Exception {
+        Path file = Files.createTempFile("1brc-engine-close", ".txt");
+        Files.writeString(file, "A;1.0\nB;2.0\n", StandardCharsets.UTF_8);
+
+        AggregationEngine engine = new AggregationEngine(2);
+        assertEquals("{A=1.0/1.0/1.0, B=2.0/2.0/2.0}", CalculateAverage_jeroen.format(engine.calculate(file)));
+        assertEquals("{A=1.0/1.0/1.0, B=2.0/2.0/2.0}", CalculateAverage_jeroen.format(engine.calculate(file)));
+        engine.close();
+
+        assertEquals(0, engine.pooledTableCount());
+        assertThrows(IllegalStateException.class, () -> engine.calculate(file));
+    }
+}
@@ -5,6 +5,7 @@ import static org.junit.jupiter.api.Assertions.assertEquals;
 import java.nio.charset.StandardCharsets;
 import java.nio.file.Files;
 import java.nio.file.Path;
+import java.util.List;
 import java.util.Map;
 
 import org.junit.jupiter.api.Test;
@@ -77,6 +78,86 @@ class CalculateAverageJeroenTest {
         assertEquals(500, stats.get("City0").count);
     }
 
+    @Test
+    void profileAccountsForEveryRowAndByte() throws Exception {
+        Path file = Files.createTempFile("1brc-profile", ".txt");
+        StringBuilder sb = new StringBuilder();
+        for (int i = 0; i < 20_000; i++) {
+            sb.append("Site").append(i % 50).append(';')
+                    .append((i % 40) - 20).append('.').append(i % 10).append('\n');
+        }
+        Files.writeString(file, sb.toString(), StandardCharsets.UTF_8);
+
+        CalculateAverage_jeroen.RunProfile profile = new CalculateAverage_jeroen.RunProfile();
+        CalculateAverage_jeroen.calculate(file, 4, profile);
+
+        long rows = 0;
+        long bytes = 0;
+        int chunks = 0;
+        for (CalculateAverage_jeroen.WorkerProfile w : profile.workers()) {
+            rows += w.rows();
+            bytes += w.bytes();
+            chunks += w.chunks();
+        }
+        assertEquals(20_000, rows);
+        assertEquals(Files.size(file), bytes);
+        assertEquals(profile.chunks(), chunks);
+        assertEquals(Files.size(file), profile.fileBytes());
+    }
+
+    @Test
+    void directoryOfFilesMatchesConcatenatedFile() throws Exception {
+        Path dir = Files.createTempDirectory("1brc-dir");
+        StringBuilder all = new StringBuilder();
+        for (int f = 0; f < 7; f++) {
+            StringBuilder sb = new StringBuilder();
+            for (int i = 0; i < 1_000 * f; i++) { // includes an empty file
+                sb.append("Town").append((i * 7 + f) % 41).append(';')
+                        .append((i % 30) - 15).append('.').append(i % 10).append('\n');
+            }
+            Files.writeString(dir.resolve("part-" + f + ".txt"), sb, StandardCharsets.UTF_8);
+            all.append(sb);
+        }
+        Path single = Files.createTempFile("1brc-concat", ".txt");
+        Files.writeString(single, all, StandardCharsets.UTF_8);
+
+        List<Path> inputs = CalculateAverage_jeroen.expandInput(dir.toString());
+        assertEquals(7, inputs.size());
+        assertEquals(CalculateAverage_jeroen.format(CalculateAverage_jeroen.calculate(single, 4)),
+                CalculateAverage_jeroen.format(CalculateAverage_jeroen.calculate(inputs, 4)));
+    }
+
+    @Test
+    void expandsGlobPatterns() throws Exception {
+        Path dir = Files.createTempDirectory("1brc-glob");
+        Files.createDirectories(dir.resolve("2024/01"));
+        Files.writeString(dir.resolve("a.txt"), "A;1.0\n");
+        Files.writeString(dir.resolve("b.csv"), "B;1.0\n");
+        Files.writeString(dir.resolve("2024/01/c.txt"), "C;1.0\n");
+
+        assertEquals(List.of(dir.resolve("a.txt")), CalculateAverage_jeroen.expandInput(dir + "/*.txt"));
+        assertEquals(List.of(dir.resolve("2024/01/c.txt"), dir.resolve("a.txt")),
+                CalculateAverage_jeroen.expandInput(dir + "/**.txt"));
+    }
+
+    @Test
+    void workersResolveChunkBoundaries() throws Exception {
+        // 16-byte lines put every CHUNK_SIZE boundary right after a '\n'; varied lines put them mid-line.
+        for (boolean aligned : new boolean[]{ true, false }) {
+            Path file = Files.createTempFile("1brc-boundaries", ".txt");
+            StringBuilder sb = new StringBuilder();
+            for (int i = 0; sb.length() < 3 * CalculateAverage_jeroen.CHUNK_SIZE + 1_000; i++) {
+                String name = aligned ? "Stn" + (char) ('A' + i % 26) + "678901" : "S" + i % 89 + "x".repeat(i % 23);
+                sb.append(name).append(';').append(aligned ? "-1" : (i % 99) - 49).append('.').append(i % 10).append('\n');
+            }
+            Files.writeString(file, sb, StandardCharsets.UTF_8);
+
+            String streamed = CalculateAverage_jeroen.format(CalculateAverage_jeroen.calculate(
+                    java.nio.channels.Channels.newChannel(Files.newInputStream(file)), 2));
+            assertEquals(streamed, CalculateAverage_jeroen.format(CalculateAverage_jeroen.calculate(file, 3)));
+        }
+    }
+
     @Test
     void branchlessParserCoversAllTemperatures() {
         for (int tenths = -999; tenths <= 999; tenths++) {
@@ -0,0 +1,124 @@
+package dev.morling.onebrc;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+
+import org.junit.jupiter.api.Test;
+
+class ChunkSchedulerTest {
+
+    @Test
+    void concurrentClaimsCoverInputExactlyOnce() throws Exception {
+        long[] lengths = { 5_000_000, 0, 123_457, 40_000_000, 1 };
+        for (ChunkScheduler.Mode mode : ChunkScheduler.Mode.values()) {
+            ChunkScheduler scheduler = new ChunkScheduler(mode, lengths, 4);
+            assertEquals(4, scheduler.workers());
+            List<List<long[]>> claimed = new ArrayList<>();
+            CountDownLatch go = new CountDownLatch(1);
+            List<Thread> threads = new ArrayList<>();
+            for (int w = 0; w < scheduler.workers(); w++) {
+                List<long[]> mine = new ArrayList<>();
+                claimed.add(mine);
+                int worker = w;
+                threads.add(Thread.ofPlatform().start(() -> {
+                    try {
+                        go.await();
+                    }
+                    catch (InterruptedException e) {
+                        throw new RuntimeException(e);
+                    }
+                    long[] slice = new long[2];
+                    while (scheduler.claim(worker, slice)) {
+                        mine.add(slice.clone());
+                        // Uneven speed so that stealing actually happens.
+                        if (worker == 0) {
+                            Thread.onSpinWait();
+                        }
+                    }
+                }));
+            }
+            go.countDown();
+            for (Thread thread : threads) {
+                thread.join();
+            }
+
+            List<long[]> all = new ArrayList<>();
+            claimed.forEach(all::addAll);
+            all.sort(Comparator.comparingLong(s -> s[0]));
+            long pos = 0;
+            for (long[] slice : all) {
+                assertEquals(pos, slice[0], mode + ": gap or overlap");
+                assertTrue(slice[1] > slice[0], mode + ": empty slice");
+                pos = slice[1];
+            }
+            assertEquals(scheduler.totalBytes(), pos, mode.name());
+        }
+    }
+
+    @Test
+    void guidedSlicesShrinkTowardsTheEnd() {
+        ChunkScheduler scheduler = new ChunkScheduler(ChunkScheduler.Mode.GUIDED, new long[]{ 1L << 30 }, 8);
+        long[] slice = new long[2];
+        List<Long> sizes = new ArrayList<>();
+        while (scheduler.claim(0, slice)) {
+            sizes.add(slice[1] - slice[0]);
+        }
+        assertEquals(CalculateAverage_jeroen.CHUNK_SIZE, sizes.getFirst());
+        for (int i = 1; i < sizes.size(); i++) {
+            assertTrue(sizes.get(i) <= sizes.get(i - 1));
+        }
+        assertEquals(ChunkScheduler.MIN_CHUNK, sizes.get(sizes.size() - 2));
+    }
+
+    @Test
+    void smallInputsStillUseSeveralWorkers() {
+        // A 1 MB file was a single CHUNK_SIZE slice; guided slices let four workers share it.
+        assertEquals(4, new ChunkScheduler(ChunkScheduler.Mode.GUIDED, new long[]{ 1 << 20 }, 4).workers());
+        assertEquals(1, new ChunkScheduler(ChunkScheduler.Mode.FIXED, new long[]{ 1 << 20 }, 4).workers());
+        assertEquals(1, new ChunkScheduler(ChunkScheduler.Mode.STEAL, new long[]{ 1_000 }, 4).workers());
+        assertEquals(1, new ChunkScheduler(ChunkScheduler.Mode.GUIDED, new long[0], 4).workers());
+    }
+
+    @Test
+    void everyModeGivesTheSameAggregate() throws Exception {
+        List<Path> files = new ArrayList<>();
+        for (int f = 0; f < 3; f++) {
+            Path file = Files.createTempFile("1brc-schedule", ".txt");
+            StringBuilder sb = new StringBuilder();
+            for (int i = 0; sb.length() < (f + 1) * 700_000; i++) {
+                sb.append("Stop").append((i * 7 + f) % 301).append("-").append("z".repeat(i % 23)).append(';')
+                        .append((i % 199) - 99).append('.').append(i % 10).append('\n');
+            }
+            Files.writeString(file, sb, StandardCharsets.UTF_8);
+            files.add(file);
+        }
+
+        try (AggregationEngine engine = new AggregationEngine(3)) {
+            String expected = format(engine.aggregateMapped(files, 0, ChunkScheduler.Mode.FIXED, null));
+            for (ChunkScheduler.Mode mode : ChunkScheduler.Mode.values()) {
+                CalculateAverage_jeroen.RunProfile profile = new CalculateAverage_jeroen.RunProfile();
+                assertEquals(expected, format(engine.aggregateMapped(files, 0, mode, profile)), mode.name());
+                assertEquals(expected, format(engine.aggregateMapped(files, 1, mode, null)), mode + " windowed");
+                assertEquals(mode.name().toLowerCase(), profile.schedule());
+                assertTrue(profile.finishGapNanos() >= 0);
+            }
+        }
+    }
+
+    private static String format(StationTable table) {
+        try {
+            return CalculateAverage_jeroen.format(CalculateAverage_jeroen.toStatsMap(table));
+        }
+        finally {
+            table.free();
+        }
+    }
+}
@@ -0,0 +1,168 @@
+package dev.morling.onebrc;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+import java.lang.foreign.Arena;
+import java.lang.foreign.MemorySegment;
+import java.lang.foreign.ValueLayout;
+import java.math.BigDecimal;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.SplittableRandom;
+import java.util.TreeMap;
+import java.util.function.Predicate;
+
+import org.junit.jupiter.api.Test;
+
+class DelimitedScannerTest {
+
+    @Test
+    void parsesFixedPointValues() {
+        assertEquals(1234, value("12.34", 2));
+        assertEquals(1230, value("12.3", 2));
+        assertEquals(1200, value("12", 2));
+        assertEquals(-5, value("-0.05", 2));
+        assertEquals(123456700, value("1234567", 2));
+        assertEquals(42, value("42", 0));
+        assertEquals(-999999999, value("-999999999", 0));
+        assertEquals(1, value("0.000001", 6));
+        for (String bad : new String[]{ "", "-", "1.", ".5", "1.234", "12345678", "1e3", " 1", "1 ", "+1", "--1", "1.2.3" }) {
+            assertEquals(LenientScanner.INVALID, value(bad, 2), bad);
+        }
+        assertEquals(LenientScanner.INVALID, value("4.2", 0));
+        assertEquals(LenientScanner.INVALID, value("1234", 6));
+
+        assertSame(RecordFormat.ONEBRC, RecordFormat.of(';', 0, 1, 1));
+        assertThrows(IllegalArgumentException.class, () -> RecordFormat.of('.', 0, 1, 1));
+        assertThrows(IllegalArgumentException.class, () -> RecordFormat.of('\n', 0, 1, 1));
+        assertThrows(IllegalArgumentException.class, () -> RecordFormat.of(',', 1, 1, 1));
+        assertThrows(IllegalArgumentException.class, () -> RecordFormat.of(',', 0, 1, RecordFormat.MAX_SCALE + 1));
+        assertEquals('\t', CalculateAverage_jeroen.parseDelimiter("tab"));
+        assertEquals(',', CalculateAverage_jeroen.parseDelimiter(","));
+        assertThrows(IllegalArgumentException.class, () -> CalculateAverage_jeroen.parseDelimiter(",,"));
+    }
+
+    @Test
+    void delimitedFilesMatchReferenceAggregation() throws Exception {
+        // A CSV export grouped by its second column with two-decimal values in the fourth, and a
+        // TSV grouped by a column after its integer value. Both have a header, CRLF lines, rows
+        // with extra columns, blank lines and malformed rows, and are big enough for several slices.
+        SplittableRandom random = new SplittableRandom(23);
+        List<String> csv = new ArrayList<>();
+        List<String> tsv = new ArrayList<>();
+        csv.add("timestamp,host,region,latency_ms,status");
+        tsv.add("bytes\tpath\tmethod\tservice");
+        int malformed = 1;
+        for (int i = 0; i < 60_000; i++) {
+            String host = "host-" + random.nextInt(400) + "x".repeat(random.nextInt(30));
+            String service = "svc/" + random.nextInt(50);
+            int latency = random.nextInt(-5_000, 2_000_000);
+            String latencyText = BigDecimal.valueOf(latency, 2).toPlainString();
+            if (random.nextInt(4) == 0 && latency % 100 == 0) {
+                latencyText = Integer.toString(latency / 100);
+            }
+            String eol = random.nextBoolean() ? "\r" : "";
+            csv.add((1_700_000_000L + i) + "," + host + ",eu-" + (i % 3) + "," + latencyText + (i % 5 == 0 ? ",200,extra" : ",200") + eol);
+            tsv.add(random.nextInt(1 << 20) + "\t/api/" + i + "\t" + (i % 2 == 0 ? "GET" : "POST") + "\t" + service + eol);
+            if (i % 1000 == 0) {
+                csv.add(List.of("", "1,host-1", "1,host-1,eu,12.345,200", "1,,eu,1.0,200", "1,host-1,eu,abc,200").get(i / 1000 % 5) + eol);
+                tsv.add(List.of("12\t/p", "x\t/p\tGET\tsvc/1", "1.5\t/p\tGET\tsvc/1").get(i / 1000 % 3) + eol);
+                malformed += i / 1000 % 5 == 0 ? 0 : 1;
+            }
+        }
+        int tsvMalformed = 1 + 60;
+
+        RecordFormat csvFormat = RecordFormat.of(',', 1, 3, 2);
+        RecordFormat tsvFormat = RecordFormat.of('\t', 3, 0, 0);
+        check(csv, csvFormat, malformed, null, r -> true);
+        check(tsv, tsvFormat, tsvMalformed, null, r -> true);
+        // Filters see keys and values in the format's units.
+        StationFilter filter = StationFilter.prefix("host-1").withValueRange(-10, 5000.5, csvFormat.scale());
+        check(csv, csvFormat, malformed, filter, r -> r.key.startsWith("host-1") && r.value >= -1000 && r.value <= 500050);
+    }
+
+    private record Row(String key, long value) {
+    }
+
+    private static void check(List<String> lines, RecordFormat format, int malformed, StationFilter filter, Predicate<Row> accepted)
+            throws Exception {
+        Path file = Files.createTempFile("1brc-delimited", ".txt");
+        Files.writeString(file, String.join("\n", lines) + "\n");
+
+        Map<String, long[]> reference = new TreeMap<>();
+        for (String line : lines) {
+            String[] fields = line.strip().split(Character.toString(format.delimiter()), -1);
+            if (fields.length <= Math.max(format.keyColumn(), format.valueColumn()) || fields[format.keyColumn()].isEmpty()) {
+                continue;
+            }
+            BigDecimal value;
+            try {
+                value = new BigDecimal(fields[format.valueColumn()]);
+            }
+            catch (NumberFormatException e) {
+                continue;
+            }
+            if (value.scale() > format.scale()) {
+                continue;
+            }
+            Row row = new Row(fields[format.keyColumn()], value.movePointRight(format.scale()).longValueExact());
+            if (!accepted.test(row)) {
+                continue;
+            }
+            long[] stats = reference.computeIfAbsent(row.key, k -> new long[]{ Long.MAX_VALUE, Long.MIN_VALUE, 0, 0 });
+            stats[0] = Math.min(stats[0], row.value);
+            stats[1] = Math.max(stats[1], row.value);
+            stats[2] += row.value;
+            stats[3]++;
+        }
+        StringBuilder expected = new StringBuilder("{");
+        reference.forEach((key, stats) -> expected.append(expected.length() > 1 ? ", " : "").append(key).append('=')
+                .append(BigDecimal.valueOf(stats[0], format.scale()).toPlainString()).append('/')
+                .append(BigDecimal.valueOf(CalculateAverage_jeroen.roundedMeanTenths(stats[2], stats[3]), format.scale()).toPlainString()).append('/')
+                .append(BigDecimal.valueOf(stats[1], format.scale()).toPlainString()));
+        expected.append('}');
+
+        try (AggregationEngine engine = new AggregationEngine(2, false, format)) {
+            StationTable table = engine.aggregate(List.of(file), filter, null);
+            assertEquals(expected.toString(), CalculateAverage_jeroen.format(CalculateAverage_jeroen.toStatsMap(table), format));
+            assertEquals(malformed, table.rejects().count());
+            ResultWriter writer = new ResultWriter(format.scale());
+            assertEquals(expected + "\n", new String(writer.bytes(writer.format(table)), StandardCharsets.UTF_8));
+            engine.releaseTable(table);
+
+            // Chunks of a few lines, so many lines go through the padded tail copy.
+            StationTable perLine = engine.acquireTable(filter);
+            byte[] bytes = Files.readAllBytes(file);
+            try (Arena arena = Arena.ofConfined()) {
+                MemorySegment segment = arena.allocate(bytes.length);
+                MemorySegment.copy(bytes, 0, segment, ValueLayout.JAVA_BYTE, 0, bytes.length);
+                long start = 0;
+                for (int i = 0; i < bytes.length; i++) {
+                    if (bytes[i] == '\n' && i % 7 == 0) {
+                        CalculateAverage_jeroen.processChunk(segment, segment.address() + start, segment.address() + i + 1, perLine);
+                        start = i + 1;
+                    }
+                }
+                CalculateAverage_jeroen.processChunk(segment, segment.address() + start, segment.address() + bytes.length, perLine);
+            }
+            assertEquals(expected.toString(), CalculateAverage_jeroen.format(CalculateAverage_jeroen.toStatsMap(perLine), format));
+            assertEquals(malformed, perLine.rejects().count());
+            engine.releaseTable(perLine);
+        }
+    }
+
+    private static int value(String text, int scale) {
+        byte[] bytes = text.getBytes(StandardCharsets.US_ASCII);
+        try (Arena arena = Arena.ofConfined()) {
+            MemorySegment segment = arena.allocate(bytes.length + 8L);
+            MemorySegment.copy(bytes, 0, segment, ValueLayout.JAVA_BYTE, 0, bytes.length);
+            return DelimitedScanner.parseValue(segment.address(), segment.address() + bytes.length, scale);
+        }
+    }
+}
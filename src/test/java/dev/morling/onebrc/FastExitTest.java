@@ -0,0 +1,67 @@
+package dev.morling.onebrc;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotEquals;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+
+import org.junit.jupiter.api.Test;
+
+class FastExitTest {
+
+    @Test
+    void copyHoldsBackTheLastByte() throws Exception {
+        byte[] result = new byte[200_000];
+        for (int i = 0; i < result.length; i++) {
+            result[i] = (byte) ('a' + i % 26);
+        }
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        // Past the copy buffer, so the held byte crosses reads.
+        assertEquals(FastExit.DONE, FastExit.copyHoldingLast(new ByteArrayInputStream(withDone(result)), out));
+        assertEquals(new String(result, StandardCharsets.US_ASCII), out.toString(StandardCharsets.US_ASCII));
+
+        out.reset();
+        assertEquals('c', FastExit.copyHoldingLast(new ByteArrayInputStream("abc".getBytes(StandardCharsets.US_ASCII)), out));
+        assertEquals("ab", out.toString(StandardCharsets.US_ASCII));
+        out.reset();
+        assertEquals(-1, FastExit.copyHoldingLast(new ByteArrayInputStream(new byte[0]), out));
+        assertEquals(0, out.size());
+    }
+
+    @Test
+    void detachedChildPrintsTheSameResult() throws Exception {
+        StringBuilder sb = new StringBuilder();
+        for (int i = 0; i < 20_000; i++) {
+            sb.append("Station-").append(i % 61).append(';').append(i % 199 - 99).append('.').append(i % 10).append('\n');
+        }
+        Path file = Files.createTempFile("1brc-fastexit", ".txt");
+        try {
+            Files.writeString(file, sb);
+            String expected = CalculateAverage_jeroen.format(CalculateAverage_jeroen.calculate(file, 2)) + "\n";
+
+            ByteArrayOutputStream out = new ByteArrayOutputStream();
+            assertEquals(0, FastExit.run(List.of(file.toString(), "2"), out));
+            assertEquals(expected, out.toString(StandardCharsets.UTF_8));
+
+            // A child that fails before printing: its status, and no output.
+            out.reset();
+            assertNotEquals(0, FastExit.run(List.of(file + ".missing"), out));
+            assertEquals(0, out.size());
+        }
+        finally {
+            Files.delete(file);
+        }
+    }
+
+    private static byte[] withDone(byte[] result) {
+        byte[] bytes = new byte[result.length + 1];
+        System.arraycopy(result, 0, bytes, 0, result.length);
+        bytes[result.length] = FastExit.DONE;
+        return bytes;
+    }
+}
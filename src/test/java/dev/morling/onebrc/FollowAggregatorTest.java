@@ -0,0 +1,51 @@
+package dev.morling.onebrc;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+import org.junit.jupiter.api.Test;
+
+class FollowAggregatorTest {
+
+    @Test
+    void aggregatesOnlyAppendedCompleteLines() throws Exception {
+        Path file = Files.createTempFile("1brc-follow", ".txt");
+        Files.writeString(file, "A;1.0\nB;2.0\nA;3", StandardCharsets.UTF_8);
+
+        try (FollowAggregator follower = new FollowAggregator(file, 2)) {
+            assertEquals(12, follower.poll());
+            assertEquals("{A=1.0/1.0/1.0, B=2.0/2.0/2.0}", CalculateAverage_jeroen.format(follower.snapshot()));
+            assertEquals(0, follower.poll());
+
+            Files.writeString(file, ".0\nC;-4.5\n", StandardCharsets.UTF_8, StandardOpenOption.APPEND);
+            assertEquals(13, follower.poll());
+            assertEquals(25, follower.offset());
+            assertEquals("{A=1.0/2.0/3.0, B=2.0/2.0/2.0, C=-4.5/-4.5/-4.5}",
+                    CalculateAverage_jeroen.format(follower.snapshot()));
+        }
+    }
+
+    @Test
+    void matchesFullRunAfterManyAppends() throws Exception {
+        Path file = Files.createTempFile("1brc-follow-many", ".txt");
+        try (FollowAggregator follower = new FollowAggregator(file, 4)) {
+            for (int batch = 0; batch < 20; batch++) {
+                StringBuilder sb = new StringBuilder();
+                for (int i = 0; i < 2_000; i++) {
+                    int n = batch * 2_000 + i;
+                    sb.append("Station").append(n % 61).append(';')
+                            .append((n % 50) - 25).append('.').append(n % 10).append('\n');
+                }
+                Files.writeString(file, sb.toString(), StandardCharsets.UTF_8, StandardOpenOption.APPEND);
+                follower.poll();
+            }
+
+            assertEquals(CalculateAverage_jeroen.format(CalculateAverage_jeroen.calculate(file, 4)),
+                    CalculateAverage_jeroen.format(follower.snapshot()));
+        }
+    }
+}
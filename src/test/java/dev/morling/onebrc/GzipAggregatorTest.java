@@ -0,0 +1,113 @@
+package dev.morling.onebrc;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.zip.CRC32;
+import java.util.zip.Deflater;
+import java.util.zip.GZIPOutputStream;
+
+import org.junit.jupiter.api.Test;
+
+class GzipAggregatorTest {
+
+    @Test
+    void singleMemberMatchesPlainFile() throws Exception {
+        byte[] plain = measurements(40_000);
+        assertEquals(expected(plain), actual(gzip(plain), 4));
+    }
+
+    @Test
+    void concatenatedMembersMatchPlainFile() throws Exception {
+        byte[] plain = measurements(40_000);
+        int cut = plain.length / 3 + 7; // mid-line on purpose
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        out.writeBytes(gzip(java.util.Arrays.copyOfRange(plain, 0, cut)));
+        out.writeBytes(gzip(java.util.Arrays.copyOfRange(plain, cut, plain.length)));
+        assertEquals(expected(plain), actual(out.toByteArray(), 3));
+    }
+
+    @Test
+    void bgzfBlocksAreInflatedInParallel() throws Exception {
+        // Small blocks and batches put line breaks at arbitrary block and batch edges.
+        byte[] plain = measurements(200_000);
+        byte[] bgzf = bgzf(plain, 3_001);
+        try (var arena = java.lang.foreign.Arena.ofConfined()) {
+            var segment = arena.allocate(bgzf.length);
+            java.lang.foreign.MemorySegment.copy(java.lang.foreign.MemorySegment.ofArray(bgzf), 0, segment, 0, bgzf.length);
+            long[] members = GzipAggregator.bgzfMembers(segment);
+            assertEquals((plain.length + 3_000) / 3_001 + 2, members.length); // blocks + EOF block + end marker
+        }
+        assertEquals(expected(plain), actual(bgzf, 8));
+    }
+
+    private static byte[] measurements(int rows) {
+        StringBuilder sb = new StringBuilder();
+        for (int i = 0; i < rows; i++) {
+            sb.append("Station").append(i % 113).append("-").append("x".repeat(i % 37)).append(';')
+                    .append((i % 80) - 40).append('.').append(i % 10).append('\n');
+        }
+        return sb.toString().getBytes(StandardCharsets.UTF_8);
+    }
+
+    private static String expected(byte[] plain) throws Exception {
+        Path file = Files.createTempFile("1brc-gz-plain", ".txt");
+        Files.write(file, plain);
+        return CalculateAverage_jeroen.format(CalculateAverage_jeroen.calculate(file, 4));
+    }
+
+    private static String actual(byte[] compressed, int workers) throws Exception {
+        Path file = Files.createTempFile("1brc-gz", ".txt.gz");
+        Files.write(file, compressed);
+        return CalculateAverage_jeroen.format(CalculateAverage_jeroen.calculate(file, workers));
+    }
+
+    private static byte[] gzip(byte[] data) throws Exception {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        try (GZIPOutputStream gz = new GZIPOutputStream(out)) {
+            gz.write(data);
+        }
+        return out.toByteArray();
+    }
+
+    // Minimal BGZF writer: one member per block with the BC extra subfield, plus the EOF block.
+    private static byte[] bgzf(byte[] data, int blockSize) {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        for (int off = 0; off < data.length; off += blockSize) {
+            writeBgzfBlock(out, data, off, Math.min(blockSize, data.length - off));
+        }
+        writeBgzfBlock(out, data, 0, 0);
+        return out.toByteArray();
+    }
+
+    private static void writeBgzfBlock(ByteArrayOutputStream out, byte[] data, int off, int len) {
+        Deflater deflater = new Deflater(Deflater.DEFAULT_COMPRESSION, true);
+        deflater.setInput(data, off, len);
+        deflater.finish();
+        byte[] buf = new byte[len + 1024];
+        int clen = 0;
+        while (!deflater.finished()) {
+            clen += deflater.deflate(buf, clen, buf.length - clen);
+        }
+        deflater.end();
+        CRC32 crc = new CRC32();
+        crc.update(data, off, len);
+
+        int total = 18 + clen + 8;
+        out.writeBytes(new byte[]{ 0x1f, (byte) 0x8b, 8, 4, 0, 0, 0, 0, 0, (byte) 0xff, 6, 0, 'B', 'C', 2, 0,
+                (byte) (total - 1), (byte) ((total - 1) >>> 8) });
+        out.write(buf, 0, clen);
+        writeIntLe(out, (int) crc.getValue());
+        writeIntLe(out, len);
+    }
+
+    private static void writeIntLe(ByteArrayOutputStream out, int v) {
+        out.write(v);
+        out.write(v >>> 8);
+        out.write(v >>> 16);
+        out.write(v >>> 24);
+    }
+}
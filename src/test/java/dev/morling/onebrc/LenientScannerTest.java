@@ -0,0 +1,153 @@
+package dev.morling.onebrc;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.lang.foreign.Arena;
+import java.lang.foreign.MemorySegment;
+import java.lang.foreign.ValueLayout;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.SplittableRandom;
+
+import org.junit.jupiter.api.Test;
+
+class LenientScannerTest {
+
+    @Test
+    void parsesWiderValueFormats() {
+        assertEquals(123, value("12.3"));
+        assertEquals(-5, value("-0.5"));
+        assertEquals(10, value("1"));
+        assertEquals(-990, value("-99"));
+        assertEquals(123, value("12.34"));
+        assertEquals(124, value("12.35"));
+        assertEquals(-124, value("-12.35"));
+        assertEquals(1, value("0.05"));
+        assertEquals(0, value("-0.04"));
+        assertEquals(999, value("99.9\r"));
+        assertEquals(-1000, value("-99.99\r"));
+        for (String bad : new String[]{ "", "\r", "-", "-\r", "1.", ".5", "123", "1.234", "1x", "+1", "1.2.", "12;3", "1 .2" }) {
+            assertEquals(LenientScanner.INVALID, value(bad), bad);
+        }
+
+        // The fast path takes only -?d?d.d rows and leaves the rest to parseValue.
+        for (String canonical : new String[]{ "1.2\n", "-1.2\n", "12.3\n", "-99.9\r\n", "0.0\n" }) {
+            long word = word(canonical);
+            int dotBitPos = Long.numberOfTrailingZeros(~word & 0x10101000);
+            assertEquals(value(canonical.strip()), LenientScanner.parseCanonical(word, dotBitPos), canonical.strip());
+        }
+        for (String other : new String[]{ "1.23\n", "12\n", "x1.2\n", "-1x.2\n", "1.2;\n", "123.4\n" }) {
+            long word = word(other);
+            int dotBitPos = Long.numberOfTrailingZeros(~word & 0x10101000);
+            assertEquals(LenientScanner.INVALID, LenientScanner.parseCanonical(word, dotBitPos), other.strip());
+        }
+    }
+
+    @Test
+    void dirtyInputMatchesCleanInput() {
+        String[] malformed = { "No separator at all", ";12.3", "Hamburg;", "Hamburg;1x.5", "Hamburg;12.3;extra",
+                "Hamburg;123.4", "Hamburg;1.234", "Hamburg;.5", "Hamburg;5.", "Hamburg;-", "Hamburg;" + "garbage ".repeat(30) };
+        SplittableRandom random = new SplittableRandom(22);
+        StringBuilder dirty = new StringBuilder();
+        StringBuilder clean = new StringBuilder();
+        int expectedRejects = 0;
+        dirty.append("a;1\n");
+        clean.append("a;1.0\n");
+        for (int i = 0; i < 20_000; i++) {
+            String name = "Station-" + random.nextInt(300) + "x".repeat(random.nextInt(20));
+            // Up to 99.94, so the rounded value still fits the strict loop's -?d?d.d.
+            int hundredths = random.nextInt(-9994, 9995);
+            int sign = hundredths < 0 ? -1 : 1;
+            String eol = random.nextBoolean() ? "\r\n" : "\n";
+            String value = switch (random.nextInt(3)) {
+                case 0 -> (hundredths < 0 ? "-" : "") + Math.abs(hundredths) / 100 + "." + String.format("%02d", Math.abs(hundredths) % 100);
+                case 1 -> (hundredths < 0 ? "-" : "") + Math.abs(hundredths) / 100;
+                default -> (hundredths < 0 ? "-" : "") + Math.abs(hundredths) / 100 + "." + Math.abs(hundredths) % 100 / 10;
+            };
+            int tenths = value.contains(".") && value.length() - value.indexOf('.') == 3
+                    ? sign * ((Math.abs(hundredths) + 5) / 10)
+                    : value.contains(".") ? sign * (Math.abs(hundredths) / 10) : sign * (Math.abs(hundredths) / 100 * 10);
+            dirty.append(name).append(';').append(value).append(eol);
+            clean.append(name).append(';').append(tenths < 0 ? "-" : "").append(Math.abs(tenths) / 10).append('.').append(Math.abs(tenths) % 10).append('\n');
+            if (i % 97 == 0) {
+                dirty.append(malformed[i / 97 % malformed.length]).append(eol);
+                expectedRejects++;
+            }
+            if (i % 501 == 0) {
+                // Blank lines are skipped, not rejected.
+                dirty.append(eol);
+            }
+        }
+        // A last line without a line end, as at the end of a file.
+        dirty.append("Last;-7.25");
+        clean.append("Last;-7.3\n");
+
+        byte[] dirtyBytes = dirty.toString().getBytes(StandardCharsets.UTF_8);
+        byte[] cleanBytes = clean.toString().getBytes(StandardCharsets.UTF_8);
+        try (Arena arena = Arena.ofConfined()) {
+            MemorySegment cleanSegment = arena.allocate(cleanBytes.length + 64L);
+            MemorySegment.copy(cleanBytes, 0, cleanSegment, ValueLayout.JAVA_BYTE, 0, cleanBytes.length);
+            StationTable expected = new StationTable();
+            CalculateAverage_jeroen.processChunkSwar(cleanSegment.address(), cleanSegment.address() + cleanBytes.length, expected);
+            String expectedResult = CalculateAverage_jeroen.format(CalculateAverage_jeroen.toStatsMap(expected));
+
+            MemorySegment segment = arena.allocate(dirtyBytes.length + 64L);
+            MemorySegment.copy(dirtyBytes, 0, segment, ValueLayout.JAVA_BYTE, 0, dirtyBytes.length);
+            long base = segment.address();
+
+            // One chunk, then chunks cut after random line ends, the first one shorter than a word.
+            List<Long> cuts = new ArrayList<>();
+            cuts.add(4L);
+            for (int i = 5; i < dirtyBytes.length; i += random.nextInt(1, 20_000)) {
+                while (i < dirtyBytes.length && dirtyBytes[i - 1] != '\n') {
+                    i++;
+                }
+                cuts.add((long) i);
+            }
+            for (List<Long> chunkEnds : List.of(List.<Long> of(), cuts)) {
+                List<StationTable> tables = new ArrayList<>();
+                long start = 0;
+                for (long end : chunkEnds) {
+                    if (end < dirtyBytes.length) {
+                        StationTable table = new StationTable();
+                        LenientScanner.processChunk(base + start, base + end, table);
+                        tables.add(table);
+                        start = end;
+                    }
+                }
+                StationTable merged = new StationTable();
+                LenientScanner.processChunk(base + start, base + dirtyBytes.length, merged);
+                for (StationTable table : tables) {
+                    merged.mergeFrom(table);
+                    table.free();
+                }
+                assertEquals(expectedResult, CalculateAverage_jeroen.format(CalculateAverage_jeroen.toStatsMap(merged)));
+                assertEquals(expectedRejects, merged.rejects().count());
+                List<String> samples = merged.rejects().samples();
+                assertEquals(Math.min(LineRejects.SAMPLE_LIMIT, expectedRejects), samples.size());
+                assertTrue(samples.stream().allMatch(s -> !s.contains("\r") && !s.contains("\n")), samples.toString());
+                assertTrue(samples.stream().allMatch(s -> s.length() <= LineRejects.SAMPLE_BYTES + 3), samples.toString());
+
+                merged.reset();
+                assertEquals(0, merged.rejects().count());
+                merged.free();
+            }
+            expected.free();
+        }
+    }
+
+    private static int value(String text) {
+        return LenientScanner.parseValue(word(text), text.length());
+    }
+
+    private static long word(String text) {
+        byte[] bytes = text.getBytes(StandardCharsets.US_ASCII);
+        long word = 0;
+        for (int i = 0; i < bytes.length; i++) {
+            word |= ((long) (bytes[i] & 0xFF)) << (i << 3);
+        }
+        return word;
+    }
+}
@@ -0,0 +1,127 @@
+package dev.morling.onebrc;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.File;
+import java.lang.management.BufferPoolMXBean;
+import java.lang.management.ManagementFactory;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.jupiter.api.Test;
+
+class ReadAheadTest {
+
+    private static final long BLOCK = 1 << 16;
+    private static final long DISTANCE = 8 * BLOCK;
+
+    @Test
+    void readsStayAheadOfClaimsAndCoverTheInput() throws Exception {
+        // The second range starts part-way into its file and runs to its end, as in a shard.
+        Path first = Files.createTempFile("1brc-readahead", ".txt");
+        Path second = Files.createTempFile("1brc-readahead", ".txt");
+        Files.write(first, new byte[1_000_000]);
+        Files.write(second, new byte[2_500_000]);
+        long[] lengths = { 1_000_000, 2_200_000 };
+        try (FileChannel a = FileChannel.open(first, StandardOpenOption.READ);
+                FileChannel b = FileChannel.open(second, StandardOpenOption.READ)) {
+            ChunkScheduler scheduler = new ChunkScheduler(ChunkScheduler.Mode.GUIDED, lengths, 1);
+            long total = scheduler.totalBytes();
+            try (ReadAhead readAhead = ReadAhead.start(scheduler, new FileChannel[]{ a, b }, new long[]{ 0, 300_000 }, null, 3, BLOCK, DISTANCE)) {
+                // Nothing claimed yet: the threads read DISTANCE bytes and wait.
+                awaitBytes(readAhead, DISTANCE);
+                Thread.sleep(20);
+                assertEquals(DISTANCE, readAhead.bytesRead());
+
+                long[] slice = new long[2];
+                while (scheduler.claim(0, slice)) {
+                    assertTrue(slice[1] - slice[0] < DISTANCE);
+                    // Whole blocks starting before cursor + DISTANCE; none is skipped, as claims never overtake them.
+                    long reach = (scheduler.cursor() + DISTANCE + BLOCK - 1) / BLOCK * BLOCK;
+                    awaitBytes(readAhead, Math.min(total, reach));
+                }
+                assertEquals(total, readAhead.bytesRead());
+            }
+        }
+        finally {
+            Files.delete(first);
+            Files.delete(second);
+        }
+
+        ChunkScheduler steal = new ChunkScheduler(ChunkScheduler.Mode.STEAL, lengths, 2);
+        assertThrows(IllegalArgumentException.class, () -> ReadAhead.start(steal, new FileChannel[2], new long[2], null, 1, BLOCK, DISTANCE));
+    }
+
+    @Test
+    void reusedEngineFreesReadAheadBuffers() throws Exception {
+        // ReadAhead.MODE is fixed per JVM, so a child JVM runs the engine in readahead mode.
+        StringBuilder sb = new StringBuilder();
+        for (int i = 0; i < 200_000; i++) {
+            sb.append("Station-").append(i % 97).append(';').append(i % 199 - 99).append('.').append(i % 10).append('\n');
+        }
+        Path file = Files.createTempFile("1brc-readahead", ".txt");
+        try {
+            Files.writeString(file, sb);
+            List<String> command = new ArrayList<>();
+            command.add(ProcessHandle.current().info().command().orElseThrow());
+            command.addAll(ManagementFactory.getRuntimeMXBean().getInputArguments());
+            command.add("-Donebrc.io=readahead");
+            command.add("-Donebrc.io.block=64k");
+            // Windowed, so there are no whole-file mappings to find blocks resident: every block is read.
+            command.add("-Donebrc.mmap.window=1m");
+            command.add("-cp");
+            // The main and test class locations; java.class.path may only name a test launcher.
+            command.add(codeSource(AggregationEngine.class) + File.pathSeparator + codeSource(ReadAheadTest.class));
+            command.add(RepeatedRuns.class.getName());
+            command.add(file.toString());
+            Process child = new ProcessBuilder(command).redirectError(ProcessBuilder.Redirect.INHERIT).start();
+            String out = new String(child.getInputStream().readAllBytes(), StandardCharsets.UTF_8).trim();
+            assertEquals(0, child.waitFor());
+            String[] used = out.split(" ");
+            assertEquals(used[0], used[1], "direct memory after run 2 and run 20");
+        }
+        finally {
+            Files.delete(file);
+        }
+    }
+
+    private static String codeSource(Class<?> type) throws Exception {
+        return Path.of(type.getProtectionDomain().getCodeSource().getLocation().toURI()).toString();
+    }
+
+    // Runs the engine 20 times on args[0] and prints the direct memory in use after runs 2 and 20.
+    static final class RepeatedRuns {
+
+        public static void main(String[] args) throws Exception {
+            BufferPoolMXBean direct = ManagementFactory.getPlatformMXBeans(BufferPoolMXBean.class).stream()
+                    .filter(pool -> pool.getName().equals("direct"))
+                    .findFirst()
+                    .orElseThrow();
+            long afterSecond = 0;
+            try (AggregationEngine engine = new AggregationEngine(2)) {
+                for (int run = 1; run <= 20; run++) {
+                    engine.calculate(Path.of(args[0]));
+                    if (run == 2) {
+                        afterSecond = direct.getMemoryUsed();
+                    }
+                }
+            }
+            System.out.println(afterSecond + " " + direct.getMemoryUsed());
+        }
+    }
+
+    private static void awaitBytes(ReadAhead readAhead, long expected) throws InterruptedException {
+        long deadline = System.nanoTime() + 10_000_000_000L;
+        while (readAhead.bytesRead() < expected && System.nanoTime() < deadline) {
+            Thread.sleep(1);
+        }
+        assertEquals(expected, readAhead.bytesRead());
+    }
+}
@@ -0,0 +1,102 @@
+package dev.morling.onebrc;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.Random;
+
+import org.junit.jupiter.api.Test;
+
+class ResultWriterTest {
+
+    @Test
+    void writesSameBytesAsStringFormat() throws Exception {
+        // Prefixes, 2- and 3-byte characters, U+E000..U+FFFF next to supplementary characters
+        // (where UTF-8 byte order and String order disagree), and means that round to zero or
+        // need more than two integer digits.
+        String[] names = { "Abha", "Ab", "A", "Zürich", "Zurich", "東京", "\uE000x", "\uFFFDy", "\uD83D\uDE00z", "\uD834\uDD1E",
+                "St. John's", "a".repeat(100), "a".repeat(99) + "b" };
+        StringBuilder sb = new StringBuilder();
+        for (int i = 0; i < names.length; i++) {
+            sb.append(names[i]).append(';').append(i % 2 == 0 ? "-" : "").append(i * 7 % 100).append('.').append(i % 10).append('\n');
+            sb.append(names[i]).append(';').append("0.").append(i % 3).append('\n');
+        }
+        sb.append("Zero;-0.1\nZero;0.1\nHot;99.9\nHot;99.9\nCold;-99.9\n");
+
+        ResultWriter writer = new ResultWriter();
+        try (AggregationEngine engine = new AggregationEngine(2)) {
+            for (String input : List.of(sb.toString(), "Solo;1.0\n")) {
+                StationTable table = engine.aggregateMapped(List.of(write(input.getBytes(StandardCharsets.UTF_8))), 0, null);
+                String expected = CalculateAverage_jeroen.format(CalculateAverage_jeroen.toStatsMap(table)) + "\n";
+                int length = writer.format(table);
+                assertEquals(expected, new String(writer.bytes(length), StandardCharsets.UTF_8));
+                assertArrayEquals(expected.getBytes(StandardCharsets.UTF_8), writer.bytes(length));
+                engine.releaseTable(table);
+            }
+
+            // An empty table, and a buffer that has to grow well past its initial size.
+            StationTable empty = engine.acquireTable();
+            assertEquals("{}\n", new String(writer.bytes(writer.format(empty)), StandardCharsets.UTF_8));
+            engine.releaseTable(empty);
+            StringBuilder many = new StringBuilder();
+            for (int i = 0; i < 20_000; i++) {
+                many.append("Station-").append(i).append(';').append(i % 1000 - 500).append(".5\n");
+            }
+            StationTable large = engine.aggregateMapped(List.of(write(many.toString().getBytes(StandardCharsets.UTF_8))), 0, null);
+            int length = writer.format(large);
+            assertEquals(CalculateAverage_jeroen.format(CalculateAverage_jeroen.toStatsMap(large)) + "\n",
+                    new String(writer.bytes(length), StandardCharsets.UTF_8));
+            engine.releaseTable(large);
+        }
+    }
+
+    @Test
+    void nameOrderMatchesStringOrder() {
+        Random random = new Random(14);
+        int[] codePoints = { 'a', 'z', 0xE9, 0x7FF, 0x800, 0x6771, 0xD7FF, 0xE000, 0xFFFD, 0xFFFF, 0x10000, 0x1F600, 0x10FFFF };
+        for (int i = 0; i < 20_000; i++) {
+            String a = randomName(random, codePoints);
+            String b = randomName(random, codePoints);
+            byte[] ab = a.getBytes(StandardCharsets.UTF_8);
+            byte[] bb = b.getBytes(StandardCharsets.UTF_8);
+            assertEquals(Integer.signum(a.compareTo(b)), Integer.signum(ResultWriter.STRING_ORDER.compare(ab, bb)), a + " vs " + b);
+        }
+    }
+
+    @Test
+    void malformedNamesFallBackToStrings() throws Exception {
+        byte[] input = { 'B', 'a', 'd', (byte) 0xFF, ';', '1', '.', '0', '\n', 'O', 'k', ';', '2', '.', '0', '\n' };
+        try (AggregationEngine engine = new AggregationEngine(1)) {
+            StationTable table = engine.aggregateMapped(List.of(write(input)), 0, null);
+            assertEquals(-1, new ResultWriter().format(table));
+            engine.releaseTable(table);
+        }
+
+        byte[] valid = "Zürich 東京 😀".getBytes(StandardCharsets.UTF_8);
+        assertTrue(ResultWriter.isWellFormedUtf8(valid, valid.length));
+        assertFalse(ResultWriter.isWellFormedUtf8(new byte[]{ (byte) 0xC3 }, 1)); // truncated
+        assertFalse(ResultWriter.isWellFormedUtf8(new byte[]{ (byte) 0xC0, (byte) 0x80 }, 2)); // overlong
+        assertFalse(ResultWriter.isWellFormedUtf8(new byte[]{ (byte) 0xED, (byte) 0xA0, (byte) 0x80 }, 3)); // surrogate
+        assertFalse(ResultWriter.isWellFormedUtf8(new byte[]{ (byte) 0xF4, (byte) 0x90, (byte) 0x80, (byte) 0x80 }, 4)); // > U+10FFFF
+    }
+
+    private static String randomName(Random random, int[] codePoints) {
+        StringBuilder sb = new StringBuilder();
+        for (int n = random.nextInt(4); n >= 0; n--) {
+            sb.appendCodePoint(codePoints[random.nextInt(codePoints.length)]);
+        }
+        return sb.toString();
+    }
+
+    private static Path write(byte[] content) throws Exception {
+        Path file = Files.createTempFile("1brc-output", ".txt");
+        Files.write(file, content);
+        return file;
+    }
+}
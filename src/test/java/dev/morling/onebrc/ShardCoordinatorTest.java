@@ -0,0 +1,99 @@
+package dev.morling.onebrc;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+import org.junit.jupiter.api.Test;
+
+class ShardCoordinatorTest {
+
+    @Test
+    void rangesSnapToLinesAndCoverEachLineOnce() throws Exception {
+        StringBuilder sb = new StringBuilder();
+        for (int i = 0; i < 30_000; i++) {
+            sb.append("Station-").append(i % 97).append("z".repeat(i % 50)).append(';')
+                    .append(i % 199 - 99).append('.').append(i % 10).append('\n');
+        }
+        byte[] bytes = sb.toString().getBytes(StandardCharsets.UTF_8);
+        Path file = write(bytes);
+        Random random = new Random(18);
+        try (AggregationEngine engine = new AggregationEngine(2)) {
+            String expected = CalculateAverage_jeroen.format(engine.calculate(file));
+            // Equal splits as the coordinator makes them, random cuts (mostly mid-line), cuts
+            // right at line starts, and a last range that runs past the end of the file.
+            List<long[]> cutSets = new ArrayList<>();
+            for (int shards : new int[]{ 1, 2, 7 }) {
+                long[] cuts = new long[shards + 1];
+                for (int i = 0; i < shards; i++) {
+                    long[] range = ShardCoordinator.range(bytes.length, shards, i);
+                    cuts[i] = range[0];
+                    cuts[i + 1] = range[1];
+                }
+                cutSets.add(cuts);
+            }
+            long[] random5 = { 0, 0, 0, 0, 0, bytes.length + 100 };
+            for (int i = 1; i < 5; i++) {
+                random5[i] = random5[i - 1] + random.nextInt(bytes.length / 5);
+            }
+            cutSets.add(random5);
+            int lineStart = sb.indexOf("\n", bytes.length / 2) + 1;
+            cutSets.add(new long[]{ 0, lineStart, lineStart, bytes.length });
+
+            for (long[] cuts : cutSets) {
+                StationTable merged = new StationTable();
+                for (int i = 0; i + 1 < cuts.length; i++) {
+                    StationTable part = engine.aggregateRange(file, cuts[i], cuts[i + 1], null, null);
+                    merged.mergeFrom(part);
+                    engine.releaseTable(part);
+                }
+                assertEquals(expected, CalculateAverage_jeroen.format(CalculateAverage_jeroen.toStatsMap(merged)),
+                        Arrays.toString(cuts));
+                merged.free();
+            }
+            assertThrows(IllegalArgumentException.class, () -> engine.aggregateRange(file, 10, 5, null, null));
+        }
+    }
+
+    @Test
+    void childProcessesGiveSingleProcessResult() throws Exception {
+        StringBuilder sb = new StringBuilder();
+        for (int i = 0; i < 50_000; i++) {
+            sb.append(i % 3 == 0 ? "Hamburg" : "Station-" + i % 413).append(';').append(i % 199 - 99).append(".5\n");
+        }
+        Path file = write(sb.toString().getBytes(StandardCharsets.UTF_8));
+        try (AggregationEngine engine = new AggregationEngine(1)) {
+            StationTable table = ShardCoordinator.run(file, 3, 1, List.of());
+            assertEquals(CalculateAverage_jeroen.format(engine.calculate(file)),
+                    CalculateAverage_jeroen.format(CalculateAverage_jeroen.toStatsMap(table)));
+            table.free();
+
+            // Filter flags reach the children.
+            StationTable filtered = ShardCoordinator.run(file, 2, 1, List.of("--stations=Hamburg", "--range=0:50"));
+            StationFilter filter = StationFilter.stations(List.of("Hamburg")).withTemperatureRange(0, 50);
+            assertEquals(CalculateAverage_jeroen.format(engine.calculate(List.of(file), filter, null)),
+                    CalculateAverage_jeroen.format(CalculateAverage_jeroen.toStatsMap(filtered)));
+            filtered.free();
+        }
+        assertThrows(IllegalArgumentException.class, () -> ShardCoordinator.run(file.resolveSibling("missing.txt"), 2, 1, List.of()));
+
+        // Children that fail report their own exit, not a cleanup error.
+        IOException failed = assertThrows(IOException.class, () -> ShardCoordinator.run(file, 3, 1, List.of("--range=not-a-range")));
+        assertTrue(failed.getMessage().contains("exited with code"), failed.getMessage());
+    }
+
+    private static Path write(byte[] content) throws Exception {
+        Path file = Files.createTempFile("1brc-shard", ".txt");
+        Files.write(file, content);
+        return file;
+    }
+}
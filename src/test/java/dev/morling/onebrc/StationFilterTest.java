@@ -0,0 +1,100 @@
+package dev.morling.onebrc;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.OutputStream;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+import java.util.function.Predicate;
+import java.util.zip.GZIPOutputStream;
+
+import org.junit.jupiter.api.Test;
+
+class StationFilterTest {
+
+    @Test
+    void filteredRunsMatchRunsOverPreFilteredInput() throws Exception {
+        // 600 names, some past the 32-byte inline prefix; enough rows that both the SWAR loop and
+        // the safe tail loop see filtered rows.
+        List<String> lines = new ArrayList<>();
+        for (int i = 0; i < 60_000; i++) {
+            int id = (i * 7919) % 600;
+            String name = (id % 3 == 0 ? "North-" : "South-") + id + "x".repeat(id % 45);
+            lines.add(name + ";" + ((i % 1999) - 999) / 10 + "." + (i % 10));
+        }
+        Path file = write("1brc-filter", lines);
+        Path gz = Files.createTempFile("1brc-filter", ".txt.gz");
+        try (OutputStream out = new GZIPOutputStream(Files.newOutputStream(gz))) {
+            out.write(String.join("\n", lines).concat("\n").getBytes(StandardCharsets.UTF_8));
+        }
+
+        // 4 names against 600: many rows pass the bitmap and are only rejected by the table's insert check.
+        List<String> wanted = List.of("North-0", "South-1" + "x".repeat(1), "North-39" + "x".repeat(39), "Missing");
+        List<StationFilter> filters = List.of(
+                StationFilter.stations(wanted),
+                StationFilter.prefix("North-1"),
+                StationFilter.prefix("South-11x"), // longer than the word the scan loop compares
+                StationFilter.all().withTemperatureRange(-5.5, 20.0),
+                StationFilter.stations(wanted).withTemperatureRange(0, 99.9),
+                StationFilter.stations(List.of()));
+        List<Predicate<String>> predicates = List.of(
+                line -> Set.copyOf(wanted).contains(line.substring(0, line.indexOf(';'))),
+                line -> line.startsWith("North-1"),
+                line -> line.startsWith("South-11x"),
+                line -> inRange(line, -55, 200),
+                line -> Set.copyOf(wanted).contains(line.substring(0, line.indexOf(';'))) && inRange(line, 0, 999),
+                line -> false);
+
+        try (AggregationEngine engine = new AggregationEngine(3)) {
+            for (int f = 0; f < filters.size(); f++) {
+                StationFilter filter = filters.get(f);
+                String expected = CalculateAverage_jeroen.format(engine.calculate(
+                        write("1brc-expected", lines.stream().filter(predicates.get(f)).toList())));
+                assertEquals(expected, format(engine.aggregateMapped(List.of(file), 0, ChunkScheduler.MODE, filter, null)), filter.toString());
+                assertEquals(expected, format(engine.aggregateMapped(List.of(file), 1, ChunkScheduler.MODE, filter, null)), filter + " windowed");
+                try (FileChannel channel = FileChannel.open(file)) {
+                    assertEquals(expected, format(engine.aggregate(channel, filter)), filter + " streaming");
+                }
+                assertEquals(expected, CalculateAverage_jeroen.format(engine.calculate(List.of(gz), filter, null)), filter + " gzip");
+            }
+            // Pooled tables come back without the filter.
+            assertEquals(CalculateAverage_jeroen.format(engine.calculate(file)),
+                    CalculateAverage_jeroen.format(engine.calculate(List.of(file), null, null)));
+            assertEquals(600, engine.calculate(file).size());
+        }
+    }
+
+    @Test
+    void parsesCommandLineFilters() {
+        assertEquals(null, CalculateAverage_jeroen.parseFilter(null, null, null));
+        assertTrue(CalculateAverage_jeroen.parseFilter("A,B", null, "-5:30.5").toString().contains("tenths=-50..305"));
+        assertTrue(CalculateAverage_jeroen.parseFilter(null, null, "1:2").toString().contains("stations=all"));
+        assertThrows(IllegalArgumentException.class, () -> CalculateAverage_jeroen.parseFilter("A", "B", null));
+        assertThrows(IllegalArgumentException.class, () -> CalculateAverage_jeroen.parseFilter(null, null, "5"));
+        assertThrows(IllegalArgumentException.class, () -> StationFilter.all().withTemperatureRange(3, 2));
+    }
+
+    private static boolean inRange(String line, int minTenths, int maxTenths) {
+        int tenths = (int) Math.round(Double.parseDouble(line.substring(line.indexOf(';') + 1)) * 10);
+        return tenths >= minTenths && tenths <= maxTenths;
+    }
+
+    private static String format(StationTable table) {
+        String formatted = CalculateAverage_jeroen.format(CalculateAverage_jeroen.toStatsMap(table));
+        table.free();
+        return formatted;
+    }
+
+    private static Path write(String prefix, List<String> lines) throws Exception {
+        Path file = Files.createTempFile(prefix, ".txt");
+        Files.write(file, lines, StandardCharsets.UTF_8);
+        return file;
+    }
+}
@@ -0,0 +1,183 @@
+package dev.morling.onebrc;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.lang.foreign.Arena;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+import org.junit.jupiter.api.Test;
+
+import dev.morling.onebrc.CalculateAverage_jeroen.Stats;
+
+class StationHistogramsTest {
+
+    @Test
+    void quantilesMatchSortedRowsAcrossGrowthAndMerges() throws Exception {
+        // 3,000 stations (the tables grow twice) with 1..400 rows each, so histograms are a mix of
+        // sparse and dense when they meet in the serial and the partitioned merge.
+        Random random = new Random(15);
+        Map<String, List<Integer>> expected = new HashMap<>();
+        StationTable[] tables = new StationTable[3];
+        try (Arena arena = Arena.ofConfined(); AggregationEngine engine = new AggregationEngine(2, true)) {
+            for (int t = 0; t < tables.length; t++) {
+                tables[t] = new StationTable(StationTable.INITIAL_CAPACITY, true);
+                for (int s = 0; s < 3_000; s++) {
+                    String name = "Station-" + s + "-".repeat(s % 37);
+                    int rows = 1 + random.nextInt(s % 3 == 0 ? 400 : 20);
+                    int spread = 1 + s % 700;
+                    for (int r = 0; r < rows; r++) {
+                        int temp = random.nextInt(2 * spread + 1) - spread;
+                        StationTableTest.accumulate(arena, tables[t], name, temp);
+                        expected.computeIfAbsent(name, k -> new ArrayList<>()).add(temp);
+                    }
+                }
+            }
+            StationTable serial = new StationTable(StationTable.INITIAL_CAPACITY, true);
+            for (StationTable table : tables) {
+                serial.mergeFrom(table);
+            }
+            assertQuantiles(expected, serial);
+            serial.free();
+
+            StationTable partitioned = TableMerger.merge(engine, tables, TableMerger.Mode.PARTITIONED);
+            assertQuantiles(expected, partitioned);
+            partitioned.free();
+        }
+    }
+
+    @Test
+    void valuesOutsideDenseRangeStayExact() {
+        StationTable table = new StationTable(StationTable.INITIAL_CAPACITY, true);
+        List<Integer> rows = new ArrayList<>();
+        try (Arena arena = Arena.ofConfined()) {
+            // Dense first (more than SPARSE_MAX distinct values), then a value that widens the range,
+            // then values too far apart for any dense range.
+            for (int v = -300; v <= 300; v += 3) {
+                StationTableTest.accumulate(arena, table, "Wide", v);
+                rows.add(v);
+            }
+            for (int v : new int[]{ 1_023, 12_345, -4_000, 12_345, 99_999, 5_000_000, Integer.MIN_VALUE + 1 }) {
+                StationTableTest.accumulate(arena, table, "Wide", v);
+                rows.add(v);
+            }
+            StationTableTest.accumulate(arena, table, "Single", -7);
+        }
+        assertQuantiles(Map.of("Wide", rows, "Single", List.of(-7)), table);
+
+        table.reset();
+        assertEquals(0, table.size());
+        table.free();
+    }
+
+    @Test
+    void twoDecimalValuesTurnDenseAndStayExact() {
+        // Hundredths of +-99.99 span 20,000 buckets; values beyond +-1310.71 no longer fit a dense range.
+        StationHistograms histograms = new StationHistograms(2);
+        Random random = new Random(23);
+        List<Integer> narrow = new ArrayList<>();
+        List<Integer> wide = new ArrayList<>();
+        for (int r = 0; r < 50_000; r++) {
+            int value = random.nextInt(19_999) - 9_999;
+            histograms.add(0, value);
+            narrow.add(value);
+            value = random.nextInt(2_000_001) - 1_000_000;
+            histograms.add(1, value);
+            wide.add(value);
+        }
+        assertTrue(histograms.isDense(0));
+        assertFalse(histograms.isDense(1));
+        assertArrayEquals(nearestRank(narrow), histograms.quantiles(0, narrow.size(), StationHistograms.QUANTILES));
+        assertArrayEquals(nearestRank(wide), histograms.quantiles(1, wide.size(), StationHistograms.QUANTILES));
+        histograms.clear(new int[]{ 0, 1 }, 2);
+    }
+
+    @Test
+    void engineReportsQuantilesAtScaleTwo() throws Exception {
+        Path file = Files.createTempFile("1brc-hist", ".csv");
+        Random random = new Random(2);
+        Map<String, List<Integer>> expected = new HashMap<>();
+        StringBuilder sb = new StringBuilder();
+        for (int i = 1; i <= 100; i++) {
+            sb.append("Hamburg,").append(i / 100).append('.').append(String.format("%02d", i % 100)).append('\n');
+        }
+        for (int r = 0; r < 30_000; r++) {
+            String name = "Station-" + r % 7;
+            int value = random.nextInt(20_001) - 10_000;
+            sb.append(name).append(',').append(value < 0 ? "-" : "").append(Math.abs(value) / 100).append('.')
+                    .append(String.format("%02d", Math.abs(value) % 100)).append('\n');
+            expected.computeIfAbsent(name, k -> new ArrayList<>()).add(value);
+        }
+        Files.writeString(file, sb, StandardCharsets.UTF_8);
+
+        RecordFormat format = RecordFormat.of(',', 0, 1, 2);
+        try (AggregationEngine engine = new AggregationEngine(2, true, format)) {
+            Map<String, Stats> result = engine.calculate(file);
+            assertArrayEquals(new int[]{ 50, 95, 99 }, result.get("Hamburg").quantileTenths);
+            assertTrue(CalculateAverage_jeroen.format(result, format).startsWith("{Hamburg=0.01/0.51/1.00/0.50/0.95/0.99, "));
+            expected.forEach((name, rows) -> assertArrayEquals(nearestRank(rows), result.get(name).quantileTenths, name));
+        }
+        finally {
+            Files.delete(file);
+        }
+    }
+
+    @Test
+    void engineReportsQuantilesOnlyWithExtendedStats() throws Exception {
+        Path file = Files.createTempFile("1brc-hist", ".txt");
+        StringBuilder sb = new StringBuilder();
+        for (int i = 1; i <= 100; i++) {
+            sb.append("Hamburg;").append(i / 10).append('.').append(i % 10).append('\n');
+        }
+        sb.append("Oslo;-3.0\n");
+        Files.writeString(file, sb, StandardCharsets.UTF_8);
+
+        try (AggregationEngine engine = new AggregationEngine(2, true)) {
+            for (int run = 0; run < 2; run++) { // the second run reuses the pooled, reset tables
+                Map<String, Stats> result = engine.calculate(file);
+                assertArrayEquals(new int[]{ 50, 95, 99 }, result.get("Hamburg").quantileTenths);
+                assertEquals("{Hamburg=0.1/5.1/10.0/5.0/9.5/9.9, Oslo=-3.0/-3.0/-3.0/-3.0/-3.0/-3.0}",
+                        CalculateAverage_jeroen.format(result));
+            }
+        }
+        try (AggregationEngine engine = new AggregationEngine(2, false)) {
+            Map<String, Stats> result = engine.calculate(file);
+            assertNull(result.get("Hamburg").quantileTenths);
+            assertEquals("{Hamburg=0.1/5.1/10.0, Oslo=-3.0/-3.0/-3.0}", CalculateAverage_jeroen.format(result));
+        }
+    }
+
+    private static void assertQuantiles(Map<String, List<Integer>> expected, StationTable table) {
+        assertEquals(expected.size(), table.size());
+        table.forEachQuantiles(StationHistograms.QUANTILES, (name, nameLen, min, max, sum, count, quantiles) -> {
+            List<Integer> rows = new ArrayList<>(expected.get(new String(name, 0, nameLen, StandardCharsets.UTF_8)));
+            assertNotNull(rows);
+            Collections.sort(rows);
+            assertEquals(rows.size(), count);
+            assertArrayEquals(nearestRank(rows), quantiles);
+        });
+    }
+
+    private static int[] nearestRank(List<Integer> rows) {
+        List<Integer> sorted = new ArrayList<>(rows);
+        Collections.sort(sorted);
+        int[] nearestRank = new int[StationHistograms.QUANTILES.length];
+        for (int q = 0; q < nearestRank.length; q++) {
+            int rank = (int) Math.max(1, Math.ceil(StationHistograms.QUANTILES[q] * sorted.size()));
+            nearestRank[q] = sorted.get(rank - 1);
+        }
+        return nearestRank;
+    }
+}
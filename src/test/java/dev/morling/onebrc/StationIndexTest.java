@@ -0,0 +1,169 @@
+package dev.morling.onebrc;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.IOException;
+import java.lang.foreign.Arena;
+import java.lang.foreign.MemorySegment;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.FileTime;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import org.junit.jupiter.api.Test;
+
+import dev.morling.onebrc.CalculateAverage_jeroen.RunProfile;
+
+class StationIndexTest {
+
+    @Test
+    void indexedRunsMatchPlainRuns() throws Exception {
+        // Names past the 32-byte inline prefix, multi-byte characters, and names that share the
+        // scanner's XOR-folded hash (same words in another order).
+        StringBuilder sb = new StringBuilder();
+        for (int i = 0; i < 80_000; i++) {
+            int id = (i * 7919) % 613;
+            String name = switch (id % 4) {
+                case 0 -> "Zürich-" + id;
+                case 1 -> "Station-" + id + "y".repeat(id % 45);
+                case 2 -> id % 8 < 4 ? "AAAAAAAABBBBBBBB" + id : "BBBBBBBBAAAAAAAA" + id;
+                default -> "S" + id;
+            };
+            sb.append(name).append(';').append(i % 1990 / 10 - 99).append('.').append(i % 10).append('\n');
+        }
+        Path file = write(sb.toString());
+        StationFilter filter = StationFilter.prefix("Station-1");
+        try (AggregationEngine engine = new AggregationEngine(3)) {
+            String expected = CalculateAverage_jeroen.format(engine.calculate(file));
+            String expectedFiltered = CalculateAverage_jeroen.format(engine.calculate(List.of(file), filter, null));
+
+            engine.buildIndex(file);
+            StationIndex index = StationIndex.load(file);
+            assertNotNull(index);
+            assertTrue(index.hasDictionary(), index.toString());
+            assertEquals(613, index.stations());
+
+            RunProfile profile = new RunProfile();
+            assertEquals(expected, CalculateAverage_jeroen.format(engine.calculate(List.of(file), profile)));
+            // Lenient parsing keeps its own scan loop and uses the line starts only.
+            assertEquals(LenientScanner.MODE == LenientScanner.Mode.STRICT ? "dictionary" : "offsets", profile.index());
+            RunProfile filtered = new RunProfile();
+            assertEquals(expectedFiltered, CalculateAverage_jeroen.format(engine.calculate(List.of(file), filter, filtered)));
+            assertEquals("offsets", filtered.index());
+
+            // Line starts: monotonic, each one right after a '\n' (or 0 / end of file).
+            byte[] bytes = Files.readAllBytes(file);
+            long previous = 0;
+            for (long pos = 0; pos <= bytes.length + 10; pos += 997) {
+                long start = index.lineStartAtOrAfter(pos);
+                assertTrue(start >= previous && start <= bytes.length);
+                assertTrue(start == 0 || start == bytes.length || bytes[(int) start - 1] == '\n', "offset " + start);
+                previous = start;
+            }
+        }
+    }
+
+    @Test
+    void staleAndDamagedSidecarsAreNotUsed() throws Exception {
+        Path file = write("Hamburg;12.0\nBulawayo;8.9\n".repeat(30_000));
+        try (AggregationEngine engine = new AggregationEngine(2)) {
+            engine.buildIndex(file);
+            assertNotNull(StationIndex.load(file));
+
+            // Same size and modification time, different bytes at the start.
+            FileTime modified = Files.getLastModifiedTime(file);
+            byte[] bytes = Files.readAllBytes(file);
+            bytes[0] = 'h';
+            Files.write(file, bytes);
+            Files.setLastModifiedTime(file, modified);
+            assertNull(StationIndex.load(file));
+
+            // Appended rows, including a station the dictionary does not know.
+            engine.buildIndex(file);
+            Files.writeString(file, "Oslo;-3.0\n", StandardOpenOption.APPEND);
+            assertNull(StationIndex.load(file));
+            RunProfile profile = new RunProfile();
+            assertEquals("{Bulawayo=8.9/8.9/8.9, Hamburg=12.0/12.0/12.0, Oslo=-3.0/-3.0/-3.0, hamburg=12.0/12.0/12.0}",
+                    CalculateAverage_jeroen.format(engine.calculate(List.of(file), profile)));
+            assertEquals("none", profile.index());
+
+            // Directories and globs leave sidecars out of the dataset.
+            engine.buildIndex(file);
+            assertEquals(List.of(file), CalculateAverage_jeroen.expandInput(file.getParent() + "/" + file.getFileName() + "*"));
+
+            // Damaged sidecars are never half-used: load fails, and runs go without the index.
+            Path sidecar = StationIndex.sidecarOf(file);
+            byte[] index = Files.readAllBytes(sidecar);
+            index[index.length - 1] ^= 1;
+            Files.write(sidecar, index);
+            IOException e = assertThrows(IOException.class, () -> StationIndex.load(file));
+            assertTrue(e.getMessage().contains("checksum mismatch"), e.getMessage());
+            profile = new RunProfile();
+            assertEquals("{Bulawayo=8.9/8.9/8.9, Hamburg=12.0/12.0/12.0, Oslo=-3.0/-3.0/-3.0, hamburg=12.0/12.0/12.0}",
+                    CalculateAverage_jeroen.format(engine.calculate(List.of(file), profile)));
+            assertEquals("none", profile.index());
+            Files.delete(sidecar);
+        }
+    }
+
+    @Test
+    void unknownNamesGoToTheWorkerTable() throws Exception {
+        Path file = write("Alpha;1.0\nBeta-with-a-name-longer-than-thirty-two-bytes;2.0\n");
+        try (AggregationEngine engine = new AggregationEngine(1)) {
+            StationIndex index = StationIndex.build(engine, file);
+            assertEquals(2, index.stations());
+
+            // Padded so the SWAR loop runs before the tail goes to processChunkSafe.
+            String rows = "Alpha;3.0\nGamma;-1.5\nBeta-with-a-name-longer-than-thirty-two-bytes;-2.0\nAlphb;4.0\n".repeat(20);
+            byte[] bytes = rows.getBytes(StandardCharsets.UTF_8);
+            StationTable table = new StationTable();
+            IndexedTable dict = new IndexedTable(index, table);
+            try (Arena arena = Arena.ofConfined()) {
+                MemorySegment segment = arena.allocate(bytes.length + 64);
+                MemorySegment.copy(MemorySegment.ofArray(bytes), 0, segment, 0, bytes.length);
+                CalculateAverage_jeroen.processChunkIndexed(segment.address(), segment.address() + bytes.length, dict);
+            }
+            dict.drain();
+            assertEquals("{Alpha=3.0/3.0/3.0, Alphb=4.0/4.0/4.0, Beta-with-a-name-longer-than-thirty-two-bytes=-2.0/-2.0/-2.0, Gamma=-1.5/-1.5/-1.5}",
+                    CalculateAverage_jeroen.format(CalculateAverage_jeroen.toStatsMap(table)));
+            table.free();
+        }
+    }
+
+    @Test
+    void perfectHashPutsEveryStationInItsOwnSlot() throws Exception {
+        StringBuilder sb = new StringBuilder();
+        for (int i = 0; i < 10_000; i++) {
+            sb.append("Station ").append(i).append(';').append(i % 100).append(".0\n");
+        }
+        Path file = write(sb.toString());
+        try (AggregationEngine engine = new AggregationEngine(2)) {
+            engine.buildIndex(file);
+            StationIndex index = StationIndex.load(file);
+            assertTrue(index.hasDictionary(), index.toString());
+            Set<Integer> slots = new HashSet<>();
+            for (int i = 0; i < index.stations(); i++) {
+                int slot = index.slotOf(index.key(i));
+                assertTrue(slot >= 0 && slot < 1 << index.slotBits());
+                assertTrue(slots.add(slot), "slot " + slot + " taken twice");
+            }
+            // At most 16 slots per station, the cost of a preloaded per-worker table.
+            assertTrue(1 << index.slotBits() <= 16 * index.stations(), index.toString());
+        }
+    }
+
+    private static Path write(String content) throws Exception {
+        Path dir = Files.createTempDirectory("1brc-index");
+        Path file = dir.resolve("measurements.txt");
+        Files.writeString(file, content);
+        return file;
+    }
+}
@@ -0,0 +1,247 @@
+package dev.morling.onebrc;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.junit.jupiter.api.Assumptions.assumeTrue;
+
+import java.lang.foreign.Arena;
+import java.lang.foreign.MemorySegment;
+import java.lang.foreign.ValueLayout;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.junit.jupiter.api.Test;
+
+class StationTableTest {
+
+    @Test
+    void growsPastInitialCapacityWithoutLosingEntries() {
+        int distinct = StationTable.INITIAL_CAPACITY * 5;
+        StationTable table = new StationTable();
+        try (Arena arena = Arena.ofConfined()) {
+            for (int round = 0; round < 2; round++) {
+                for (int i = 0; i < distinct; i++) {
+                    accumulate(arena, table, name(i), i % 100);
+                }
+            }
+        }
+
+        assertTrue(table.capacity() >= distinct * 2, "load factor kept at or below 50%");
+        Map<String, Long> counts = collectCounts(table);
+        assertEquals(distinct, counts.size());
+        for (int i = 0; i < distinct; i++) {
+            assertEquals(2L, counts.get(name(i)), name(i));
+        }
+        table.free();
+    }
+
+    @Test
+    void mergeKeepsNamesOnlySeenByOtherTable() {
+        StationTable a = new StationTable();
+        StationTable b = new StationTable();
+        try (Arena arena = Arena.ofConfined()) {
+            accumulate(arena, a, "Shared", 10);
+            accumulate(arena, b, "Shared", -10);
+            for (int i = 0; i < 3000; i++) {
+                accumulate(arena, b, name(i), 5);
+            }
+        }
+
+        a.mergeFrom(b);
+
+        Map<String, Long> counts = collectCounts(a);
+        assertEquals(3001, counts.size());
+        assertEquals(2L, counts.get("Shared"));
+        assertEquals(1L, counts.get(name(2999)));
+        a.free();
+        b.free();
+    }
+
+    @Test
+    void everyModeGivesTheSameEntries() throws Exception {
+        // Every length from 1 to 70 bytes, names that differ only in their last byte, in the bytes
+        // a LONG table keeps in its arena, and pairs with the same XOR-folded hash and length
+        // (swapped words), all followed by ';' and digits as in real input.
+        StringBuilder sb = new StringBuilder();
+        for (int round = 0; round < 40; round++) {
+            for (int len = 1; len <= 70; len++) {
+                String base = "abcdefghijklmnopqrstuvwxyz0123456789ABCDEFGHIJKLMNOPQRSTUVWXYZ-_+=~:!?".substring(0, len);
+                for (String name : new String[]{ base, base.substring(0, len - 1) + '#' }) {
+                    sb.append(name).append(';').append((round * 7 + len) % 199 - 99).append(".").append(len % 10).append('\n');
+                }
+            }
+            for (String name : new String[]{ "AAAAAAAABBBBBBBB", "BBBBBBBBAAAAAAAA", "AAAAAAAABBBBBBBBCCCCCCCCDDDDDDDDEEEEEEEE",
+                    "AAAAAAAABBBBBBBBCCCCCCCCEEEEEEEEDDDDDDDD", "Zürich Flughafen und Umgebung, Kanton Zürich" }) {
+                sb.append(name).append(';').append(round).append(".5\n");
+            }
+        }
+        byte[] data = sb.toString().getBytes(StandardCharsets.UTF_8);
+
+        String expected = null;
+        byte[] expectedSnapshot = null;
+        try (Arena arena = Arena.ofConfined()) {
+            MemorySegment segment = arena.allocate(data.length + 64L);
+            MemorySegment.copy(data, 0, segment, ValueLayout.JAVA_BYTE, 0, data.length);
+            for (StationTable.Mode mode : new StationTable.Mode[]{ StationTable.Mode.GENERAL, StationTable.Mode.SHORT, StationTable.Mode.LONG }) {
+                StationTable table = new StationTable();
+                table.setMode(mode);
+                CalculateAverage_jeroen.processChunkSwar(segment.address(), segment.address() + data.length, table);
+                assertEquals(145, table.size(), mode.name());
+                String result = CalculateAverage_jeroen.format(CalculateAverage_jeroen.toStatsMap(table));
+                // Snapshots hold the same slot bytes whatever the mode.
+                Path snapshot = Files.createTempFile("1brc-table", ".snap");
+                TableSnapshot.write(table, snapshot);
+                byte[] bytes = Files.readAllBytes(snapshot);
+                if (expected == null) {
+                    expected = result;
+                    expectedSnapshot = bytes;
+                }
+                assertEquals(expected, result, mode.name());
+                assertArrayEquals(expectedSnapshot, bytes, mode.name());
+
+                // Merging across modes, both ways.
+                StationTable other = new StationTable();
+                other.setMode(mode == StationTable.Mode.LONG ? StationTable.Mode.GENERAL : StationTable.Mode.LONG);
+                other.mergeFrom(table);
+                CalculateAverage_jeroen.processChunkSwar(segment.address(), segment.address() + data.length, other);
+                table.mergeFrom(other);
+                assertEquals(145, table.size(), mode.name());
+                other.free();
+
+                assertThrows(IllegalStateException.class, () -> table.setMode(mode == StationTable.Mode.SHORT ? StationTable.Mode.LONG : StationTable.Mode.SHORT));
+                table.reset();
+                assertEquals(StationTable.Mode.GENERAL, table.mode());
+                table.free();
+            }
+        }
+    }
+
+    @Test
+    void collidingNamesReseedTheTable() throws Exception {
+        // 2,000 names of two words with the same XOR, so the scan hash puts them all on one slot.
+        int distinct = 2_000;
+        StringBuilder sb = new StringBuilder();
+        for (int round = 0; round < 3; round++) {
+            for (int i = 0; i < distinct; i++) {
+                sb.append(collidingName(i)).append(';').append(round).append(".5\n");
+            }
+        }
+        byte[] data = sb.toString().getBytes(StandardCharsets.UTF_8);
+        byte[] first = collidingName(0).getBytes(StandardCharsets.UTF_8);
+        byte[] second = collidingName(1).getBytes(StandardCharsets.UTF_8);
+        assertEquals(CalculateAverage_jeroen.hashName(first, first.length), CalculateAverage_jeroen.hashName(second, second.length));
+
+        try (Arena arena = Arena.ofConfined()) {
+            MemorySegment segment = arena.allocate(data.length + 64L);
+            MemorySegment.copy(data, 0, segment, ValueLayout.JAVA_BYTE, 0, data.length);
+            long seed = StationTable.seedOf(1);
+            assertEquals(CalculateAverage_jeroen.hashName(first, first.length), CalculateAverage_jeroen.hashName(segment.address(), first.length));
+            assertEquals(CalculateAverage_jeroen.seededHash(first, first.length, seed), CalculateAverage_jeroen.seededHash(segment.address(), first.length, seed));
+            assertTrue(CalculateAverage_jeroen.seededHash(first, first.length, seed) != CalculateAverage_jeroen.seededHash(second, second.length, seed));
+
+            String expected = null;
+            for (StationTable.HashMode hashMode : StationTable.HashMode.values()) {
+                StationTable table = new StationTable();
+                table.setHashMode(hashMode);
+                CalculateAverage_jeroen.processChunkSwar(segment.address(), segment.address() + data.length, table);
+                assertEquals(distinct, table.size(), hashMode.name());
+                if (hashMode == StationTable.HashMode.FAST) {
+                    assertEquals(distinct - 1, table.maxProbe());
+                    assertEquals(0, table.reseeds());
+                }
+                else {
+                    assertTrue(table.maxProbe() <= StationTable.MAX_PROBE, hashMode + ": " + table.maxProbe());
+                    assertEquals(hashMode == StationTable.HashMode.AUTO ? 1 : 0, table.reseeds(), hashMode.name());
+                    assertTrue(table.seed() != 0);
+                }
+                String result = CalculateAverage_jeroen.format(CalculateAverage_jeroen.toStatsMap(table));
+                if (expected == null) {
+                    expected = result;
+                }
+                assertEquals(expected, result, hashMode.name());
+
+                // Snapshots and merges see the scan hash whatever the table's seed.
+                Path snapshot = Files.createTempFile("1brc-table", ".snap");
+                TableSnapshot.write(table, snapshot);
+                StationTable restored = TableSnapshot.merge(List.of(snapshot));
+                assertEquals(expected, CalculateAverage_jeroen.format(CalculateAverage_jeroen.toStatsMap(restored)));
+                StationTable fast = new StationTable();
+                fast.setHashMode(StationTable.HashMode.FAST);
+                fast.mergeFrom(table);
+                table.mergeFrom(fast);
+                restored.mergeFrom(table);
+                assertEquals(distinct, restored.size());
+                assertEquals(9L, collectCounts(restored).get(collidingName(distinct - 1)));
+                restored.reseedTo(3);
+                restored.mergeFrom(fast);
+                assertEquals(distinct, restored.size());
+                assertEquals(12L, collectCounts(restored).get(collidingName(0)));
+                fast.free();
+                restored.free();
+
+                assertThrows(IllegalStateException.class, () -> table.setHashMode(hashMode == StationTable.HashMode.FAST ? StationTable.HashMode.AUTO : StationTable.HashMode.FAST));
+                table.reset();
+                assertEquals(StationTable.HASH_MODE, table.hashMode());
+                table.free();
+            }
+        }
+    }
+
+    // Words x and x ^ 0x10 in every byte: letters a-p, then q-z and {|}~ and a backtick.
+    private static String collidingName(int i) {
+        StringBuilder x = new StringBuilder();
+        for (int b = 0; b < 8; b++) {
+            x.append((char) ('a' + ((i >>> (b * 4)) & 15)));
+        }
+        StringBuilder y = new StringBuilder();
+        for (int b = 0; b < 8; b++) {
+            y.append((char) (x.charAt(b) ^ 0x10));
+        }
+        return x.toString() + y;
+    }
+
+    @Test
+    void chooseModeFollowsNameLengths() {
+        assumeTrue(StationTable.MODE == StationTable.Mode.AUTO, "-Donebrc.table forces a mode");
+        try (Arena arena = Arena.ofConfined()) {
+            assertEquals(StationTable.Mode.SHORT, chooseMode(arena, "Oslo;1.0\nHamburg;2.0\nRome;-3.1\n"));
+            assertEquals(StationTable.Mode.GENERAL, chooseMode(arena, "Station-number-17;1.0\nStation-number-1234567;2.0\n"));
+            assertEquals(StationTable.Mode.LONG,
+                    chooseMode(arena, "Oslo;1.0\n".repeat(6) + "Llanfairpwllgwyngyllgogerychwyrndrobwll;2.0\n"));
+            assertEquals(StationTable.Mode.GENERAL, chooseMode(arena, ""));
+        }
+    }
+
+    private static StationTable.Mode chooseMode(Arena arena, String lines) {
+        byte[] bytes = lines.getBytes(StandardCharsets.UTF_8);
+        MemorySegment segment = arena.allocate(bytes.length + 8L);
+        MemorySegment.copy(bytes, 0, segment, ValueLayout.JAVA_BYTE, 0, bytes.length);
+        return StationTable.chooseMode(segment.address(), segment.address() + bytes.length);
+    }
+
+    // Long enough for some names to spill past the 32-byte inline slot.
+    private static String name(int i) {
+        return "Station-" + i + "-".repeat(i % 40);
+    }
+
+    // Adds one row for name, hashed as the scan loops hash it; also used by StationHistogramsTest.
+    static void accumulate(Arena arena, StationTable table, String name, int temp) {
+        byte[] bytes = name.getBytes(StandardCharsets.UTF_8);
+        MemorySegment segment = arena.allocate(bytes.length + 8L);
+        MemorySegment.copy(bytes, 0, segment, ValueLayout.JAVA_BYTE, 0, bytes.length);
+        table.accumulate(segment.address(), bytes.length, CalculateAverage_jeroen.hashName(bytes, bytes.length), temp);
+    }
+
+    private static Map<String, Long> collectCounts(StationTable table) {
+        Map<String, Long> counts = new HashMap<>();
+        table.forEach((name, nameLen, min, max, sum, count) -> counts.put(
+                new String(name, 0, nameLen, StandardCharsets.UTF_8), count));
+        return counts;
+    }
+}
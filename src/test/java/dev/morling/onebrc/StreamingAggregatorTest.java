@@ -0,0 +1,57 @@
+package dev.morling.onebrc;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.nio.channels.Channels;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+import org.junit.jupiter.api.Test;
+
+class StreamingAggregatorTest {
+
+    @Test
+    void matchesMappedRunOnChannel() throws Exception {
+        Path file = Files.createTempFile("1brc-stream", ".txt");
+        StringBuilder sb = new StringBuilder();
+        for (int i = 0; i < 30_000; i++) {
+            sb.append("Station").append(i % 97).append(';')
+                    .append((i % 60) - 30).append('.').append(i % 10).append('\n');
+        }
+        Files.writeString(file, sb.toString(), StandardCharsets.UTF_8);
+
+        String expected = CalculateAverage_jeroen.format(CalculateAverage_jeroen.calculate(file, 4));
+        String streamed = CalculateAverage_jeroen.format(CalculateAverage_jeroen.calculate(
+                Channels.newChannel(Files.newInputStream(file)), 4));
+
+        assertEquals(expected, streamed);
+    }
+
+    @Test
+    void carriesPartialLinesAcrossSmallBuffers() throws Exception {
+        // 64-byte buffers split almost every line; last line has no trailing newline.
+        byte[] input = "Hamburg;12.0\nBulawayo;8.9\nPalembang;38.8\nHamburg;-3.4\nSt. John's;15.2\nBulawayo;1.1"
+                .getBytes(StandardCharsets.UTF_8);
+        try (AggregationEngine engine = new AggregationEngine(3)) {
+            StationTable table = StreamingAggregator.aggregate(engine,
+                    Channels.newChannel(new ByteArrayInputStream(input)), 64, 2);
+
+            assertEquals("{Bulawayo=1.1/5.0/8.9, Hamburg=-3.4/4.3/12.0, Palembang=38.8/38.8/38.8, St. John's=15.2/15.2/15.2}",
+                    CalculateAverage_jeroen.format(CalculateAverage_jeroen.toStatsMap(table)));
+            engine.releaseTable(table);
+        }
+    }
+
+    @Test
+    void rejectsLineLongerThanBuffer() {
+        byte[] input = ("x".repeat(200) + ";1.0\n").getBytes(StandardCharsets.UTF_8);
+        try (AggregationEngine engine = new AggregationEngine(2)) {
+            assertThrows(IOException.class, () -> StreamingAggregator.aggregate(engine,
+                    Channels.newChannel(new ByteArrayInputStream(input)), 64, 2));
+        }
+    }
+}
@@ -0,0 +1,93 @@
+package dev.morling.onebrc;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.jupiter.api.Test;
+
+class TableMergerTest {
+
+    @Test
+    void partitionedMergeMatchesSerialMerge() throws Exception {
+        // Overlapping name sets, several beyond the 32-byte inline prefix; the first table lacks
+        // 8,000 of the 20,000 names, so the leftover tables are exercised as well.
+        List<Path> files = new ArrayList<>();
+        for (int f = 0; f < 5; f++) {
+            Path file = Files.createTempFile("1brc-merge", ".txt");
+            StringBuilder sb = new StringBuilder();
+            for (int i = 0; i < 12_000; i++) {
+                int id = (i * 7 + f * 3_000) % 20_000;
+                sb.append("City").append(id).append("-").append("w".repeat(id % 41)).append(';')
+                        .append((i % 199) - 99).append('.').append((i + f) % 10).append('\n');
+            }
+            Files.writeString(file, sb, StandardCharsets.UTF_8);
+            files.add(file);
+        }
+        // A table that never grew: partitions are striped over the smallest capacity.
+        Path small = Files.createTempFile("1brc-merge-small", ".txt");
+        Files.writeString(small, "City7-wwwwwww;1.5\nCity19999-" + "w".repeat(19999 % 41) + ";-3.0\nOnlyHere;2.0\n",
+                StandardCharsets.UTF_8);
+        files.add(small);
+
+        try (AggregationEngine engine = new AggregationEngine(3)) {
+            String serial = format(engine, TableMerger.merge(engine, perFileTables(engine, files), TableMerger.Mode.SERIAL));
+            StationTable[] tables = perFileTables(engine, files);
+            assertTrue(TableMerger.usesPartitions(TableMerger.Mode.AUTO, tables, engine.workers()));
+            StationTable partitioned = TableMerger.merge(engine, tables, TableMerger.Mode.PARTITIONED);
+            assertEquals(20_001, partitioned.size());
+
+            // The merged table must stay a valid hash table: merging into it again only updates.
+            StationTable again = engine.aggregateMapped(List.of(files.getFirst()), 0, null);
+            partitioned.mergeFrom(again);
+            engine.releaseTable(again);
+            assertEquals(20_001, partitioned.size());
+            StationTable expected = engine.aggregateMapped(files, 0, null);
+            StationTable first = engine.aggregateMapped(List.of(files.getFirst()), 0, null);
+            expected.mergeFrom(first);
+            engine.releaseTable(first);
+            assertEquals(format(engine, expected), format(engine, partitioned));
+
+            assertEquals(format(engine, engine.aggregateMapped(files, 0, null)), serial);
+        }
+    }
+
+    @Test
+    void smallOrSparseInputsStaySerial() throws Exception {
+        try (AggregationEngine engine = new AggregationEngine(4)) {
+            StationTable small = new StationTable();
+            StationTable other = new StationTable();
+            assertFalse(TableMerger.usesPartitions(TableMerger.Mode.AUTO, new StationTable[]{ small, other }, 4));
+            assertFalse(TableMerger.usesPartitions(TableMerger.Mode.PARTITIONED, new StationTable[]{ small, null }, 4));
+
+            StationTable merged = TableMerger.merge(engine, new StationTable[]{ null, small, null }, TableMerger.Mode.PARTITIONED);
+            assertEquals(0, merged.size());
+            merged.free();
+            other.free();
+        }
+    }
+
+    private static StationTable[] perFileTables(AggregationEngine engine, List<Path> files) throws Exception {
+        StationTable[] tables = new StationTable[files.size()];
+        for (int f = 0; f < files.size(); f++) {
+            tables[f] = engine.aggregateMapped(List.of(files.get(f)), 0, null);
+        }
+        return tables;
+    }
+
+    // Formats a table the engine handed out and returns it to the engine.
+    private static String format(AggregationEngine engine, StationTable table) {
+        try {
+            return CalculateAverage_jeroen.format(CalculateAverage_jeroen.toStatsMap(table));
+        }
+        finally {
+            engine.releaseTable(table);
+        }
+    }
+}
@@ -0,0 +1,148 @@
+package dev.morling.onebrc;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+
+import org.junit.jupiter.api.Test;
+
+import dev.morling.onebrc.CalculateAverage_jeroen.Stats;
+
+class TableSnapshotTest {
+
+    @Test
+    void mergedSnapshotsMatchAggregatingAllInputs() throws Exception {
+        // Three "daily" files over overlapping stations, with names past the 32-byte inline
+        // prefix and multi-byte characters.
+        List<Path> days = new ArrayList<>();
+        for (int day = 0; day < 3; day++) {
+            StringBuilder sb = new StringBuilder();
+            for (int i = 0; i < 20_000; i++) {
+                int id = (i * 7919 + day * 101) % (300 + day * 50);
+                sb.append(id % 5 == 0 ? "Zürich-" : "Station-").append(id).append("y".repeat(id % 40))
+                        .append(';').append((i * 31 + day) % 1990 / 10 - 99).append('.').append(i % 10).append('\n');
+            }
+            days.add(write(sb.toString().getBytes(StandardCharsets.UTF_8)));
+        }
+
+        try (AggregationEngine engine = new AggregationEngine(3)) {
+            List<Path> snapshots = new ArrayList<>();
+            for (Path day : days) {
+                Path snapshot = Files.createTempFile("1brc-snapshot", ".bin");
+                engine.writeSnapshot(List.of(day), null, snapshot);
+                snapshots.add(snapshot);
+
+                // A snapshot loads back into the table it was written from.
+                StationTable loaded = TableSnapshot.load(snapshot);
+                assertEquals(format(engine.calculate(day)), format(CalculateAverage_jeroen.toStatsMap(loaded)));
+                loaded.free();
+            }
+            assertEquals(format(engine.calculate(days)), format(engine.mergeSnapshots(snapshots)));
+
+            // Merging into a table that already holds entries adds to them.
+            StationTable table = TableSnapshot.load(snapshots.get(0));
+            TableSnapshot.loadInto(snapshots.get(0), table);
+            StationTable twice = engine.aggregateMapped(List.of(days.get(0), days.get(0)), 0, null);
+            assertEquals(format(CalculateAverage_jeroen.toStatsMap(twice)), format(CalculateAverage_jeroen.toStatsMap(table)));
+            engine.releaseTable(twice);
+            table.free();
+        }
+    }
+
+    @Test
+    void sameAggregatesGiveSameBytes() throws Exception {
+        StringBuilder sb = new StringBuilder();
+        for (int i = 0; i < 50_000; i++) {
+            sb.append("Name-").append(i % 777).append(';').append(i % 100).append(".5\n");
+        }
+        Path input = write(sb.toString().getBytes(StandardCharsets.UTF_8));
+        byte[] first = null;
+        for (int workers : new int[]{ 1, 4 }) {
+            try (AggregationEngine engine = new AggregationEngine(workers)) {
+                Path snapshot = Files.createTempFile("1brc-snapshot", ".bin");
+                engine.writeSnapshot(List.of(input), null, snapshot);
+                byte[] bytes = Files.readAllBytes(snapshot);
+                if (first == null) {
+                    first = bytes;
+                }
+                assertArrayEquals(first, bytes);
+            }
+        }
+        assertEquals(TableSnapshot.HEADER_BYTES + 777 * StationTable.ENTRY_BYTES + nameBytes(777), first.length);
+
+        // An empty table is a header only.
+        Path empty = Files.createTempFile("1brc-snapshot", ".bin");
+        StationTable table = new StationTable();
+        TableSnapshot.write(table, empty);
+        assertEquals(TableSnapshot.HEADER_BYTES, Files.size(empty));
+        TableSnapshot.loadInto(empty, table);
+        assertEquals(0, table.size());
+        table.free();
+    }
+
+    @Test
+    void rejectsDamagedAndForeignFiles() throws Exception {
+        Path snapshot = Files.createTempFile("1brc-snapshot", ".bin");
+        try (AggregationEngine engine = new AggregationEngine(1)) {
+            engine.writeSnapshot(List.of(write("A;1.0\nB;2.0\nA;3.0\n".getBytes(StandardCharsets.UTF_8))), null, snapshot);
+        }
+        byte[] good = Files.readAllBytes(snapshot);
+
+        byte[] magic = good.clone();
+        magic[0] = 'X';
+        assertRejected(magic, "not a station snapshot");
+        byte[] version = good.clone();
+        version[8] = 2;
+        assertRejected(version, "snapshot version 2");
+        assertRejected(Arrays.copyOf(good, good.length - 1), "does not match its header");
+        assertRejected(new byte[10], "not a station snapshot");
+        byte[] flipped = good.clone();
+        flipped[flipped.length - 1] ^= 1;
+        assertRejected(flipped, "checksum mismatch");
+
+        // A failed load leaves the target table alone.
+        StationTable table = TableSnapshot.load(snapshot);
+        Path bad = write(flipped);
+        assertThrows(IOException.class, () -> TableSnapshot.loadInto(bad, table));
+        assertEquals("{A=1.0/2.0/3.0, B=2.0/2.0/2.0}", format(CalculateAverage_jeroen.toStatsMap(table)));
+        table.free();
+
+        StationTable extended = new StationTable(StationTable.INITIAL_CAPACITY, true);
+        assertThrows(IllegalArgumentException.class, () -> TableSnapshot.write(extended, snapshot));
+        extended.free();
+    }
+
+    private static void assertRejected(byte[] content, String message) throws Exception {
+        Path file = write(content);
+        IOException e = assertThrows(IOException.class, () -> TableSnapshot.load(file));
+        assertTrue(e.getMessage().contains(message), e.getMessage());
+    }
+
+    private static String format(Map<String, Stats> result) {
+        return CalculateAverage_jeroen.format(result);
+    }
+
+    private static long nameBytes(int names) {
+        long total = 0;
+        for (int i = 0; i < names; i++) {
+            total += ("Name-" + i).length();
+        }
+        return total;
+    }
+
+    private static Path write(byte[] content) throws Exception {
+        Path file = Files.createTempFile("1brc-snapshot", ".txt");
+        Files.write(file, content);
+        return file;
+    }
+}
@@ -0,0 +1,83 @@
+package dev.morling.onebrc;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assumptions.assumeTrue;
+
+import java.lang.foreign.Arena;
+import java.lang.foreign.MemorySegment;
+import java.nio.charset.StandardCharsets;
+import java.util.Map;
+
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+
+class VectorScannerTest {
+
+    @BeforeAll
+    static void requireVectorModule() {
+        assumeTrue(ModuleLayer.boot().findModule("jdk.incubator.vector").isPresent(),
+                "run with --add-modules jdk.incubator.vector");
+    }
+
+    @Test
+    void matchesSwarForEveryNameLength() {
+        // 1..100-byte names put the ';' in every lane of the first and later vectors.
+        StringBuilder sb = new StringBuilder();
+        for (int i = 0; i < 20_000; i++) {
+            int len = 1 + i % 100;
+            sb.append(Character.toString('a' + i % 26).repeat(len - 1)).append((char) ('A' + i % 7)).append(';')
+                    .append((i % 200) - 100).append('.').append(i % 10).append('\n');
+        }
+        byte[] data = sb.toString().getBytes(StandardCharsets.UTF_8);
+
+        try (Arena arena = Arena.ofConfined()) {
+            MemorySegment segment = arena.allocate(data.length);
+            MemorySegment.copy(MemorySegment.ofArray(data), 0, segment, 0, data.length);
+            long start = segment.address();
+            long end = start + data.length;
+
+            StationTable swar = new StationTable();
+            StationTable vector = new StationTable();
+            CalculateAverage_jeroen.processChunkSwar(start, end, swar);
+            VectorScanner.processChunk(segment, start, end, vector);
+            Map<String, CalculateAverage_jeroen.Stats> expected = CalculateAverage_jeroen.toStatsMap(swar);
+            assertEquals(CalculateAverage_jeroen.format(expected),
+                    CalculateAverage_jeroen.format(CalculateAverage_jeroen.toStatsMap(vector)));
+
+            // Same hash on both paths: merging must land on the existing slots, not add duplicates.
+            swar.mergeFrom(vector);
+            assertEquals(expected.size(), swar.size());
+            swar.free();
+            vector.free();
+        }
+    }
+
+    @Test
+    void namePastTheSegmentFallsBackToTheScalarTail() {
+        // A 300-byte name ending just before the margin: its vector loads would leave the segment.
+        StringBuilder sb = new StringBuilder();
+        for (int i = 0; i < 100; i++) {
+            sb.append("Station").append(i % 13).append(';').append(i % 50).append(".5\n");
+        }
+        sb.append("L".repeat(300)).append(";1.0\n");
+        sb.append("A;2.0\n");
+        byte[] data = sb.toString().getBytes(StandardCharsets.UTF_8);
+
+        try (Arena arena = Arena.ofConfined()) {
+            // Exactly the data, no slack behind it.
+            MemorySegment segment = arena.allocate(data.length);
+            MemorySegment.copy(MemorySegment.ofArray(data), 0, segment, 0, data.length);
+            long start = segment.address();
+            long end = start + data.length;
+
+            StationTable expected = new StationTable();
+            StationTable vector = new StationTable();
+            CalculateAverage_jeroen.processChunkSafe(start, end, expected);
+            VectorScanner.processChunk(segment, start, end, vector);
+            assertEquals(CalculateAverage_jeroen.format(CalculateAverage_jeroen.toStatsMap(expected)),
+                    CalculateAverage_jeroen.format(CalculateAverage_jeroen.toStatsMap(vector)));
+            expected.free();
+            vector.free();
+        }
+    }
+}
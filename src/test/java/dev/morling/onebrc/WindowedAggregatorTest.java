@@ -0,0 +1,67 @@
+package dev.morling.onebrc;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+
+import org.junit.jupiter.api.Test;
+
+class WindowedAggregatorTest {
+
+    @Test
+    void matchesWholeFileMapping() throws Exception {
+        // Smallest window (one CHUNK_SIZE slice) over several files: every slice remaps, and
+        // window starts land at unaligned offsets one byte before the slice.
+        Path a = Files.createTempFile("1brc-window-a", ".txt");
+        Path b = Files.createTempFile("1brc-window-b", ".txt");
+        Files.writeString(a, measurements(3 * CalculateAverage_jeroen.CHUNK_SIZE + 12_345, 0), StandardCharsets.UTF_8);
+        Files.writeString(b, measurements(CalculateAverage_jeroen.CHUNK_SIZE / 3, 7), StandardCharsets.UTF_8);
+
+        try (AggregationEngine engine = new AggregationEngine(3)) {
+            CalculateAverage_jeroen.RunProfile profile = new CalculateAverage_jeroen.RunProfile();
+            String windowed = format(engine.aggregateMapped(List.of(a, b), 1, profile));
+            String whole = format(engine.aggregateMapped(List.of(a, b), 0, null));
+
+            assertEquals(whole, windowed);
+            assertEquals(CalculateAverage_jeroen.CHUNK_SIZE, profile.mmapWindow());
+        }
+    }
+
+    @Test
+    void rejectsLineLongerThanWindowTail() throws Exception {
+        Path file = Files.createTempFile("1brc-window-long", ".txt");
+        // The long line starts just before the first window ends and runs past its tail.
+        String head = measurements(CalculateAverage_jeroen.CHUNK_SIZE, 0);
+        head = head.substring(0, head.lastIndexOf('\n', CalculateAverage_jeroen.CHUNK_SIZE - 10) + 1);
+        String huge = "x".repeat(2 * WindowedAggregator.WINDOW_TAIL) + ";1.0\n";
+        Files.writeString(file, head + huge + measurements(1_000, 3), StandardCharsets.UTF_8);
+
+        try (AggregationEngine engine = new AggregationEngine(2)) {
+            assertThrows(IOException.class, () -> engine.aggregateMapped(
+                    List.of(file), CalculateAverage_jeroen.CHUNK_SIZE, null));
+        }
+    }
+
+    private static String measurements(int minBytes, int seed) {
+        StringBuilder sb = new StringBuilder(minBytes + 64);
+        for (int i = seed; sb.length() < minBytes; i++) {
+            sb.append("Place").append(i % 71).append("-").append("y".repeat(i % 19)).append(';')
+                    .append((i % 90) - 45).append('.').append(i % 10).append('\n');
+        }
+        return sb.toString();
+    }
+
+    private static String format(StationTable table) {
+        try {
+            return CalculateAverage_jeroen.format(CalculateAverage_jeroen.toStatsMap(table));
+        }
+        finally {
+            table.free();
+        }
+    }
+}